@@ -0,0 +1,179 @@
+/*
+ * SyntheticData.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package benchmark.dr;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.math.MathUtils;
+
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reproducible synthetic inputs for the benchmarks: coalescent trees and alignments simulated
+ * down them, of any size, generated from a fixed seed so that every run measures the same work.
+ */
+public final class SyntheticData {
+
+    public static final long DEFAULT_SEED = 666;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Silences BEAST's informational logging which would otherwise interleave with the benchmark output.
+     */
+    public static void quietLogging() {
+        Logger.getLogger("dr").setLevel(Level.WARNING);
+    }
+
+    public static Taxa createTaxa(int taxonCount) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < taxonCount; i++) {
+            taxa.addTaxon(new Taxon("taxon" + (i + 1)));
+        }
+        return taxa;
+    }
+
+    /**
+     * Simulates a tree under a constant size coalescent.
+     *
+     * @param taxonCount the number of tips
+     * @param popSize    the population size (tree height scales with this)
+     * @param seed       the random number seed
+     * @return the tree
+     */
+    public static Tree createTree(int taxonCount, double popSize, long seed) {
+        MathUtils.setSeed(seed);
+
+        ConstantPopulation demographic = new ConstantPopulation(Units.Type.YEARS);
+        demographic.setN0(popSize);
+
+        return new CoalescentSimulator().simulateTree(createTaxa(taxonCount), demographic);
+    }
+
+    public static TreeModel createTreeModel(int taxonCount, double popSize, long seed) {
+        return new DefaultTreeModel("treeModel", createTree(taxonCount, popSize, seed));
+    }
+
+    /**
+     * Simulates a nucleotide alignment down the tree under the Jukes-Cantor model.
+     *
+     * @param tree        the tree (branch lengths in expected substitutions per site)
+     * @param siteCount   the number of sites
+     * @param seed        the random number seed
+     * @return the alignment
+     */
+    public static SimpleAlignment createAlignment(Tree tree, int siteCount, long seed) {
+        Random random = new Random(seed);
+
+        int[][] states = new int[tree.getNodeCount()][siteCount];
+        NodeRef root = tree.getRoot();
+        for (int i = 0; i < siteCount; i++) {
+            states[root.getNumber()][i] = random.nextInt(4);
+        }
+        evolve(tree, root, states, random);
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            NodeRef tip = tree.getExternalNode(i);
+            alignment.addSequence(new Sequence(tree.getNodeTaxon(tip), Nucleotides.INSTANCE, states[tip.getNumber()]));
+        }
+        return alignment;
+    }
+
+    private static void evolve(Tree tree, NodeRef node, int[][] states, Random random) {
+        for (int i = 0; i < tree.getChildCount(node); i++) {
+            NodeRef child = tree.getChild(node, i);
+            double length = tree.getNodeHeight(node) - tree.getNodeHeight(child);
+            double pChange = 0.75 * (1.0 - Math.exp(-4.0 * length / 3.0));
+
+            int[] parentStates = states[node.getNumber()];
+            int[] childStates = states[child.getNumber()];
+            for (int j = 0; j < parentStates.length; j++) {
+                if (random.nextDouble() < pChange) {
+                    childStates[j] = (parentStates[j] + 1 + random.nextInt(3)) % 4;
+                } else {
+                    childStates[j] = parentStates[j];
+                }
+            }
+
+            evolve(tree, child, states, random);
+        }
+    }
+
+    /**
+     * Creates a NEXUS trees block holding treeCount trees simulated with consecutive seeds.
+     */
+    public static String createNexusTrees(int taxonCount, int treeCount, long seed) {
+        StringBuilder sb = new StringBuilder("#NEXUS\n\nBegin trees;\n");
+        for (int i = 0; i < treeCount; i++) {
+            Tree tree = createTree(taxonCount, 1.0, seed + i);
+            sb.append("\ttree STATE_").append(i).append(" = [&R] ");
+            sb.append(TreeUtils.newick(tree)).append("\n");
+        }
+        sb.append("End;\n");
+        return sb.toString();
+    }
+
+    /**
+     * Picks a random internal, non-root node and returns a new height for it drawn uniformly
+     * between its oldest child and its parent so that the tree stays valid.
+     *
+     * @return the node number in the first element and the height in the second
+     */
+    public static double[] proposeNodeHeight(Tree tree, Random random) {
+        int internalCount = tree.getInternalNodeCount();
+        NodeRef node;
+        do {
+            node = tree.getInternalNode(random.nextInt(internalCount));
+        } while (tree.isRoot(node));
+
+        double lower = 0.0;
+        for (int i = 0; i < tree.getChildCount(node); i++) {
+            lower = Math.max(lower, tree.getNodeHeight(tree.getChild(node, i)));
+        }
+        double upper = tree.getNodeHeight(tree.getParent(node));
+
+        return new double[]{node.getNumber(), lower + random.nextDouble() * (upper - lower)};
+    }
+}
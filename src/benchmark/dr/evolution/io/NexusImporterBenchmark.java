@@ -0,0 +1,78 @@
+/*
+ * NexusImporterBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package benchmark.dr.evolution.io;
+
+import benchmark.dr.SyntheticData;
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.Tree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a NEXUS trees block with NexusImporter, one tree at a time as TreeAnnotator and
+ * LogCombiner do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class NexusImporterBenchmark {
+
+    @Param({"100", "1000"})
+    public int taxonCount;
+
+    @Param({"100"})
+    public int treeCount;
+
+    private String nexus;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.quietLogging();
+
+        nexus = SyntheticData.createNexusTrees(taxonCount, treeCount, SyntheticData.DEFAULT_SEED);
+    }
+
+    @Benchmark
+    public int importTrees() throws IOException, Importer.ImportException {
+        NexusImporter importer = new NexusImporter(new StringReader(nexus));
+        int nodeCount = 0;
+        while (importer.hasTree()) {
+            Tree tree = importer.importNextTree();
+            nodeCount += tree.getNodeCount();
+        }
+        return nodeCount;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * BigFastTreeIntervalsBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package benchmark.dr.evomodel.bigfasttree;
+
+import benchmark.dr.SyntheticData;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.tree.TreeModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BigFastTreeIntervals.calculateIntervals: a full rebuild (sorting all the node heights) and the
+ * incremental update after a single node height move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class BigFastTreeIntervalsBenchmark {
+
+    @Param({"1000", "10000", "20000"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+    private BigFastTreeIntervals intervals;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.quietLogging();
+
+        treeModel = SyntheticData.createTreeModel(taxonCount, 1.0, SyntheticData.DEFAULT_SEED);
+        intervals = new BigFastTreeIntervals(treeModel);
+        random = new Random(SyntheticData.DEFAULT_SEED);
+    }
+
+    @Benchmark
+    public int fullCalculation() {
+        intervals.makeDirty();
+        intervals.calculateIntervals();
+        return intervals.getIntervalCount();
+    }
+
+    @Benchmark
+    public int nodeHeightMove() {
+        double[] move = SyntheticData.proposeNodeHeight(treeModel, random);
+        treeModel.setNodeHeight(treeModel.getNode((int) move[0]), move[1]);
+        intervals.calculateIntervals();
+        return intervals.getIntervalCount();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * CoalescentGradientBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package benchmark.dr.evomodel.coalescent;
+
+import benchmark.dr.SyntheticData;
+import dr.evomodel.coalescent.GMRFSkygridLikelihood;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The skygrid gradient with respect to the log population sizes, as used by HMC: at a fixed state and,
+ * as along an HMC trajectory, after the log population sizes change and after a single node height move
+ * (each re-evaluating the likelihood, which updates the sufficient statistics the gradient uses).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CoalescentGradientBenchmark {
+
+    @Param({"1000", "10000"})
+    public int taxonCount;
+
+    @Param({"50"})
+    public int gridPointCount;
+
+    private TreeModel treeModel;
+    private Parameter popSizeParameter;
+    private GMRFSkygridLikelihood likelihood;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.quietLogging();
+
+        treeModel = SyntheticData.createTreeModel(taxonCount, 1.0, SyntheticData.DEFAULT_SEED);
+        popSizeParameter = new Parameter.Default("skygrid.logPopSize", gridPointCount + 1, 0.0);
+
+        likelihood = GMRFSkygridLikelihoodBenchmark.createSkygrid(treeModel, popSizeParameter, gridPointCount);
+        likelihood.getLogLikelihood();
+
+        random = new Random(SyntheticData.DEFAULT_SEED);
+    }
+
+    @Benchmark
+    public double[] popSizeGradient() {
+        return likelihood.getGradientLogDensity();
+    }
+
+    /**
+     * A leapfrog step moves all the log population sizes.
+     */
+    @Benchmark
+    public double[] popSizeMoveGradient() {
+        likelihood.storeModelState();
+
+        for (int i = 0; i < popSizeParameter.getDimension(); i++) {
+            popSizeParameter.setParameterValueQuietly(i, random.nextGaussian() * 0.1);
+        }
+        popSizeParameter.fireParameterChangedEvent();
+        likelihood.getLogLikelihood();
+        double[] gradient = likelihood.getGradientLogDensity();
+
+        likelihood.restoreModelState();
+        return gradient;
+    }
+
+    @Benchmark
+    public double[] nodeHeightMoveGradient() {
+        likelihood.storeModelState();
+
+        double[] move = SyntheticData.proposeNodeHeight(treeModel, random);
+        treeModel.setNodeHeight(treeModel.getNode((int) move[0]), move[1]);
+        likelihood.getLogLikelihood();
+        double[] gradient = likelihood.getGradientLogDensity();
+
+        likelihood.restoreModelState();
+        return gradient;
+    }
+}
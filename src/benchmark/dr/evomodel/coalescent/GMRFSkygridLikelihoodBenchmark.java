@@ -0,0 +1,125 @@
+/*
+ * GMRFSkygridLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package benchmark.dr.evomodel.coalescent;
+
+import benchmark.dr.SyntheticData;
+import dr.evolution.coalescent.IntervalList;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.coalescent.GMRFSkygridLikelihood;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of the skygrid coalescent prior: from scratch, after a single node height move and
+ * after a change to one of the log population sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GMRFSkygridLikelihoodBenchmark {
+
+    @Param({"1000", "10000"})
+    public int taxonCount;
+
+    @Param({"50"})
+    public int gridPointCount;
+
+    private TreeModel treeModel;
+    private Parameter popSizeParameter;
+    private GMRFSkygridLikelihood likelihood;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.quietLogging();
+
+        treeModel = SyntheticData.createTreeModel(taxonCount, 1.0, SyntheticData.DEFAULT_SEED);
+        popSizeParameter = new Parameter.Default("skygrid.logPopSize", gridPointCount + 1, 0.0);
+
+        likelihood = createSkygrid(treeModel, popSizeParameter, gridPointCount);
+        likelihood.getLogLikelihood();
+
+        random = new Random(SyntheticData.DEFAULT_SEED);
+    }
+
+    static GMRFSkygridLikelihood createSkygrid(TreeModel treeModel, Parameter popSizeParameter, int gridPointCount) {
+        double cutOff = treeModel.getNodeHeight(treeModel.getRoot());
+
+        return new GMRFSkygridLikelihood(
+                Collections.<IntervalList>singletonList(new BigFastTreeIntervals(treeModel)),
+                popSizeParameter,
+                null,
+                new Parameter.Default("skygrid.precision", 1.0),
+                new Parameter.Default(1.0),
+                null, null,
+                false,
+                cutOff,
+                gridPointCount,
+                null,
+                new Parameter.Default(1.0));
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double nodeHeightMove() {
+        likelihood.storeModelState();
+
+        double[] move = SyntheticData.proposeNodeHeight(treeModel, random);
+        treeModel.setNodeHeight(treeModel.getNode((int) move[0]), move[1]);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+
+    @Benchmark
+    public double popSizeMove() {
+        likelihood.storeModelState();
+
+        int index = random.nextInt(popSizeParameter.getDimension());
+        popSizeParameter.setParameterValue(index, random.nextGaussian() * 0.1);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
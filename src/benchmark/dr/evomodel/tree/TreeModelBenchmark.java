@@ -0,0 +1,93 @@
+/*
+ * TreeModelBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package benchmark.dr.evomodel.tree;
+
+import benchmark.dr.SyntheticData;
+import dr.evomodel.tree.TreeModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bookkeeping cost of a TreeModel: storing and restoring its state and changing node heights
+ * (including the change events this fires).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TreeModelBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int taxonCount;
+
+    private TreeModel treeModel;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.quietLogging();
+
+        treeModel = SyntheticData.createTreeModel(taxonCount, 1.0, SyntheticData.DEFAULT_SEED);
+        random = new Random(SyntheticData.DEFAULT_SEED);
+    }
+
+    @Benchmark
+    public TreeModel storeRestore() {
+        treeModel.storeModelState();
+        treeModel.restoreModelState();
+        return treeModel;
+    }
+
+    @Benchmark
+    public TreeModel storeAccept() {
+        treeModel.storeModelState();
+        treeModel.acceptModelState();
+        return treeModel;
+    }
+
+    @Benchmark
+    public TreeModel setNodeHeight() {
+        double[] move = SyntheticData.proposeNodeHeight(treeModel, random);
+        treeModel.setNodeHeight(treeModel.getNode((int) move[0]), move[1]);
+        return treeModel;
+    }
+
+    @Benchmark
+    public TreeModel storeSetNodeHeightRestore() {
+        treeModel.storeModelState();
+        double[] move = SyntheticData.proposeNodeHeight(treeModel, random);
+        treeModel.setNodeHeight(treeModel.getNode((int) move[0]), move[1]);
+        treeModel.restoreModelState();
+        return treeModel;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * TreeDataLikelihoodBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package benchmark.dr.evomodel.treedatalikelihood;
+
+import benchmark.dr.SyntheticData;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodelxml.substmodel.HKYParser;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full and partial (single node height move) recomputation of a nucleotide TreeDataLikelihood
+ * using the pure Java likelihood delegate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class TreeDataLikelihoodBenchmark {
+
+    @Param({"100", "1000"})
+    public int taxonCount;
+
+    @Param({"1000"})
+    public int siteCount;
+
+    @Param({"4"})
+    public int categoryCount;
+
+    @Param({"1"})
+    public int threadCount;
+
+    private TreeModel treeModel;
+    private TreeDataLikelihood likelihood;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.quietLogging();
+
+        treeModel = SyntheticData.createTreeModel(taxonCount, 0.1, SyntheticData.DEFAULT_SEED);
+        SimpleAlignment alignment = SyntheticData.createAlignment(treeModel, siteCount, SyntheticData.DEFAULT_SEED);
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE,
+                new Parameter.Default(new double[]{0.25, 0.25, 0.25, 0.25}));
+        HKY hky = new HKY(new Parameter.Default(HKYParser.KAPPA, 2.0), frequencies);
+
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma", null, 1.0,
+                new Parameter.Default(0.5), categoryCount, null);
+
+        DataLikelihoodDelegate delegate = new JavaDataLikelihoodDelegate(treeModel, patterns,
+                new HomogeneousBranchModel(hky), siteRateModel, false, threadCount);
+
+        likelihood = new TreeDataLikelihood(delegate, treeModel, new DefaultBranchRateModel());
+        likelihood.getLogLikelihood();
+
+        random = new Random(SyntheticData.DEFAULT_SEED);
+    }
+
+    @Benchmark
+    public double fullRecomputation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    /**
+     * A typical MCMC proposal: store, move one node height, evaluate, restore.
+     */
+    @Benchmark
+    public double partialRecomputation() {
+        likelihood.storeModelState();
+
+        double[] move = SyntheticData.proposeNodeHeight(treeModel, random);
+        treeModel.setNodeHeight(treeModel.getNode((int) move[0]), move[1]);
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.restoreModelState();
+        return logL;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * SafeMultivariateIntegratorBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.evomodel.treedatalikelihood.continuous;
+
+import benchmark.dr.SyntheticData;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.evomodel.treedatalikelihood.continuous.cdi.SafeMultivariateActualizedWithDriftIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.SafeMultivariateIntegrator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+
+/**
+ * The post-order and pre-order traversals of the safe multivariate integrators (Brownian diffusion and
+ * Ornstein-Uhlenbeck) driven directly, without a TreeDataLikelihood, on a simulated tree with fully observed tips.
+ * <p>
+ * These are meant to be run with the GC profiler, e.g.
+ * <pre>
+ *     ant benchmark -Djmh.lib=/path/to/jmh -Dbenchmark.args="SafeMultivariateIntegrator -prof gc"
+ * </pre>
+ * The node benchmarks do a single node operation, so their gc.alloc.rate.norm is the allocation per node. For the
+ * traversals it is the allocation per pass over the taxonCount - 1 internal nodes (post-order) or the
+ * 2 * taxonCount - 2 branches (pre-order).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SafeMultivariateIntegratorBenchmark {
+
+    private static final double CORRELATION = 0.3;
+    private static final double PSEUDO_OBSERVATIONS = 0.1;
+    private static final double SELECTION_STRENGTH = 0.5;
+
+    @Param({"brownian", "ou"})
+    public String process;
+
+    @Param({"100", "1000"})
+    public int taxonCount;
+
+    @Param({"2", "8"})
+    public int dimTrait;
+
+    private ContinuousDiffusionIntegrator cdi;
+
+    private int priorBufferIndex;
+    private int rootNodeIndex;
+
+    private int[] postOrderOperations;
+    private int postOrderOperationCount;
+    private int[] rootOperation;
+
+    // [parent, node, node matrix, sibling, sibling matrix] for each branch in pre-order
+    private int[] preOrderOperations;
+    private int preOrderOperationCount;
+
+    private double[] logLikelihoods;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.quietLogging();
+
+        Tree tree = SyntheticData.createTree(taxonCount, 1.0, SyntheticData.DEFAULT_SEED);
+        final int nodeCount = tree.getNodeCount();
+
+        // one buffer per node plus one for the root prior; the branch matrices are indexed by the child node
+        priorBufferIndex = nodeCount;
+        rootNodeIndex = tree.getRoot().getNumber();
+        final int bufferCount = nodeCount + 1;
+
+        final PrecisionType precisionType = PrecisionType.FULL;
+        if (process.equals("ou")) {
+            cdi = new SafeMultivariateActualizedWithDriftIntegrator(precisionType, 1, dimTrait, dimTrait,
+                    bufferCount, 1, true);
+        } else {
+            cdi = new SafeMultivariateIntegrator(precisionType, 1, dimTrait, dimTrait, bufferCount, 1);
+        }
+
+        // an equicorrelated diffusion precision
+        double[] precision = new double[dimTrait * dimTrait];
+        for (int i = 0; i < dimTrait; i++) {
+            for (int j = 0; j < dimTrait; j++) {
+                precision[i * dimTrait + j] = (i == j ? 1.0 : CORRELATION);
+            }
+        }
+        final double logDeterminant = (dimTrait - 1) * Math.log(1.0 - CORRELATION)
+                + Math.log(1.0 + (dimTrait - 1) * CORRELATION);
+        cdi.setDiffusionPrecision(0, precision, logDeterminant);
+
+        int[] branchIndices = new int[nodeCount - 1];
+        double[] branchLengths = new double[nodeCount - 1];
+        int branchCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            NodeRef node = tree.getNode(i);
+            if (!tree.isRoot(node)) {
+                branchIndices[branchCount] = node.getNumber();
+                branchLengths[branchCount] = tree.getBranchLength(node);
+                branchCount++;
+            }
+        }
+
+        if (process.equals("ou")) {
+            double[] selectionStrength = new double[dimTrait];
+            double[] rotation = new double[dimTrait * dimTrait];
+            for (int i = 0; i < dimTrait; i++) {
+                selectionStrength[i] = SELECTION_STRENGTH;
+                rotation[i * dimTrait + i] = 1.0;
+            }
+            cdi.setDiffusionStationaryVariance(0, selectionStrength, rotation);
+            cdi.updateOrnsteinUhlenbeckDiffusionMatrices(0, branchIndices, branchLengths,
+                    new double[branchCount * dimTrait], selectionStrength, rotation, branchCount);
+        } else {
+            cdi.updateBrownianDiffusionMatrices(0, branchIndices, branchLengths,
+                    new double[branchCount * dimTrait], branchCount);
+        }
+
+        Random random = new Random(SyntheticData.DEFAULT_SEED);
+        final int dimPartial = precisionType.getPartialsDimension(dimTrait);
+
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            double[] partial = new double[dimPartial];
+            for (int j = 0; j < dimTrait; j++) {
+                partial[j] = random.nextGaussian();
+                precisionType.fillPrecisionInPartials(partial, 0, j, Double.POSITIVE_INFINITY, dimTrait);
+            }
+            precisionType.fillEffDimInPartials(partial, 0, dimTrait, dimTrait);
+            precisionType.fillNoDeterminantInPartials(partial, 0, dimTrait);
+            cdi.setPostOrderPartial(tree.getExternalNode(i).getNumber(), partial);
+        }
+
+        double[] prior = new double[dimPartial];
+        for (int j = 0; j < dimTrait; j++) {
+            precisionType.fillPrecisionInPartials(prior, 0, j, PSEUDO_OBSERVATIONS, dimTrait);
+        }
+        precisionType.fillEffDimInPartials(prior, 0, dimTrait, dimTrait);
+        cdi.setPostOrderPartial(priorBufferIndex, prior);
+
+        postOrderOperations = new int[tree.getInternalNodeCount() * OPERATION_TUPLE_SIZE];
+        postOrderOperationCount = 0;
+        addPostOrderOperations(tree, tree.getRoot());
+
+        rootOperation = new int[OPERATION_TUPLE_SIZE];
+        System.arraycopy(postOrderOperations, (postOrderOperationCount - 1) * OPERATION_TUPLE_SIZE,
+                rootOperation, 0, OPERATION_TUPLE_SIZE);
+
+        preOrderOperations = new int[(nodeCount - 1) * OPERATION_TUPLE_SIZE];
+        preOrderOperationCount = 0;
+        addPreOrderOperations(tree, tree.getRoot());
+
+        logLikelihoods = new double[1];
+
+        // the pre-order traversal needs the post-order partials
+        postOrderTraversal();
+    }
+
+    private void addPostOrderOperations(Tree tree, NodeRef node) {
+        if (!tree.isExternal(node)) {
+            NodeRef child0 = tree.getChild(node, 0);
+            NodeRef child1 = tree.getChild(node, 1);
+            addPostOrderOperations(tree, child0);
+            addPostOrderOperations(tree, child1);
+
+            int offset = postOrderOperationCount * OPERATION_TUPLE_SIZE;
+            postOrderOperations[offset] = node.getNumber();
+            postOrderOperations[offset + 1] = child0.getNumber();
+            postOrderOperations[offset + 2] = child0.getNumber();
+            postOrderOperations[offset + 3] = child1.getNumber();
+            postOrderOperations[offset + 4] = child1.getNumber();
+            postOrderOperationCount++;
+        }
+    }
+
+    private void addPreOrderOperations(Tree tree, NodeRef node) {
+        if (!tree.isExternal(node)) {
+            for (int i = 0; i < 2; i++) {
+                NodeRef child = tree.getChild(node, i);
+                NodeRef sibling = tree.getChild(node, 1 - i);
+
+                int offset = preOrderOperationCount * OPERATION_TUPLE_SIZE;
+                preOrderOperations[offset] = node.getNumber();
+                preOrderOperations[offset + 1] = child.getNumber();
+                preOrderOperations[offset + 2] = child.getNumber();
+                preOrderOperations[offset + 3] = sibling.getNumber();
+                preOrderOperations[offset + 4] = sibling.getNumber();
+                preOrderOperationCount++;
+            }
+            addPreOrderOperations(tree, tree.getChild(node, 0));
+            addPreOrderOperations(tree, tree.getChild(node, 1));
+        }
+    }
+
+    /**
+     * The post-order partials, with remainders, and the root log likelihood.
+     */
+    @Benchmark
+    public double postOrderTraversal() {
+        cdi.updatePostOrderPartials(postOrderOperations, postOrderOperationCount, 0, true, false);
+        cdi.calculateRootLogLikelihood(rootNodeIndex, priorBufferIndex, 0, logLikelihoods, false, false);
+        return logLikelihoods[0];
+    }
+
+    @Benchmark
+    public void preOrderTraversal() {
+        cdi.calculatePreOrderRoot(priorBufferIndex, rootNodeIndex, 0);
+        for (int op = 0; op < preOrderOperationCount; op++) {
+            updatePreOrderPartial(op);
+        }
+    }
+
+    /**
+     * The last post-order operation, i.e., the root.
+     */
+    @Benchmark
+    public void postOrderNode() {
+        cdi.updatePostOrderPartials(rootOperation, 1, 0, true, false);
+    }
+
+    /**
+     * The first pre-order operation, i.e., a child of the root.
+     */
+    @Benchmark
+    public void preOrderNode() {
+        updatePreOrderPartial(0);
+    }
+
+    private void updatePreOrderPartial(int op) {
+        final int offset = op * OPERATION_TUPLE_SIZE;
+        cdi.updatePreOrderPartial(preOrderOperations[offset], preOrderOperations[offset + 1],
+                preOrderOperations[offset + 2], preOrderOperations[offset + 3], preOrderOperations[offset + 4]);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * MultiDimensionalScalingCoreBenchmark.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package benchmark.dr.inference.multidimensionalscaling;
+
+import benchmark.dr.SyntheticData;
+import dr.inference.multidimensionalscaling.MassivelyParallelMDSImpl;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCore;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCoreImpl;
+import dr.inference.multidimensionalscaling.NativeMDSSingleton;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The multidimensional scaling likelihood cores: a full evaluation, a single location move and the location
+ * gradient, for the Java core run serially and on several threads and for the native core.
+ * <p>
+ * The native core needs the MDS library (see NativeMDSSingleton). If it can't be loaded the native trials
+ * are skipped: a message is printed and their benchmark methods do nothing, so their timings are not
+ * meaningful.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class MultiDimensionalScalingCoreBenchmark {
+
+    private static final int EMBEDDING_DIMENSION = 2;
+
+    @Param({"java", "native"})
+    public String coreType;
+
+    @Param({"1", "4"})
+    public int threadCount;
+
+    @Param({"500", "2000"})
+    public int locationCount;
+
+    @Param({"false", "true"})
+    public boolean truncated;
+
+    private MultiDimensionalScalingCore core;
+    private double[] locations;
+    private double[] location;
+    private double[] gradient;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticData.quietLogging();
+
+        long flags = truncated ? MultiDimensionalScalingCore.LEFT_TRUNCATION : 0;
+
+        if (coreType.equals("native")) {
+            try {
+                NativeMDSSingleton.loadLibrary();
+            } catch (UnsatisfiedLinkError error) {
+                System.err.println("The native MDS library is not available (" + error.getMessage() +
+                        ") so the native core is skipped");
+                core = null;
+                return;
+            }
+            // the native core reads its thread count from this property when it is created
+            System.setProperty("mds.threads", Integer.toString(threadCount));
+            core = new MassivelyParallelMDSImpl();
+            flags |= MultiDimensionalScalingCore.USE_NATIVE_MDS;
+        } else {
+            core = new MultiDimensionalScalingCoreImpl(threadCount);
+        }
+
+        random = new Random(SyntheticData.DEFAULT_SEED);
+
+        locations = new double[locationCount * EMBEDDING_DIMENSION];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = random.nextDouble() * 10.0;
+        }
+        double[] observations = new double[locationCount * locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            for (int j = i + 1; j < locationCount; j++) {
+                double value = random.nextDouble() * 10.0;
+                observations[i * locationCount + j] = value;
+                observations[j * locationCount + i] = value;
+            }
+        }
+
+        core.initialize(EMBEDDING_DIMENSION, locationCount, flags);
+        core.setParameters(new double[]{1.5});
+        core.setPairwiseData(observations);
+        core.updateLocation(-1, locations);
+        core.makeDirty();
+        core.calculateLogLikelihood();
+
+        location = new double[EMBEDDING_DIMENSION];
+        gradient = new double[locations.length];
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        if (core == null) {
+            return 0.0;
+        }
+        core.makeDirty();
+        return core.calculateLogLikelihood();
+    }
+
+    /**
+     * A typical MCMC proposal: store, move one location, evaluate, restore.
+     */
+    @Benchmark
+    public double locationMove() {
+        if (core == null) {
+            return 0.0;
+        }
+        core.storeState();
+
+        int index = random.nextInt(locationCount);
+        for (int k = 0; k < EMBEDDING_DIMENSION; k++) {
+            location[k] = locations[index * EMBEDDING_DIMENSION + k] + random.nextGaussian();
+        }
+        core.updateLocation(index, location);
+        double logL = core.calculateLogLikelihood();
+
+        core.restoreState();
+        return logL;
+    }
+
+    @Benchmark
+    public double[] locationGradient() {
+        if (core != null) {
+            core.getGradient(gradient);
+        }
+        return gradient;
+    }
+}
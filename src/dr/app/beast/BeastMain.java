@@ -35,10 +35,14 @@ import dr.app.plugin.Plugin;
 import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MarginalLikelihoodEstimator;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
 import dr.inference.operators.OperatorSchedule;
+import dr.inference.smc.SMC;
+import dr.inference.state.ModelScope;
 import dr.math.MathUtils;
 import dr.util.*;
 import dr.xml.XMLObjectParser;
@@ -173,7 +177,78 @@ public class BeastMain {
                 Logger.getLogger("dr.apps.beast").info("Overriding checkpointing settings in the provided XML file");
             }
 
-            if (mc3Options == null) {
+            int particleThreads = Integer.getInteger("smc.threads", 1);
+
+            if (System.getProperty("smc.particle_folder") != null && particleThreads > 1) {
+
+                SMC[] workers = new SMC[particleThreads];
+
+                Logger.getLogger("dr.apps.beast").info("Running particles on " + particleThreads + " threads");
+
+                for (int i = 0; i < particleThreads; i++) {
+                    if (i > 0) {
+                        // parse the file once for each thread, turning off all messages for subsequent reads
+                        // of the file (they will be the same as the first time).
+                        fileReader = new FileReader(inputFile);
+                        logger.setLevel(Level.OFF);
+
+                        parser = new BeastParser(new String[]{fileName}, additionalParsers, verbose, parserWarning, strictXML, version);
+
+                        PluginLoader.loadPlugins(parser);
+                    }
+
+                    // keep track of which models belong to which copy so particles are loaded into the right one
+                    ModelScope scope = ModelScope.begin();
+                    workers[i] = (SMC) parser.parse(fileReader, SMC.class);
+                    scope.end();
+                    if (workers[i] == null) {
+                        throw new dr.xml.XMLParseException("BEAST XML file is missing an SMC element");
+                    }
+                    scope.register(workers[i].getMarkovChain());
+                    fileReader.close();
+                }
+
+                // restart messages
+                logger.setLevel(Level.ALL);
+
+                workers[0].setWorkers(workers);
+                workers[0].run();
+
+            } else if (mc3Options == null) {
+
+                int mleThreads = Integer.getInteger("mle.threads", 1);
+
+                if (mleThreads > 1) {
+                    // parse the file up to the marginal likelihood estimator once for each extra thread to get
+                    // copies to run path steps on. This must be done before the file is run. The copies don't open
+                    // the log files, which are left to the main read. Turn off all messages as they will be the same
+                    // as the main read.
+                    MarginalLikelihoodEstimator[] copies = new MarginalLikelihoodEstimator[mleThreads - 1];
+
+                    logger.setLevel(Level.OFF);
+
+                    for (int i = 0; i < copies.length; i++) {
+                        FileReader copyReader = new FileReader(inputFile);
+
+                        BeastParser copyParser = new BeastParser(new String[]{fileName}, additionalParsers, verbose, parserWarning, strictXML, version);
+
+                        PluginLoader.loadPlugins(copyParser);
+
+                        ModelScope scope = ModelScope.begin();
+                        copies[i] = (MarginalLikelihoodEstimator) copyParser.parseElement(copyReader, MarginalLikelihoodEstimator.MARGINAL_LIKELIHOOD_ESTIMATOR);
+                        scope.end();
+                        if (copies[i] == null) {
+                            throw new dr.xml.XMLParseException("BEAST XML file is missing a marginalLikelihoodEstimator element");
+                        }
+                        scope.register(copies[i].getMarkovChain());
+                        copyReader.close();
+                    }
+
+                    // restart messages
+                    logger.setLevel(Level.ALL);
+
+                    MarginalLikelihoodEstimator.setConcurrentCopies(copies, ModelScope.begin());
+                }
 
                 // just parse the file running all threads...
                 parser.parse(fileReader, true);
@@ -364,6 +439,7 @@ public class BeastMain {
                         new Arguments.LongOption("seed", "Specify a random number generator seed"),
                         new Arguments.StringOption("prefix", "PREFIX", "Specify a prefix for all output log filenames"),
                         new Arguments.Option("overwrite", "Allow overwriting of log files"),
+                        new Arguments.Option("async_logging", "Format and write log files on background threads"),
                         new Arguments.IntegerOption("errors", "Specify maximum number of numerical errors before stopping"),
                         new Arguments.IntegerOption("threads", "The maximum number of computational threads to use (default auto)"),
                         new Arguments.Option("fail_threads", "Exit with error on uncaught exception in thread"),
@@ -400,6 +476,7 @@ public class BeastMain {
                         new Arguments.Option("beagle_async", "BEAGLE: use asynchronous kernels if available"),
                         new Arguments.Option("beagle_low_memory", "BEAGLE: use lower memory pre-order traversal kernels"),
                         new Arguments.StringOption("beagle_extra_buffer_count", "buffer_count", "BEAGLE: reserve extra transition matrix buffers for convolutions"),
+                        new Arguments.Option("beagle_matrix_cache", "BEAGLE: share transition matrices between branches of identical length"),
                         new Arguments.StringOption("beagle_scaling", new String[]{"default", "dynamic", "delayed", "always", "none"},
                                 false, "BEAGLE: specify scaling scheme to use"),
                         new Arguments.Option("beagle_delay_scaling_off", "BEAGLE: don't wait until underflow for scaling option"),
@@ -407,6 +484,10 @@ public class BeastMain {
                         new Arguments.Option("mpi", "Use MPI rank to label output"),
 
                         new Arguments.StringOption("particles", "FOLDER", "Specify a folder of particle start states"),
+                        new Arguments.IntegerOption("particle_threads", 1, Integer.MAX_VALUE, "number of particles to run at once, each on its own copy of the model"),
+                        new Arguments.RealOption("particle_resample", 0.0, 1.0, "resample the particles when the ESS of their weights is below this proportion of their number"),
+
+                        new Arguments.IntegerOption("mle_threads", 1, Integer.MAX_VALUE, "number of blocks of marginal likelihood path steps to run at once"),
 
                         new Arguments.IntegerOption("mc3_chains", 1, Integer.MAX_VALUE, "number of chains"),
                         new Arguments.RealOption("mc3_delta", 0.0, Double.MAX_VALUE, "temperature increment parameter"),
@@ -421,6 +502,7 @@ public class BeastMain {
                         new Arguments.LongOption("save_every", "Specify a frequency to save the state file"),
                         new Arguments.StringOption("save_state", "FILENAME", "Specify a filename to save state to"),
                         new Arguments.Option("full_checkpoint_precision", "Use hex-encoded doubles in checkpoint files"),
+                        new Arguments.Option("binary_checkpoint", "Write checkpoint files in a compact binary format"),
                         new Arguments.Option("force_resume", "Force resuming from a saved state"),
 
                         new Arguments.StringOption("citations_file", "FILENAME", "Specify a filename to write a citation list to"),
@@ -484,6 +566,14 @@ public class BeastMain {
         final boolean working = arguments.hasOption("working");
         String fileNamePrefix = null;
         boolean allowOverwrite = arguments.hasOption("overwrite");
+
+        if (arguments.hasOption("async_logging")) {
+            System.setProperty(AsyncLogWriter.ASYNCHRONOUS_LOGGING, Boolean.TRUE.toString());
+        }
+
+        if (arguments.hasOption("mle_threads")) {
+            System.setProperty("mle.threads", Integer.toString(arguments.getIntegerOption("mle_threads")));
+        }
         boolean useMPI = arguments.hasOption("mpi");
 
         long seed = MathUtils.getSeed();
@@ -502,6 +592,13 @@ public class BeastMain {
             System.setProperty("smc.particle_folder", arguments.getStringOption("particles"));
             usingSMC = true;
 
+            if (arguments.hasOption("particle_threads")) {
+                System.setProperty("smc.threads", Integer.toString(arguments.getIntegerOption("particle_threads")));
+            }
+            if (arguments.hasOption("particle_resample")) {
+                System.setProperty("smc.resample_threshold", Double.toString(arguments.getRealOption("particle_resample")));
+            }
+
             System.setProperty("mcmc.evaluation.count", Long.toString(0));
         }
 
@@ -667,6 +764,10 @@ public class BeastMain {
             System.setProperty("beagle.extra.buffer.count", arguments.getStringOption("beagle_extra_buffer_count"));
         }
 
+        if (arguments.hasOption("beagle_matrix_cache")) {
+            System.setProperty("beagle.matrix.cache", Boolean.TRUE.toString());
+        }
+
         // ============= Other settings =============
         if (arguments.hasOption("threads")) {
             // threadCount defaults to -1 unless the user specifies an option
@@ -761,6 +862,10 @@ public class BeastMain {
                 System.setProperty(BeastCheckpointer.FULL_CHECKPOINT_PRECISION, "true");
             }
 
+            if (arguments.hasOption("binary_checkpoint")) {
+                System.setProperty(BeastCheckpointer.BINARY_CHECKPOINT, "true");
+            }
+
             if (arguments.hasOption("force_resume")) {
                 System.setProperty("force.resume", Boolean.TRUE.toString());
             }
@@ -974,6 +1079,12 @@ public class BeastMain {
             System.setProperty("thread.count", String.valueOf(threadCount));
         }
 
+        if (usingMC3 && System.getProperty("beagle.thread.count") == null) {
+            // share the threads between the chains rather than giving every chain's BEAGLE
+            // instances all the available processors
+            System.setProperty("beagle.thread.count", Integer.toString(MCMCMC.getBeagleThreadsPerChain(chainTemperatures.length)));
+        }
+
         MathUtils.setSeed(seed);
 
         System.out.println("Random number seed: " + seed);
@@ -72,6 +72,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
     public final static String CHECKPOINT_SEED = "checkpoint.seed";
 
     public final static String FULL_CHECKPOINT_PRECISION = "full.checkpoint.precision";
+    public final static String BINARY_CHECKPOINT = "binary.checkpoint";
 
     private String loadStateFileName;
     private String saveStateFileName;
@@ -81,6 +82,9 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     private boolean useFullPrecision;
 
+    private boolean useBinaryFormat;
+    private final BinaryCheckpoint binaryCheckpoint = new BinaryCheckpoint();
+
     private final List<MarkovChainListener> listeners = new ArrayList<MarkovChainListener>();
 
     public static synchronized BeastCheckpointer getInstance(String checkpointFileName, int checkpointEvery, int checkpointFinal, boolean overwrite) {
@@ -127,8 +131,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
             listeners.add(new TimedStateSaverChainListener(BeastCheckpointer.this, saveSeconds));
         }
 
-        useFullPrecision = (System.getProperty(FULL_CHECKPOINT_PRECISION) != null) &&
-                System.getProperty(FULL_CHECKPOINT_PRECISION).equalsIgnoreCase("true");
+        readFormatProperties();
 
         Factory.INSTANCE = new Factory() {
             @Override
@@ -149,14 +152,23 @@ public class BeastCheckpointer implements StateLoaderSaver {
             public StateLoaderSaver getStateLoaderSaver(final File loadFile, final File saveFile) {
                 return new StateLoaderSaver() {
 
+                    // Particles may be loaded and saved by several chains at once (each with
+                    // its own ModelScope) so the checkpointer is locked while doing so. Loading a
+                    // particle leaves the random number generator alone: otherwise chains
+                    // running at the same time (or resampled copies of the same particle) would
+                    // share a random number stream.
                     @Override
                     public boolean saveState(MarkovChain markovChain, long state, double lnL) {
-                        return BeastCheckpointer.this.writeStateToFile(saveFile, state, lnL, markovChain);
+                        synchronized (BeastCheckpointer.this) {
+                            return BeastCheckpointer.this.writeStateToFile(saveFile, state, lnL, markovChain);
+                        }
                     }
 
                     @Override
                     public long loadState(MarkovChain markovChain, double[] savedLnL) {
-                        return BeastCheckpointer.this.readStateFromFile(loadFile, markovChain, savedLnL);
+                        synchronized (BeastCheckpointer.this) {
+                            return BeastCheckpointer.this.readStateFromFile(loadFile, markovChain, savedLnL, false);
+                        }
                     }
 
                     @Override
@@ -171,7 +183,15 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
     //only here for reasons of inheritance (of the CheckPointModifier class)
     protected BeastCheckpointer() {
+        readFormatProperties();
+    }
+
+    private void readFormatProperties() {
+        useFullPrecision = (System.getProperty(FULL_CHECKPOINT_PRECISION) != null) &&
+                System.getProperty(FULL_CHECKPOINT_PRECISION).equalsIgnoreCase("true");
 
+        useBinaryFormat = (System.getProperty(BINARY_CHECKPOINT) != null) &&
+                System.getProperty(BINARY_CHECKPOINT).equalsIgnoreCase("true");
     }
 
     private BeastCheckpointer getStateLoaderObject() {
@@ -266,6 +286,16 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected boolean writeStateToFile(File file, long state, double lnL, MarkovChain markovChain) {
+        if (useBinaryFormat) {
+            try {
+                binaryCheckpoint.writeState(file, state, lnL, markovChain);
+            } catch (IOException ioe) {
+                System.err.println("Unable to write file: " + ioe.getMessage());
+                return false;
+            }
+            return true;
+        }
+
         OperatorSchedule operatorSchedule = markovChain.getSchedule();
 
         OutputStream fileOut = null;
@@ -289,7 +319,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
             out.print("lnL\t");
             out.println(lnL);
 
-            for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            for (Parameter parameter : ModelScope.getParameters(markovChain)) {
                 if (!parameter.isImmutable()) {
                     out.print("parameter");
                     out.print("\t");
@@ -323,7 +353,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
             }
 
             //check up front if there are any TreeParameterModel objects
-            for (Model model : Model.CONNECTED_MODEL_SET) {
+            for (Model model : ModelScope.getModels(markovChain)) {
                 if (model instanceof TreeParameterModel) {
                     if (DEBUG) {
                         System.out.println("\nSave TreeParameterModel: " + model.getClass().getSimpleName());
@@ -332,7 +362,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
                 }
             }
 
-            for (Model model : Model.CONNECTED_MODEL_SET) {
+            for (Model model : ModelScope.getModels(markovChain)) {
 
                 if (model instanceof TreeModel) {
                     out.print("tree");
@@ -414,6 +444,19 @@ public class BeastCheckpointer implements StateLoaderSaver {
     }
 
     protected long readStateFromFile(File file, MarkovChain markovChain, double[] lnL) {
+        return readStateFromFile(file, markovChain, lnL, true);
+    }
+
+    private long readStateFromFile(File file, MarkovChain markovChain, double[] lnL, boolean restoreRandomState) {
+
+        // binary checkpoints are recognised by their magic number so either format can be loaded
+        try {
+            if (BinaryCheckpoint.isBinaryCheckpoint(file)) {
+                return BinaryCheckpoint.readState(file, markovChain, lnL, restoreRandomState);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to read file: " + ioe.getMessage());
+        }
 
         DoubleParser parser = useFullPrecision ? DoubleParser.HEX : DoubleParser.TEXT;
 
@@ -469,7 +512,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
                 throw new RuntimeException("Unable to read lnL from state file");
             }
 
-            for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+            for (Parameter parameter : ModelScope.getParameters(markovChain)) {
 
                 if (!parameter.isImmutable()) {
                     line = in.readLine();
@@ -549,7 +592,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
             //store list of TreeModels for debugging purposes
             ArrayList<TreeModel> treeModelList = new ArrayList<TreeModel>();
 
-            for (Model model : Model.CONNECTED_MODEL_SET) {
+            for (Model model : ModelScope.getModels(markovChain)) {
 
                 if (model instanceof TreeModel) {
                     if (DEBUG) {
@@ -600,7 +643,8 @@ public class BeastCheckpointer implements StateLoaderSaver {
             }
 
             line = in.readLine();
-            fields = line.split("\t");
+            // the file ends here if there are no trees
+            fields = line != null ? line.split("\t") : new String[] { "" };
             // Read in all (possibly more than one) trees
             while (fields[0].equals("tree")) {
 
@@ -608,7 +652,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
                     System.out.println("\ntree: " + fields[1]);
                 }
 
-                for (Model model : Model.CONNECTED_MODEL_SET) {
+                for (Model model : ModelScope.getModels(markovChain)) {
                     if (model instanceof TreeModel && fields[1].equals(model.getModelName())) {
                         line = in.readLine();
                         line = in.readLine();
@@ -679,13 +723,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
                         }
 
                         //adopt the loaded tree structure
-                        ((TreeModel) model).beginTreeEdit();
-                        ((TreeModel) model).adoptTreeStructure(parents, nodeHeights, childOrder, taxaNames);
-                        if (traitModels.size() > 0) {
-                            System.out.println("adopting " + traitModels.size() + " trait models to treeModel " + ((TreeModel)model).getId());
-                            ((TreeModel) model).adoptTraitData(parents, traitModels, traitValues, taxaNames);
-                        }
-                        ((TreeModel) model).endTreeEdit();
+                        adoptTree((TreeModel) model, parents, nodeHeights, childOrder, taxaNames, traitModels, traitValues);
 
                         expectedTreeModelNames.remove(model.getModelName());
 
@@ -710,7 +748,7 @@ public class BeastCheckpointer implements StateLoaderSaver {
 
             if (DEBUG) {
                 System.out.println("\nDouble checking:");
-                for (Parameter parameter : Parameter.CONNECTED_PARAMETER_SET) {
+                for (Parameter parameter : ModelScope.getParameters(markovChain)) {
                     if (parameter.getParameterName() != null && parameter.getParameterName().equals("branchRates.categories.rootNodeNumber")) {
                         System.out.println(parameter.getParameterName() + ": " + parameter.getParameterValue(0));
                     }
@@ -722,10 +760,12 @@ public class BeastCheckpointer implements StateLoaderSaver {
                 }
             }
 
-            if (System.getProperty(BeastCheckpointer.CHECKPOINT_SEED) != null) {
-                MathUtils.setSeed(Long.parseLong(System.getProperty(BeastCheckpointer.CHECKPOINT_SEED)));
-            } else if (rngState != null) {
-                MathUtils.setRandomState(rngState);
+            if (restoreRandomState) {
+                if (System.getProperty(BeastCheckpointer.CHECKPOINT_SEED) != null) {
+                    MathUtils.setSeed(Long.parseLong(System.getProperty(BeastCheckpointer.CHECKPOINT_SEED)));
+                } else if (rngState != null) {
+                    MathUtils.setRandomState(rngState);
+                }
             }
 
             in.close();
@@ -743,6 +783,20 @@ public class BeastCheckpointer implements StateLoaderSaver {
         return state;
     }
 
+    /**
+     * Sets the structure, node heights and trait values of a tree model from a saved state.
+     */
+    static void adoptTree(TreeModel treeModel, int[] parents, double[] nodeHeights, int[] childOrder, String[] taxaNames,
+                          ArrayList<TreeParameterModel> traitModels, double[][] traitValues) {
+        treeModel.beginTreeEdit();
+        treeModel.adoptTreeStructure(parents, nodeHeights, childOrder, taxaNames);
+        if (traitModels.size() > 0) {
+            System.out.println("adopting " + traitModels.size() + " trait models to treeModel " + treeModel.getId());
+            treeModel.adoptTraitData(parents, traitModels, traitValues, taxaNames);
+        }
+        treeModel.endTreeEdit();
+    }
+
     class CheckpointPrintStream extends PrintStream {
         public CheckpointPrintStream(OutputStream out) {
             super(out);
@@ -0,0 +1,656 @@
+/*
+ * BinaryCheckpoint.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package dr.app.checkpoint;
+
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.operators.AdaptableMCMCOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.state.ModelScope;
+import dr.math.MathUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary checkpoint file. The file starts with a magic number and a format version,
+ * followed by a full segment holding the complete state. Later saves to the same file append
+ * delta segments which hold the chain state, lnL, random number generator and operators but only
+ * those parameters and trees that have changed since the previous save. Each segment carries a
+ * CRC32 checksum so a segment torn by a crash while appending is detected and ignored when the
+ * file is loaded. Full segments are written to a temporary file which is atomically renamed over
+ * the checkpoint.
+ */
+final class BinaryCheckpoint {
+
+    private static final byte[] MAGIC = {'B', 'E', 'A', 'S', 'T', 'C', 'K', 'P'};
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte FULL_SEGMENT = 1;
+    private static final byte DELTA_SEGMENT = 2;
+
+    // segment type and payload length
+    private static final int SEGMENT_HEADER_SIZE = 5;
+    // CRC32 of the payload
+    private static final int SEGMENT_CHECKSUM_SIZE = 8;
+
+    public final static String MAX_DELTA_SEGMENTS = "save.state.max.deltas";
+    private static final int DEFAULT_MAX_DELTA_SEGMENTS = 32;
+
+    private static final String ROOT_NODE_NUMBER = "branchRates.categories.rootNodeNumber";
+
+    BinaryCheckpoint() {
+        maxDeltaSegments = Integer.parseInt(System.getProperty(MAX_DELTA_SEGMENTS,
+                Integer.toString(DEFAULT_MAX_DELTA_SEGMENTS)));
+    }
+
+    /**
+     * Returns true if the file starts with the binary checkpoint magic number.
+     */
+    static boolean isBinaryCheckpoint(File file) throws IOException {
+        if (!file.exists() || file.length() < MAGIC.length) {
+            return false;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(magic);
+        }
+        return Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Saves the state. If the last save was to the same file (and it has not been touched since)
+     * then only a delta segment is appended, otherwise the whole file is rewritten. The file is
+     * also rewritten once the deltas outnumber the given maximum or outgrow the full segment.
+     */
+    void writeState(File file, long state, double lnL, MarkovChain markovChain) throws IOException {
+        List<Parameter> parameters = getParameters(markovChain);
+        List<SavedTree> trees = getTrees(markovChain);
+
+        boolean isDelta = file.equals(lastFile) && file.length() == lastFileLength &&
+                deltaSegmentCount < maxDeltaSegments && deltaBytes < fullBytes &&
+                matchesSnapshot(parameters);
+
+        // if this save fails part way the next one must rewrite the whole file
+        lastFile = null;
+
+        payload.reset();
+        DataOutputStream out = new DataOutputStream(payload);
+
+        out.writeLong(state);
+        out.writeDouble(lnL);
+
+        int[] rngState = MathUtils.getRandomState();
+        out.writeInt(rngState.length);
+        for (int value : rngState) {
+            out.writeInt(value);
+        }
+
+        if (!isDelta) {
+            savedNames = new String[parameters.size()];
+            savedValues = new double[parameters.size()][];
+            savedTrees.clear();
+        }
+
+        // find the parameters that have changed since the last save (all of them for a full segment)
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < parameters.size(); i++) {
+            Parameter parameter = parameters.get(i);
+            double[] saved = savedValues[i];
+            if (saved == null) {
+                saved = new double[parameter.getDimension()];
+                savedValues[i] = saved;
+                savedNames[i] = parameter.getParameterName();
+                changed.add(i);
+                for (int dim = 0; dim < saved.length; dim++) {
+                    saved[dim] = parameter.getParameterUntransformedValue(dim);
+                }
+            } else {
+                boolean hasChanged = false;
+                for (int dim = 0; dim < saved.length; dim++) {
+                    double value = parameter.getParameterUntransformedValue(dim);
+                    if (Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(saved[dim])) {
+                        saved[dim] = value;
+                        hasChanged = true;
+                    }
+                }
+                if (hasChanged) {
+                    changed.add(i);
+                }
+            }
+        }
+
+        out.writeInt(parameters.size());
+        out.writeInt(changed.size());
+        for (int i : changed) {
+            out.writeInt(i);
+            // unnamed parameters (e.g., the columns of a matrix) are written as in the text format
+            out.writeUTF(String.valueOf(savedNames[i]));
+            out.writeInt(savedValues[i].length);
+            for (double value : savedValues[i]) {
+                out.writeDouble(value);
+            }
+        }
+
+        OperatorSchedule operatorSchedule = markovChain.getSchedule();
+        out.writeInt(operatorSchedule.getOperatorCount());
+        for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+            MCMCOperator operator = operatorSchedule.getOperator(i);
+            out.writeUTF(operator.getOperatorName());
+            out.writeLong(operator.getAcceptCount());
+            out.writeLong(operator.getRejectCount());
+            out.writeBoolean(operator instanceof AdaptableMCMCOperator);
+            if (operator instanceof AdaptableMCMCOperator) {
+                out.writeDouble(((AdaptableMCMCOperator) operator).getAdaptableParameter());
+                out.writeLong(((AdaptableMCMCOperator) operator).getAdaptationCount());
+            }
+        }
+
+        List<SavedTree> changedTrees = new ArrayList<>();
+        for (SavedTree tree : trees) {
+            if (!tree.equals(savedTrees.get(tree.name))) {
+                changedTrees.add(tree);
+                savedTrees.put(tree.name, tree);
+            }
+        }
+        out.writeInt(changedTrees.size());
+        for (SavedTree tree : changedTrees) {
+            tree.write(out);
+        }
+        out.flush();
+
+        ByteBuffer segment = createSegment(isDelta ? DELTA_SEGMENT : FULL_SEGMENT);
+
+        if (isDelta) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                writeFully(channel, segment);
+                channel.force(false);
+            }
+            deltaSegmentCount += 1;
+            deltaBytes += segment.capacity();
+        } else {
+            Path target = file.toPath().toAbsolutePath();
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4);
+                header.put(MAGIC).putInt(FORMAT_VERSION).flip();
+                writeFully(channel, header);
+                writeFully(channel, segment);
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            deltaSegmentCount = 0;
+            deltaBytes = 0;
+            fullBytes = segment.capacity();
+        }
+
+        lastFile = file;
+        lastFileLength = file.length();
+    }
+
+    /**
+     * Loads a binary checkpoint, applying the full segment and then each intact delta segment.
+     * @param restoreRandomState whether to restore the random number generator to its saved state
+     * @return the state number
+     */
+    static long readState(File file, MarkovChain markovChain, double[] lnL, boolean restoreRandomState) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Checkpoint file is too large");
+            }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading
+            }
+            buffer.flip();
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary checkpoint file");
+        }
+        int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported binary checkpoint version: " + version);
+        }
+
+        SavedState savedState = null;
+        int segmentCount = 0;
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            if (buffer.remaining() < SEGMENT_HEADER_SIZE) {
+                System.err.println("Ignoring incomplete segment at the end of checkpoint file");
+                break;
+            }
+            byte type = buffer.get();
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < length + SEGMENT_CHECKSUM_SIZE) {
+                if (savedState == null) {
+                    throw new IOException("Checkpoint file is truncated");
+                }
+                System.err.println("Ignoring incomplete segment at the end of checkpoint file");
+                break;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), buffer.position(), length);
+            if (crc.getValue() != buffer.getLong(buffer.position() + length)) {
+                if (savedState == null) {
+                    throw new IOException("Checkpoint file is corrupt (checksum mismatch)");
+                }
+                System.err.println("Ignoring corrupt segment at the end of checkpoint file");
+                break;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), buffer.position(), length));
+            if (type == FULL_SEGMENT) {
+                savedState = new SavedState();
+            } else if (type != DELTA_SEGMENT || savedState == null) {
+                throw new IOException("Unexpected segment in checkpoint file at byte " + start);
+            }
+            savedState.read(in);
+
+            buffer.position(buffer.position() + length + SEGMENT_CHECKSUM_SIZE);
+            segmentCount++;
+        }
+
+        if (savedState == null) {
+            throw new IOException("Checkpoint file contains no state");
+        }
+
+        System.out.println("Loaded binary checkpoint (" + segmentCount + " segment" + (segmentCount > 1 ? "s" : "") + ")");
+
+        return savedState.restore(markovChain, lnL, restoreRandomState);
+    }
+
+    private ByteBuffer createSegment(byte type) {
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+
+        ByteBuffer segment = ByteBuffer.allocate(SEGMENT_HEADER_SIZE + bytes.length + SEGMENT_CHECKSUM_SIZE);
+        segment.put(type).putInt(bytes.length).put(bytes).putLong(crc.getValue());
+        segment.flip();
+        return segment;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private boolean matchesSnapshot(List<Parameter> parameters) {
+        if (savedValues == null || savedValues.length != parameters.size()) {
+            return false;
+        }
+        for (int i = 0; i < parameters.size(); i++) {
+            if (savedValues[i].length != parameters.get(i).getDimension() ||
+                    !Objects.equals(savedNames[i], parameters.get(i).getParameterName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Parameter> getParameters(MarkovChain markovChain) {
+        List<Parameter> parameters = new ArrayList<>();
+        for (Parameter parameter : ModelScope.getParameters(markovChain)) {
+            if (!parameter.isImmutable()) {
+                parameters.add(parameter);
+            }
+        }
+        return parameters;
+    }
+
+    private static ArrayList<TreeParameterModel> getTraitModels(MarkovChain markovChain) {
+        ArrayList<TreeParameterModel> traitModels = new ArrayList<>();
+        for (Model model : ModelScope.getModels(markovChain)) {
+            if (model instanceof TreeParameterModel) {
+                traitModels.add((TreeParameterModel) model);
+            }
+        }
+        return traitModels;
+    }
+
+    private static List<SavedTree> getTrees(MarkovChain markovChain) {
+        List<TreeParameterModel> traitModels = getTraitModels(markovChain);
+        List<SavedTree> trees = new ArrayList<>();
+        for (Model model : ModelScope.getModels(markovChain)) {
+            if (model instanceof TreeModel) {
+                trees.add(new SavedTree((TreeModel) model, traitModels));
+            }
+        }
+        return trees;
+    }
+
+    /**
+     * The structure, node heights and trait values of a tree model, indexed by node number.
+     */
+    private static final class SavedTree {
+
+        SavedTree(TreeModel tree, List<TreeParameterModel> traitModels) {
+            name = tree.getModelName();
+            int nodeCount = tree.getNodeCount();
+
+            nodeHeights = new double[nodeCount];
+            parents = new int[nodeCount];
+            childOrder = new int[nodeCount];
+            taxaNames = new String[tree.getExternalNodeCount()];
+
+            List<TreeParameterModel> linkedModels = new ArrayList<>();
+            for (TreeParameterModel tpm : traitModels) {
+                if (tpm.getTreeModel() == tree) {
+                    linkedModels.add(tpm);
+                }
+            }
+            traitValues = new double[linkedModels.size()][nodeCount];
+
+            for (int i = 0; i < nodeCount; i++) {
+                NodeRef node = tree.getNode(i);
+                int number = node.getNumber();
+                nodeHeights[number] = tree.getNodeHeight(node);
+                if (tree.isExternal(node)) {
+                    taxaNames[number] = tree.getNodeTaxon(node).getId();
+                }
+
+                NodeRef parent = tree.getParent(node);
+                if (parent != null) {
+                    parents[number] = parent.getNumber();
+                    if (tree.getChild(parent, 0) == node) {
+                        childOrder[number] = 0;
+                    } else if (tree.getChild(parent, 1) == node) {
+                        childOrder[number] = 1;
+                    } else {
+                        throw new RuntimeException("Operation currently only supported for nodes with 2 children.");
+                    }
+                    for (int j = 0; j < linkedModels.size(); j++) {
+                        traitValues[j][number] = linkedModels.get(j).getNodeValue(tree, node);
+                    }
+                } else {
+                    parents[number] = -1;
+                    childOrder[number] = -1;
+                }
+            }
+        }
+
+        SavedTree(DataInputStream in) throws IOException {
+            name = in.readUTF();
+            int nodeCount = in.readInt();
+            nodeHeights = new double[nodeCount];
+            parents = new int[nodeCount];
+            childOrder = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                nodeHeights[i] = in.readDouble();
+                parents[i] = in.readInt();
+                childOrder[i] = in.readByte();
+            }
+            taxaNames = new String[in.readInt()];
+            for (int i = 0; i < taxaNames.length; i++) {
+                taxaNames[i] = in.readUTF();
+            }
+            traitValues = new double[in.readInt()][nodeCount];
+            for (double[] values : traitValues) {
+                for (int i = 0; i < nodeCount; i++) {
+                    values[i] = in.readDouble();
+                }
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeInt(nodeHeights.length);
+            for (int i = 0; i < nodeHeights.length; i++) {
+                out.writeDouble(nodeHeights[i]);
+                out.writeInt(parents[i]);
+                out.writeByte(childOrder[i]);
+            }
+            out.writeInt(taxaNames.length);
+            for (String taxon : taxaNames) {
+                out.writeUTF(taxon);
+            }
+            out.writeInt(traitValues.length);
+            for (double[] values : traitValues) {
+                for (double value : values) {
+                    out.writeDouble(value);
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SavedTree)) return false;
+            SavedTree other = (SavedTree) o;
+            return name.equals(other.name) &&
+                    Arrays.equals(nodeHeights, other.nodeHeights) &&
+                    Arrays.equals(parents, other.parents) &&
+                    Arrays.equals(childOrder, other.childOrder) &&
+                    Arrays.equals(taxaNames, other.taxaNames) &&
+                    Arrays.deepEquals(traitValues, other.traitValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        final String name;
+        final double[] nodeHeights;
+        final int[] parents;
+        final int[] childOrder;
+        final String[] taxaNames;
+        final double[][] traitValues;
+    }
+
+    /**
+     * The state accumulated from the full segment and subsequent delta segments of a file.
+     */
+    private static final class SavedState {
+
+        void read(DataInputStream in) throws IOException {
+            state = in.readLong();
+            lnL = in.readDouble();
+
+            rngState = new int[in.readInt()];
+            for (int i = 0; i < rngState.length; i++) {
+                rngState[i] = in.readInt();
+            }
+
+            int parameterCount = in.readInt();
+            if (parameterNames == null) {
+                parameterNames = new String[parameterCount];
+                parameterValues = new double[parameterCount][];
+            } else if (parameterCount != parameterNames.length) {
+                throw new IOException("Parameter count differs between checkpoint segments");
+            }
+            int changedCount = in.readInt();
+            for (int i = 0; i < changedCount; i++) {
+                int index = in.readInt();
+                parameterNames[index] = in.readUTF();
+                double[] values = new double[in.readInt()];
+                for (int dim = 0; dim < values.length; dim++) {
+                    values[dim] = in.readDouble();
+                }
+                parameterValues[index] = values;
+            }
+
+            operatorNames = new String[in.readInt()];
+            acceptCounts = new long[operatorNames.length];
+            rejectCounts = new long[operatorNames.length];
+            adaptableParameters = new double[operatorNames.length];
+            adaptationCounts = new long[operatorNames.length];
+            isAdaptable = new boolean[operatorNames.length];
+            for (int i = 0; i < operatorNames.length; i++) {
+                operatorNames[i] = in.readUTF();
+                acceptCounts[i] = in.readLong();
+                rejectCounts[i] = in.readLong();
+                isAdaptable[i] = in.readBoolean();
+                if (isAdaptable[i]) {
+                    adaptableParameters[i] = in.readDouble();
+                    adaptationCounts[i] = in.readLong();
+                }
+            }
+
+            int treeCount = in.readInt();
+            for (int i = 0; i < treeCount; i++) {
+                SavedTree tree = new SavedTree(in);
+                trees.put(tree.name, tree);
+            }
+        }
+
+        long restore(MarkovChain markovChain, double[] lnL, boolean restoreRandomState) {
+            if (lnL != null) {
+                lnL[0] = this.lnL;
+            }
+
+            List<Parameter> parameters = getParameters(markovChain);
+            if (parameters.size() != parameterNames.length) {
+                throw new RuntimeException("Unable to match state parameters: " + parameterNames.length +
+                        " in checkpoint file, expecting " + parameters.size());
+            }
+            for (int i = 0; i < parameters.size(); i++) {
+                Parameter parameter = parameters.get(i);
+                double[] values = parameterValues[i];
+
+                if (values.length != parameter.getDimension()) {
+                    System.err.println("Unable to match state parameter dimension: " + values.length + ", expecting " +
+                            parameter.getDimension() + " for parameter: " + parameter.getParameterName());
+                }
+
+                if (ROOT_NODE_NUMBER.equals(parameterNames[i])) {
+                    parameter.setParameterValue(0, values[0]);
+                } else {
+                    for (int dim = 0; dim < parameter.getDimension(); dim++) {
+                        try {
+                            parameter.setParameterUntransformedValue(dim, values[dim]);
+                        } catch (RuntimeException rte) {
+                            System.err.println(rte);
+                        }
+                    }
+                }
+            }
+
+            OperatorSchedule operatorSchedule = markovChain.getSchedule();
+            if (operatorSchedule.getOperatorCount() != operatorNames.length) {
+                throw new RuntimeException("Unable to match operators: " + operatorNames.length +
+                        " in checkpoint file, expecting " + operatorSchedule.getOperatorCount());
+            }
+            for (int i = 0; i < operatorSchedule.getOperatorCount(); i++) {
+                MCMCOperator operator = operatorSchedule.getOperator(i);
+                if (!operatorNames[i].equals(operator.getOperatorName())) {
+                    throw new RuntimeException("Unable to match " + operator.getOperatorName() + " operator: " + operatorNames[i]);
+                }
+                operator.setAcceptCount(acceptCounts[i]);
+                operator.setRejectCount(rejectCounts[i]);
+                if (operator instanceof AdaptableMCMCOperator) {
+                    if (!isAdaptable[i]) {
+                        throw new RuntimeException("Coercable operator missing parameter: " + operatorNames[i]);
+                    }
+                    ((AdaptableMCMCOperator) operator).setAdaptableParameter(adaptableParameters[i]);
+                    ((AdaptableMCMCOperator) operator).setAdaptationCount(adaptationCounts[i]);
+                }
+            }
+
+            // load the tree models last as we get the node heights from the tree (not the parameters which
+            // which may not be associated with the right node
+            ArrayList<TreeParameterModel> traitModels = getTraitModels(markovChain);
+            StringBuilder missing = new StringBuilder();
+            for (Model model : ModelScope.getModels(markovChain)) {
+                if (model instanceof TreeModel) {
+                    SavedTree tree = trees.get(model.getModelName());
+                    if (tree == null) {
+                        missing.append("Expecting, but unable to match state parameter:").append(model.getModelName()).append("\n");
+                    } else {
+                        BeastCheckpointer.adoptTree((TreeModel) model, tree.parents, tree.nodeHeights, tree.childOrder,
+                                tree.taxaNames, traitModels, tree.traitValues);
+                    }
+                }
+            }
+            if (missing.length() > 0) {
+                throw new RuntimeException("\n" + missing);
+            }
+
+            if (restoreRandomState) {
+                if (System.getProperty(BeastCheckpointer.CHECKPOINT_SEED) != null) {
+                    MathUtils.setSeed(Long.parseLong(System.getProperty(BeastCheckpointer.CHECKPOINT_SEED)));
+                } else {
+                    MathUtils.setRandomState(rngState);
+                }
+            }
+
+            return state;
+        }
+
+        private long state;
+        private double lnL;
+        private int[] rngState;
+
+        private String[] parameterNames = null;
+        private double[][] parameterValues = null;
+
+        private String[] operatorNames;
+        private long[] acceptCounts;
+        private long[] rejectCounts;
+        private boolean[] isAdaptable;
+        private double[] adaptableParameters;
+        private long[] adaptationCounts;
+
+        private final Map<String, SavedTree> trees = new LinkedHashMap<>();
+    }
+
+    private final int maxDeltaSegments;
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+    // a snapshot of what has been written to the current checkpoint file
+    private File lastFile = null;
+    private long lastFileLength = -1;
+    private int deltaSegmentCount = 0;
+    private long deltaBytes = 0;
+    private long fullBytes = 0;
+    private String[] savedNames = null;
+    private double[][] savedValues = null;
+    private final Map<String, SavedTree> savedTrees = new HashMap<>();
+}
@@ -48,6 +48,14 @@ public class LogAnalyser {
     public LogAnalyser(int burnin, String inputFileName, String outputFileName, boolean verbose,
                        boolean hpds, boolean ess, boolean stdErr,
                        String marginalLikelihood) throws java.io.IOException, TraceException {
+        this(burnin, inputFileName, outputFileName, verbose, hpds, ess, stdErr, marginalLikelihood, 1);
+    }
+
+    public LogAnalyser(int burnin, String inputFileName, String outputFileName, boolean verbose,
+                       boolean hpds, boolean ess, boolean stdErr,
+                       String marginalLikelihood, int threadCount) throws java.io.IOException, TraceException {
+
+        this.threadCount = threadCount;
 
         File parentFile = new File(inputFileName);
 
@@ -71,6 +79,14 @@ public class LogAnalyser {
     public LogAnalyser(int burnin, File[] files, String outputFileName, boolean verbose,
                        boolean hpds, boolean ess, boolean stdErr,
                        String marginalLikelihood) throws java.io.IOException, TraceException {
+        this(burnin, files, outputFileName, verbose, hpds, ess, stdErr, marginalLikelihood, 1);
+    }
+
+    public LogAnalyser(int burnin, File[] files, String outputFileName, boolean verbose,
+                       boolean hpds, boolean ess, boolean stdErr,
+                       String marginalLikelihood, int threadCount) throws java.io.IOException, TraceException {
+
+        this.threadCount = threadCount;
 
         for (File f : files) {
             if (f.isFile()) {
@@ -89,6 +105,9 @@ public class LogAnalyser {
             analyze(f, burnin, verbose, new boolean[]{true}, hpds, ess, stdErr, marginalLikelihood);
         }
     }
+
+    private final int threadCount;
+
 //
     private static File openDefaultDirectory = null;
 //
@@ -122,9 +141,9 @@ public class LogAnalyser {
 
                 String name = file.getCanonicalPath();
                 if (verbose) {
-                    TraceAnalysis.report(name, burnin, marginalLikelihood);
+                    TraceAnalysis.report(name, burnin, marginalLikelihood, true, threadCount);
                 } else {
-                    TraceAnalysis.shortReport(name, burnin, drawHeader[0], hpds, ess, stdErr, marginalLikelihood);
+                    TraceAnalysis.shortReport(name, burnin, drawHeader[0], hpds, ess, stdErr, marginalLikelihood, threadCount);
                     drawHeader[0] = false;
                 }
             } catch (IOException e) {
@@ -174,7 +193,7 @@ public class LogAnalyser {
 
     public static void printUsage(Arguments arguments) {
 
-        arguments.printUsage("loganalyser", "[-burnin <burnin>] [-short][-hpd] [-std] [<input-file-name> [<output-file-name>]]");
+        arguments.printUsage("loganalyser", "[-burnin <burnin>] [-short][-hpd] [-std] [-threads <threads>] [<input-file-name> [<output-file-name>]]");
         System.out.println();
         System.out.println("  Example: loganalyser test.log");
         System.out.println("  Example: loganalyser -burnin 10000 trees.log out.txt");
@@ -199,6 +218,7 @@ public class LogAnalyser {
                         new Arguments.Option("ess", "use this option to produce ESSs for each trace"),
                         new Arguments.Option("stdErr", "use this option to produce standard Error"),
                         new Arguments.StringOption("marginal", "trace_name", "specify the trace to use to calculate the marginal likelihood"),
+                        new Arguments.IntegerOption("threads", "the number of threads to analyse the traces with [default = 1]"),
 //				new Arguments.Option("html", "format output as html"),
 //				new Arguments.Option("svg", "generate svg graphics"),
                         new Arguments.Option("help", "option to print this message")
@@ -232,6 +252,11 @@ public class LogAnalyser {
             marginalLikelihood = arguments.getStringOption("marginal");
         }
 
+        int threadCount = 1;
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
+
         String inputFileName = null;
         String outputFileName = null;
 
@@ -256,11 +281,11 @@ public class LogAnalyser {
 //            inputFileName = Utils.getLoadFileName("LogAnalyser " + version.getVersionString() + " - Select log file to analyse");
             File[] files = Utils.getLoadFiles("LogAnalyser " + version.getVersionString() + " - Select log file to analyse",
                     openDefaultDirectory, "BEAST log (*.log) Files", "log", "txt");
-            new LogAnalyser(burnin, files, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood);
+            new LogAnalyser(burnin, files, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood, threadCount);
 
         } else {
 
-            new LogAnalyser(burnin, inputFileName, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood);
+            new LogAnalyser(burnin, inputFileName, outputFileName, !shortReport, hpds, ess, stdErr, marginalLikelihood, threadCount);
         }
 
         System.exit(0);
@@ -31,10 +31,9 @@ import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
+import dr.util.Pair;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author Andrew Rambaut
@@ -59,10 +58,28 @@ final class CladeSystem {
         this.keepSubClades = false;
         add(targetTree);
     }
+
+    /**
+     * Constructor adding a single target tree using the tip numbering of a given taxon list
+     */
+    public CladeSystem(Tree targetTree, TaxonList taxonList) {
+        this.keepSubClades = false;
+        setTaxonList(taxonList);
+        add(targetTree);
+    }
+
     /**
      * adds all the clades in the tree
      */
     public void add(Tree tree) {
+        add(tree, null);
+    }
+
+    /**
+     * adds all the clades in the tree and calls the action (if not null) on each node's clade
+     * once it has been counted
+     */
+    public void add(Tree tree, CladeAction action) {
         if (taxonList == null) {
             setTaxonList(tree);
         }
@@ -75,7 +92,7 @@ final class CladeSystem {
         // Recurse over the tree and add all the clades (or increment their
         // frequency if already present). The root clade is added too (for
         // annotation purposes).
-        rootClade = addClades(tree, tree.getRoot());
+        rootClade = addClades(tree, tree.getRoot(), action);
 
         assert rootClade.getSize() == tree.getExternalNodeCount();
 
@@ -113,7 +130,7 @@ final class CladeSystem {
     /**
      * recursively add all the clades in a tree
      */
-    private Clade addClades(Tree tree, NodeRef node) {
+    private Clade addClades(Tree tree, NodeRef node, CladeAction action) {
         Clade clade;
         if (tree.isExternal(node)) {
             // all tip clades should already be there
@@ -126,17 +143,73 @@ final class CladeSystem {
         } else {
             assert tree.getChildCount(node) == 2 : "requires a strictly bifurcating tree";
 
-            Clade clade1 = addClades(tree, tree.getChild(node, 0));
-            Clade clade2 = addClades(tree, tree.getChild(node, 1));
+            Clade clade1 = addClades(tree, tree.getChild(node, 0), action);
+            Clade clade2 = addClades(tree, tree.getChild(node, 1), action);
             clade = getOrAddClade(clade1, clade2);
         }
         assert clade != null;
 
         clade.setCount(clade.getCount() + 1);
 
+        if (action != null) {
+            action.actOnClade(clade, tree, node);
+        }
+
         return clade;
     }
 
+    /**
+     * adds the clade counts (and the sub-clades, if being kept) of another clade system to this
+     * one. This is used to combine the per-thread shards built when reading trees in parallel so
+     * both clade systems must use the same taxon numbering.
+     */
+    public void merge(CladeSystem other) {
+        if (taxonList == null && other.taxonList != null) {
+            setTaxonList(other.taxonList);
+        }
+
+        for (Clade otherTip : other.tipClades.values()) {
+            Clade tip = tipClades.get(otherTip.getKey());
+            if (tip == null) {
+                tip = new BiClade(otherTip.getIndex(), otherTip.getTaxon());
+                tipClades.put(tip.getKey(), tip);
+            }
+            tip.setCount(tip.getCount() + otherTip.getCount());
+        }
+
+        List<Clade> otherClades = new ArrayList<>(other.cladeMap.values());
+        if (keepSubClades) {
+            // make sure that the sub-clades of each clade have been merged before the clade itself
+            otherClades.sort(Comparator.comparingInt(Clade::getSize));
+        }
+
+        for (Clade otherClade : otherClades) {
+            BiClade clade = (BiClade)cladeMap.get(otherClade.getKey());
+            if (keepSubClades) {
+                for (Pair<BiClade, BiClade> subClades : ((BiClade)otherClade).getSubClades()) {
+                    Clade left = getClade(subClades.first.getKey());
+                    Clade right = getClade(subClades.second.getKey());
+                    if (clade == null) {
+                        clade = new BiClade(left, right);
+                        cladeMap.put(clade.getKey(), clade);
+                    } else {
+                        clade.addSubClades(left, right);
+                    }
+                }
+            } else if (clade == null) {
+                clade = new BiClade(otherClade.getKey(), otherClade.getSize());
+                cladeMap.put(clade.getKey(), clade);
+            }
+            clade.setCount(clade.getCount() + otherClade.getCount());
+        }
+
+        if (other.rootClade != null) {
+            rootClade = getClade(other.rootClade.getKey());
+        }
+
+        treeCount += other.treeCount;
+    }
+
     /**
      * see if a clade exists otherwise create it
      */
@@ -197,6 +270,18 @@ final class CladeSystem {
         return key;
     }
 
+    /**
+     * zeros the counts of all the clades so they can be recounted
+     */
+    public void clearCounts() {
+        for (Clade clade : tipClades.values()) {
+            clade.setCount(0);
+        }
+        for (Clade clade : cladeMap.values()) {
+            clade.setCount(0);
+        }
+    }
+
     public void calculateCladeCredibilities(int totalTreesUsed) {
         for (Clade clade : cladeMap.values()) {
             assert clade.getCount() <= totalTreesUsed : "clade.getCount=(" + clade.getCount() +
@@ -45,9 +45,13 @@ class CollectionAction implements CladeAction {
         this.attributeNames.addAll(attributeNames);
     }
 
+    public int getAttributeCount() {
+        return attributeNames.size();
+    }
+
     @Override
     public void actOnClade(Clade clade, Tree tree, NodeRef node) {
-        collectAttributesForClade(clade, attributeNames, tree, node);
+        clade.addAttributeValues(getAttributeValues(tree, node));
     }
 
     @Override
@@ -55,7 +59,10 @@ class CollectionAction implements CladeAction {
         return true;
     }
 
-    private void collectAttributesForClade(Clade clade, Set<String> attributeNames, Tree tree, NodeRef node) {
+    /**
+     * returns the values of the collected attributes for a node (in the order the clades receive them)
+     */
+    Object[] getAttributeValues(Tree tree, NodeRef node) {
         int i = 0;
         Object[] values = new Object[attributeNames.size()];
         for (String attributeName : attributeNames) {
@@ -74,6 +81,6 @@ class CollectionAction implements CladeAction {
             values[i] = value;
             i++;
         }
-        clade.addAttributeValues(values);
+        return values;
     }
 }
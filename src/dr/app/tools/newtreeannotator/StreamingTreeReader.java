@@ -0,0 +1,757 @@
+/*
+ * StreamingTreeReader.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package dr.app.tools.newtreeannotator;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Reads a BEAST trees file in a single pass. Each tree statement is handed to a pool of worker
+ * threads which parse it and count its clades into a per-thread CladeSystem shard. As a tree is
+ * counted, the shard clade of each node and the node's attribute values are spooled to temporary
+ * files so that, once the shards have been merged, the MCC tree can be scored and the attributes
+ * for a target tree collected without parsing the input file again. Only the clade counts are
+ * held in memory.
+ */
+final class StreamingTreeReader {
+    private static final int QUEUE_LENGTH_PER_THREAD = 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte DOUBLE_VALUE = 1;
+    private static final byte INTEGER_VALUE = 2;
+    private static final byte BOOLEAN_VALUE = 3;
+    private static final byte STRING_VALUE = 4;
+    private static final byte ARRAY_VALUE = 5;
+    private static final byte COLOR_VALUE = 6;
+
+    private static final TreeStatement END_OF_TREES = new TreeStatement(-1, null);
+
+    /**
+     * @param inputFileName the trees file
+     * @param threadCount the number of threads used to parse and count trees
+     * @param keepSubClades whether the clade system should keep all the subtrees of each clade (for HIPSTR)
+     * @param collectionAction provides the attribute values spooled for each node
+     */
+    StreamingTreeReader(String inputFileName, int threadCount, boolean keepSubClades, CollectionAction collectionAction) {
+        this.inputFileName = inputFileName;
+        this.threadCount = Math.max(threadCount, 1);
+        this.keepSubClades = keepSubClades;
+        this.collectionAction = collectionAction;
+    }
+
+    /**
+     * Reads all the trees in the file, counting the clades of those after the burnin.
+     * @param firstTreeAction called with the first tree after the burnin, before any trees are counted
+     */
+    public void readTrees(int burninTrees, long burninStates, Consumer<Tree> firstTreeAction, PrintStream progressStream)
+            throws IOException, Importer.ImportException {
+
+        File file = new File(inputFileName);
+        long stepSize = file.length() / 60;
+        if (stepSize < 1) stepSize = 1;
+        long nextStep = stepSize;
+
+        BlockingQueue<TreeStatement> queue = new ArrayBlockingQueue<>(threadCount * QUEUE_LENGTH_PER_THREAD);
+        ExecutorService executor = null;
+
+        try (OffsetLineReader reader = new OffsetLineReader(file)) {
+            StringBuilder headerBuilder = new StringBuilder();
+            StringBuilder statement = null;
+            long statementStart = 0;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+
+                if (statement == null) {
+                    if (isTreeCommand(trimmed)) {
+                        statement = new StringBuilder();
+                        statementStart = reader.getLineStart();
+                    } else {
+                        if (translationList == null) {
+                            if (trimmed.regionMatches(true, 0, "begin trees", 0, 11)) {
+                                // only the trees block (and its translate command) is needed to parse the trees
+                                headerBuilder.setLength(0);
+                                headerBuilder.append("#NEXUS\n");
+                            }
+                            headerBuilder.append(line).append('\n');
+                        }
+                        continue;
+                    }
+                }
+
+                statement.append(line).append('\n');
+                if (!trimmed.endsWith(";")) {
+                    continue;
+                }
+
+                if (translationList == null) {
+                    readHeader(headerBuilder.toString());
+                }
+
+                long state = 0;
+                if (burninStates > 0) {
+                    // if burnin has been specified in states, try to parse it out...
+                    String name = getTreeName(statement);
+
+                    if (name.startsWith("STATE_")) {
+                        state = Long.parseLong(name.split("_")[1]);
+                        maxState = state;
+                    } else {
+                        maxState = state;
+                        state += 1;
+                    }
+                }
+
+                if (totalTrees >= burninTrees && state >= burninStates) {
+                    // if either of the two burnin thresholds have been reached...
+
+                    if (burnin < 0) {
+                        // if this is the first time this point has been reached,
+                        // record the number of trees this represents for future use...
+                        burnin = totalTrees;
+
+                        Tree tree = parseTree(treeParser, statement.toString());
+                        taxa = new Taxa(tree);
+                        firstTreeAction.accept(tree);
+
+                        executor = Executors.newFixedThreadPool(threadCount);
+                        for (int i = 0; i < threadCount; i++) {
+                            Shard shard = new Shard(queue);
+                            shards.add(shard);
+                            executor.execute(shard);
+                        }
+                    }
+
+                    setTreeOffsets(totalTrees, statementStart, reader.getOffset());
+                    putStatement(queue, new TreeStatement(totalTrees, statement.toString()));
+
+                    totalTreesUsed += 1;
+                }
+                statement = null;
+
+                while (reader.getOffset() >= nextStep) {
+                    progressStream.print("*");
+                    progressStream.flush();
+                    nextStep += stepSize;
+                }
+
+                totalTrees++;
+            }
+        } finally {
+            if (executor != null) {
+                for (int i = 0; i < threadCount; i++) {
+                    putStatement(queue, END_OF_TREES);
+                }
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        for (Shard shard : shards) {
+            if (shard.failure instanceof Importer.ImportException) {
+                throw (Importer.ImportException) shard.failure;
+            } else if (shard.failure instanceof IOException) {
+                throw (IOException) shard.failure;
+            } else if (shard.failure != null) {
+                throw new RuntimeException(shard.failure);
+            }
+        }
+
+        cladeSystem = new CladeSystem(keepSubClades);
+        if (taxa != null) {
+            cladeSystem.setTaxonList(taxa);
+        }
+        for (Shard shard : shards) {
+            cladeSystem.merge(shard.cladeSystem);
+            shard.finishCounting();
+        }
+    }
+
+    /**
+     * Finds the tree with the highest product of clade credibilities by scoring the spooled trees
+     * of each shard in parallel. The clade credibilities of the merged clade system must have
+     * been calculated first.
+     */
+    public Tree getMCCTree() throws IOException, Importer.ImportException {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<double[]>> results = new ArrayList<>();
+        for (final Shard shard : shards) {
+            results.add(executor.submit(new Callable<double[]>() {
+                @Override
+                public double[] call() throws IOException {
+                    return shard.getBestTree(cladeSystem);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        int bestTree = -1;
+        bestScore = Double.NEGATIVE_INFINITY;
+        try {
+            for (Future<double[]> result : results) {
+                double[] best = result.get();
+                int treeNumber = (int) best[0];
+                // ties go to the earliest tree in the file
+                if (treeNumber >= 0 && (best[1] > bestScore || (best[1] == bestScore && treeNumber < bestTree))) {
+                    bestTree = treeNumber;
+                    bestScore = best[1];
+                }
+            }
+        } catch (InterruptedException ie) {
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        }
+
+        if (bestTree < 0) {
+            return null;
+        }
+        bestTreeNumber = bestTree + 1;
+
+        // the only part of the input file read a second time is the winning tree statement
+        byte[] bytes = new byte[(int) (treeOffsets[bestTree * 2 + 1] - treeOffsets[bestTree * 2])];
+        try (RandomAccessFile file = new RandomAccessFile(inputFileName, "r")) {
+            file.seek(treeOffsets[bestTree * 2]);
+            file.readFully(bytes);
+        }
+        return parseTree(treeParser, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Replays the spooled attribute values of every node whose clade is in the target clade system,
+     * in the order the trees appear in the file. The target clades are recounted so their
+     * credibilities can be calculated afterwards.
+     */
+    public void collectNodeAttributes(CladeSystem targetCladeSystem) throws IOException {
+        targetCladeSystem.clearCounts();
+
+        PriorityQueue<Shard> spools = new PriorityQueue<>(Math.max(shards.size(), 1),
+                Comparator.comparingInt(shard -> shard.spooledTreeNumber));
+        for (Shard shard : shards) {
+            if (shard.openAttributeSpool(targetCladeSystem)) {
+                spools.add(shard);
+            }
+        }
+
+        while (!spools.isEmpty()) {
+            Shard shard = spools.poll();
+            if (shard.collectSpooledTree()) {
+                spools.add(shard);
+            }
+        }
+    }
+
+    /**
+     * Deletes the spool files.
+     */
+    public void close() {
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+
+    public CladeSystem getCladeSystem() {
+        return cladeSystem;
+    }
+
+    public TaxonList getTaxa() {
+        return taxa;
+    }
+
+    public int getTotalTrees() {
+        return totalTrees;
+    }
+
+    public int getTotalTreesUsed() {
+        return totalTreesUsed;
+    }
+
+    public int getBurnin() {
+        return burnin;
+    }
+
+    public long getMaxState() {
+        return maxState;
+    }
+
+    public int getBestTreeNumber() {
+        return bestTreeNumber;
+    }
+
+    public double getBestScore() {
+        return bestScore;
+    }
+
+    /**
+     * Parses the start of the trees block, up to the first tree, once. Its translation list (and
+     * so the taxa) is then shared by all the trees, which are parsed a statement at a time.
+     */
+    private void readHeader(String header) throws IOException, Importer.ImportException {
+        treeParser = new NexusImporter(new StringReader(header + "End;\n"), true);
+        translationList = treeParser.readTreesBlockHeader(null);
+    }
+
+    /**
+     * @param importer an importer used only by the calling thread
+     */
+    private Tree parseTree(NexusImporter importer, String statement) throws IOException, Importer.ImportException {
+        try {
+            return importer.parseTreeCommand(statement, translationList);
+        } catch (Importer.ImportException ie) {
+            throw new Importer.ImportException("Unable to read tree, " + getTreeName(statement) + ": " + ie.getMessage());
+        }
+    }
+
+    private void setTreeOffsets(int treeNumber, long start, long end) {
+        if (treeNumber * 2 + 1 >= treeOffsets.length) {
+            treeOffsets = Arrays.copyOf(treeOffsets, treeOffsets.length * 2);
+        }
+        treeOffsets[treeNumber * 2] = start;
+        treeOffsets[treeNumber * 2 + 1] = end;
+    }
+
+    private void putStatement(BlockingQueue<TreeStatement> queue, TreeStatement statement) throws IOException {
+        try {
+            queue.put(statement);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading trees");
+        }
+    }
+
+    private static boolean isTreeCommand(String line) {
+        return line.regionMatches(true, 0, "tree ", 0, 5) || line.regionMatches(true, 0, "utree ", 0, 6);
+    }
+
+    private static String getTreeName(CharSequence statement) {
+        int i = 0;
+        int n = statement.length();
+        while (i < n && !Character.isWhitespace(statement.charAt(i))) {
+            i++;
+        }
+        while (i < n && (Character.isWhitespace(statement.charAt(i)) || statement.charAt(i) == '*')) {
+            i++;
+        }
+        int start = i;
+        while (i < n && !Character.isWhitespace(statement.charAt(i)) && statement.charAt(i) != '=' && statement.charAt(i) != '[') {
+            i++;
+        }
+        return statement.subSequence(start, i).toString();
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER_VALUE);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Number) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (Object element : array) {
+                writeValue(out, element);
+            }
+        } else if (value instanceof Color) {
+            out.writeByte(COLOR_VALUE);
+            out.writeInt(((Color) value).getRGB());
+        } else {
+            out.writeByte(STRING_VALUE);
+            out.writeUTF(value.toString());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL_VALUE:
+                return null;
+            case DOUBLE_VALUE:
+                return in.readDouble();
+            case INTEGER_VALUE:
+                return in.readInt();
+            case BOOLEAN_VALUE:
+                return in.readBoolean();
+            case STRING_VALUE:
+                return in.readUTF();
+            case ARRAY_VALUE:
+                Object[] array = new Object[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            case COLOR_VALUE:
+                return new Color(in.readInt());
+            default:
+                throw new IOException("Corrupt attribute spool file");
+        }
+    }
+
+    private static final class TreeStatement {
+        TreeStatement(int treeNumber, String text) {
+            this.treeNumber = treeNumber;
+            this.text = text;
+        }
+
+        final int treeNumber;
+        final String text;
+    }
+
+    /**
+     * A worker that parses trees, counts their clades into its own clade system and spools the
+     * shard clade index (and attribute values) of every node. Each shard takes trees from the
+     * shared queue in file order so its spools are ordered by tree number.
+     */
+    private final class Shard implements Runnable, CladeAction {
+
+        Shard(BlockingQueue<TreeStatement> queue) {
+            this.queue = queue;
+            cladeSystem = new CladeSystem(keepSubClades);
+            cladeSystem.setTaxonList(taxa);
+        }
+
+        @Override
+        public void run() {
+            try {
+                topologyFile = createSpoolFile();
+                attributeFile = createSpoolFile();
+                try (DataOutputStream topology = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(topologyFile), BUFFER_SIZE));
+                     DataOutputStream attributes = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(attributeFile), BUFFER_SIZE))) {
+                    topologyOut = topology;
+                    attributeOut = attributes;
+
+                    TreeStatement statement = queue.take();
+                    while (statement != END_OF_TREES) {
+                        Tree tree = parseTree(importer, statement.text);
+
+                        topologyOut.writeInt(statement.treeNumber);
+                        topologyOut.writeInt(tree.getNodeCount());
+                        attributeOut.writeInt(statement.treeNumber);
+                        attributeOut.writeInt(tree.getNodeCount());
+
+                        cladeSystem.add(tree, this);
+
+                        statement = queue.take();
+                    }
+                }
+            } catch (Exception e) {
+                failure = (e instanceof UncheckedIOException ? ((UncheckedIOException) e).getCause() : e);
+                // keep taking trees so the reader is not blocked
+                try {
+                    while (queue.take() != END_OF_TREES) {
+                        // ignore
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void actOnClade(Clade clade, Tree tree, NodeRef node) {
+            Integer index = cladeIndices.get(clade);
+            if (index == null) {
+                index = clades.size();
+                cladeIndices.put(clade, index);
+                clades.add(clade);
+            }
+
+            try {
+                topologyOut.writeInt(index);
+
+                valueBytes.reset();
+                for (Object value : collectionAction.getAttributeValues(tree, node)) {
+                    writeValue(valueOut, value);
+                }
+                attributeOut.writeInt(index);
+                attributeOut.writeInt(valueBytes.size());
+                valueBytes.writeTo(attributeOut);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+
+        @Override
+        public boolean expectAllClades() {
+            return true;
+        }
+
+        /**
+         * Keeps just the keys of the shard clades (in spool index order) once they have been merged.
+         */
+        void finishCounting() {
+            cladeKeys = new Object[clades.size()];
+            for (int i = 0; i < cladeKeys.length; i++) {
+                cladeKeys[i] = clades.get(i).getKey();
+            }
+            clades = null;
+            cladeIndices = null;
+            cladeSystem = null;
+        }
+
+        /**
+         * @return the tree number and log clade credibility of the best tree in this shard
+         */
+        double[] getBestTree(CladeSystem cladeSystem) throws IOException {
+            double[] logCredibilities = new double[cladeKeys.length];
+            for (int i = 0; i < cladeKeys.length; i++) {
+                logCredibilities[i] = Math.log(cladeSystem.getClade(cladeKeys[i]).getCredibility());
+            }
+
+            double[] best = {-1, Double.NEGATIVE_INFINITY};
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(topologyFile), BUFFER_SIZE))) {
+                while (true) {
+                    int treeNumber;
+                    try {
+                        treeNumber = in.readInt();
+                    } catch (EOFException eof) {
+                        break;
+                    }
+                    int nodeCount = in.readInt();
+                    double score = 0.0;
+                    for (int i = 0; i < nodeCount; i++) {
+                        score += logCredibilities[in.readInt()];
+                    }
+                    if (score > best[1]) {
+                        best[0] = treeNumber;
+                        best[1] = score;
+                    }
+                }
+            }
+            return best;
+        }
+
+        boolean openAttributeSpool(CladeSystem targetCladeSystem) throws IOException {
+            targetClades = new Clade[cladeKeys.length];
+            for (int i = 0; i < cladeKeys.length; i++) {
+                targetClades[i] = targetCladeSystem.getClade(cladeKeys[i]);
+            }
+            attributeIn = new DataInputStream(new BufferedInputStream(new FileInputStream(attributeFile), BUFFER_SIZE));
+            return nextSpooledTree();
+        }
+
+        /**
+         * adds the spooled attribute values of the current tree to the target clades
+         * @return whether there is another spooled tree
+         */
+        boolean collectSpooledTree() throws IOException {
+            int attributeCount = collectionAction.getAttributeCount();
+            int nodeCount = attributeIn.readInt();
+            for (int i = 0; i < nodeCount; i++) {
+                Clade clade = targetClades[attributeIn.readInt()];
+                int length = attributeIn.readInt();
+                if (clade == null) {
+                    skipFully(attributeIn, length);
+                } else {
+                    Object[] values = new Object[attributeCount];
+                    for (int j = 0; j < attributeCount; j++) {
+                        values[j] = readValue(attributeIn);
+                    }
+                    clade.addAttributeValues(values);
+                    clade.setCount(clade.getCount() + 1);
+                }
+            }
+            return nextSpooledTree();
+        }
+
+        private boolean nextSpooledTree() throws IOException {
+            try {
+                spooledTreeNumber = attributeIn.readInt();
+                return true;
+            } catch (EOFException eof) {
+                attributeIn.close();
+                attributeIn = null;
+                targetClades = null;
+                return false;
+            }
+        }
+
+        void close() {
+            try {
+                if (attributeIn != null) {
+                    attributeIn.close();
+                }
+            } catch (IOException ioe) {
+                // ignore
+            }
+            if (topologyFile != null) {
+                topologyFile.delete();
+            }
+            if (attributeFile != null) {
+                attributeFile.delete();
+            }
+        }
+
+        private final BlockingQueue<TreeStatement> queue;
+        private final NexusImporter importer = new NexusImporter(new StringReader(""), true);
+        private CladeSystem cladeSystem;
+        private Map<Clade, Integer> cladeIndices = new IdentityHashMap<>();
+        private List<Clade> clades = new ArrayList<>();
+        private Object[] cladeKeys;
+
+        private File topologyFile;
+        private File attributeFile;
+        private DataOutputStream topologyOut;
+        private DataOutputStream attributeOut;
+        private final ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+        private final DataOutputStream valueOut = new DataOutputStream(valueBytes);
+
+        private DataInputStream attributeIn;
+        private Clade[] targetClades;
+        private int spooledTreeNumber;
+
+        private volatile Exception failure = null;
+    }
+
+    private static File createSpoolFile() throws IOException {
+        File file = File.createTempFile("treeannotator", ".spool");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        while (length > 0) {
+            int skipped = in.skipBytes(length);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Reads lines from a file keeping track of the byte offset of each line so that a tree
+     * statement can be read again without scanning the file.
+     */
+    private static final class OffsetLineReader implements Closeable {
+        OffsetLineReader(File file) throws IOException {
+            in = new FileInputStream(file);
+        }
+
+        String readLine() throws IOException {
+            lineStart = offset;
+            int length = 0;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        if (length == 0) {
+                            return null;
+                        }
+                        break;
+                    }
+                }
+                byte b = buffer[position++];
+                offset++;
+                if (b == '\n') {
+                    break;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+
+        long getLineStart() {
+            return lineStart;
+        }
+
+        long getOffset() {
+            return offset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private byte[] line = new byte[1024];
+        private int position = 0;
+        private int limit = 0;
+        private long offset = 0;
+        private long lineStart = 0;
+    }
+
+    private final String inputFileName;
+    private final int threadCount;
+    private final boolean keepSubClades;
+    private final CollectionAction collectionAction;
+
+    private HashMap<String, Taxon> translationList = null;
+    private NexusImporter treeParser = null;
+    private TaxonList taxa = null;
+    private int totalTrees = 0;
+    private int totalTreesUsed = 0;
+    private int burnin = -1;
+    private long maxState = 0;
+    private long[] treeOffsets = new long[2048];
+
+    private final List<Shard> shards = new ArrayList<>();
+    private CladeSystem cladeSystem = null;
+
+    private int bestTreeNumber = 0;
+    private double bestScore = Double.NEGATIVE_INFINITY;
+}
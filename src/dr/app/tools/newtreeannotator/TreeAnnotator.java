@@ -35,7 +35,6 @@ import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.FlexibleTree;
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
@@ -63,7 +62,7 @@ public class TreeAnnotator extends BaseTreeTool {
     private static final Version VERSION = new BeastVersion();
 
     private static final HeightsSummary DEFAULT_HEIGHTS_SUMMARY = HeightsSummary.MEAN_HEIGHTS;
-    private static final boolean COUNT_TREES = true;
+    private static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors();
 
     // Messages to stderr, output to stdout
     private static PrintStream progressStream = System.err;
@@ -76,7 +75,7 @@ public class TreeAnnotator extends BaseTreeTool {
     private int totalTreesUsed;
     private long maxState;
 
-    enum Target {
+    public enum Target {
         MAX_CLADE_CREDIBILITY("Maximum clade credibility tree"),
         HIPSTR("Highest independent posterior subtree reconstruction (HIPSTR)"),
         USER_TARGET_TREE("User target tree");
@@ -92,7 +91,7 @@ public class TreeAnnotator extends BaseTreeTool {
         }
     }
 
-    enum HeightsSummary {
+    public enum HeightsSummary {
         MEDIAN_HEIGHTS("Median heights"),
         MEAN_HEIGHTS("Mean heights"),
         KEEP_HEIGHTS("Keep target heights"),
@@ -124,6 +123,27 @@ public class TreeAnnotator extends BaseTreeTool {
                          String inputFileName,
                          String outputFileName
     ) throws IOException {
+        this(burninTrees, burninStates, heightsOption, posteriorLimit, hpd2D, computeESS, targetOption,
+                targetTreeFileName, inputFileName, outputFileName, DEFAULT_THREAD_COUNT);
+    }
+
+    /**
+     * Burnin can be specified as the number of trees or the number of states
+     * (one or other should be zero). The input file is read once with the trees
+     * parsed and counted on the given number of threads.
+     */
+    public TreeAnnotator(final int burninTrees,
+                         final long burninStates,
+                         HeightsSummary heightsOption,
+                         double posteriorLimit,
+                         double[] hpd2D,
+                         boolean computeESS,
+                         Target targetOption,
+                         String targetTreeFileName,
+                         String inputFileName,
+                         String outputFileName,
+                         int threadCount
+    ) throws IOException {
 
         long totalStartTime = System.currentTimeMillis();
 
@@ -137,81 +157,80 @@ public class TreeAnnotator extends BaseTreeTool {
         annotationAction.addAttributeName("height");
         annotationAction.addAttributeName("length");
 
-        int burnin = -1;
-
-        totalTrees = 10000;
+        totalTrees = 0;
         totalTreesUsed = 0;
 
-        CladeSystem cladeSystem = new CladeSystem(targetOption == Target.HIPSTR);
+        // All the trees are read, in a single pass, into per-thread clade systems
+        // which are merged to get Clade and SubTree frequencies. The clades of each
+        // tree and their attributes are spooled to disk so neither the MCC tree nor
+        // the node attributes need another pass through the input file.
+        StreamingTreeReader treeReader = new StreamingTreeReader(inputFileName, threadCount,
+                targetOption == Target.HIPSTR, collectionAction);
 
-        if (targetOption != Target.USER_TARGET_TREE) {
-            // if we are not just annotating a specific target tree
-            // then we need to read all the trees into a CladeSystem
-            // to get Clade and SubTree frequencies.
-            if (COUNT_TREES) {
-                countTrees(inputFileName);
-                progressStream.println("Reading trees...");
-            } else {
-                totalTrees = 10000;
-                progressStream.println("Reading trees (assuming 10,000 trees)...");
-            }
+        try {
+            readTrees(treeReader, burninTrees, burninStates);
 
-            burnin = readTrees(inputFileName, burninTrees, burninStates, cladeSystem);
+            CladeSystem cladeSystem = treeReader.getCladeSystem();
 
-            cladeSystem.calculateCladeCredibilities(totalTreesUsed);
+            if (targetOption != Target.USER_TARGET_TREE) {
+                cladeSystem.calculateCladeCredibilities(totalTreesUsed);
 
-            progressStream.println("Total trees read: " + totalTrees);
-            progressStream.println("Size of trees: " + taxa.getTaxonCount() + " tips");
-            if (burninTrees > 0) {
-                progressStream.println("Ignoring first " + burninTrees + " trees" +
-                        (burninStates > 0 ? " (" + burninStates + " states)." : "." ));
-            } else if (burninStates > 0) {
-                progressStream.println("Ignoring first " + burninStates + " states (" + burnin + " trees).");
-            }
+                progressStream.println("Total trees read: " + totalTrees);
+                progressStream.println("Size of trees: " + taxa.getTaxonCount() + " tips");
+                if (burninTrees > 0) {
+                    progressStream.println("Ignoring first " + burninTrees + " trees" +
+                            (burninStates > 0 ? " (" + burninStates + " states)." : "."));
+                } else if (burninStates > 0) {
+                    progressStream.println("Ignoring first " + burninStates + " states (" + treeReader.getBurnin() + " trees).");
+                }
 
-            progressStream.println("Total unique clades: " + cladeSystem.getCladeCount());
-            progressStream.println();
-        }
+                progressStream.println("Total unique clades: " + cladeSystem.getCladeCount());
+                progressStream.println();
+            }
 
-        MutableTree targetTree = null;
+            MutableTree targetTree = null;
 
-        switch (targetOption) {
-            case USER_TARGET_TREE: {
-                if (targetTreeFileName != null) {
-                    targetTree = readUserTargetTree(targetTreeFileName, targetTree);
-                } else {
-                    System.err.println("No user target tree specified.");
-                    System.exit(1);
+            switch (targetOption) {
+                case USER_TARGET_TREE: {
+                    if (targetTreeFileName != null) {
+                        targetTree = readUserTargetTree(targetTreeFileName, targetTree);
+                    } else {
+                        System.err.println("No user target tree specified.");
+                        System.exit(1);
+                    }
+                    break;
                 }
-                break;
-            }
-            case MAX_CLADE_CREDIBILITY: {
-                progressStream.println("Finding maximum credibility tree...");
-                targetTree = new FlexibleTree(getMCCTree(burnin, cladeSystem, inputFileName));
-                break;
-            }
-            case HIPSTR: {
-                progressStream.println("Finding highest independent posterior subtree reconstruction (HIPSTR) tree...");
-                targetTree = getHIPSTRTree(cladeSystem);
-                break;
+                case MAX_CLADE_CREDIBILITY: {
+                    progressStream.println("Finding maximum credibility tree...");
+                    targetTree = new FlexibleTree(getMCCTree(treeReader, cladeSystem));
+                    break;
+                }
+                case HIPSTR: {
+                    progressStream.println("Finding highest independent posterior subtree reconstruction (HIPSTR) tree...");
+                    targetTree = getHIPSTRTree(cladeSystem);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown targetOption");
             }
-            default: throw new IllegalArgumentException("Unknown targetOption");
-        }
 
-        // Help garbage collector
-        cladeSystem = null;
+            // Help garbage collector
+            cladeSystem = null;
 
-        CladeSystem targetCladeSystem = new CladeSystem(targetTree);
+            CladeSystem targetCladeSystem = new CladeSystem(targetTree, taxa);
 
-        collectNodeAttributes(targetCladeSystem, inputFileName, burnin);
+            collectNodeAttributes(treeReader, targetCladeSystem);
 
-        annotateTargetTree(targetCladeSystem, heightsOption, targetTree);
+            annotateTargetTree(targetCladeSystem, heightsOption, targetTree);
 
-        if (heightsOption == HeightsSummary.CA_HEIGHTS) {
-            setNodeHeightsCA(targetCladeSystem, targetTree);
-        }
+            if (heightsOption == HeightsSummary.CA_HEIGHTS) {
+                setNodeHeightsCA(targetCladeSystem, targetTree);
+            }
 
-        writeAnnotatedTree(outputFileName, targetTree);
+            writeAnnotatedTree(outputFileName, targetTree);
+        } finally {
+            treeReader.close();
+        }
 
         long timeElapsed =  (System.currentTimeMillis() - totalStartTime) / 1000;
         progressStream.println("Total time: " + timeElapsed + " secs");
@@ -219,95 +238,26 @@ public class TreeAnnotator extends BaseTreeTool {
 
     }
 
-    private void countTrees(String inputFileName) throws IOException {
-        progressStream.println("Counting trees...");
-        Reader reader = new BufferedReader(new FileReader(inputFileName));
-        TreeImporter importer = new BEASTTreesImporter(reader);
-        totalTrees = importer.countTrees();
-        if (totalTrees == 0) {
-            totalTrees = 10000;
-        }
-        reader.close();
-        progressStream.println("Total number of trees: " + totalTrees);
-        progressStream.println();
-    }
-
-    private int readTrees(String inputFileName, int burninTrees, long burninStates, CladeSystem cladeSystem) throws IOException {
-        long timeElapsed;
-        long startTime;
-
-        int burnin = -1;
-
-        long stepSize = totalTrees / 60;
-        if (stepSize < 1) stepSize = 1;
-
+    private void readTrees(StreamingTreeReader treeReader, int burninTrees, long burninStates) throws IOException {
+        progressStream.println("Reading trees...");
         progressStream.println("0              25             50             75            100");
         progressStream.println("|--------------|--------------|--------------|--------------|");
 
-        startTime = System.currentTimeMillis();
+        long startTime = System.currentTimeMillis();
 
         try {
-            // read the first tree using NexusImport to get the taxon list and tip number to taxon mapping
-//            Reader reader = new BufferedReader(new FileReader(inputFileName));
-//            NexusImporter nexusImporter = new NexusImporter(reader, true);
-//            taxa = nexusImporter.importTree(null);
-//
-//            reader = new BufferedReader(new FileReader(inputFileName));
-//            BEASTTreesImporter importer = new BEASTTreesImporter(reader, false);
-//            importer.setTaxonList(taxa);
-
-            Reader reader = new BufferedReader(new FileReader(inputFileName));
-            NexusImporter importer = new NexusImporter(reader, true);
-
-            totalTrees = 0;
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
-                long state = 0;
-
-                if (taxa == null) {
-                    taxa = new Taxa(tree);
-                }
-
-                if (burninStates > 0) {
-                    // if burnin has been specified in states, try to parse it out...
-                    String name = tree.getId().trim();
-
-                    if (name.startsWith("STATE_")) {
-                        state = Long.parseLong(name.split("_")[1]);
-                        maxState = state;
-                    } else {
-                        maxState = state;
-                        state += 1;
-                    }
-                }
-
-                if (totalTrees >= burninTrees && state >= burninStates) {
-                    // if either of the two burnin thresholds have been reached...
-
-                    if (burnin < 0) {
-                        // if this is the first time this point has been reached,
-                        // record the number of trees this represents for future use...
-                        burnin = totalTrees;
-                    }
-
-                    cladeSystem.add(tree);
-
-                    totalTreesUsed += 1;
-                }
-
-                if (totalTrees > 0 && totalTrees % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
-                }
-                totalTrees++;
-            }
-
-            reader.close();
+            treeReader.readTrees(burninTrees, burninStates, this::setupAttributes, progressStream);
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             System.exit(1);
         }
-        timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
+
+        totalTrees = treeReader.getTotalTrees();
+        totalTreesUsed = treeReader.getTotalTreesUsed();
+        maxState = treeReader.getMaxState();
+        taxa = treeReader.getTaxa();
+
+        long timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
         progressStream.println("* [" + timeElapsed + " secs]");
         progressStream.println();
 
@@ -321,55 +271,19 @@ public class TreeAnnotator extends BaseTreeTool {
                 System.exit(1);
             }
         }
-        return burnin;
     }
 
-    private void collectNodeAttributes(CladeSystem cladeSystem, String inputFileName, int burnin) throws IOException {
+    private void collectNodeAttributes(StreamingTreeReader treeReader, CladeSystem cladeSystem) throws IOException {
         progressStream.println("Collecting node information...");
-        progressStream.println("0              25             50             75            100");
-        progressStream.println("|--------------|--------------|--------------|--------------|");
-
-        int stepSize = totalTrees / 60;
-        if (stepSize < 1) stepSize = 1;
-
-        Reader reader = new BufferedReader(new FileReader(inputFileName));
-//         TreeImporter importer = new BEASTTreesImporter(reader, true);
-        TreeImporter importer = new NexusImporter(reader, true);
 
         long startTime = System.currentTimeMillis();
 
-        totalTreesUsed = 0;
-        try {
-            boolean firstTree = true;
-            int counter = 0;
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
-
-                if (counter >= burnin) {
-                    if (firstTree) {
-                        setupAttributes(tree);
-                        firstTree = false;
-                    }
-
-                    cladeSystem.traverseTree(tree, collectionAction);
-                    totalTreesUsed += 1;
-                }
-                if (counter > 0 && counter % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
-                }
-                counter++;
+        treeReader.collectNodeAttributes(cladeSystem);
+        cladeSystem.calculateCladeCredibilities(totalTreesUsed);
 
-            }
-            cladeSystem.calculateCladeCredibilities(totalTreesUsed);
-        } catch (Importer.ImportException e) {
-            System.err.println("Error Parsing Input Tree: " + e.getMessage());
-            System.exit(1);
-        }
         long timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
-        progressStream.println("* [" + timeElapsed + " secs]");
+        progressStream.println("[" + timeElapsed + " secs]");
         progressStream.println();
-        reader.close();
     }
 
     public void setupAttributes(Tree tree) {
@@ -417,54 +331,25 @@ public class TreeAnnotator extends BaseTreeTool {
         return targetTree;
     }
 
-    private Tree getMCCTree(int burnin, CladeSystem cladeSystem, String inputFileName)
-            throws IOException {
+    private Tree getMCCTree(StreamingTreeReader treeReader, CladeSystem cladeSystem) throws IOException {
 
         long startTime = System.currentTimeMillis();
 
-        Tree bestTree = null;
-        double bestScore = Double.NEGATIVE_INFINITY;
-
         progressStream.println("Analyzing " + totalTreesUsed + " trees...");
-        progressStream.println("0              25             50             75            100");
-        progressStream.println("|--------------|--------------|--------------|--------------|");
 
-        int stepSize = totalTrees / 60;
-        if (stepSize < 1) stepSize = 1;
-
-        int counter = 0;
-        int bestTreeNumber = 0;
-//        TreeImporter importer = new BEASTTreesImporter(new FileReader(inputFileName), false);
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName), true);
+        Tree bestTree = null;
         try {
-            while (importer.hasTree()) {
-                Tree tree = importer.importNextTree();
-
-                if (counter >= burnin) {
-                    double score = scoreTree(tree, cladeSystem);
-//                    progressStream.println(score);
-                    if (score > bestScore) {
-                        bestTree = tree;
-                        bestScore = score;
-                        bestTreeNumber = counter + 1;
-                    }
-                }
-                if (counter > 0 && counter % stepSize == 0) {
-                    progressStream.print("*");
-                    progressStream.flush();
-                }
-                counter++;
-            }
+            bestTree = treeReader.getMCCTree();
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             System.exit(1);
         }
 
         long timeElapsed =  (System.currentTimeMillis() - startTime) / 1000;
-        progressStream.println("* [" + timeElapsed + " secs]");
+        progressStream.println("[" + timeElapsed + " secs]");
         progressStream.println();
-        progressStream.println("Best tree: " + bestTree.getId() + " (tree number " + bestTreeNumber + ")");
-        progressStream.println("Best tree's log clade credibility: " + String.format("%.4f", bestScore));
+        progressStream.println("Best tree: " + bestTree.getId() + " (tree number " + treeReader.getBestTreeNumber() + ")");
+        progressStream.println("Best tree's log clade credibility: " + String.format("%.4f", treeReader.getBestScore()));
         progressStream.println("Lowest individual clade credibility: " + String.format("%.4f", cladeSystem.getMinimumCladeCredibility(bestTree)));
         progressStream.println("Mean individual clade credibility: " + String.format("%.4f", cladeSystem.getMeanCladeCredibility(bestTree)));
         progressStream.println("Number of clades with credibility > 0.95: " + cladeSystem.getTopCladeCredibility(bestTree, 0.95));
@@ -546,9 +431,6 @@ public class TreeAnnotator extends BaseTreeTool {
     }
 
 
-    private double scoreTree(Tree tree, CladeSystem cladeSystem) {
-        return cladeSystem.getLogCladeCredibility(tree);
-    }
 
     public static void printTitle() {
         progressStream.println();
@@ -723,7 +605,8 @@ public class TreeAnnotator extends BaseTreeTool {
                         new Arguments.Option("help", "option to print this message"),
                         new Arguments.Option("forceDiscrete", "forces integer traits to be treated as discrete traits."),
                         new Arguments.StringOption("hpd2D", "the HPD interval to be used for the bivariate traits", "specifies a (vector of comma separated) HPD proportion(s)"),
-                        new Arguments.Option("ess", "compute ess for branch parameters")
+                        new Arguments.Option("ess", "compute ess for branch parameters"),
+                        new Arguments.IntegerOption("threads", "the number of threads used to read the trees (defaults to the number of cores)")
                 });
 
         try {
@@ -788,6 +671,11 @@ public class TreeAnnotator extends BaseTreeTool {
             }
         }
 
+        int threadCount = DEFAULT_THREAD_COUNT;
+        if (arguments.hasOption("threads")) {
+            threadCount = arguments.getIntegerOption("threads");
+        }
+
         Target target = Target.MAX_CLADE_CREDIBILITY;
         if (arguments.hasOption("type") && arguments.getStringOption("type").equalsIgnoreCase("HIPSTR")) {
             target = Target.HIPSTR;
@@ -815,7 +703,7 @@ public class TreeAnnotator extends BaseTreeTool {
             }
         }
 
-        new TreeAnnotator(burninTrees, burninStates, heights, posteriorLimit, hpd2D, computeESS, target, targetTreeFileName, inputFileName, outputFileName);
+        new TreeAnnotator(burninTrees, burninStates, heights, posteriorLimit, hpd2D, computeESS, target, targetTreeFileName, inputFileName, outputFileName, threadCount);
 
         if (target == Target.MAX_CLADE_CREDIBILITY) {
             progressStream.println("Found Maximum Clade Credibility (MCC) tree - citation: " +
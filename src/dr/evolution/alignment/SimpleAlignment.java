@@ -195,7 +195,9 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
                     + " contains invalid char \'" + sequence.getChar(invalidCharAt) + "\' at index " + invalidCharAt);
 
         super.addSequence(sequence);
-        updateSiteCount();
+
+        // recalculated when next needed rather than for each sequence added
+        siteCountKnown = false;
     }
 
     /**
@@ -259,6 +261,39 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
         return pattern;
     }
 
+    /**
+     * Gets the patterns of a block of sites by extracting the states of each sequence
+     * in turn.
+     *
+     * @return the site patterns [site][sequence]
+     */
+    @Override
+    public int[][] getSitePatterns(int from, int every, int count) {
+        int n = getSequenceCount();
+
+        int[][] patterns = new int[count][n];
+        int[] states = new int[count];
+
+        for (int i = 0; i < n; i++) {
+            Sequence seq = getSequence(i);
+
+            // sites beyond the end of the sequence are gaps
+            int available = 0;
+            if (from < seq.getLength()) {
+                available = Math.min(count, ((seq.getLength() - 1 - from) / every) + 1);
+            }
+            seq.getStates(from, every, available, states);
+            for (int k = 0; k < available; k++) {
+                patterns[k][i] = states[k];
+            }
+            for (int k = available; k < count; k++) {
+                patterns[k][i] = dataType.getGapState();
+            }
+        }
+
+        return patterns;
+    }
+
     @Override
     public double[][] getUncertainSitePattern(int siteIndex) {
         if (areUncertain())   {
@@ -466,6 +501,7 @@ public class SimpleAlignment extends Sequences implements Alignment, dr.util.XHT
      * @return the array of pattern weights
      */
     public double[] getPatternWeights() {
+        int siteCount = getSiteCount();
         double[] weights = new double[siteCount];
         for (int i = 0; i < siteCount; i++)
             weights[i] = 1.0;
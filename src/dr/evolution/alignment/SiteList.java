@@ -45,6 +45,19 @@ public interface SiteList extends PatternList {
 	 */
 	int[] getSitePattern(int siteIndex);
 
+	/**
+	 * Gets the patterns of a block of sites (from, from + every, ...). Implementations that store
+	 * states by sequence can override this to extract the columns more efficiently.
+	 * @return the site patterns [site][sequence]
+	 */
+	default int[][] getSitePatterns(int from, int every, int count) {
+		int[][] patterns = new int[count][];
+		for (int k = 0; k < count; k++) {
+			patterns[k] = getSitePattern(from + k * every);
+		}
+		return patterns;
+	}
+
 	/**
 	 * Gets the pattern of site as an array of state frequency vectors (one per sequence)
 	 * @return the site pattern at siteIndex
@@ -36,6 +36,11 @@ import dr.evolution.util.TaxonList;
 import dr.util.Pair;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static dr.evolution.alignment.SitePatterns.CompressionType.*;
 
@@ -67,6 +72,12 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     public static final int MINIMUM_UNAMBIGUOUS = 2;
 
+    // the number of sites extracted and hashed together before being added to the pattern list
+    private static final int SITE_BLOCK_SIZE = 4096;
+
+    // below this number of sites a block is not worth splitting across threads
+    private static final int MIN_PARALLEL_SITES = 256;
+
     private final boolean isCompressed;
 
     /**
@@ -161,6 +172,24 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
      */
     public SitePatterns(Alignment alignment, TaxonList taxa, int from, int to, int every, boolean strip,
                         int[] constantSiteCounts, CompressionType compression, double ambiguityThreshold ) {
+        this(alignment, taxa, from, to, every, strip, constantSiteCounts, compression, ambiguityThreshold, 1);
+    }
+
+    /**
+     *
+     * @param alignment The alignment
+     * @param taxa The list of taxa - can be a subset of those in the alignment
+     * @param from the first site to be included in the pattern list (zero indexed)
+     * @param to the last site to be included in the pattern list (inclusive)
+     * @param every skip every over every X sites
+     * @param strip whether to strip completely ambiguous/gapped sites
+     * @param constantSiteCounts a vector of counts of constant sites for each state (for where the alignment only includes variable sites)
+     * @param compression Type of pattern/weight compression to use
+     * @param threadCount the number of threads used to extract and hash the site patterns
+     */
+    public SitePatterns(Alignment alignment, TaxonList taxa, int from, int to, int every, boolean strip,
+                        int[] constantSiteCounts, CompressionType compression, double ambiguityThreshold,
+                        int threadCount) {
 
         this.siteList = alignment;
         isCompressed = compression != UNCOMPRESSED;
@@ -183,7 +212,7 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             }
         }
 
-        addPatterns(alignment, from, to, every, strip, constantSiteCounts, compression, ambiguityThreshold);
+        addPatterns(alignment, from, to, every, strip, constantSiteCounts, compression, ambiguityThreshold, threadCount);
     }
 
     /**
@@ -213,7 +242,7 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
     public SitePatterns(SiteList siteList, int from, int to, int every, boolean strip, CompressionType compression, double ambiguityThreshold) {
         this.siteList = siteList;
         isCompressed = compression != UNCOMPRESSED;
-        addPatterns(siteList, from, to, every, strip, null, compression, ambiguityThreshold);
+        addPatterns(siteList, from, to, every, strip, null, compression, ambiguityThreshold, 1);
     }
 
     public SiteList getSiteList() {
@@ -224,7 +253,7 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
      * adds a set of patterns to the patternlist
      */
     private void addPatterns(SiteList siteList, int from, int to, int every, boolean strip, int[] constantSiteCounts,
-                             CompressionType compression, double ambiguityThreshold) {
+                             CompressionType compression, double ambiguityThreshold, int threadCount) {
         if (siteList == null) {
             return;
         }
@@ -265,6 +294,11 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             System.err.println("Creating SitePatterns using compression type: " + compression.toString());
         }
 
+        // unique patterns are found by hashing their packed state columns rather than by comparing
+        // each new pattern with every pattern found so far
+        Map<PatternKey, Integer> patternIndex = (compression != UNCOMPRESSED ? new HashMap<>() : null);
+        int bitsPerState = getBitsPerState(siteList.getDataType());
+
         if (compression == AMBIGUOUS_CONSTANT || compression == AMBIGUOUS_UNIQUE) {
             // if the patterns are to be compressed then create the constant sites initially
             for (int i = 0; i < siteList.getStateCount(); i++) {
@@ -272,34 +306,55 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
                 for (int j = 0; j < siteList.getPatternLength(); j++) {
                     pattern[j] = i;
                 }
-                addPattern(pattern, constantSiteCounts != null ? constantSiteCounts[i] : 0, null);
+                addPattern(pattern, new PatternKey(pattern, bitsPerState),
+                        constantSiteCounts != null ? constantSiteCounts[i] : 0, patternIndex);
             }
         }
 
         int site = 0;
         int count = 0;
 
-        for (int i = from; i <= to; i += every) {
-            int[] pattern = siteList.getSitePattern(i);
-            double weight = siteList.getPatternWeight(i);
+        ExecutorService pool = (threadCount > 1 && !uncertainSites ? Executors.newFixedThreadPool(threadCount) : null);
 
-            if (uncertainSites) {
-                sitePatternIndices[site] = addUncertainPattern(pattern, weight, siteList.getUncertainSitePattern(i));
-            } else{
-                // @todo - what is `strip` being used for?
-                if (!strip || !isInvariant(pattern, false) ||
-                        (!isGapped(pattern) &&
-                                !isAmbiguous(pattern) &&
-                                !isUnknown(pattern))) {
+        try {
+            int[][] blockPatterns = new int[SITE_BLOCK_SIZE][];
+            PatternKey[] blockKeys = new PatternKey[SITE_BLOCK_SIZE];
 
-                    sitePatternIndices[site] = addPattern(pattern, weight, compression);
+            for (int blockStart = from; blockStart <= to; blockStart += SITE_BLOCK_SIZE * every) {
+                int blockSize = Math.min(SITE_BLOCK_SIZE, ((to - blockStart) / every) + 1);
 
-                    count += 1;
-                } else {
-                    sitePatternIndices[site] = -1;
+                extractPatterns(siteList, blockStart, every, blockSize, blockPatterns,
+                        (patternIndex != null ? blockKeys : null), bitsPerState, pool, threadCount);
+
+                for (int k = 0; k < blockSize; k++) {
+                    int i = blockStart + k * every;
+                    int[] pattern = blockPatterns[k];
+                    double weight = siteList.getPatternWeight(i);
+
+                    if (uncertainSites) {
+                        sitePatternIndices[site] = addUncertainPattern(pattern, weight, siteList.getUncertainSitePattern(i));
+                    } else{
+                        // @todo - what is `strip` being used for?
+                        if (!strip || !isInvariant(pattern, false) ||
+                                (!isGapped(pattern) &&
+                                        !isAmbiguous(pattern) &&
+                                        !isUnknown(pattern))) {
+
+                            sitePatternIndices[site] = addPattern(pattern,
+                                    (patternIndex != null ? blockKeys[k] : null), weight, patternIndex);
+
+                            count += 1;
+                        } else {
+                            sitePatternIndices[site] = -1;
+                        }
+                    }
+                    site++;
                 }
             }
-            site++;
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
         }
 
         if (DEBUG) {
@@ -351,22 +406,81 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         countInvariantSites();
     }
 
+    /**
+     * Extracts a block of site patterns from the site list and, if keys is not null, computes their
+     * hash keys. Large blocks are split over the thread pool if one is given.
+     */
+    private static void extractPatterns(final SiteList siteList, final int blockStart, final int every,
+                                        final int blockSize, final int[][] blockPatterns, final PatternKey[] keys,
+                                        final int bitsPerState, ExecutorService pool, int threadCount) {
+
+        if (pool == null || blockSize < MIN_PARALLEL_SITES) {
+            extractPatterns(siteList, blockStart, every, 0, blockSize, blockPatterns, keys, bitsPerState);
+            return;
+        }
+
+        int sitesPerThread = blockSize / threadCount;
+        if (blockSize % threadCount != 0) {
+            ++sitesPerThread;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<>(threadCount);
+        for (int start = 0; start < blockSize; start += sitesPerThread) {
+            final int taskStart = start;
+            final int taskEnd = Math.min(start + sitesPerThread, blockSize);
+            tasks.add(() -> {
+                extractPatterns(siteList, blockStart, every, taskStart, taskEnd, blockPatterns, keys, bitsPerState);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void extractPatterns(SiteList siteList, int blockStart, int every, int start, int end,
+                                        int[][] blockPatterns, PatternKey[] keys, int bitsPerState) {
+        int[][] patterns = siteList.getSitePatterns(blockStart + start * every, every, end - start);
+        for (int k = start; k < end; k++) {
+            int[] pattern = patterns[k - start];
+            blockPatterns[k] = pattern;
+            if (keys != null) {
+                keys[k] = new PatternKey(pattern, bitsPerState);
+            }
+        }
+    }
+
+    /**
+     * @return the number of bits needed to pack any state of the data type (including ambiguities)
+     */
+    private static int getBitsPerState(DataType dataType) {
+        int maxState = Math.max(
+                Math.max(dataType.getStateCount(), dataType.getAmbiguousStateCount()),
+                Math.max(dataType.getGapState(), dataType.getUnknownState()));
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(maxState));
+    }
+
     /**
      * adds a pattern to the pattern list with the given weight
      *
+     * @param patternIndex a map of the unique patterns so far to their index, or null if uncompressed
      * @return the index of the pattern in the pattern list
      */
-    private int addPattern(int[] pattern, double weight, CompressionType compression) {
+    private int addPattern(int[] pattern, PatternKey key, double weight, Map<PatternKey, Integer> patternIndex) {
 
-        if (compression != UNCOMPRESSED) {
+        if (patternIndex != null) {
             // this will compress unique patterns, further compression of ambiguously similar
             // patterns is done in a later step
-            for (int i = 0; i < patternCount; i++) {
-                if (comparePatterns(patterns[i], pattern, false)) {
-                    patterns[i] = pattern;
-                    weights[i] += weight;
-                    return i;
-                }
+            Integer i = patternIndex.get(key);
+            if (i != null) {
+                patterns[i] = pattern;
+                weights[i] += weight;
+                return i;
             }
         }
 
@@ -375,6 +489,10 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         patterns[index] = pattern;
         weights[index] = weight;
 
+        if (patternIndex != null) {
+            patternIndex.put(key, index);
+        }
+
         patternCount++;
 
         return index;
@@ -445,25 +563,46 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         int minimumUnambiguous = (int)((1.0 - ambiguityThreshold) * getPatternLength());
         minimumUnambiguous = Math.min(minimumUnambiguous, 2);
 
+        // rather than comparing each pattern with all those before it, the candidate matches are
+        // found using an index of which of the retained patterns are compatible with each state
+        // of each taxon. The first candidate that is confirmed by comparePatterns is the same
+        // pattern that a linear search would have found.
+        CompatibilityIndex index = new CompatibilityIndex(getDataType(), getPatternLength(), patternCount);
+
         // the first stateCount patterns are the constant ones
+        for (int j = 0; j < getStateCount(); j++) {
+            index.add(j, patterns[j]);
+        }
+
         for (int i = getStateCount(); i < patternCount; i++) {
-            int count = constantOnly ? getStateCount() : i;
-            for (int j = 0; j < count; j++) {
-                if (patterns[j] != null) {
-                    // the pattern should have at least 2 non-ambiguous characters
-                    if (getCanonicalStateCount(patterns[i]) >= minimumUnambiguous &&
-                            comparePatterns(patterns[i], patterns[j], true)) {
-                        if (!constantOnly && getCanonicalStateCount(patterns[i]) > getCanonicalStateCount(patterns[j])) {
-                            // if this is a less ambiguous pattern then this becomes the 'type' pattern
-                            patterns[j] = patterns[i];
-                        }
-                        weights[j] += weights[i];
-                        weights[i] = 0.0;
-                        patterns[i] = null;
-                        break;
+            int match = -1;
+
+            // the pattern should have at least 2 non-ambiguous characters
+            if (getCanonicalStateCount(patterns[i]) >= minimumUnambiguous) {
+                int j = index.nextCandidate(patterns[i], 0);
+                while (j >= 0 && match < 0) {
+                    if (comparePatterns(patterns[i], patterns[j], true)) {
+                        match = j;
+                    } else {
+                        j = index.nextCandidate(patterns[i], j + 1);
                     }
                 }
             }
+
+            if (match >= 0) {
+                if (!constantOnly && getCanonicalStateCount(patterns[i]) > getCanonicalStateCount(patterns[match])) {
+                    // if this is a less ambiguous pattern then this becomes the 'type' pattern
+                    index.remove(match, patterns[match]);
+                    patterns[match] = patterns[i];
+                    index.add(match, patterns[match]);
+                }
+                weights[match] += weights[i];
+                weights[i] = 0.0;
+                patterns[i] = null;
+            } else if (!constantOnly) {
+                // only the constant patterns are candidates if constantOnly
+                index.add(i, patterns[i]);
+            }
         }
 
         // compress out all the nulls
@@ -487,6 +626,150 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         }
     }
 
+    /**
+     * A hashable key for a site pattern. Where every state fits in the given number of bits the
+     * states are packed into longs which are quicker to hash and compare than the int array.
+     */
+    private static final class PatternKey {
+        private final int[] pattern;
+        private final long[] packed;
+        private final int hashCode;
+
+        PatternKey(int[] pattern, int bitsPerState) {
+            this.packed = pack(pattern, bitsPerState);
+            this.pattern = (packed == null ? pattern : null);
+            this.hashCode = (packed != null ? Arrays.hashCode(packed) : Arrays.hashCode(pattern));
+        }
+
+        private static long[] pack(int[] pattern, int bitsPerState) {
+            int statesPerWord = Long.SIZE / bitsPerState;
+            long[] packed = new long[(pattern.length + statesPerWord - 1) / statesPerWord];
+            for (int i = 0; i < pattern.length; i++) {
+                int state = pattern[i];
+                if (state < 0 || (state >>> bitsPerState) != 0) {
+                    // doesn't fit so leave unpacked
+                    return null;
+                }
+                packed[i / statesPerWord] |= ((long) state) << ((i % statesPerWord) * bitsPerState);
+            }
+            return packed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PatternKey)) return false;
+            PatternKey other = (PatternKey) o;
+            if (hashCode != other.hashCode) return false;
+            if (packed != null && other.packed != null) {
+                return Arrays.equals(packed, other.packed);
+            }
+            // a packed pattern can't be the same as one that didn't fit
+            return pattern != null && other.pattern != null && Arrays.equals(pattern, other.pattern);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * A bit set for each taxon and canonical state recording which patterns have a state at that
+     * taxon which is not unambiguously different from it. The intersection of these over the
+     * unambiguous states of a pattern gives the candidates that it may be compatible with.
+     * For large state spaces only a subset of taxa are indexed to keep the size below that of
+     * the patterns themselves - the candidates are then a larger superset.
+     */
+    private static final class CompatibilityIndex {
+        private final int stateCount;
+        private final int taxonCount;
+        private final int wordCount;
+        private final long[][] compatible;
+        private final long[] present;
+        private final int[][] compatibleStates;
+        private final DataType dataType;
+
+        CompatibilityIndex(DataType dataType, int patternLength, int patternCount) {
+            this.dataType = dataType;
+            this.stateCount = dataType.getStateCount();
+            this.taxonCount = Math.min(patternLength, Math.max(1, (patternLength * Integer.SIZE) / stateCount));
+            this.wordCount = (patternCount + Long.SIZE - 1) / Long.SIZE;
+            this.compatible = new long[taxonCount * stateCount][wordCount];
+            this.present = new long[wordCount];
+
+            int bitsPerState = getBitsPerState(dataType);
+            this.compatibleStates = new int[bitsPerState <= 16 ? 1 << bitsPerState : 0][];
+        }
+
+        private int[] getCompatibleStates(int state) {
+            if (state >= 0 && state < compatibleStates.length) {
+                if (compatibleStates[state] == null) {
+                    compatibleStates[state] = findCompatibleStates(state);
+                }
+                return compatibleStates[state];
+            }
+            return findCompatibleStates(state);
+        }
+
+        private int[] findCompatibleStates(int state) {
+            int[] states = new int[stateCount];
+            int count = 0;
+            for (int i = 0; i < stateCount; i++) {
+                if (!dataType.areUnambiguouslyDifferent(i, state)) {
+                    states[count] = i;
+                    count++;
+                }
+            }
+            return Arrays.copyOf(states, count);
+        }
+
+        void add(int index, int[] pattern) {
+            int word = index / Long.SIZE;
+            long bit = 1L << (index % Long.SIZE);
+            for (int t = 0; t < taxonCount; t++) {
+                for (int state : getCompatibleStates(pattern[t])) {
+                    compatible[t * stateCount + state][word] |= bit;
+                }
+            }
+            present[word] |= bit;
+        }
+
+        void remove(int index, int[] pattern) {
+            int word = index / Long.SIZE;
+            long bit = ~(1L << (index % Long.SIZE));
+            for (int t = 0; t < taxonCount; t++) {
+                for (int state : getCompatibleStates(pattern[t])) {
+                    compatible[t * stateCount + state][word] &= bit;
+                }
+            }
+            present[word] &= bit;
+        }
+
+        /**
+         * @return the lowest index, not less than from, of a pattern that may be compatible with the
+         * given one, or -1 if there are none.
+         */
+        int nextCandidate(int[] pattern, int from) {
+            for (int word = from / Long.SIZE; word < wordCount; word++) {
+                long candidates = present[word];
+                if (word == from / Long.SIZE) {
+                    candidates &= -1L << (from % Long.SIZE);
+                }
+                for (int t = 0; t < taxonCount && candidates != 0; t++) {
+                    int state = pattern[t];
+                    if (state >= 0 && state < stateCount) {
+                        candidates &= compatible[t * stateCount + state][word];
+                    }
+                }
+                if (candidates != 0) {
+                    return word * Long.SIZE + Long.numberOfTrailingZeros(candidates);
+                }
+            }
+            return -1;
+        }
+    }
+
     /**
      * @return true if the pattern contains a gap state
      */
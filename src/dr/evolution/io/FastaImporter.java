@@ -30,6 +30,7 @@ package dr.evolution.io;
 import dr.evolution.alignment.Alignment;
 import dr.evolution.alignment.SimpleAlignment;
 import dr.evolution.datatype.DataType;
+import dr.evolution.sequence.PackedSequence;
 import dr.evolution.sequence.Sequence;
 import dr.evolution.sequence.SequenceList;
 import dr.evolution.util.Taxon;
@@ -77,9 +78,11 @@ public class FastaImporter extends Importer implements SequenceImporter {
             while (read() != FASTA_FIRST_CHAR) {
             }
 
+            StringBuilder seq = new StringBuilder();
+
             do {
                 final String name = readLine().trim();
-                StringBuilder seq = new StringBuilder();
+                seq.setLength(0);
 
                 readSequence(seq, dataType, "" + FASTA_FIRST_CHAR, Integer.MAX_VALUE, "-", "?", "", "");
 
@@ -87,7 +90,18 @@ public class FastaImporter extends Importer implements SequenceImporter {
                     alignment = new SimpleAlignment();
                 }
 
-                alignment.addSequence(new Sequence(new Taxon(name.toString()), seq.toString()));
+                // the alignment takes the data type guessed from the first sequence
+                DataType sequenceType = alignment.getDataType();
+                if (sequenceType == null) {
+                    sequenceType = DataType.guessDataType(seq.toString());
+                }
+
+                if (PackedSequence.canPack(sequenceType, seq)) {
+                    // store the states packed rather than as a string
+                    alignment.addSequence(new PackedSequence(new Taxon(name), sequenceType, seq));
+                } else {
+                    alignment.addSequence(new Sequence(new Taxon(name.toString()), seq.toString()));
+                }
 
             } while (getLastDelimiter() == FASTA_FIRST_CHAR);
         } catch (EOFException e) {
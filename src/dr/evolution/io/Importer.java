@@ -130,6 +130,7 @@ public abstract class Importer {
 		this.commentWriter = null;
 		this.processComments = processComments;
 		isEOF = false;
+		initLineNumber();
 	}
 
 	public Importer(Reader reader, Writer commentWriter) {
@@ -137,12 +138,34 @@ public abstract class Importer {
 		this.reader = reader;
 		this.commentWriter = commentWriter != null ? new BufferedWriter(commentWriter) : null;
 		isEOF = false;
+		initLineNumber();
 	}
 
+	/**
+	 * Returns the underlying reader. Characters are read from it in blocks so
+	 * once any reading has been done through this importer, some of them
+	 * will already have been consumed into its buffer.
+	 */
 	public Reader getReader() {
 		return reader;
 	}
 
+	/**
+	 * Replaces the reader, discarding anything buffered from the previous one, so that an
+	 * importer (and its buffer) can be reused for another piece of text.
+	 */
+	protected void setReader(Reader reader) {
+		this.reader = reader;
+		bufferPosition = 0;
+		bufferLength = 0;
+		lastChar = '\0';
+		lastDelimiter = '\0';
+		lastConsumed = '\0';
+		lastMetaComment = null;
+		isEOF = false;
+		initLineNumber();
+	}
+
 	public void setCommentDelimiters(char line) {
 		hasComments = true;
 		this.lineComment = line;
@@ -175,10 +198,17 @@ public abstract class Importer {
 	}
 
 	public int getLineNumber() {
+		// the reader will be ahead of us because of the buffer so count lines as they are consumed
+		return lineNumber;
+	}
+
+	private void initLineNumber() {
 		if (reader instanceof LineNumberReader) {
-			return ((LineNumberReader)reader).getLineNumber();
+			lineNumber = ((LineNumberReader)reader).getLineNumber();
+			countLines = true;
 		} else {
-			return -1;
+			lineNumber = -1;
+			countLines = false;
 		}
 	}
 
@@ -223,11 +253,18 @@ public abstract class Importer {
 		int ch;
 
 		if (lastChar == '\0') {
-			ch = reader.read();
-			if (ch <= 0) {
+			if (bufferPosition == bufferLength && !fillBuffer()) {
 				isEOF = true;
 				throw new EOFException();
 			}
+			ch = buffer[bufferPosition++];
+			if (ch == 0) {
+				isEOF = true;
+				throw new EOFException();
+			}
+			if (countLines) {
+				countLine(ch);
+			}
 		} else {
 			ch = lastChar;
 			lastChar = '\0';
@@ -236,6 +273,67 @@ public abstract class Importer {
 		return (char)ch;
 	}
 
+	/**
+	 * Refills the character buffer with the next block from the reader.
+	 * @return false if the end of the reader has been reached
+	 */
+	private boolean fillBuffer() throws IOException {
+		int n;
+		do {
+			n = reader.read(buffer, 0, buffer.length);
+		} while (n == 0);
+
+		bufferPosition = 0;
+		bufferLength = Math.max(n, 0);
+
+		return n > 0;
+	}
+
+	/**
+	 * Counts line terminators in the same way as LineNumberReader: '\n', '\r' or "\r\n".
+	 */
+	private void countLine(int ch) {
+		if (ch == '\n') {
+			if (lastConsumed != '\r') {
+				lineNumber++;
+			}
+		} else if (ch == '\r') {
+			lineNumber++;
+		}
+		lastConsumed = ch;
+	}
+
+	/**
+	 * Appends the run of plain token characters that follow in the buffer directly
+	 * to the token. This stops before anything that readToken needs to look at
+	 * itself (whitespace, a delimiter, a comment or the end of the buffer) so it
+	 * doesn't change what is read, it just avoids doing it a character at a time.
+	 */
+	private void readTokenRun(StringBuilder token, String delimiters, boolean ignoreComments) {
+		if (lastChar != '\0') {
+			return;
+		}
+
+		int start = bufferPosition;
+		int end = start;
+		while (end < bufferLength) {
+			char ch = buffer[end];
+			if (ch == 0 || Character.isWhitespace(ch) || delimiters.indexOf(ch) != -1 ||
+					(!ignoreComments && (ch == startComment || ch == lineComment))) {
+				break;
+			}
+			end++;
+		}
+
+		if (end > start) {
+			token.append(buffer, start, end - start);
+			bufferPosition = end;
+			if (countLines) {
+				lastConsumed = buffer[end - 1];
+			}
+		}
+	}
+
 	/**
 	 * Reads a line, skipping over any comments.
 	 */
@@ -505,7 +603,7 @@ public abstract class Importer {
 	public double readDouble() throws IOException, ImportException {
 		String token = readToken();
 		try {
-			return Double.parseDouble(token);
+			return parseDouble(token);
 		} catch (NumberFormatException nfe) {
 			throw new ImportException("Number format error: " + nfe.getMessage());
 		}
@@ -518,12 +616,64 @@ public abstract class Importer {
 	public double readDouble(String delimiters) throws IOException, ImportException {
 		String token = readToken(delimiters);
 		try {
-			return Double.parseDouble(token);
+			return parseDouble(token);
 		} catch (NumberFormatException nfe) {
 			throw new ImportException("Number format error: " + nfe.getMessage());
 		}
 	}
 
+	/**
+	 * Parses a double giving exactly the same result as Double.parseDouble. Plain
+	 * decimals with up to 15 significant digits (as branch lengths and the like often
+	 * are) are converted directly as both the digits and the power of ten are exactly
+	 * representable so a single division is correctly rounded. Anything else is
+	 * passed on to Double.parseDouble.
+	 */
+	public static double parseDouble(String token) {
+		final int length = token.length();
+		int i = 0;
+		boolean negative = false;
+
+		if (length > 0 && (token.charAt(0) == '-' || token.charAt(0) == '+')) {
+			negative = token.charAt(0) == '-';
+			i = 1;
+		}
+
+		long digits = 0;
+		int digitCount = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+		boolean any = false;
+
+		for (; i < length; i++) {
+			char ch = token.charAt(i);
+			if (ch >= '0' && ch <= '9') {
+				any = true;
+				if (digits != 0 || ch != '0') {
+					digitCount++;
+				}
+				digits = digits * 10 + (ch - '0');
+				if (point) {
+					fractionDigits++;
+				}
+				if (digitCount > MAX_EXACT_DIGITS || fractionDigits >= POWERS_OF_TEN.length) {
+					return Double.parseDouble(token);
+				}
+			} else if (ch == '.' && !point) {
+				point = true;
+			} else {
+				return Double.parseDouble(token);
+			}
+		}
+
+		if (!any) {
+			return Double.parseDouble(token);
+		}
+
+		double value = (double)digits / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+
 	/**
 	 * Reads a token stopping when any whitespace or a comment is found.
 	 * If the token begins with a quote char then all characters will be
@@ -606,6 +756,7 @@ public abstract class Importer {
 					} else {
 						token.append(ch);
 						first = false;
+						readTokenRun(token, delimiters, ignoreComments);
 					}
 				}
 			} catch (EOFException e) {
@@ -878,7 +1029,23 @@ public abstract class Importer {
 
 	// Private stuff
 
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int MAX_EXACT_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
 	private Reader reader;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int bufferPosition = 0;
+	private int bufferLength = 0;
+
+	private boolean countLines = false;
+	private int lineNumber = -1;
+	private int lastConsumed = '\0';
 	private BufferedWriter commentWriter = null;
 
 	private int lastChar = '\0';
@@ -86,6 +86,7 @@ public class NewickImporter extends Importer implements TreeImporter {
      */
     public Tree importTree(TaxonList taxonList) throws IOException, ImportException {
         setCommentDelimiters('[', ']', '\0', '\0', '&');
+        taxonMap = null;
 
         try {
             skipUntil("(");
@@ -144,6 +145,7 @@ public class NewickImporter extends Importer implements TreeImporter {
     public List<Tree> importTrees(TaxonList taxonList) throws IOException, ImportException {
         boolean done = false;
         List<Tree> trees = new ArrayList<>();
+        taxonMap = null;
 
         do {
 
@@ -304,10 +306,8 @@ public class NewickImporter extends Importer implements TreeImporter {
 
         if (taxonList != null) {
             // if a taxon list is given then the taxon must be in it...
-            int index = taxonList.getTaxonIndex(label);
-            if (index != -1) {
-                taxon = taxonList.getTaxon(index);
-            } else {
+            taxon = getTaxonMap(taxonList).get(label);
+            if (taxon == null) {
                 throw new UnknownTaxonException("Taxon in tree, '" + label + "' is unknown");
             }
         } else {
@@ -319,4 +319,23 @@ public class NewickImporter extends Importer implements TreeImporter {
         return node;
     }
 
+    /**
+     * Returns a map from taxon id to taxon for the list so that each tip is a hash lookup
+     * rather than a search of the list. If ids are repeated then the first is used, as
+     * getTaxonIndex would. The map is kept while the same list is being used.
+     */
+    private Map<String, Taxon> getTaxonMap(TaxonList taxonList) {
+        if (taxonMap == null || taxonMapList != taxonList) {
+            taxonMap = new HashMap<String, Taxon>();
+            for (int i = 0; i < taxonList.getTaxonCount(); i++) {
+                taxonMap.putIfAbsent(taxonList.getTaxonId(i), taxonList.getTaxon(i));
+            }
+            taxonMapList = taxonList;
+        }
+        return taxonMap;
+    }
+
+    private Map<String, Taxon> taxonMap = null;
+    private TaxonList taxonMapList = null;
+
 }
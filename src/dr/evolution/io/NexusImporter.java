@@ -33,6 +33,7 @@ import dr.evolution.datatype.AminoAcids;
 import dr.evolution.datatype.DataType;
 import dr.evolution.datatype.Nucleotides;
 import dr.evolution.datatype.TwoStates;
+import dr.evolution.sequence.PackedSequence;
 import dr.evolution.sequence.Sequence;
 import dr.evolution.sequence.SequenceList;
 import dr.evolution.sequence.Sequences;
@@ -275,6 +276,9 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
 
     private boolean isReadingTreesBlock = false;
     private HashMap<String, Taxon> translationList = null;
+    private Map<Taxon, Integer> taxonNumberMap = null;
+    private HashMap<String, Taxon> taxonNumberMapTranslations = null;
+    private TaxonList taxonNumberMapTaxa = null;
     private Tree nextTree = null;
     private final String[] lastToken = new String[1];
 
@@ -370,6 +374,44 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         return tree;
     }
 
+    /**
+     * Reads up to the start of a TREES block and its TRANSLATE command (if any) so that the trees
+     * of the block can then be parsed one TREE command at a time with parseTreeCommand.
+     * @param taxonList the taxa the translation list refers to or null to create them (or to take
+     *                  them from a TAXA block)
+     * @return the translation list
+     */
+    public HashMap<String, Taxon> readTreesBlockHeader(TaxonList taxonList) throws IOException, ImportException {
+        TaxonList[] aTaxonList = new TaxonList[1];
+        aTaxonList[0] = taxonList;
+        if (!startReadingTrees(aTaxonList)) {
+            throw new MissingBlockException("TREES block is missing");
+        }
+        return readTranslationList(aTaxonList[0], lastToken);
+    }
+
+    /**
+     * Parses a single TREE command of a TREES block whose header has already been read (see
+     * readTreesBlockHeader), so the header is not parsed again for each tree. The command replaces
+     * whatever was left to read by this importer, which can be reused for the next command.
+     * @param command the TREE command, including its terminating ';'
+     * @param translationList the translation list of the block
+     * @return the tree
+     */
+    public Tree parseTreeCommand(String command, HashMap<String, Taxon> translationList) throws IOException, ImportException {
+        // the block's end is added as the tree is only returned once the token after it has been read
+        setReader(new StringReader(command + "\nEnd;\n"));
+        isReadingTreesBlock = false;
+        nextTree = null;
+
+        lastToken[0] = readToken(";");
+        Tree tree = readNextTree(translationList, lastToken, null);
+        if (tree == null) {
+            throw new BadFormatException("Missing TREE command");
+        }
+        return tree;
+    }
+
     public boolean startReadingTrees(TaxonList[] taxonList) throws IOException, ImportException {
         boolean done = false;
 
@@ -585,6 +627,10 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         if (isInterleaved) {
             boolean firstLoop = true;
 
+            // the sequences are collected and only created once they are complete
+            List<Taxon> taxa = new ArrayList<Taxon>();
+            List<StringBuilder> buffers = new ArrayList<StringBuilder>();
+
             int readCount = 0;
             while (readCount < siteCount) {
 
@@ -594,16 +640,10 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
 
                     String token = readToken().trim();
 
-                    Sequence sequence;
+                    Taxon taxon;
 
                     if (firstLoop) {
 
-                        sequence = new Sequence();
-                        sequence.setDataType(dataType);
-                        sequences.addSequence(sequence);
-
-                        Taxon taxon;
-
                         if (taxonList != null) {
                             int index = taxonList.getTaxonIndex(token.trim());
                             if (index == -1) {
@@ -617,12 +657,12 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                             taxon = new Taxon(token.trim());
                         }
 
-                        sequence.setTaxon(taxon);
+                        taxa.add(taxon);
+                        buffers.add(new StringBuilder());
 
                     } else {
 
-                        sequence = sequences.getSequence(i);
-                        Taxon taxon = sequence.getTaxon();
+                        taxon = taxa.get(i);
                         if (!taxon.getId().equals(token)) {
                             throw new UnknownTaxonException("Unknown taxon label: expecting '" +
                                     taxon.getId() + "', found '" + token + "'");
@@ -633,7 +673,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                     readSequenceLine(buffer, dataType, ";", gapCharacters, missingCharacters,
                             matchCharacters, firstSequence);
                     String seqString = buffer.toString();
-                    sequence.appendSequenceString(seqString);
+                    buffers.get(i).append(seqString);
                     if (i == 0) {
                         firstSequence = seqString;
                     }
@@ -643,7 +683,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                             throw new TooFewTaxaException();
                         }
                         if (readCount + n < siteCount) {
-                            throw new ShortSequenceException(sequence.getTaxon().getId());
+                            throw new ShortSequenceException(taxon.getId());
                         }
                     }
 
@@ -652,7 +692,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                     }
 
                     if (n != seqString.length()) {
-                        throw new ShortSequenceException(sequence.getTaxon().getId());
+                        throw new ShortSequenceException(taxon.getId());
                     }
                 }
 
@@ -664,15 +704,19 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                 throw new BadFormatException("Expecting ';' after sequences data");
             }
 
+            for (i = 0; i < taxa.size(); i++) {
+                addSequence(sequences, taxa.get(i), buffers.get(i));
+                // the characters are no longer needed once the sequence is created
+                buffers.set(i, null);
+            }
+
         } else {
 
+            StringBuilder buffer = new StringBuilder();
+
             for (i = 0; i < taxonCount; i++) {
                 String token = readToken().trim();
 
-                Sequence sequence = new Sequence();
-                sequence.setDataType(dataType);
-                sequences.addSequence(sequence);
-
                 Taxon taxon;
 
                 if (taxonList != null) {
@@ -688,19 +732,16 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                     taxon = new Taxon(token);
                 }
 
-                sequence.setTaxon(taxon);
-
-                StringBuilder buffer = new StringBuilder();
+                buffer.setLength(0);
                 readSequence(buffer, dataType, ";", siteCount, gapCharacters,
                         missingCharacters, matchCharacters, firstSequence);
-                String seqString = buffer.toString();
-                if (seqString.length() != siteCount) {
-                    throw new ShortSequenceException(sequence.getTaxon().getId());
+                if (buffer.length() != siteCount) {
+                    throw new ShortSequenceException(taxon.getId());
                 }
 
-                sequence.appendSequenceString(seqString);
+                addSequence(sequences, taxon, buffer);
                 if (i == 0) {
-                    firstSequence = seqString;
+                    firstSequence = buffer.toString();
                 }
 
                 if (getLastDelimiter() == ';' && i < taxonCount - 1) {
@@ -718,6 +759,24 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
     }
 
 
+    /**
+     * Adds a sequence of the current data type, packing the states if the characters
+     * can be recovered from them.
+     */
+    private void addSequence(Sequences sequences, Taxon taxon, StringBuilder buffer) {
+        if (PackedSequence.canPack(dataType, buffer)) {
+            sequences.addSequence(new PackedSequence(taxon, dataType, buffer));
+        } else {
+            Sequence sequence = new Sequence();
+            sequence.setDataType(dataType);
+            sequence.setTaxon(taxon);
+            // the characters are appended once the sequence has been added so they are
+            // not checked against the data type's valid characters
+            sequences.addSequence(sequence);
+            sequence.appendSequenceString(buffer.toString());
+        }
+    }
+
     /**
      * Reads a 'TAXA' block.
      */
@@ -957,28 +1016,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
                     if (translationList != null) {
                         // this ensures that if a translation list is used, the external node numbers
                         // of the trees correspond as well.
-
-                        Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
-                        int count = 0;
-                        for (String label : translationList.keySet()) {
-                            Taxon taxon = translationList.get(label);
-                            int number;
-
-                            if (taxonList != null) { // Map back to original numbering from TaxonList
-                                number =  taxonList.getTaxonIndex(taxon);
-                            } else { // Old functionality
-                                try {
-                                    number = Integer.parseInt(label) - 1;
-                                } catch (NumberFormatException nfe) {
-                                    number = count;
-                                }
-                            }
-
-                            taxonNumberMap.put(taxon, number);
-                            count++;
-                        }
-
-                        tree = new FlexibleTree(root, false, true, taxonNumberMap);
+                        tree = new FlexibleTree(root, false, true, getTaxonNumberMap(translationList, taxonList));
                     } else {
                         tree = new FlexibleTree(root, false, true, null);
                     }
@@ -1065,6 +1103,42 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         }
     }
 
+    /**
+     * Returns the map from taxa to external node numbers for the translation list. This is
+     * the same for every tree in the block so it is only built once.
+     */
+    private Map<Taxon, Integer> getTaxonNumberMap(HashMap<String, Taxon> translationList, TaxonList taxonList) {
+        if (taxonNumberMap != null && taxonNumberMapTranslations == translationList && taxonNumberMapTaxa == taxonList) {
+            return taxonNumberMap;
+        }
+
+        Map<Taxon, Integer> map = new HashMap<Taxon, Integer>();
+        int count = 0;
+        for (String label : translationList.keySet()) {
+            Taxon taxon = translationList.get(label);
+            int number;
+
+            if (taxonList != null) { // Map back to original numbering from TaxonList
+                number =  taxonList.getTaxonIndex(taxon);
+            } else { // Old functionality
+                try {
+                    number = Integer.parseInt(label) - 1;
+                } catch (NumberFormatException nfe) {
+                    number = count;
+                }
+            }
+
+            map.put(taxon, number);
+            count++;
+        }
+
+        taxonNumberMap = map;
+        taxonNumberMapTranslations = translationList;
+        taxonNumberMapTaxa = taxonList;
+
+        return taxonNumberMap;
+    }
+
     /**
      * Reads a branch in. This could be a node or a tip (calls readNode or readTip
      * accordingly). It then reads the branch length and SimpleNode that will
@@ -1346,6 +1420,10 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         return dateArray;
     }
 
+    // TODO MAS Minor change in line below for nested arrays may cause other unforeseen bugs
+    private static final Pattern META_COMMENT_PAIR_PATTERN =
+            Pattern.compile("(\"[^\"]*\"+|[^,=\\s]+)\\s*(=\\s*(\\{[^=]*\\}|\"[^\"]*\"+|[^,]+))?");
+
     static void parseMetaCommentPairs(String meta, Attributable item) throws Importer.BadFormatException {
         if (meta.startsWith("B ")) {
             // a MrBayes annotation
@@ -1365,9 +1443,7 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         // value=number, value="string", value={item1, item2, item3}
         // (label must be quoted if it contains spaces (i.e. "my label"=label)
 
-        // TODO MAS Minor change in line below for nested arrays may cause other unforeseen bugs
-        Pattern pattern = Pattern.compile("(\"[^\"]*\"+|[^,=\\s]+)\\s*(=\\s*(\\{[^=]*\\}|\"[^\"]*\"+|[^,]+))?");
-        Matcher matcher = pattern.matcher(meta);
+        Matcher matcher = META_COMMENT_PAIR_PATTERN.matcher(meta);
 
         while (matcher.find()) {
             String label = matcher.group(1);
@@ -1412,6 +1488,18 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
         return true;
     }
 
+    /**
+     * Every string that Double.parseDouble accepts starts with a digit, a sign,
+     * a decimal point or the 'N' of NaN or 'I' of Infinity.
+     */
+    private static boolean couldBeDouble(String str) {
+        if (str.isEmpty()) {
+            return false;
+        }
+        char ch = str.charAt(0);
+        return (ch >= '0' && ch <= '9') || ch == '-' || ch == '+' || ch == '.' || ch == 'N' || ch == 'I';
+    }
+
     /**
      * This method takes a string and tries to decode it returning the object
      * that best fits the data. It will recognize comma delimited lists enclosed
@@ -1492,11 +1580,13 @@ public class NexusImporter extends Importer implements SequenceImporter, TreeImp
             return Integer.valueOf(value);
         }
 
-        // Attempt to format the value as a double
-        try {
-            return Double.parseDouble(value);
-        } catch (NumberFormatException nfe2) {
-            // not a double
+        // Attempt to format the value as a double (only if it could be one, as the exception is slow)
+        if (couldBeDouble(value)) {
+            try {
+                return Importer.parseDouble(value);
+            } catch (NumberFormatException nfe2) {
+                // not a double
+            }
         }
 
         // return the trimmed string
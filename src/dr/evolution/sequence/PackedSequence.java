@@ -0,0 +1,388 @@
+/*
+ * PackedSequence.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evolution.sequence;
+
+import dr.evolution.datatype.DataType;
+import dr.evolution.util.Taxon;
+
+import java.util.Arrays;
+
+/**
+ * A sequence that stores its states bit-packed into an array of longs rather than as a string of
+ * characters. The number of bits per state is chosen for each sequence to minimise its size, so
+ * a nucleotide sequence with no ambiguities takes 2 bits per site and amino acids take 5. If it
+ * is smaller, the less common states (typically gaps and unknowns) are held as runs in a side
+ * table and the packed array only records that a site is in a run.
+ *
+ * Only sequences whose characters can be exactly recovered from their states are packed (see
+ * canPack) so the characters returned are the same as for a Sequence.
+ */
+public class PackedSequence extends Sequence {
+
+    // rough size of a run in the side table in bytes (start, end and state)
+    private static final int BYTES_PER_RUN = 12;
+
+    /**
+     * Constructor with taxon and sequence characters. As with Sequence, the characters are
+     * converted to upper case.
+     *
+     * @param taxon    the sequence's taxon
+     * @param dataType the data type of the sequence
+     * @param sequence the sequence's characters
+     */
+    public PackedSequence(Taxon taxon, DataType dataType, CharSequence sequence) {
+        setTaxon(taxon);
+        this.dataType = dataType;
+        pack(getStates(dataType, sequence), sequence.length());
+    }
+
+    public PackedSequence(Taxon taxon, DataType dataType, int[] states) {
+        setTaxon(taxon);
+        this.dataType = dataType;
+        pack(states, states.length);
+    }
+
+    /**
+     * @return true if the data type has a character for every state and each character in
+     * the sequence is valid and maps to a state which gives back the same (upper case) character.
+     */
+    public static boolean canPack(DataType dataType, CharSequence sequence) {
+        if (dataType == null) {
+            return false;
+        }
+        int[] charStates = getCharStates(dataType);
+        if (charStates == null) {
+            return false;
+        }
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            if (c >= charStates.length || charStates[c] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a table of the state of each (ascii) character, -1 for those that are invalid or
+     * can't be recovered from their state, or null if the data type can't be packed.
+     */
+    private static int[] getCharStates(DataType dataType) {
+        char[] validChars = dataType.getValidChars();
+        if (validChars == null || validChars.length == 0) {
+            return null;
+        }
+        int[] charStates = new int[128];
+        Arrays.fill(charStates, -1);
+        for (char valid : validChars) {
+            if (valid < 128) {
+                int state = dataType.getState(valid);
+                if (state >= 0 && dataType.getChar(state) == valid) {
+                    charStates[valid] = state;
+                    char lower = Character.toLowerCase(valid);
+                    if (lower != valid && dataType.getState(lower) == state) {
+                        // read back as upper case
+                        charStates[lower] = state;
+                    }
+                }
+            }
+        }
+        return charStates;
+    }
+
+    private static int[] getStates(DataType dataType, CharSequence sequence) {
+        int[] charStates = getCharStates(dataType);
+        if (charStates == null) {
+            throw new IllegalArgumentException("Sequences of data type " + dataType.getDescription() + " can't be packed");
+        }
+        int[] states = new int[sequence.length()];
+        for (int i = 0; i < states.length; i++) {
+            char c = sequence.charAt(i);
+            if (c >= charStates.length || charStates[c] < 0) {
+                throw new IllegalArgumentException("Invalid character '" + c + "' at index " + i + " for a packed sequence");
+            }
+            states[i] = charStates[c];
+        }
+        return states;
+    }
+
+    private static int getBitCount(int value) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(value));
+    }
+
+    private static long getPackedSize(int length, int bitsPerState) {
+        return (((long) length * bitsPerState + Long.SIZE - 1) / Long.SIZE) * Long.BYTES;
+    }
+
+    private static int countRuns(int[] states, int length, int escape) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (states[i] >= escape && (i == 0 || states[i - 1] != states[i])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Packs the states choosing the number of bits that gives the smallest size.
+     */
+    private void pack(int[] states, int length) {
+        int maxState = 0;
+        for (int i = 0; i < length; i++) {
+            if (states[i] < 0) {
+                throw new IllegalArgumentException("Negative state at index " + i + " for a packed sequence");
+            }
+            maxState = Math.max(maxState, states[i]);
+        }
+
+        // without a side table...
+        int maxBits = getBitCount(maxState);
+        int bits = maxBits;
+        long bestSize = getPackedSize(length, maxBits);
+
+        // ...or with states at or above the escape value held as runs
+        for (int b = 1; b < maxBits; b++) {
+            long size = getPackedSize(length, b) + (long) BYTES_PER_RUN * countRuns(states, length, (1 << b) - 1);
+            if (size < bestSize) {
+                bits = b;
+                bestSize = size;
+            }
+        }
+
+        this.length = length;
+        bitsPerState = bits;
+        stateMask = (1L << bits) - 1;
+        packed = new long[(int) (((long) length * bits + Long.SIZE - 1) / Long.SIZE)];
+
+        if (bits < maxBits) {
+            escape = (1 << bits) - 1;
+            runCount = countRuns(states, length, escape);
+        } else {
+            escape = Integer.MAX_VALUE;
+            runCount = 0;
+        }
+        runStarts = new int[runCount];
+        runEnds = new int[runCount];
+        runStates = new int[runCount];
+
+        int run = -1;
+        for (int i = 0; i < length; i++) {
+            int state = states[i];
+            if (state >= escape) {
+                if (run < 0 || runEnds[run] != i || runStates[run] != state) {
+                    run++;
+                    runStarts[run] = i;
+                    runStates[run] = state;
+                }
+                runEnds[run] = i + 1;
+                state = escape;
+            }
+            write(i, state);
+        }
+    }
+
+    private int read(int index) {
+        long bit = (long) index * bitsPerState;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        long value = packed[word] >>> offset;
+        if (offset + bitsPerState > Long.SIZE) {
+            value |= packed[word + 1] << (Long.SIZE - offset);
+        }
+        return (int) (value & stateMask);
+    }
+
+    private void write(int index, int value) {
+        long bit = (long) index * bitsPerState;
+        int word = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        packed[word] = (packed[word] & ~(stateMask << offset)) | ((long) value << offset);
+        if (offset + bitsPerState > Long.SIZE) {
+            int shift = Long.SIZE - offset;
+            packed[word + 1] = (packed[word + 1] & ~(stateMask >>> shift)) | ((long) value >>> shift);
+        }
+    }
+
+    private int getRunState(int index) {
+        int run = Arrays.binarySearch(runStarts, 0, runCount, index);
+        if (run < 0) {
+            run = -run - 2;
+        }
+        return runStates[run];
+    }
+
+    /**
+     * @return all the states of the sequence
+     */
+    private int[] getStates() {
+        int[] states = new int[length];
+        getStates(0, 1, length, states);
+        return states;
+    }
+
+    // **************************************************************
+    // Sequence IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String getSequenceString() {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(dataType.getChar(getState(i)));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public char getChar(int index) {
+        return dataType.getChar(getState(index));
+    }
+
+    @Override
+    public int getState(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        int state = read(index);
+        return (state == escape ? getRunState(index) : state);
+    }
+
+    @Override
+    public void getStates(int from, int every, int count, int[] states) {
+        if (from < 0 || (count > 0 && from + (long) (count - 1) * every >= length)) {
+            throw new IndexOutOfBoundsException("from " + from + ", count " + count + ", length " + length);
+        }
+        for (int k = 0; k < count; k++) {
+            int index = from + k * every;
+            int state = read(index);
+            states[k] = (state == escape ? getRunState(index) : state);
+        }
+    }
+
+    @Override
+    public void setState(int index, int state) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        if (state < escape && state <= stateMask && read(index) != escape) {
+            write(index, state);
+        } else {
+            // needs to go in (or come out of) the side table so repack
+            int[] states = getStates();
+            states[index] = state;
+            pack(states, length);
+        }
+    }
+
+    @Override
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        for (int i = srcBegin; i < srcEnd; i++) {
+            dst[dstBegin + i - srcBegin] = getChar(i);
+        }
+    }
+
+    @Override
+    public int getInvalidChar(DataType dataType) {
+        if (dataType == this.dataType) {
+            // checked when packed
+            return -1;
+        }
+        final char[] validChars = dataType.getValidChars();
+        if (validChars != null) {
+            String validString = new String(validChars);
+
+            for (int i = 0; i < length; i++) {
+                if (validString.indexOf(getChar(i)) < 0) return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void setDataType(DataType dataType) {
+        if (dataType != this.dataType) {
+            String sequence = getSequenceString();
+            this.dataType = dataType;
+            pack(getStates(dataType, sequence), sequence.length());
+        }
+    }
+
+    @Override
+    public DataType guessDataType() {
+        return DataType.guessDataType(getSequenceString());
+    }
+
+    @Override
+    public void setSequenceString(String sequence) {
+        pack(getStates(dataType, sequence), sequence.length());
+    }
+
+    @Override
+    public void appendSequenceString(String sequence) {
+        insertSequenceString(length, sequence);
+    }
+
+    @Override
+    public void insertSequenceString(int offset, String sequence) {
+        int[] inserted = getStates(dataType, sequence);
+        int[] states = new int[length + inserted.length];
+        getStates(0, 1, offset, states);
+        System.arraycopy(inserted, 0, states, offset, inserted.length);
+        for (int i = offset; i < length; i++) {
+            states[i + inserted.length] = getState(i);
+        }
+        pack(states, states.length);
+    }
+
+    @Override
+    public void setSequenceStates(int[] states) {
+        pack(states, states.length);
+    }
+
+    // **************************************************************
+    // INSTANCE VARIABLES
+    // **************************************************************
+
+    private int length;
+    private int bitsPerState;
+    private long stateMask;
+    private long[] packed;
+
+    // states at or above escape are stored as escape in packed and their actual values in runs
+    private int escape;
+    private int runCount;
+    private int[] runStarts;
+    private int[] runEnds;
+    private int[] runStates;
+}
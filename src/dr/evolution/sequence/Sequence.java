@@ -123,6 +123,15 @@ public class Sequence implements Identifiable, Attributable {
         return dataType.getState(sequenceString.charAt(index));
     }
 
+    /**
+     * Copies the states at sites from, from + every, ... into states[0..count-1].
+     */
+    public void getStates(int from, int every, int count, int[] states) {
+        for (int k = 0; k < count; k++) {
+            states[k] = getState(from + k * every);
+        }
+    }
+
     /**
      */
     public void setState(int index, int state) {
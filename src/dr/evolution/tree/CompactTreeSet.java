@@ -0,0 +1,567 @@
+/*
+ * CompactTreeSet.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evolution.tree;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.TreeImporter;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+import dr.util.Attributable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A set of rooted, bifurcating trees on the same taxa, stored in a binary file that is memory
+ * mapped rather than held as tree objects on the heap. Each tree is a fixed length record of the
+ * root and, for every node, its parent, its two children, its height and (if the trees have a
+ * 'rate' attribute) its rate. Any other node attributes are not stored. External nodes are
+ * numbered by the order of the taxa in the TaxonList and internal nodes follow them.
+ *
+ * Trees are read through a TreeView, which points at one record at a time: setTree moves it to
+ * another tree without allocating any objects. get(i) returns a FlexibleTree copy of tree i for
+ * code that wants a standalone tree.
+ */
+public class CompactTreeSet extends AbstractList<Tree> {
+
+    /**
+     * Reads all the trees from the importer into the file (overwriting it) and maps it.
+     *
+     * @param importer the tree importer
+     * @param taxa     the taxa of the trees, giving the numbering of the external nodes
+     * @param file     the file to store the trees in
+     * @return the tree set
+     */
+    public static CompactTreeSet create(TreeImporter importer, TaxonList taxa, File file)
+            throws IOException, Importer.ImportException {
+
+        int taxonCount = taxa.getTaxonCount();
+        int nodeCount = 2 * taxonCount - 1;
+
+        Map<String, Integer> taxonNumbers = new HashMap<String, Integer>();
+        for (int i = 0; i < taxonCount; i++) {
+            taxonNumbers.put(taxa.getTaxonId(i), i);
+        }
+
+        List<String> treeIds = new ArrayList<String>();
+        Units.Type units = Units.Type.SUBSTITUTIONS;
+        boolean hasRates = false;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(randomAccessFile.getFD()), 1 << 16));
+
+            // the header is written once the tree count is known
+            out.write(new byte[HEADER_SIZE]);
+
+            int[] numbers = new int[nodeCount];
+            int[] parents = new int[nodeCount];
+            int[] children = new int[2 * nodeCount];
+            double[] heights = new double[nodeCount];
+            double[] rates = new double[nodeCount];
+
+            while (importer.hasTree()) {
+                Tree tree = importer.importNextTree();
+
+                if (tree.getExternalNodeCount() != taxonCount || tree.getNodeCount() != nodeCount) {
+                    throw new Importer.ImportException("Tree " + tree.getId() + " is not a bifurcating tree of the " +
+                            taxonCount + " taxa");
+                }
+
+                if (treeIds.size() == 0) {
+                    units = tree.getUnits();
+                    NodeRef node = tree.getExternalNode(0);
+                    hasRates = getRateAttribute(node) != null;
+                }
+
+                for (int i = 0; i < taxonCount; i++) {
+                    NodeRef node = tree.getExternalNode(i);
+                    Integer number = taxonNumbers.get(tree.getNodeTaxon(node).getId());
+                    if (number == null) {
+                        throw new Importer.ImportException("Taxon " + tree.getNodeTaxon(node).getId() + " in tree " +
+                                tree.getId() + " is not in the taxon list");
+                    }
+                    numbers[node.getNumber()] = number;
+                }
+                for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+                    numbers[tree.getInternalNode(i).getNumber()] = taxonCount + i;
+                }
+
+                // force the heights to be calculated from the branch lengths
+                tree.getNodeHeight(tree.getRoot());
+
+                for (int i = 0; i < nodeCount; i++) {
+                    NodeRef node = tree.getNode(i);
+                    int number = numbers[node.getNumber()];
+                    NodeRef parent = tree.getParent(node);
+                    parents[number] = (parent == null ? -1 : numbers[parent.getNumber()]);
+                    if (tree.isExternal(node)) {
+                        children[2 * number] = -1;
+                        children[2 * number + 1] = -1;
+                    } else {
+                        if (tree.getChildCount(node) != 2) {
+                            throw new Importer.ImportException("Tree " + tree.getId() + " is not a bifurcating tree");
+                        }
+                        children[2 * number] = numbers[tree.getChild(node, 0).getNumber()];
+                        children[2 * number + 1] = numbers[tree.getChild(node, 1).getNumber()];
+                    }
+                    heights[number] = tree.getNodeHeight(node);
+                    if (hasRates) {
+                        rates[number] = getRate(node);
+                    }
+                }
+
+                out.writeInt(numbers[tree.getRoot().getNumber()]);
+                for (int i = 0; i < nodeCount; i++) {
+                    out.writeInt(parents[i]);
+                    out.writeInt(children[2 * i]);
+                    out.writeInt(children[2 * i + 1]);
+                    out.writeDouble(heights[i]);
+                    if (hasRates) {
+                        out.writeDouble(rates[i]);
+                    }
+                }
+
+                treeIds.add(tree.getId());
+            }
+
+            if (treeIds.size() == 0) {
+                throw new Importer.ImportException("No trees found");
+            }
+
+            long idsOffset = HEADER_SIZE + treeIds.size() * (long) getTreeSize(nodeCount, hasRates);
+            for (int i = 0; i < taxonCount; i++) {
+                out.writeUTF(taxa.getTaxonId(i));
+            }
+            for (String id : treeIds) {
+                out.writeUTF(id == null ? "" : id);
+            }
+            out.flush();
+
+            randomAccessFile.seek(0);
+            randomAccessFile.writeInt(MAGIC);
+            randomAccessFile.writeInt(VERSION);
+            randomAccessFile.writeInt(taxonCount);
+            randomAccessFile.writeInt(treeIds.size());
+            randomAccessFile.writeInt(hasRates ? 1 : 0);
+            randomAccessFile.writeInt(units.ordinal());
+            randomAccessFile.writeLong(idsOffset);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        return open(taxa, file);
+    }
+
+    /**
+     * Maps a file written by create.
+     *
+     * @param taxa the taxa of the trees, which must be in the same order as when the file was written
+     * @param file the file
+     * @return the tree set
+     */
+    public static CompactTreeSet open(TaxonList taxa, File file) throws IOException, Importer.ImportException {
+        return new CompactTreeSet(taxa, file);
+    }
+
+    private CompactTreeSet(TaxonList taxa, File file) throws IOException, Importer.ImportException {
+        this.taxa = taxa;
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            if (randomAccessFile.length() < HEADER_SIZE || randomAccessFile.readInt() != MAGIC ||
+                    randomAccessFile.readInt() != VERSION) {
+                throw new Importer.BadFormatException("File " + file.getName() + " is not a tree store");
+            }
+            taxonCount = randomAccessFile.readInt();
+            treeCount = randomAccessFile.readInt();
+            hasRates = randomAccessFile.readInt() != 0;
+            units = Units.Type.values()[randomAccessFile.readInt()];
+            long idsOffset = randomAccessFile.readLong();
+
+            nodeCount = 2 * taxonCount - 1;
+            treeSize = getTreeSize(nodeCount, hasRates);
+            nodeSize = hasRates ? 28 : 20;
+
+            randomAccessFile.seek(idsOffset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(randomAccessFile.getFD()), 1 << 16));
+            if (taxonCount != taxa.getTaxonCount()) {
+                throw new Importer.BadFormatException("The tree store has " + taxonCount + " taxa but the taxon list has " +
+                        taxa.getTaxonCount());
+            }
+            for (int i = 0; i < taxonCount; i++) {
+                String id = in.readUTF();
+                if (!id.equals(taxa.getTaxonId(i))) {
+                    throw new Importer.BadFormatException("The taxa in the tree store are not in the order of the taxon list");
+                }
+            }
+            treeIds = new String[treeCount];
+            for (int i = 0; i < treeCount; i++) {
+                treeIds[i] = in.readUTF();
+            }
+
+            // each buffer holds a whole number of trees and can be at most 2GB
+            treesPerBuffer = (int) Math.min(treeCount, Integer.MAX_VALUE / treeSize);
+            if (treesPerBuffer == 0) {
+                throw new Importer.BadFormatException("Trees are too large for the tree store");
+            }
+            buffers = new ByteBuffer[(treeCount + treesPerBuffer - 1) / treesPerBuffer];
+            FileChannel channel = randomAccessFile.getChannel();
+            for (int i = 0; i < buffers.length; i++) {
+                int count = Math.min(treesPerBuffer, treeCount - i * treesPerBuffer);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + i * (long) treesPerBuffer * treeSize, (long) count * treeSize);
+                buffers[i] = buffer;
+            }
+        } finally {
+            // the mappings stay valid once the file is closed
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * The rate is read from the node itself (as the tree importers attach it) rather than through
+     * the deprecated node attribute methods of Tree.
+     */
+    private static Object getRateAttribute(NodeRef node) {
+        return node instanceof Attributable ? ((Attributable) node).getAttribute(RATE) : null;
+    }
+
+    private static double getRate(NodeRef node) {
+        Object rate = getRateAttribute(node);
+        if (rate instanceof Number) {
+            return ((Number) rate).doubleValue();
+        }
+        if (rate instanceof String) {
+            return Double.parseDouble((String) rate);
+        }
+        return 1.0;
+    }
+
+    private static int getTreeSize(int nodeCount, boolean hasRates) {
+        long size = 4 + (long) nodeCount * (hasRates ? 28 : 20);
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of trees
+     */
+    public int size() {
+        return treeCount;
+    }
+
+    /**
+     * @return a standalone copy of tree i
+     */
+    public Tree get(int index) {
+        TreeView view = createView();
+        view.setTree(index);
+        FlexibleTree tree = new FlexibleTree(view);
+        tree.setId(treeIds[index]);
+        return tree;
+    }
+
+    public String getTreeId(int index) {
+        return treeIds[index];
+    }
+
+    public TaxonList getTaxa() {
+        return taxa;
+    }
+
+    /**
+     * @return a new view of the trees, initially showing the first tree
+     */
+    public TreeView createView() {
+        TreeView view = new TreeView();
+        view.setTree(0);
+        return view;
+    }
+
+    /**
+     * A Tree that shows one of the trees of the set at a time, reading directly from the mapped
+     * file. Its NodeRefs are shared by all the trees (node i is node i of whichever tree is
+     * current). The only node attribute is 'rate' (if the trees had rates) and tree attributes
+     * set on the view are kept by the view rather than the trees.
+     */
+    public class TreeView implements Tree {
+
+        private TreeView() {
+            nodes = new Node[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                nodes[i] = new Node(i);
+            }
+        }
+
+        /**
+         * Points this view at another tree.
+         *
+         * @param index the tree
+         */
+        public void setTree(int index) {
+            if (index < 0 || index >= treeCount) {
+                throw new IndexOutOfBoundsException("Tree " + index + " of " + treeCount);
+            }
+            treeIndex = index;
+            buffer = buffers[index / treesPerBuffer];
+            offset = (index % treesPerBuffer) * treeSize;
+            root = nodes[buffer.getInt(offset)];
+        }
+
+        public int getTreeIndex() {
+            return treeIndex;
+        }
+
+        private int getNodeOffset(NodeRef node) {
+            return offset + 4 + node.getNumber() * nodeSize;
+        }
+
+        public NodeRef getRoot() {
+            return root;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public NodeRef getNode(int i) {
+            return nodes[i];
+        }
+
+        public NodeRef getInternalNode(int i) {
+            return nodes[taxonCount + i];
+        }
+
+        public NodeRef getExternalNode(int i) {
+            return nodes[i];
+        }
+
+        public int getExternalNodeCount() {
+            return taxonCount;
+        }
+
+        public int getInternalNodeCount() {
+            return nodeCount - taxonCount;
+        }
+
+        public Taxon getNodeTaxon(NodeRef node) {
+            return node.getNumber() < taxonCount ? taxa.getTaxon(node.getNumber()) : null;
+        }
+
+        public boolean hasNodeHeights() {
+            return true;
+        }
+
+        public double getNodeHeight(NodeRef node) {
+            return buffer.getDouble(getNodeOffset(node) + 12);
+        }
+
+        public boolean hasBranchLengths() {
+            return true;
+        }
+
+        public double getBranchLength(NodeRef node) {
+            int parent = buffer.getInt(getNodeOffset(node));
+            if (parent < 0) {
+                return 0.0;
+            }
+            return getNodeHeight(nodes[parent]) - getNodeHeight(node);
+        }
+
+        @Deprecated
+        public double getNodeRate(NodeRef node) {
+            return hasRates ? buffer.getDouble(getNodeOffset(node) + 20) : 1.0;
+        }
+
+        @Deprecated
+        public Object getNodeAttribute(NodeRef node, String name) {
+            if (hasRates && RATE.equals(name)) {
+                return getNodeRate(node);
+            }
+            return null;
+        }
+
+        @Deprecated
+        public Iterator getNodeAttributeNames(NodeRef node) {
+            return hasRates ? Collections.singletonList(RATE).iterator() : Collections.emptyIterator();
+        }
+
+        public boolean isExternal(NodeRef node) {
+            return node.getNumber() < taxonCount;
+        }
+
+        public boolean isRoot(NodeRef node) {
+            return node == root;
+        }
+
+        public int getChildCount(NodeRef node) {
+            return node.getNumber() < taxonCount ? 0 : 2;
+        }
+
+        public NodeRef getChild(NodeRef node, int j) {
+            if (node.getNumber() < taxonCount || j < 0 || j > 1) {
+                throw new IllegalArgumentException("Node " + node.getNumber() + " has no child " + j);
+            }
+            return nodes[buffer.getInt(getNodeOffset(node) + 4 + 4 * j)];
+        }
+
+        public NodeRef getParent(NodeRef node) {
+            int parent = buffer.getInt(getNodeOffset(node));
+            return parent < 0 ? null : nodes[parent];
+        }
+
+        public Tree getCopy() {
+            return new FlexibleTree(this);
+        }
+
+        // TaxonList IMPLEMENTATION
+
+        public int getTaxonCount() {
+            return taxonCount;
+        }
+
+        // as for FlexibleTree, internal node numbers give no taxon
+        public Taxon getTaxon(int taxonIndex) {
+            return taxonIndex < taxonCount ? taxa.getTaxon(taxonIndex) : null;
+        }
+
+        public String getTaxonId(int taxonIndex) {
+            return taxonIndex < taxonCount ? taxa.getTaxonId(taxonIndex) : null;
+        }
+
+        public int getTaxonIndex(String id) {
+            return taxa.getTaxonIndex(id);
+        }
+
+        public int getTaxonIndex(Taxon taxon) {
+            return taxa.getTaxonIndex(taxon);
+        }
+
+        public List<Taxon> asList() {
+            return taxa.asList();
+        }
+
+        public Object getTaxonAttribute(int taxonIndex, String name) {
+            return taxa.getTaxonAttribute(taxonIndex, name);
+        }
+
+        public Iterator<Taxon> iterator() {
+            return taxa.iterator();
+        }
+
+        // Units IMPLEMENTATION
+
+        public Type getUnits() {
+            return units;
+        }
+
+        public void setUnits(Type units) {
+            throw new UnsupportedOperationException("The trees in a tree store cannot be changed");
+        }
+
+        // Identifiable IMPLEMENTATION
+
+        public String getId() {
+            return treeIds[treeIndex];
+        }
+
+        public void setId(String id) {
+            throw new UnsupportedOperationException("The trees in a tree store cannot be changed");
+        }
+
+        // Attributable IMPLEMENTATION
+
+        public void setAttribute(String name, Object value) {
+            if (attributes == null) {
+                attributes = new Attributable.AttributeHelper();
+            }
+            attributes.setAttribute(name, value);
+        }
+
+        public Object getAttribute(String name) {
+            return attributes == null ? null : attributes.getAttribute(name);
+        }
+
+        public Iterator<String> getAttributeNames() {
+            return attributes == null ? null : attributes.getAttributeNames();
+        }
+
+        public String toString() {
+            return TreeUtils.newick(this);
+        }
+
+        private final Node[] nodes;
+        private int treeIndex;
+        private ByteBuffer buffer;
+        private int offset;
+        private Node root;
+        private Attributable.AttributeHelper attributes = null;
+    }
+
+    private static class Node implements NodeRef {
+        Node(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public void setNumber(int n) {
+            throw new UnsupportedOperationException("The nodes of a tree store cannot be renumbered");
+        }
+
+        private final int number;
+    }
+
+    public static final String RATE = "rate";
+
+    private static final int MAGIC = 0x54524545; // "TREE"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final TaxonList taxa;
+    private final int taxonCount;
+    private final int nodeCount;
+    private final int treeCount;
+    private final boolean hasRates;
+    private final Units.Type units;
+    private final String[] treeIds;
+
+    private final int treeSize;
+    private final int nodeSize;
+    private final int treesPerBuffer;
+    private final ByteBuffer[] buffers;
+}
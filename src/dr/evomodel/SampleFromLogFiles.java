@@ -28,7 +28,6 @@
 package dr.evomodel;
 
 import dr.app.beast.BeastVersion;
-import dr.evolution.tree.Tree;
 import dr.evomodel.tree.EmpiricalTreeDistributionModel;
 import dr.inference.loggers.LogColumn;
 import dr.inference.loggers.Loggable;
@@ -177,11 +176,11 @@ public class SampleFromLogFiles {
         if (treeBindings.size() > 0) {
             for (TreeBinding tb : treeBindings) {
 
-                int stateCount = tb.trees.size();
+                int stateCount = tb.treeModel.getTreeCount();
 
-                String id0 = tb.trees.get(0).getId();
-                String id1 = tb.trees.get(1).getId();
-                String idN = tb.trees.get(stateCount - 1).getId();
+                String id0 = tb.treeModel.getTreeId(0);
+                String id1 = tb.treeModel.getTreeId(1);
+                String idN = tb.treeModel.getTreeId(stateCount - 1);
 
                 long state0 = Long.parseLong(id0.replace("STATE_", ""));
                 long state1 = Long.parseLong(id1.replace("STATE_", ""));
@@ -299,12 +298,10 @@ public class SampleFromLogFiles {
 
     public static class TreeBinding {
 
-        List<Tree> trees;
         EmpiricalTreeDistributionModel treeModel;
 
         public TreeBinding(EmpiricalTreeDistributionModel treeModel) {
             this.treeModel = treeModel;
-            this.trees = treeModel.getTrees();
         }
     }
 
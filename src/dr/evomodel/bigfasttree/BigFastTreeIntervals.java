@@ -47,6 +47,11 @@ import java.util.List;
 
 /**
  * Smart intervals that don't need a full recalculation. 
+ *
+ * When a single node height changes the listeners are sent an {@link IntervalChangedEvent} giving the range of
+ * intervals that may differ once the intervals are recalculated, so that they can update their own sufficient
+ * statistics for just those intervals. All other changes are forwarded as the original tree event, apart from the
+ * tree's parameters which the tree has already reported as tree events.
  * author: JT
  */
 public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIntervalList {
@@ -382,6 +387,9 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
                     // rate changes.
                     if (treeChangedEvent.isHeightChanged()) {
                         NodeRef node = ((TreeChangedEvent) object).getNode();
+                        if (!dirty && !onlyUpdateTimes) {
+                            object = getAffectedIntervals(node.getNumber(), tree.getNodeHeight(node));
+                        }
                         updatedNodes.add(node.getNumber());
                         intervalsKnown = false;
                     }
@@ -400,12 +408,33 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
 
                 }  // Other event types are ignored (probably trait changes).
                 //System.err.println("Another tree event has occured (possibly a trait change).");
+            } else if (object instanceof Variable) {
+                // The tree model sends a TreeChangedEvent for a parameter change and then fires the parameter
+                // itself. The TreeChangedEvent has already been forwarded (as an IntervalChangedEvent for a
+                // height change) so forwarding the parameter too would tell the listeners that every interval
+                // has changed.
+                return;
             }
 
             fireModelChanged(object);
         }
     }
 
+    /**
+     * The range of intervals that may change when a node moves to a new height. This is found by locating the new
+     * position of the node amongst the events as they were last calculated. If several nodes move before the
+     * intervals are recalculated then the union of their ranges covers all the intervals that change.
+     */
+    private IntervalChangedEvent getAffectedIntervals(int nodeNum, double newTime) {
+        int oldPosition = events.getNodePosition(nodeNum);
+        int newPosition = events.getNewPosition(oldPosition, newTime);
+
+        // event i starts interval i and ends interval i - 1
+        int first = Math.max(Math.min(oldPosition, newPosition) - 1, 0);
+        int last = Math.min(Math.max(oldPosition, newPosition), intervalCount - 1);
+        return new IntervalChangedEvent.AffectedIntervals(first, last);
+    }
+
     @Override
     protected void handleVariableChangedEvent(Variable variable, int i, Variable.ChangeType changeType) {
 
@@ -490,18 +519,30 @@ public class BigFastTreeIntervals extends AbstractModel implements Units, TreeIn
             lineageCounts[i] = lineageCount;
         }
 
-        public void updateForChangedNode(int node, double newTime) {
-            int oldPostion = nodeOrder[node];
-            double oldHieght = times[oldPostion];
+        /**
+         * returns the position the event at oldPosition will take when its time changes to newTime
+         * @param oldPosition
+         * @param newTime
+         * @return
+         */
+        public int getNewPosition(int oldPosition, double newTime) {
+            double oldHieght = times[oldPosition];
 
-            int newPosition = oldPostion;
+            int newPosition = oldPosition;
             if (newTime > oldHieght) {
-                int firstHeigher = findFirstGreater(times, newTime, oldPostion, numberOfEvents - 1);
+                int firstHeigher = findFirstGreater(times, newTime, oldPosition, numberOfEvents - 1);
                 newPosition = firstHeigher - 1;
 
             } else if (newTime < oldHieght) {
-                newPosition = findFirstGreater(times, newTime, 0, oldPostion - 1);
+                newPosition = findFirstGreater(times, newTime, 0, oldPosition - 1);
             }
+            return newPosition;
+        }
+
+        public void updateForChangedNode(int node, double newTime) {
+            int oldPostion = nodeOrder[node];
+
+            int newPosition = getNewPosition(oldPostion, newTime);
 
 
             if (newPosition != oldPostion) {
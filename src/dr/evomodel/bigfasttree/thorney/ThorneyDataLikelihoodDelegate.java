@@ -27,8 +27,14 @@
 
 package dr.evomodel.bigfasttree.thorney;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
@@ -47,12 +53,26 @@ import dr.inference.model.Variable.ChangeType;
 // branch length likelihood delegate is like a substitution model.
 // 
 
+/**
+ * The log likelihood contribution of each branch is cached along with the branch length and mutation
+ * count it was calculated from, so only branches for which either has changed are recalculated. The
+ * cached values are double buffered per node (in the manner of BEAGLE's buffer index helper) so storing
+ * and restoring the state only copies or swaps an index per node. When enough branches need recalculating
+ * at once (e.g., after a rate change or a large ConstrainedTreeModel move) they are evaluated in chunks on
+ * a thread pool.
+ */
 public class ThorneyDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
     final static String NAME="ThorneyDataLikelihoodDelegate";
 
-
+    // the minimum number of branch operations before the work is split across threads
+    private static final int MIN_BRANCH_TASKS = 1000;
 
     public ThorneyDataLikelihoodDelegate(Tree tree, MutationBranchMap mutationMap, BranchLengthLikelihoodDelegate branchLengthLikelihoodDelegate) {
+        this(tree, mutationMap, branchLengthLikelihoodDelegate, 1);
+    }
+
+    public ThorneyDataLikelihoodDelegate(Tree tree, MutationBranchMap mutationMap, BranchLengthLikelihoodDelegate branchLengthLikelihoodDelegate,
+                                         int threadCount) {
         super(NAME);
         this.tree = tree;
 
@@ -61,16 +81,35 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
         this.branchLengthLikelihoodDelegate = branchLengthLikelihoodDelegate;
         totalCalculationCount=0;
 
-        updateNode = new boolean[tree.getNodeCount()];
-        Arrays.fill(updateNode, true);
+        int nodeCount = tree.getNodeCount();
 
-        storedUpdateNode  = new boolean[tree.getNodeCount()];
-        
-        branchLengths = new double[tree.getNodeCount()];
-        storedBranchLengths = new double[tree.getNodeCount()];
+        updateNode = new boolean[nodeCount];
+        Arrays.fill(updateNode, true);
 
-        branchLogL = new double[tree.getNodeCount()];
-        storedBranchLogL = new double[tree.getNodeCount()];
+        branchLengths = new double[2][nodeCount];
+        // NaN so the first comparison with any branch length fails
+        Arrays.fill(branchLengths[0], Double.NaN);
+        Arrays.fill(branchLengths[1], Double.NaN);
+        mutationCounts = new double[2][nodeCount];
+        branchLogL = new double[2][nodeCount];
+        subtreeLogL = new double[2][nodeCount];
+
+        bufferIndices = new int[nodeCount];
+        storedBufferIndices = new int[nodeCount];
+        flipStamps = new int[nodeCount];
+
+        pendingNodes = new int[nodeCount];
+        pendingBranchLengths = new double[nodeCount];
+
+        if (threadCount > 1) {
+            this.threadCount = threadCount;
+            pool = Executors.newFixedThreadPool(threadCount);
+        } else if (threadCount == 1) {
+            this.threadCount = 1;
+            pool = null;
+        } else {
+            throw new IllegalArgumentException("Illegal threadCount value");
+        }
     }
 
     @Override
@@ -95,78 +134,78 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
      * Forces a complete recalculation of the likelihood next time getLikelihood is called
      */
     public void makeDirty() {
-        //check the substitution model
+        // the branch terms are recalculated for every branch operation regardless of the cache
+        branchTermsKnown = false;
     }
 
     @Override
     public void storeState() {
-        // TODO Auto-generated method stub
-
-        System.arraycopy(branchLogL, 0, storedBranchLogL, 0, branchLogL.length);
-        System.arraycopy(branchLengths, 0, storedBranchLengths, 0, storedBranchLengths.length);    }
+        System.arraycopy(bufferIndices, 0, storedBufferIndices, 0, bufferIndices.length);
+        flipStamp += 1;
+    }
 
     @Override
     public void restoreState() {
-        double[] tmp = storedBranchLogL;
-        storedBranchLogL=branchLogL;
-        branchLogL=tmp;
-    
-        double[] tmp1 = storedBranchLengths;
-        storedBranchLengths = branchLengths;
-        branchLengths = tmp1;
+        int[] tmp = storedBufferIndices;
+        storedBufferIndices = bufferIndices;
+        bufferIndices = tmp;
+        flipStamp += 1;
     }
 
     @Override
     public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations,
             int rootNodeNumber) throws LikelihoodException {
-                // summing this way accounts for numerical stability but feels like over kill
-                for (BranchOperation branchOperation : branchOperations) {
-                    NodeRef node = tree.getNode(branchOperation.getBranchNumber());
-                    updateNode(node);
-                    branchLengths[node.getNumber()] = branchOperation.getBranchLength();
-                }
-                NodeRef root = tree.getNode(rootNodeNumber);
-                int rootChild1 = tree.getChild(root, 0).getNumber();
-                int rootChild2 = tree.getChild(root, 1).getNumber();
-                updateNode[rootChild1] = updateNode[rootChild1] || updateNode[rootChild2] ;
 
-                totalCalculationCount+=1;
+        int branchCount = 0;
+        for (BranchOperation branchOperation : branchOperations) {
+            int nodeNumber = branchOperation.getBranchNumber();
+            pendingNodes[branchCount] = nodeNumber;
+            pendingBranchLengths[branchCount] = branchOperation.getBranchLength();
+            branchCount += 1;
 
-                return calculateLogLikelihood(root, rootNodeNumber, rootChild1,rootChild2);
+            // the subtree sums are updated even if the branch term is unchanged as the topology may have changed
+            updateNode(tree.getNode(nodeNumber));
+        }
 
+        if (pool != null && branchCount >= MIN_BRANCH_TASKS && !(mutationMap instanceof Model)) {
+            // mutation maps that are models may update themselves lazily so are only used from this thread
+            forkJoin(branchCount);
+        } else {
+            calculateBranchLogLikelihoods(0, branchCount);
+        }
+        branchTermsKnown = true;
+
+        NodeRef root = tree.getNode(rootNodeNumber);
+        int rootChild1 = tree.getChild(root, 0).getNumber();
+        int rootChild2 = tree.getChild(root, 1).getNumber();
+        updateNode[rootChild1] = updateNode[rootChild1] || updateNode[rootChild2] ;
+        // the root may have moved so its sum is always recalculated
+        updateNode[rootNodeNumber] = true;
+
+        totalCalculationCount+=1;
 
+        return calculateLogLikelihood(root, rootNodeNumber, rootChild1,rootChild2);
     }
 
+    /**
+     * Sums the cached branch log likelihoods over the subtree below node, only revisiting the subtrees
+     * that contain an updated branch. Summing by subtree keeps the result independent of the order in
+     * which branches were changed.
+     */
     public double calculateLogLikelihood(NodeRef node, int root, int rootChild1, int rootChild2){
         int nodeIndex = node.getNumber();
 
         if (updateNode[nodeIndex]) {
-            double logL;
-            if(nodeIndex==root){
-                logL=0;
-            }else{
-                MutationList mutations = mutationMap.getMutations(node); //TODO make branchMutations
-                double branchLength = branchLengths[nodeIndex];
-//                    if (nodeIndex == rootChild1) {
-//                        // sum the branches on both sides of the root
-//                        NodeRef node2 = tree.getNode(rootChild2);
-//                        time += tree.getBranchLength(node2);
-//                        mutations += branchLengthProvider.getBranchLength(tree, node2);
-//                    }
-//                gamma.setScale(1.0);
-//                branchLogL[i] = gamma.logPdf(x);
-// get mutations/ get branch length / have substitution model handy and return the likelihood of seeing all this mutations 
-                logL = branchLengthLikelihoodDelegate.getLogLikelihood(mutations, branchLength);  // Substitution model
-
-            }
+            double logL = (nodeIndex == root ? 0.0 : branchLogL[bufferIndices[nodeIndex]][nodeIndex]);
             for (int i = 0; i < tree.getChildCount(node); i++) {
                 logL += this.calculateLogLikelihood(tree.getChild(node, i),root,rootChild1,rootChild2);
             }
-            branchLogL[nodeIndex] = logL;
+            subtreeLogL[flipBuffer(nodeIndex)][nodeIndex] = logL;
             updateNode[nodeIndex] = false;
         }
-        return branchLogL[nodeIndex];
+        return subtreeLogL[bufferIndices[nodeIndex]][nodeIndex];
     }
+
     /**
      * Set update flag for node and remove it's old contribution to the likelihood.
      * Also handle the root and children so that the 1 branch between children is marked as updated.
@@ -181,6 +220,76 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
         }
     }
 
+    /**
+     * Moves a node's cached values to its other buffer, the first time it is written to since the last
+     * store or restore, so the stored values are left untouched.
+     * @param nodeNumber
+     * @return the buffer to write to
+     */
+    private int flipBuffer(int nodeNumber) {
+        int buffer = bufferIndices[nodeNumber];
+        if (flipStamps[nodeNumber] != flipStamp) {
+            int newBuffer = 1 - buffer;
+            branchLengths[newBuffer][nodeNumber] = branchLengths[buffer][nodeNumber];
+            mutationCounts[newBuffer][nodeNumber] = mutationCounts[buffer][nodeNumber];
+            branchLogL[newBuffer][nodeNumber] = branchLogL[buffer][nodeNumber];
+            subtreeLogL[newBuffer][nodeNumber] = subtreeLogL[buffer][nodeNumber];
+
+            bufferIndices[nodeNumber] = newBuffer;
+            flipStamps[nodeNumber] = flipStamp;
+            buffer = newBuffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Calculates the log likelihood of the pending branches in the range [start, end) for which the branch
+     * length or mutation count differs from that cached. Each branch is only touched by one task so ranges
+     * can be evaluated concurrently.
+     */
+    private void calculateBranchLogLikelihoods(int start, int end) {
+        for (int i = start; i < end; i++) {
+            int nodeNumber = pendingNodes[i];
+            double branchLength = pendingBranchLengths[i];
+            MutationList mutations = mutationMap.getMutations(tree.getNode(nodeNumber));
+            double mutationCount = mutations.getMutationCount();
+
+            int buffer = bufferIndices[nodeNumber];
+            if (!branchTermsKnown || branchLength != branchLengths[buffer][nodeNumber] ||
+                    mutationCount != mutationCounts[buffer][nodeNumber]) {
+                buffer = flipBuffer(nodeNumber);
+                branchLengths[buffer][nodeNumber] = branchLength;
+                mutationCounts[buffer][nodeNumber] = mutationCount;
+                // get mutations/ get branch length / have substitution model handy and return the likelihood of seeing all this mutations
+                branchLogL[buffer][nodeNumber] = branchLengthLikelihoodDelegate.getLogLikelihood(mutations, branchLength);  // Substitution model
+            }
+        }
+    }
+
+    private void forkJoin(int totalTasks) {
+        int numTasksPerThread = totalTasks / threadCount;
+        if (totalTasks % threadCount != 0) {
+            ++numTasksPerThread;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<>(threadCount);
+        for (int startTask = 0; startTask < totalTasks; startTask += numTasksPerThread) {
+            final int thisStart = startTask;
+            final int thisEnd = Math.min(totalTasks, startTask + numTasksPerThread);
+
+            tasks.add(() -> {
+                calculateBranchLogLikelihoods(thisStart, thisEnd);
+                return null;
+            });
+        }
+        try {
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
     @Override
     public int getTraitCount() {
@@ -260,11 +369,26 @@ public class ThorneyDataLikelihoodDelegate extends AbstractModel implements Data
      * Flags to specify which nodes are to be updated
      */
     protected boolean[] updateNode;
-    protected boolean[] storedUpdateNode;
 
-    private double[] branchLengths;
-    private double[] storedBranchLengths;
+    /**
+     * Double buffered per node values: the branch length and mutation count each branch term was
+     * calculated from, the branch term itself and the sum over the subtree below the node.
+     */
+    private final double[][] branchLengths;
+    private final double[][] mutationCounts;
+    private final double[][] branchLogL;
+    private final double[][] subtreeLogL;
+
+    private int[] bufferIndices;
+    private int[] storedBufferIndices;
+    private final int[] flipStamps;
+    private int flipStamp = 1;
+
+    private boolean branchTermsKnown = false;
+
+    private final int[] pendingNodes;
+    private final double[] pendingBranchLengths;
 
-    private double[] branchLogL;
-    private double[] storedBranchLogL;
+    private final int threadCount;
+    private final ExecutorService pool;
 }
@@ -35,6 +35,7 @@ import dr.evomodel.tree.TreeModel;
 import dr.evomodelxml.coalescent.BayesianSkylineLikelihoodParser;
 import dr.inference.model.Parameter;
 import dr.inference.model.Statistic;
+import dr.inference.model.Variable;
 import dr.math.MathUtils;
 import dr.util.Author;
 import dr.util.Citable;
@@ -150,17 +151,29 @@ public class BayesianSkylineLikelihood extends OldAbstractCoalescentLikelihood i
         addStatistic(new GroupHeightStatistic());
     }
 
+    // **************************************************************
+    // VariableListener IMPLEMENTATION
+    // **************************************************************
+
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        // population sizes or group sizes have changed so the intervals are still valid
+        likelihoodKnown = false;
+    }
+
     // **************************************************************
     // Likelihood IMPLEMENTATION
     // **************************************************************
 
     /**
      * Calculates the log likelihood of this set of coalescent intervals,
-     * given a demographic model.
+     * given a demographic model. The intervals are only rebuilt after the
+     * tree has changed; the result is cached by the superclass.
      */
-    public double getLogLikelihood() {
+    public double calculateLogLikelihood() {
 
-        setupIntervals();
+        if (!intervalsKnown) {
+            setupIntervals();
+        }
 
         double logL = 0.0;
 
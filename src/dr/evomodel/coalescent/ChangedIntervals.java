@@ -0,0 +1,188 @@
+/*
+ * ChangedIntervals.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.coalescent;
+
+import dr.evomodel.bigfasttree.IntervalChangedEvent;
+
+/**
+ * Keeps track of which intervals of an interval list have changed since a coalescent likelihood last used them,
+ * together with a cache of values for each interval (such as its contribution to the likelihood) as they were when
+ * last used. This lets a likelihood remove the old contribution of just the changed intervals before adding the new
+ * ones.
+ * <p>
+ * Interval lists that know which intervals a change affects (i.e., BigFastTreeIntervals) send an
+ * IntervalChangedEvent; any other change is taken to affect all the intervals. Only the values set since the last
+ * store are copied on store and restore.
+ */
+final class ChangedIntervals {
+
+    /**
+     * If this system property is set to true the likelihoods also recalculate everything from scratch after each
+     * incremental update and throw an exception if the two differ. This is slow and only intended for debugging.
+     */
+    static final String VERIFY_INCREMENTAL = "coalescent.verify_incremental";
+
+    static final boolean VERIFY = Boolean.parseBoolean(System.getProperty(VERIFY_INCREMENTAL));
+
+    private static final double VERIFY_TOLERANCE = 1E-8;
+
+    /**
+     * @return true if an incrementally updated value agrees with the value calculated from scratch to within
+     * rounding error
+     */
+    static boolean isClose(double incremental, double full) {
+        return incremental == full ||
+                Math.abs(incremental - full) <= VERIFY_TOLERANCE * Math.max(1.0, Math.abs(full));
+    }
+
+    ChangedIntervals(int valueCount, int intervalCount) {
+        this.intervalCount = intervalCount;
+
+        values = new double[valueCount][intervalCount];
+        storedValues = new double[valueCount][intervalCount];
+
+        modified = new boolean[intervalCount];
+        modifiedIntervals = new int[intervalCount];
+
+        allChanged = true;
+        clearRange();
+        storeState();
+    }
+
+    /**
+     * Called with the object of every model changed event from the interval list.
+     */
+    void intervalsChanged(Object object) {
+        if (object instanceof IntervalChangedEvent.AffectedIntervals) {
+            IntervalChangedEvent event = (IntervalChangedEvent) object;
+            firstChanged = Math.min(firstChanged, event.getFirstInterval());
+            lastChanged = Math.max(lastChanged, event.getLastInterval());
+        } else if (object instanceof IntervalChangedEvent.FirstAffectedInterval) {
+            firstChanged = Math.min(firstChanged, ((IntervalChangedEvent) object).getFirstInterval());
+            lastChanged = intervalCount - 1;
+        } else {
+            allChanged = true;
+        }
+    }
+
+    /**
+     * Forces all the intervals to be recalculated, including when something other than the intervals has changed.
+     */
+    void setAllChanged() {
+        allChanged = true;
+    }
+
+    /**
+     * @return true if the cached values can't be used and all the intervals should be recalculated
+     */
+    boolean isAllChanged() {
+        return allChanged;
+    }
+
+    int getFirstChanged() {
+        return Math.max(firstChanged, 0);
+    }
+
+    int getLastChanged() {
+        return Math.min(lastChanged, intervalCount - 1);
+    }
+
+    /**
+     * Called once the likelihood has updated the cached values for all the changed intervals.
+     */
+    void changesUsed() {
+        allChanged = false;
+        clearRange();
+    }
+
+    int getIntervalCount() {
+        return intervalCount;
+    }
+
+    double getValue(int value, int interval) {
+        return values[value][interval];
+    }
+
+    void setValue(int value, int interval, double x) {
+        if (!modified[interval]) {
+            modified[interval] = true;
+            modifiedIntervals[modifiedCount] = interval;
+            modifiedCount++;
+        }
+        values[value][interval] = x;
+    }
+
+    void storeState() {
+        copyModified(values, storedValues);
+
+        storedFirstChanged = firstChanged;
+        storedLastChanged = lastChanged;
+        storedAllChanged = allChanged;
+    }
+
+    void restoreState() {
+        copyModified(storedValues, values);
+
+        firstChanged = storedFirstChanged;
+        lastChanged = storedLastChanged;
+        allChanged = storedAllChanged;
+    }
+
+    private void copyModified(double[][] source, double[][] destination) {
+        for (int i = 0; i < modifiedCount; i++) {
+            int interval = modifiedIntervals[i];
+            for (int j = 0; j < source.length; j++) {
+                destination[j][interval] = source[j][interval];
+            }
+            modified[interval] = false;
+        }
+        modifiedCount = 0;
+    }
+
+    private void clearRange() {
+        firstChanged = Integer.MAX_VALUE;
+        lastChanged = -1;
+    }
+
+    private final int intervalCount;
+
+    private final double[][] values;
+    private final double[][] storedValues;
+
+    private final boolean[] modified;
+    private final int[] modifiedIntervals;
+    private int modifiedCount = 0;
+
+    private int firstChanged;
+    private int lastChanged;
+    private boolean allChanged;
+
+    private int storedFirstChanged;
+    private int storedLastChanged;
+    private boolean storedAllChanged;
+}
@@ -31,8 +31,10 @@ import dr.evolution.coalescent.DemographicFunction;
 import dr.evolution.coalescent.IntervalList;
 import dr.evolution.coalescent.IntervalType;
 import dr.evolution.util.Units;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
 import dr.evomodel.coalescent.demographicmodel.DemographicModel;
 import dr.evomodelxml.coalescent.CoalescentLikelihoodParser;
+import dr.inference.model.Model;
 import dr.math.Binomial;
 
 import java.util.logging.Logger;
@@ -40,7 +42,9 @@ import java.util.logging.Logger;
 
 /**
  * A likelihood function for the coalescent. Takes an intervalList and a demographic model.
- * If the interval list is a model then it will listen for changes.
+ * If the interval list is a model then it will listen for changes. If the interval list reports
+ * which intervals have changed (i.e., BigFastTreeIntervals) then only those intervals are
+ * recalculated after a change to the tree.
  *
  * @author Andrew Rambaut
  * @author Alexei Drummond
@@ -65,6 +69,14 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 
 		this.coalescentEventStatisticValues = new double[getNumberOfCoalescentEvents()];
 
+		if (intervalList instanceof BigFastTreeIntervals) {
+			// the area and coalescent terms of each interval are cached separately so that the sums are
+			// accumulated in the same order as the full calculation
+			this.changedIntervals = new ChangedIntervals(2, intervalList.getIntervalCount());
+		} else {
+			this.changedIntervals = null;
+		}
+
 		addModel(demographicModel);
 	}
 
@@ -83,9 +95,58 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 
 		this.coalescentEventStatisticValues = new double[getNumberOfCoalescentEvents()];
 
+		this.changedIntervals = null;
+
 		addModel(populationSizeModel);
 	}
 
+	// **************************************************************
+	// ModelListener IMPLEMENTATION
+	// **************************************************************
+
+	protected void handleModelChangedEvent(Model model, Object object, int index) {
+		if (changedIntervals != null) {
+			if (model == intervalList) {
+				changedIntervals.intervalsChanged(object);
+			} else {
+				// the demographic model has changed so every interval needs recalculating
+				changedIntervals.setAllChanged();
+			}
+		}
+
+		super.handleModelChangedEvent(model, object, index);
+	}
+
+	// **************************************************************
+	// Model IMPLEMENTATION
+	// **************************************************************
+
+	protected void storeState() {
+		super.storeState();
+
+		if (changedIntervals != null) {
+			changedIntervals.storeState();
+			storedAbsoluteStartTime = absoluteStartTime;
+		}
+	}
+
+	protected void restoreState() {
+		super.restoreState();
+
+		if (changedIntervals != null) {
+			changedIntervals.restoreState();
+			absoluteStartTime = storedAbsoluteStartTime;
+		}
+	}
+
+	public void makeDirty() {
+		super.makeDirty();
+
+		if (changedIntervals != null) {
+			changedIntervals.setAllChanged();
+		}
+	}
+
 	// **************************************************************
 	// Likelihood IMPLEMENTATION
 	// **************************************************************
@@ -103,6 +164,8 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 
 			lnL = calculateLogLikelihood(popFunction);
 
+		} else if (changedIntervals != null) {
+			lnL = updateLogLikelihood(demographicModel);
 		} else {
 			lnL = calculateLogLikelihood(demographicModel);
 		}
@@ -177,6 +240,101 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 		return logL;
 	}
 
+	/**
+	 * Calculates the same log likelihood as calculateLogLikelihood(DemographicModel) but keeps the
+	 * terms for each interval so that, when the interval list reports which intervals have changed,
+	 * only those intervals are recalculated. The previous log likelihood is the running total.
+	 */
+	private double updateLogLikelihood(DemographicModel demographicModel) {
+
+		IntervalList intervals = getIntervalList();
+
+		final int n = intervals.getIntervalCount();
+
+		if (n == 0) {
+			return 0.0;
+		}
+
+		double startTime = intervals.getStartTime();
+		demographicModel.setTimeOffset(startTime);
+
+		DemographicFunction demographicFunction = demographicModel.getDemographicFunction();
+
+		double logL;
+		final int first;
+		final int last;
+
+		if (changedIntervals.isAllChanged() || n != changedIntervals.getIntervalCount() ||
+				startTime != absoluteStartTime) {
+			// times are measured from the start of the intervals so if that moves all the intervals change
+			absoluteStartTime = startTime;
+			logL = 0.0;
+			first = 0;
+			last = n - 1;
+		} else {
+			logL = logLikelihood;
+			first = changedIntervals.getFirstChanged();
+			last = changedIntervals.getLastChanged();
+			for (int i = first; i <= last; i++) {
+				logL -= changedIntervals.getValue(AREA_TERM, i);
+				logL += changedIntervals.getValue(COALESCENT_TERM, i);
+			}
+		}
+
+		double intervalStartTime = first <= last ? intervals.getIntervalTime(first) - absoluteStartTime : 0.0;
+
+		for (int i = first; i <= last; i++) {
+
+			final double duration = intervals.getInterval(i);
+			final double finishTime = intervalStartTime + duration;
+
+			final double intervalArea = demographicFunction.getIntegral(intervalStartTime, finishTime);
+			if( intervalArea == 0 && duration != 0 ) {
+				// some of the cached terms are now out of date
+				changedIntervals.setAllChanged();
+				return Double.NEGATIVE_INFINITY;
+			}
+
+			final double kChoose2 = Binomial.choose2(intervals.getLineageCount(i));
+			final double areaTerm = -kChoose2 * intervalArea;
+			double coalescentTerm = 0.0;
+
+			if (intervals.getIntervalType(i) == IntervalType.COALESCENT) {
+
+				final double demographicAtCoalPoint = demographicFunction.getDemographic(finishTime);
+
+				// see calculateLogLikelihood(DemographicModel)
+				if( duration == 0.0 || demographicAtCoalPoint * (intervalArea/duration) >= demographicFunction.getThreshold() ) {
+					coalescentTerm = Math.log(demographicAtCoalPoint);
+				} else {
+					changedIntervals.setAllChanged();
+					return Double.NEGATIVE_INFINITY;
+				}
+			}
+
+			logL += areaTerm;
+			logL -= coalescentTerm;
+
+			changedIntervals.setValue(AREA_TERM, i, areaTerm);
+			changedIntervals.setValue(COALESCENT_TERM, i, coalescentTerm);
+
+			intervalStartTime = finishTime;
+		}
+
+		changedIntervals.changesUsed();
+
+		if (ChangedIntervals.VERIFY) {
+			double fullLogL = calculateLogLikelihood(demographicModel);
+			if (!ChangedIntervals.isClose(logL, fullLogL)) {
+				throw new RuntimeException("Incrementally updated CoalescentLikelihood (" + logL +
+						") differs from the full calculation (" + fullLogL + ") after a change to intervals " +
+						first + " to " + last);
+			}
+		}
+
+		return logL;
+	}
+
 	protected double calculateLogLikelihood(PopulationSizeFunction populationSizeFunction) {
 
 		double logL = 0.0;
@@ -296,4 +454,13 @@ public final class CoalescentLikelihood extends AbstractCoalescentLikelihood imp
 
 	private double[] coalescentEventStatisticValues;
 
+	private static final int AREA_TERM = 0;
+	private static final int COALESCENT_TERM = 1;
+
+	/** the terms for each interval, or null if the interval list can't report which intervals change */
+	private final ChangedIntervals changedIntervals;
+
+	private double absoluteStartTime;
+	private double storedAbsoluteStartTime;
+
 }
\ No newline at end of file
@@ -29,6 +29,7 @@ package dr.evomodel.coalescent;
 
 import dr.evolution.coalescent.IntervalList;
 import dr.evolution.coalescent.IntervalType;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
 import dr.evomodelxml.coalescent.GMRFSkyrideLikelihoodParser;
 import dr.inference.hmc.GradientWrtParameterProvider;
 import dr.inference.model.Likelihood;
@@ -98,6 +99,16 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
     // private List<TreeIntervals> intervalsList;
     private List<IntervalList> intervalsList;
 
+    private static final int START_TIME = 0;
+    private static final int END_TIME = 1;
+    private static final int LINEAGE_COUNT = 2;
+    private static final int COALESCENT_EVENTS = 3;
+    private static final int INTERVAL_VALUE_COUNT = 4;
+
+    // the intervals of each tree as last used by setupSufficientStatistics() or updateSufficientStatistics(),
+    // or null if the interval lists can't report which intervals have changed
+    private ChangedIntervals[] changedIntervals;
+
     public GMRFSkygridLikelihood(List<IntervalList> intervalsList,
                                  Parameter popParameter,
                                  Parameter groupParameter,
@@ -197,6 +208,7 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         storedPloidySums = new double[fieldLength];
 
         setupGMRFWeights();
+        setupChangedIntervals();
         setupSufficientStatistics();
 
         addStatistic(new DeltaStatistic());
@@ -398,6 +410,7 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         storedPloidySums = new double[fieldLength];
 
         setupGMRFWeights();
+        setupChangedIntervals();
 
         addStatistic(new DeltaStatistic());
 
@@ -467,6 +480,9 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
             IntervalList intervalList = (IntervalList) model;
             int tn = intervalsList.indexOf(intervalList);
             if (tn >= 0) {
+                if (changedIntervals != null) {
+                    changedIntervals[tn].intervalsChanged(object);
+                }
                 intervalsKnown = false;
                 likelihoodKnown = false;
             } else {
@@ -486,6 +502,18 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         // Do nothing
     }
 
+    @Override
+    public void setupCoalescentIntervals() {
+        super.setupCoalescentIntervals();
+        // the sufficient statistics have been calculated from scratch without the cached intervals so these
+        // can't be used for the next incremental update
+        if (changedIntervals != null) {
+            for (ChangedIntervals changed : changedIntervals) {
+                changed.setAllChanged();
+            }
+        }
+    }
+
     private void setupGridPoints() {
         if (gridPoints == null) {
             gridPoints = new double[numGridPoints];
@@ -727,6 +755,183 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
     }
 
+    private void setupChangedIntervals() {
+        changedIntervals = null;
+        for (IntervalList intervalList : intervalsList) {
+            if (!(intervalList instanceof BigFastTreeIntervals)) {
+                return;
+            }
+        }
+
+        changedIntervals = new ChangedIntervals[numTrees];
+        for (int i = 0; i < numTrees; i++) {
+            changedIntervals[i] = new ChangedIntervals(INTERVAL_VALUE_COUNT, intervalsList.get(i).getIntervalCount());
+        }
+    }
+
+    private void makeSufficientStatisticsKnown() {
+        if (!intervalsKnown) {
+            // intervalsKnown -> false when handleModelChanged event occurs in super.
+            wrapSetupIntervals();
+            for(IntervalList intervalList : intervalsList){
+                intervalList.calculateIntervals();
+            }
+            if (canUpdateSufficientStatistics()) {
+                updateSufficientStatistics();
+                if (ChangedIntervals.VERIFY) {
+                    verifySufficientStatistics();
+                }
+            } else {
+                setupSufficientStatistics();
+                if (changedIntervals != null) {
+                    cacheIntervals();
+                }
+            }
+            intervalsKnown = true;
+        }
+    }
+
+    /**
+     * The sufficient statistics can be updated for just the intervals that have changed if the interval lists
+     * report them and the cached intervals are valid. The ploidy sums are not updated so all the ploidy factors
+     * must be 1 (which makes the ploidy sums zero).
+     */
+    private boolean canUpdateSufficientStatistics() {
+        if (changedIntervals == null) {
+            return false;
+        }
+
+        boolean allChanged = true;
+        for (int i = 0; i < numTrees; i++) {
+            if (getPopulationFactor(i) != 1.0 ||
+                    intervalsList.get(i).getIntervalCount() != changedIntervals[i].getIntervalCount()) {
+                return false;
+            }
+            allChanged &= changedIntervals[i].isAllChanged();
+        }
+
+        // if every tree has changed (or the cached intervals have never been filled) start again
+        return !allChanged;
+    }
+
+    private void cacheIntervals() {
+        for (int i = 0; i < numTrees; i++) {
+            IntervalList intervalList = intervalsList.get(i);
+            ChangedIntervals changed = changedIntervals[i];
+            for (int j = 0; j < changed.getIntervalCount(); j++) {
+                cacheInterval(intervalList, changed, j);
+            }
+            changed.changesUsed();
+        }
+    }
+
+    private void cacheInterval(IntervalList intervalList, ChangedIntervals changed, int interval) {
+        changed.setValue(START_TIME, interval, intervalList.getIntervalTime(interval));
+        changed.setValue(END_TIME, interval, intervalList.getIntervalTime(interval + 1));
+        changed.setValue(LINEAGE_COUNT, interval, intervalList.getLineageCount(interval));
+        changed.setValue(COALESCENT_EVENTS, interval, intervalList.getCoalescentEvents(interval));
+    }
+
+    /**
+     * Removes the contributions of the intervals that have changed, as they were when last used, and adds those
+     * of the new intervals. This is O(k) in the number of changed intervals rather than in the size of the tree.
+     */
+    private void updateSufficientStatistics() {
+        for (int i = 0; i < numTrees; i++) {
+            IntervalList intervalList = intervalsList.get(i);
+            ChangedIntervals changed = changedIntervals[i];
+
+            int first = 0;
+            int last = changed.getIntervalCount() - 1;
+            if (!changed.isAllChanged()) {
+                first = changed.getFirstChanged();
+                last = changed.getLastChanged();
+            }
+
+            double ploidyFactor = 1 / getPopulationFactor(i);
+            int rootInterval = changed.getIntervalCount() - 1;
+
+            for (int j = first; j <= last; j++) {
+                addIntervalContribution(changed.getValue(START_TIME, j), changed.getValue(END_TIME, j),
+                        (int) changed.getValue(LINEAGE_COUNT, j), changed.getValue(COALESCENT_EVENTS, j) > 0,
+                        j == rootInterval, ploidyFactor, -1.0);
+            }
+
+            for (int j = first; j <= last; j++) {
+                cacheInterval(intervalList, changed, j);
+                addIntervalContribution(changed.getValue(START_TIME, j), changed.getValue(END_TIME, j),
+                        (int) changed.getValue(LINEAGE_COUNT, j), changed.getValue(COALESCENT_EVENTS, j) > 0,
+                        j == rootInterval, ploidyFactor, 1.0);
+            }
+
+            changed.changesUsed();
+        }
+    }
+
+    /**
+     * Adds (sign = 1) or removes (sign = -1) the contribution of one interval to the sufficient statistics and
+     * coalescent event counts, giving the same totals as setupSufficientStatistics(): intervals of zero length are
+     * skipped, an event on a grid point belongs to the later grid cell except at the root, and the interval ending
+     * at the root is only included if a grid point falls inside it.
+     */
+    private void addIntervalContribution(double startTime, double endTime, int lineageCount, boolean coalescent,
+                                         boolean rootInterval, double ploidyFactor, double sign) {
+        if (endTime <= startTime) {
+            return;
+        }
+
+        int startCell = countGridPoints(startTime, true);
+        int endCell = countGridPoints(endTime, false);
+
+        if (rootInterval && endCell == startCell) {
+            return;
+        }
+
+        for (int cell = startCell; cell <= endCell; cell++) {
+            double from = (cell == startCell ? startTime : gridPoints[cell - 1]);
+            double to = (cell == endCell ? endTime : gridPoints[cell]);
+            sufficientStatistics[cell] += sign * (to - from) * lineageCount * (lineageCount - 1) * 0.5 * ploidyFactor;
+        }
+
+        if (coalescent) {
+            numCoalEvents[rootInterval ? endCell : countGridPoints(endTime, true)] += sign;
+        }
+    }
+
+    /**
+     * @return the number of grid points before (or if inclusive, at or before) the given time
+     */
+    private int countGridPoints(double time, boolean inclusive) {
+        int low = 0;
+        int high = numGridPoints;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (gridPoints[mid] < time || (inclusive && gridPoints[mid] == time)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void verifySufficientStatistics() {
+        double[] updatedStatistics = sufficientStatistics.clone();
+        double[] updatedNumCoalEvents = numCoalEvents.clone();
+
+        setupSufficientStatistics();
+
+        for (int i = 0; i < fieldLength; i++) {
+            if (!ChangedIntervals.isClose(updatedStatistics[i], sufficientStatistics[i]) ||
+                    updatedNumCoalEvents[i] != numCoalEvents[i]) {
+                throw new RuntimeException("Incrementally updated sufficient statistics in GMRFSkygridLikelihood " +
+                        "differ from the full calculation for grid cell " + i + ": " + updatedStatistics[i] + " (" +
+                        updatedNumCoalEvents[i] + " events) vs " + sufficientStatistics[i] + " (" +
+                        numCoalEvents[i] + " events)");
+            }
+        }
+    }
+
     public double[] getNumCoalEvents() {
         return numCoalEvents;
     }
@@ -773,15 +978,7 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
     protected double calculateLogCoalescentLikelihood() {
 
-        if (!intervalsKnown) {
-            // intervalsKnown -> false when handleModelChanged event occurs in super.
-            wrapSetupIntervals();
-            for(IntervalList intervalList : intervalsList){
-                intervalList.calculateIntervals();
-            }
-            setupSufficientStatistics();
-            intervalsKnown = true;
-        }
+        makeSufficientStatisticsKnown();
 
         // Matrix operations taken from block update sampler to calculate data likelihood and field prior
 
@@ -959,6 +1156,11 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         System.arraycopy(numCoalEvents, 0, storedNumCoalEvents, 0, numCoalEvents.length);
         // storedPrecMatrix = precMatrix.copy();
         System.arraycopy(ploidySums, 0, storedPloidySums, 0, ploidySums.length);
+        if (changedIntervals != null) {
+            for (ChangedIntervals changed : changedIntervals) {
+                changed.storeState();
+            }
+        }
     }
 
 
@@ -972,6 +1174,11 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
         double[] tmp2 = ploidySums;
         ploidySums = storedPloidySums;
         storedPloidySums = tmp2;
+        if (changedIntervals != null) {
+            for (ChangedIntervals changed : changedIntervals) {
+                changed.restoreState();
+            }
+        }
     }
 
     // Implementation of GradientWrtParameterProvider
@@ -1058,15 +1265,7 @@ public class GMRFSkygridLikelihood extends GMRFSkyrideLikelihood
 
         double getLogFieldLikelihood() {
 
-            if (!intervalsKnown) {
-                //intervalsKnown -> false when handleModelChanged event occurs in super.
-                wrapSetupIntervals();
-                for(IntervalList intervalList : intervalsList){
-                    intervalList.calculateIntervals();
-                }
-                setupSufficientStatistics();
-                intervalsKnown = true;
-            }
+            makeSufficientStatisticsKnown();
 
             DenseVector diagonal1 = new DenseVector(fieldLength);
             DenseVector currentGamma = new DenseVector(popSizeParameter.getParameterValues());
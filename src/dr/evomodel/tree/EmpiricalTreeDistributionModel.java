@@ -29,6 +29,7 @@ package dr.evomodel.tree;
 
 import dr.evolution.io.Importer;
 import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.CompactTreeSet;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
@@ -68,11 +69,28 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
         this(null, importer, startingTree);
     }
 
+    /**
+     * This constructor takes a memory mapped set of trees and jumps randomly amongst them. The
+     * trees are never held on the heap: the model shows them through a single view that is
+     * pointed at the current tree.
+     * @param treeSet
+     * @param startingTree
+     */
+    public EmpiricalTreeDistributionModel(final CompactTreeSet treeSet, int startingTree) {
+        this(treeSet, null, treeSet.createView(), startingTree);
+    }
+
     private EmpiricalTreeDistributionModel(final List<Tree> trees, final TreeImporter importer, int startingTree) {
+        this(trees, importer, null, startingTree);
+    }
+
+    private EmpiricalTreeDistributionModel(final List<Tree> trees, final TreeImporter importer,
+                                           final CompactTreeSet.TreeView treeView, int startingTree) {
         super(EMPIRICAL_TREE_DISTRIBUTION_MODEL);
 
         this.trees = trees;
         this.importer = importer;
+        this.treeView = treeView;
         drawTreeIndex(startingTree);
 
         addStatistic(new Statistic.Abstract("Current Tree")  {
@@ -87,14 +105,39 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
         });
     }
 
+    /**
+     * @return the trees (for a compact tree set, get(i) returns a copy of tree i)
+     */
     public List<Tree> getTrees() { return trees; }
 
+    public int getTreeCount() {
+        return trees.size();
+    }
+
+    /**
+     * @return the id of tree i (without copying it out of a compact tree set)
+     */
+    public String getTreeId(int index) {
+        if (treeView != null) {
+            return ((CompactTreeSet) trees).getTreeId(index);
+        }
+        return trees.get(index).getId();
+    }
+
     public void setTree(int index) {
         currentTreeIndex = index;
-        currentTree = trees.get(index);
+        currentTree = getTree(index);
         fireModelChanged();
     }
 
+    private Tree getTree(int index) {
+        if (treeView != null) {
+            treeView.setTree(index);
+            return treeView;
+        }
+        return trees.get(index);
+    }
+
     protected void storeState() {
         storedCurrentTree = currentTree;
         storedCurrentTreeIndex = currentTreeIndex;
@@ -103,6 +146,9 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
     protected void restoreState() {
         currentTree = storedCurrentTree;
         currentTreeIndex = storedCurrentTreeIndex;
+        if (treeView != null) {
+            treeView.setTree(currentTreeIndex);
+        }
     }
 
     protected void acceptState() {
@@ -130,11 +176,10 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
         } else {
             if (treeNumber == -1) {
                 currentTreeIndex = MathUtils.nextInt(trees.size());
-                currentTree = trees.get(currentTreeIndex);
             } else {
                 currentTreeIndex = treeNumber;
-                currentTree = trees.get(currentTreeIndex);
             }
+            currentTree = getTree(currentTreeIndex);
         }
 
         // Force computation of node heights now rather than later in the evaluation
@@ -175,7 +220,7 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
     }
 
     public Taxon getNodeTaxon(final NodeRef node) {
-        return trees.get(currentTreeIndex).getNodeTaxon(node);
+        return currentTree.getNodeTaxon(node);
     }
 
     public boolean hasNodeHeights() {
@@ -303,6 +348,7 @@ public class EmpiricalTreeDistributionModel extends DefaultTreeModel implements
 
     private final List<Tree> trees;
     private final TreeImporter importer;
+    private final CompactTreeSet.TreeView treeView;
     private Tree currentTree;
     private Tree storedCurrentTree;
 
@@ -29,6 +29,7 @@ package dr.evomodel.tree;
 
 import dr.app.tools.NexusExporter;
 import dr.evolution.tree.*;
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.MCLogger;
 import dr.util.Keywordable;
@@ -63,6 +64,9 @@ public class TreeLogger extends MCLogger {
     private NumberFormat format;
     private LogUpon condition = null;
 
+    private AsyncLogWriter<TreeRecord> asyncWriter = null;
+    private final Map<Class<?>, Integer> traitKinds = new HashMap<Class<?>, Integer>();
+
     /**
      * Interface to indicate when to log a tree
      */
@@ -180,6 +184,10 @@ public class TreeLogger extends MCLogger {
                 logLine("\t\t;");
             }
         }
+
+        if (isAsynchronous()) {
+            asyncWriter = new AsyncLogWriter<TreeRecord>("tree log writer", TreeRecord::new, this::writeTree);
+        }
     }
 
     private String cleanTaxonName(String taxaId) {
@@ -207,29 +215,15 @@ public class TreeLogger extends MCLogger {
                     (logEvery < 0 || ((state % logEvery) == 0));
 
         if ( doIt ) {
+            if (asyncWriter != null) {
+                asyncWriter.acquire().capture(state);
+                asyncWriter.publish();
+                return;
+            }
+
             StringBuffer buffer = new StringBuffer("tree STATE_");
             buffer.append(state);
-            if (treeAttributeProviders != null) {
-                boolean hasAttribute = false;
-                for (TreeAttributeProvider tap : treeAttributeProviders) {
-                    String[] attributeLabel = tap.getTreeAttributeLabel();
-                    String[] attributeValue = tap.getAttributeForTree(tree);
-                    for (int i = 0; i < attributeLabel.length; i++) {
-                        if (!hasAttribute) {
-                            buffer.append(" [&");
-                            hasAttribute = true;
-                        } else {
-                            buffer.append(",");
-                        }
-                        buffer.append(attributeLabel[i]);
-                        buffer.append("=");
-                        buffer.append(attributeValue[i]);
-                    }
-                }
-                if (hasAttribute) {
-                    buffer.append("]");
-                }
-            }
+            appendTreeAttributes(buffer);
 
             buffer.append(" = [&R] ");
 
@@ -247,7 +241,316 @@ public class TreeLogger extends MCLogger {
         }
     }
 
+    private void appendTreeAttributes(StringBuffer buffer) {
+        if (treeAttributeProviders != null) {
+            boolean hasAttribute = false;
+            for (TreeAttributeProvider tap : treeAttributeProviders) {
+                String[] attributeLabel = tap.getTreeAttributeLabel();
+                String[] attributeValue = tap.getAttributeForTree(tree);
+                for (int i = 0; i < attributeLabel.length; i++) {
+                    if (!hasAttribute) {
+                        buffer.append(" [&");
+                        hasAttribute = true;
+                    } else {
+                        buffer.append(",");
+                    }
+                    buffer.append(attributeLabel[i]);
+                    buffer.append("=");
+                    buffer.append(attributeValue[i]);
+                }
+            }
+            if (hasAttribute) {
+                buffer.append("]");
+            }
+        }
+    }
+
+    /**
+     * Formats and writes a tree snapshot taken by log() - called on the writer thread. This
+     * produces exactly the same newick string as TreeUtils.newick() does for the live tree.
+     */
+    private void writeTree(TreeRecord record) {
+        StringBuffer buffer = new StringBuffer("tree STATE_");
+        buffer.append(record.state);
+        buffer.append(record.attributes);
+
+        buffer.append(" = [&R] ");
+
+        // substitution trees are always written with numbers
+        record.newick(record.root, substitutions || mapNames, buffer);
+
+        buffer.append(";");
+        logLine(buffer.toString());
+    }
+
+    private static final int TRAIT_FORMATTED = 0;
+    private static final int TRAIT_D = 1;
+    private static final int TRAIT_I = 2;
+    private static final int TRAIT_S = 3;
+    private static final int TRAIT_DA = 4;
+    private static final int TRAIT_IA = 5;
+    private static final int TRAIT_SA = 6;
+
+    /**
+     * Traits that use one of the standard TreeTrait base class formatters can be snapshotted
+     * as raw values and formatted on the writer thread. Anything else is formatted at the time.
+     */
+    private int getTraitKind(TreeTrait trait) {
+        Integer kind = traitKinds.get(trait.getClass());
+        if (kind == null) {
+            Class<?> declaringClass = null;
+            try {
+                declaringClass = trait.getClass().getMethod("getTraitString", Tree.class, NodeRef.class).getDeclaringClass();
+            } catch (NoSuchMethodException nsme) {
+                // fall through to formatting at the time
+            }
+            if (declaringClass == TreeTrait.D.class) {
+                kind = TRAIT_D;
+            } else if (declaringClass == TreeTrait.I.class) {
+                kind = TRAIT_I;
+            } else if (declaringClass == TreeTrait.S.class) {
+                kind = TRAIT_S;
+            } else if (declaringClass == TreeTrait.DA.class) {
+                kind = TRAIT_DA;
+            } else if (declaringClass == TreeTrait.IA.class) {
+                kind = TRAIT_IA;
+            } else if (declaringClass == TreeTrait.SA.class) {
+                kind = TRAIT_SA;
+            } else {
+                kind = TRAIT_FORMATTED;
+            }
+            traitKinds.put(trait.getClass(), kind);
+        }
+        return kind;
+    }
+
+    /**
+     * A reusable snapshot of the tree structure, branch lengths and trait values at one log step.
+     */
+    private final class TreeRecord {
+
+        void capture(long state) {
+            this.state = state;
+
+            StringBuffer buffer = new StringBuffer();
+            appendTreeAttributes(buffer);
+            attributes = buffer.toString();
+
+            final int nodeCount = tree.getNodeCount();
+            if (heights == null || heights.length != nodeCount) {
+                parents = new int[nodeCount];
+                children = new int[nodeCount][];
+                heights = new double[nodeCount];
+                rates = new double[nodeCount];
+                taxonIds = new String[nodeCount];
+            }
+
+            traits.clear();
+            if (treeTraitProviders != null) {
+                for (TreeTraitProvider ttp : treeTraitProviders) {
+                    for (TreeTrait treeTrait : ttp.getTreeTraits()) {
+                        if (treeTrait.getLoggable()) {
+                            traits.add(treeTrait);
+                        }
+                    }
+                }
+            }
+            final int traitCount = traits.size();
+            if (traitValues.length < traitCount) {
+                traitValues = new Object[traitCount][];
+                traitIntents = new TreeTrait.Intent[traitCount];
+                traitKindCodes = new int[traitCount];
+                traitAsArray = new boolean[traitCount];
+            }
+            for (int i = 0; i < traitCount; i++) {
+                TreeTrait trait = traits.get(i);
+                if (traitValues[i] == null || traitValues[i].length != nodeCount) {
+                    traitValues[i] = new Object[nodeCount];
+                }
+                traitIntents[i] = trait.getIntent();
+                traitKindCodes[i] = getTraitKind(trait);
+                traitAsArray[i] = traitKindCodes[i] == TRAIT_SA && ((TreeTrait.SA) trait).getFormatAsArray();
+            }
+
+            NodeRef root = tree.getRoot();
+            this.root = root.getNumber();
+            parents[this.root] = -1;
+            captureNode(root);
+        }
+
+        /**
+         * Visits the nodes and evaluates the traits in the same order as TreeUtils.newick().
+         */
+        private void captureNode(NodeRef node) {
+            final int number = node.getNumber();
+            final int childCount = tree.getChildCount(node);
+
+            if (tree.isExternal(node)) {
+                taxonIds[number] = tree.getTaxonId(number);
+                children[number] = null;
+            } else {
+                if (children[number] == null || children[number].length != childCount) {
+                    children[number] = new int[childCount];
+                }
+                for (int i = 0; i < childCount; i++) {
+                    NodeRef child = tree.getChild(node, i);
+                    children[number][i] = child.getNumber();
+                    parents[child.getNumber()] = number;
+                    captureNode(child);
+                }
+            }
+
+            heights[number] = tree.getNodeHeight(node);
+
+            captureTraits(node, TreeTrait.Intent.NODE);
+
+            if (!tree.isRoot(node)) {
+                captureTraits(node, TreeTrait.Intent.BRANCH);
+                if (substitutions) {
+                    rates[number] = branchRates.getBranchRate(tree, node);
+                }
+            }
+        }
+
+        private void captureTraits(NodeRef node, TreeTrait.Intent intent) {
+            final int number = node.getNumber();
+            for (int i = 0; i < traits.size(); i++) {
+                if (traitIntents[i] == intent) {
+                    TreeTrait trait = traits.get(i);
+                    Object value;
+                    switch (traitKindCodes[i]) {
+                        case TRAIT_D:
+                        case TRAIT_I:
+                        case TRAIT_S:
+                            value = trait.getTrait(tree, node);
+                            break;
+                        case TRAIT_DA: {
+                            double[] values = (double[]) trait.getTrait(tree, node);
+                            value = values != null ? values.clone() : null;
+                            break;
+                        }
+                        case TRAIT_IA: {
+                            int[] values = (int[]) trait.getTrait(tree, node);
+                            value = values != null ? values.clone() : null;
+                            break;
+                        }
+                        case TRAIT_SA: {
+                            String[] values = (String[]) trait.getTrait(tree, node);
+                            value = values != null ? values.clone() : null;
+                            break;
+                        }
+                        default:
+                            value = trait.getTraitString(tree, node);
+                    }
+                    traitValues[i][number] = value;
+                }
+            }
+        }
+
+        private String formatTrait(int index, int node) {
+            Object value = traitValues[index][node];
+            switch (traitKindCodes[index]) {
+                case TRAIT_D:
+                    return TreeTrait.D.formatTrait((Double) value);
+                case TRAIT_I:
+                    return TreeTrait.I.formatTrait((Integer) value);
+                case TRAIT_DA:
+                    return TreeTrait.DA.formatTrait((double[]) value);
+                case TRAIT_IA:
+                    return TreeTrait.IA.formatTrait((int[]) value);
+                case TRAIT_SA:
+                    return TreeTrait.SA.formatTrait((String[]) value, traitAsArray[index]);
+                default:
+                    return (String) value;
+            }
+        }
+
+        private void writeTraits(int node, TreeTrait.Intent intent, StringBuffer buffer) {
+            boolean hasAttribute = false;
+            for (int i = 0; i < traits.size(); i++) {
+                if (traitIntents[i] == intent) {
+                    String value = formatTrait(i, node);
+                    if (value != null) {
+                        if (!hasAttribute) {
+                            buffer.append("[&");
+                            hasAttribute = true;
+                        } else {
+                            buffer.append(",");
+                        }
+                        buffer.append(traits.get(i).getTraitName());
+                        buffer.append("=");
+                        buffer.append(value);
+                    }
+                }
+            }
+            if (hasAttribute) {
+                buffer.append("]");
+            }
+        }
+
+        void newick(int node, boolean numbers, StringBuffer buffer) {
+            if (children[node] == null) {
+                if (numbers) {
+                    buffer.append(idMap.get(taxonIds[node]));
+                } else {
+                    String label = taxonIds[node];
+                    if (label.contains(" ") || label.contains(":") || label.contains(";") || label.contains(",")) {
+                        buffer.append("\"");
+                        buffer.append(label);
+                        buffer.append("\"");
+                    } else {
+                        buffer.append(label);
+                    }
+                }
+            } else {
+                buffer.append("(");
+                newick(children[node][0], numbers, buffer);
+                for (int i = 1; i < children[node].length; i++) {
+                    buffer.append(",");
+                    newick(children[node][i], numbers, buffer);
+                }
+                buffer.append(")");
+            }
+
+            writeTraits(node, TreeTrait.Intent.NODE, buffer);
+
+            if (parents[node] >= 0) {
+                buffer.append(":");
+                writeTraits(node, TreeTrait.Intent.BRANCH, buffer);
+
+                double length = heights[parents[node]] - heights[node];
+                if (substitutions) {
+                    length *= rates[node];
+                }
+                if (format != null) {
+                    buffer.append(format.format(length));
+                } else {
+                    buffer.append(String.valueOf(length));
+                }
+            }
+        }
+
+        long state;
+        String attributes;
+        int root;
+        int[] parents;
+        int[][] children;
+        double[] heights;
+        double[] rates;
+        String[] taxonIds;
+
+        final List<TreeTrait> traits = new ArrayList<TreeTrait>();
+        Object[][] traitValues = new Object[0][];
+        TreeTrait.Intent[] traitIntents;
+        int[] traitKindCodes;
+        boolean[] traitAsArray;
+    }
+
     public void stopLogging() {
+        if (asyncWriter != null) {
+            asyncWriter.close();
+            asyncWriter = null;
+        }
         logLine("End;");
         super.stopLogging();
     }
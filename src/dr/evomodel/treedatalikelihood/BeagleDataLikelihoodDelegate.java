@@ -74,6 +74,8 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
     private static final String EXTRA_BUFFER_COUNT_PROPERTY = "beagle.extra.buffer.count";
     private static final String FORCE_VECTORIZATION = "beagle.force.vectorization";
     private static final String THREAD_COUNT = "beagle.thread.count";
+    // share transition matrices between branches with identical lengths
+    private static final String MATRIX_CACHE_PROPERTY = "beagle.matrix.cache";
 
     // Which scheme to use if choice not specified (or 'default' is selected):
     private static final PartialsRescalingScheme DEFAULT_RESCALING_SCHEME = PartialsRescalingScheme.DYNAMIC;
@@ -188,7 +190,13 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
             } else {
 
                 if (branchModel.getSubstitutionModels().size() == 1) {
-                    evolutionaryProcessDelegate = new HomogenousSubstitutionModelDelegate(tree, branchModel);
+                    if (System.getProperty(MATRIX_CACHE_PROPERTY) != null) {
+                        evolutionaryProcessDelegate = new HomogenousSubstitutionModelDelegate(tree, branchModel, 0,
+                                PreOrderSettings.getDefault(), true);
+                        logger.info("  Sharing transition matrices between branches of identical length");
+                    } else {
+                        evolutionaryProcessDelegate = new HomogenousSubstitutionModelDelegate(tree, branchModel);
+                    }
                 } else {
                     // use a more general delegate that allows different substitution models on different branches and
                     // can do matrix convolution.
@@ -768,6 +776,10 @@ public class BeagleDataLikelihoodDelegate extends AbstractModel implements DataL
                 return Double.NEGATIVE_INFINITY;
             }
             beagle.setCategoryRates(categoryRates);
+            if (evolutionaryProcessDelegate instanceof HomogenousSubstitutionModelDelegate) {
+                // the cached transition matrices are only valid for the rates they were computed with
+                ((HomogenousSubstitutionModelDelegate) evolutionaryProcessDelegate).setCategoryRates(categoryRates);
+            }
             // TODO Try beagle.setCategoryWeights() here
             double[] categoryWeights = this.siteRateModel.getCategoryProportions();
             // these could be set only when they change but store/restore would need to be considered
@@ -35,9 +35,20 @@ import dr.evomodel.substmodel.FrequencyModel;
 import dr.evomodel.substmodel.SubstitutionModel;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * A simple substitution model delegate with the same substitution model over the whole tree
+ *
+ * Optionally, branches with exactly the same effective length can share a transition matrix buffer.
+ * Each buffer is then allocated to whichever branches need it rather than each branch having a pair,
+ * and the matrix in a buffer is keyed on the version of the eigen decomposition and category rates it
+ * was computed with and the edge length. A matrix is only computed if there is no buffer holding it
+ * already. Buffers which no branch uses (in the current or stored state) keep their matrices for reuse
+ * until they are needed again, the least recently used first.
+ *
  * @author Andrew Rambaut
  */
 public final class HomogenousSubstitutionModelDelegate implements EvolutionaryProcessDelegate, Serializable {
@@ -53,6 +64,8 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
 
     private final PreOrderSettings settings;
 
+    private final TransitionMatrixCache matrixCache;
+
     /**
      * A class which handles substitution models including epoch models where multiple
      * substitution models on a branch are convolved.
@@ -76,6 +89,20 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
      * @param settings PreOrder derivative settings
      */
     public HomogenousSubstitutionModelDelegate(Tree tree, BranchModel branchModel, int partitionNumber, PreOrderSettings settings) {
+        this(tree, branchModel, partitionNumber, settings, false);
+    }
+
+    /**
+     * A class which handles substitution models including epoch models where multiple
+     * substitution models on a branch are convolved.
+     * @param tree
+     * @param branchModel Describes which substitution models use on each branch
+     * @param partitionNumber which data partition is this (used to offset eigen and matrix buffer numbers)
+     * @param settings PreOrder derivative settings
+     * @param cacheTransitionMatrices share transition matrices between branches with the same edge length
+     */
+    public HomogenousSubstitutionModelDelegate(Tree tree, BranchModel branchModel, int partitionNumber, PreOrderSettings settings,
+                                               boolean cacheTransitionMatrices) {
 
         assert(branchModel.getSubstitutionModels().size() == 1) : "this delegate should only be used with simple branch models";
 
@@ -92,6 +119,8 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
 
         this.settings = settings;
 
+        matrixCache = cacheTransitionMatrices ? new TransitionMatrixCache(nodeCount, matrixBufferHelper.getOffsetIndex(0)) : null;
+
     }// END: Constructor
 
     /**
@@ -113,6 +142,8 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
         nodeCount = 0;
         settings = PreOrderSettings.getDefault();
 
+        matrixCache = null;
+
 
     }// END: Constructor
 
@@ -209,6 +240,9 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
 
     @Override
     public int getMatrixIndex(int branchIndex) {
+        if (matrixCache != null) {
+            return matrixCache.getMatrixIndex(branchIndex);
+        }
         return matrixBufferHelper.getOffsetIndex(branchIndex);
     }
 
@@ -224,6 +258,10 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
         }
         EigenDecomposition ed = substitutionModel.getEigenDecomposition();
 
+        if (matrixCache != null) {
+            matrixCache.newVersion();
+        }
+
         beagle.setEigenDecomposition(
                 eigenBufferHelper.getOffsetIndex(0),
                 ed.getEigenVectors(),
@@ -231,6 +269,17 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
                 ed.getEigenValues());
     }
 
+    /**
+     * Tells the delegate the category rates that BEAGLE will compute transition matrices with. Only
+     * needed if transition matrices are cached.
+     * @param categoryRates
+     */
+    public void setCategoryRates(double[] categoryRates) {
+        if (matrixCache != null) {
+            matrixCache.setCategoryRates(categoryRates);
+        }
+    }
+
     @Override
     public SubstitutionModel getSubstitutionModelForBranch(int branchIndex) {
         return substitutionModel;
@@ -239,6 +288,19 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
     @Override
     public void updateTransitionMatrices(Beagle beagle, int[] branchIndices, double[] edgeLengths, int updateCount, boolean flip) {
 
+        if (matrixCache != null) {
+            int computeCount = matrixCache.assignMatrices(branchIndices, edgeLengths, updateCount);
+            if (computeCount > 0) {
+                beagle.updateTransitionMatrices(eigenBufferHelper.getOffsetIndex(0),
+                        matrixCache.getComputeIndices(),
+                        null, // firstDerivativeIndices
+                        null, // secondDerivativeIndices
+                        matrixCache.getComputeLengths(),
+                        computeCount);
+            }
+            return;
+        }
+
         int[] probabilityIndices = new int[updateCount];
 
         for (int i = 0; i < updateCount; i++) {
@@ -259,6 +321,11 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
 
     @Override
     public void flipTransitionMatrices(int[] branchIndices, int updateCount) {
+        if (matrixCache != null) {
+            // the caller will fill in the matrices so they can't be shared
+            matrixCache.assignMatrices(branchIndices, null, updateCount);
+            return;
+        }
         for (int i = 0; i < updateCount; i++) {
             matrixBufferHelper.flipOffset(branchIndices[i]);
         }
@@ -269,12 +336,237 @@ public final class HomogenousSubstitutionModelDelegate implements EvolutionaryPr
     public void storeState() {
         eigenBufferHelper.storeState();
         matrixBufferHelper.storeState();
+        if (matrixCache != null) {
+            matrixCache.storeState();
+        }
     }
 
     @Override
     public void restoreState() {
         eigenBufferHelper.restoreState();
         matrixBufferHelper.restoreState();
+        if (matrixCache != null) {
+            matrixCache.restoreState();
+        }
+    }
+
+    /**
+     * Allocates matrix buffers to branches, sharing a buffer between all the branches that need the same
+     * matrix. There are twice as many buffers as branches so, with the buffers used by the stored state,
+     * there is always a free buffer for a new matrix.
+     */
+    static final class TransitionMatrixCache implements Serializable {
+
+        TransitionMatrixCache(int branchCount, int bufferOffset) {
+            this.bufferOffset = bufferOffset;
+
+            int bufferCount = 2 * branchCount;
+            matrixBuffers = new int[branchCount];
+            storedMatrixBuffers = new int[branchCount];
+            useCounts = new int[bufferCount];
+            bufferKeys = new MatrixKey[bufferCount];
+            freePrevious = new int[bufferCount];
+            freeNext = new int[bufferCount];
+            computeIndices = new int[branchCount];
+            computeLengths = new double[branchCount];
+
+            // start as the double buffering does with branch i using buffer i
+            freeHead = -1;
+            freeTail = -1;
+            for (int i = 0; i < branchCount; i++) {
+                matrixBuffers[i] = i;
+                storedMatrixBuffers[i] = i;
+                useCounts[i] = 2;
+            }
+            for (int i = branchCount; i < bufferCount; i++) {
+                addFree(i);
+            }
+            for (int i = 0; i < bufferCount; i++) {
+                bufferKeys[i] = new MatrixKey();
+                bufferKeys[i].set(-1, Double.NaN);
+            }
+        }
+
+        int getMatrixIndex(int branchIndex) {
+            return matrixBuffers[branchIndex] + bufferOffset;
+        }
+
+        /**
+         * The eigen decomposition has changed
+         */
+        void newVersion() {
+            version = ++lastVersion;
+        }
+
+        void setCategoryRates(double[] rates) {
+            if (!Arrays.equals(rates, categoryRates)) {
+                categoryRates = rates.clone();
+                newVersion();
+            }
+        }
+
+        /**
+         * Finds or allocates a buffer for each of the branches. The buffers that need computing are
+         * returned by getComputeIndices() and getComputeLengths().
+         *
+         * @param edgeLengths the edge lengths or null if the caller will fill in the matrices
+         * @return the number of matrices to compute
+         */
+        int assignMatrices(int[] branchIndices, double[] edgeLengths, int updateCount) {
+            int computeCount = 0;
+            for (int i = 0; i < updateCount; i++) {
+                int branch = branchIndices[i];
+                release(matrixBuffers[branch]);
+
+                int buffer = -1;
+                if (edgeLengths != null) {
+                    lookupKey.set(version, edgeLengths[i]);
+                    Integer cached = cachedBuffers.get(lookupKey);
+                    if (cached != null) {
+                        buffer = cached;
+                    }
+                }
+
+                if (buffer == -1) {
+                    // the least recently used buffer that nothing refers to
+                    buffer = freeHead;
+                    cachedBuffers.remove(bufferKeys[buffer]);
+                    if (edgeLengths != null) {
+                        bufferKeys[buffer].set(version, edgeLengths[i]);
+                        cachedBuffers.put(bufferKeys[buffer], buffer);
+
+                        computeIndices[computeCount] = buffer + bufferOffset;
+                        computeLengths[computeCount] = edgeLengths[i];
+                        computeCount++;
+                    } else {
+                        bufferKeys[buffer].set(-1, Double.NaN);
+                    }
+                }
+
+                matrixBuffers[branch] = buffer;
+                use(buffer);
+            }
+            return computeCount;
+        }
+
+        int[] getComputeIndices() {
+            return computeIndices;
+        }
+
+        double[] getComputeLengths() {
+            return computeLengths;
+        }
+
+        void storeState() {
+            for (int i = 0; i < matrixBuffers.length; i++) {
+                if (storedMatrixBuffers[i] != matrixBuffers[i]) {
+                    use(matrixBuffers[i]);
+                    release(storedMatrixBuffers[i]);
+                    storedMatrixBuffers[i] = matrixBuffers[i];
+                }
+            }
+            storedVersion = version;
+            storedCategoryRates = categoryRates;
+        }
+
+        void restoreState() {
+            for (int i = 0; i < matrixBuffers.length; i++) {
+                if (storedMatrixBuffers[i] != matrixBuffers[i]) {
+                    use(storedMatrixBuffers[i]);
+                    release(matrixBuffers[i]);
+                    matrixBuffers[i] = storedMatrixBuffers[i];
+                }
+            }
+            version = storedVersion;
+            categoryRates = storedCategoryRates;
+        }
+
+        private void use(int buffer) {
+            if (useCounts[buffer] == 0) {
+                removeFree(buffer);
+            }
+            useCounts[buffer]++;
+        }
+
+        private void release(int buffer) {
+            useCounts[buffer]--;
+            if (useCounts[buffer] == 0) {
+                addFree(buffer);
+            }
+        }
+
+        private void addFree(int buffer) {
+            freePrevious[buffer] = freeTail;
+            freeNext[buffer] = -1;
+            if (freeTail == -1) {
+                freeHead = buffer;
+            } else {
+                freeNext[freeTail] = buffer;
+            }
+            freeTail = buffer;
+        }
+
+        private void removeFree(int buffer) {
+            if (freePrevious[buffer] == -1) {
+                freeHead = freeNext[buffer];
+            } else {
+                freeNext[freePrevious[buffer]] = freeNext[buffer];
+            }
+            if (freeNext[buffer] == -1) {
+                freeTail = freePrevious[buffer];
+            } else {
+                freePrevious[freeNext[buffer]] = freePrevious[buffer];
+            }
+        }
+
+        private final int bufferOffset;
+
+        private int[] matrixBuffers;
+        private int[] storedMatrixBuffers;
+
+        // the number of branches using each buffer in the current and stored states
+        private final int[] useCounts;
+
+        // the unused buffers in the order they were released
+        private final int[] freePrevious;
+        private final int[] freeNext;
+        private int freeHead;
+        private int freeTail;
+
+        private final MatrixKey[] bufferKeys;
+        private final Map<MatrixKey, Integer> cachedBuffers = new HashMap<MatrixKey, Integer>();
+        private final MatrixKey lookupKey = new MatrixKey();
+
+        private long version = 0;
+        private long storedVersion = 0;
+        private long lastVersion = 0;
+        private double[] categoryRates = null;
+        private double[] storedCategoryRates = null;
+
+        private final int[] computeIndices;
+        private final double[] computeLengths;
+    }
+
+    private static final class MatrixKey implements Serializable {
+        void set(long version, double edgeLength) {
+            this.version = version;
+            this.edgeLength = edgeLength;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            MatrixKey key = (MatrixKey) o;
+            return version == key.version &&
+                    Double.doubleToLongBits(edgeLength) == Double.doubleToLongBits(key.edgeLength);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(version) + Double.hashCode(edgeLength);
+        }
+
+        private long version;
+        private double edgeLength;
     }
 
 }// END: class
@@ -0,0 +1,862 @@
+/*
+ * JavaDataLikelihoodDelegate.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.UncertainSiteList;
+import dr.evolution.datatype.DataType;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+import dr.evomodel.branchmodel.BranchModel;
+import dr.evomodel.siteratemodel.SiteRateModel;
+import dr.evomodel.substmodel.EigenDecomposition;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.inference.model.AbstractModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/**
+ * JavaDataLikelihoodDelegate
+ *
+ * A DataLikelihoodDelegate that computes the peeling algorithm in pure Java, so it can be used
+ * on hosts where the native BEAGLE library is not available. Patterns are split into blocks that
+ * are processed independently (the whole traversal for one block at a time) on a fork-join pool.
+ * Partials, scale factors and transition matrices are held in flat primitive arrays and are
+ * double-buffered for store/restore using the same BufferIndexHelper scheme as the BEAGLE delegate.
+ */
+
+public class JavaDataLikelihoodDelegate extends AbstractModel implements DataLikelihoodDelegate {
+
+    private static final boolean COUNT_CALCULATIONS = true; // keep a cumulative total of number of computations
+
+    // the smallest number of patterns that is worth handing to a separate thread
+    private static final String MIN_BLOCK_SIZE_PROPERTY = "java.pattern.block.size";
+    private static final int MIN_BLOCK_SIZE = 128;
+
+    // the number of blocks per thread - more than one allows for some load balancing
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    // partials are rescaled (by an exact power of 2) when the largest value at a pattern falls below this
+    private static final int SCALING_EXPONENT_THRESHOLD = -256;
+    private static final double LOG_2 = Math.log(2.0);
+
+    // count the number of partial likelihood and matrix updates
+    private long totalMatrixUpdateCount = 0;
+    private long totalPartialsUpdateCount = 0;
+    private long totalEvaluationCount = 0;
+
+    // pools shared by all delegates (i.e., partitions) with the same thread count so that
+    // several partitions don't each start a full set of threads competing for the same cores
+    private static final Map<Integer, ForkJoinPool> sharedPools = new HashMap<Integer, ForkJoinPool>();
+
+    private static synchronized ForkJoinPool getSharedPool(int threadCount) {
+        ForkJoinPool pool = sharedPools.get(threadCount);
+        if (pool == null) {
+            pool = new ForkJoinPool(threadCount);
+            sharedPools.put(threadCount, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * @param tree Used for configuration - shouldn't be watched for changes
+     * @param patternList List of patterns
+     * @param branchModel Specifies substitution model for each branch (must be homogenous)
+     * @param siteRateModel Specifies rates per site
+     * @param useAmbiguities Whether to respect state ambiguities in data
+     * @param threadCount the number of threads to use (values less than 1 use the number of available processors)
+     */
+    public JavaDataLikelihoodDelegate(Tree tree,
+                                      PatternList patternList,
+                                      BranchModel branchModel,
+                                      SiteRateModel siteRateModel,
+                                      boolean useAmbiguities,
+                                      int threadCount) {
+
+        super("JavaDataLikelihoodDelegate");
+        final Logger logger = Logger.getLogger("dr.evomodel");
+
+        logger.info("\nCreating Java DataLikelihood Delegate");
+        setId(patternList.getId());
+
+        if (branchModel.getSubstitutionModels().size() != 1) {
+            throw new IllegalArgumentException("The Java likelihood delegate only supports a single substitution model over the tree");
+        }
+
+        this.dataType = patternList.getDataType();
+        this.patternList = patternList;
+        patternCount = patternList.getPatternCount();
+        stateCount = dataType.getStateCount();
+        matrixSize = stateCount * stateCount;
+
+        // Check for matching state counts
+        int stateCount2 = branchModel.getRootFrequencyModel().getFrequencyCount();
+        if (stateCount != stateCount2) {
+            throw new IllegalArgumentException("Pattern state count (" + stateCount
+                    + ") does not match substitution model state count (" + stateCount2 + ")");
+        }
+
+        patternWeights = patternList.getPatternWeights();
+
+        this.branchModel = branchModel;
+        addModel(this.branchModel);
+
+        this.siteRateModel = siteRateModel;
+        addModel(this.siteRateModel);
+
+        this.categoryCount = this.siteRateModel.getCategoryCount();
+
+        nodeCount = tree.getNodeCount();
+        tipCount = tree.getExternalNodeCount();
+        internalNodeCount = nodeCount - tipCount;
+
+        branchUpdateIndices = new int[nodeCount];
+        branchLengths = new double[nodeCount];
+
+        operations = new int[internalNodeCount * OPERATION_TUPLE_SIZE];
+
+        // one partials buffer for each tip and two for each internal node (for store restore)
+        partialBufferHelper = new BufferIndexHelper(nodeCount, tipCount);
+
+        evolutionaryProcessDelegate = new HomogenousSubstitutionModelDelegate(tree, branchModel);
+
+        partialsSize = categoryCount * patternCount * stateCount;
+        partials = new double[partialBufferHelper.getBufferCount()][];
+        scaleFactors = new double[partialBufferHelper.getBufferCount()][];
+        for (int i = tipCount; i < partials.length; i++) {
+            partials[i] = new double[partialsSize];
+            scaleFactors[i] = new double[patternCount];
+        }
+
+        matrices = new double[evolutionaryProcessDelegate.getMatrixBufferCount()][categoryCount * matrixSize];
+        matrixScratch = new double[matrixSize];
+        expScratch = new double[stateCount];
+
+        if (patternList instanceof UncertainSiteList) {
+            useAmbiguities = true;
+        }
+
+        try {
+            if (useAmbiguities) {
+                tipStates = null;
+            } else {
+                tipStates = new int[tipCount][];
+            }
+
+            for (int i = 0; i < tipCount; i++) {
+                // Find the id of tip i in the patternList
+                String id = tree.getTaxonId(i);
+                int index = patternList.getTaxonIndex(id);
+
+                if (index == -1) {
+                    throw new TaxonList.MissingTaxonException("Taxon, " + id + ", in tree, " + tree.getId() +
+                            ", is not found in patternList, " + patternList.getId());
+                } else {
+                    if (useAmbiguities) {
+                        setPartials(patternList, index, i);
+                    } else {
+                        setStates(patternList, index, i);
+                    }
+                }
+            }
+        } catch (TaxonList.MissingTaxonException mte) {
+            throw new RuntimeException(mte.toString());
+        }
+
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+
+        int minBlockSize = MIN_BLOCK_SIZE;
+        String bs = System.getProperty(MIN_BLOCK_SIZE_PROPERTY);
+        if (bs != null) {
+            minBlockSize = Math.max(1, Integer.parseInt(bs));
+        }
+
+        int blockCount = Math.max(1, Math.min(threadCount * BLOCKS_PER_THREAD, patternCount / minBlockSize));
+        if (threadCount == 1) {
+            blockCount = 1;
+        }
+
+        blockStarts = new int[blockCount + 1];
+        for (int b = 0; b <= blockCount; b++) {
+            blockStarts[b] = (int) (((long) patternCount * b) / blockCount);
+        }
+        blockLogLikelihoods = new double[blockCount];
+
+        if (blockCount > 1) {
+            pool = getSharedPool(threadCount);
+            blockTasks = new PatternBlockTask[blockCount];
+            for (int b = 0; b < blockCount; b++) {
+                blockTasks[b] = new PatternBlockTask(b);
+            }
+            rootTask = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(blockTasks);
+                }
+            };
+        } else {
+            pool = null;
+            blockTasks = null;
+            rootTask = null;
+        }
+
+        logger.info("    " + (useAmbiguities ? "Using" : "Ignoring") + " ambiguities in tree likelihood.");
+        logger.info("    With " + patternCount + " unique site patterns.");
+        if (pool != null) {
+            logger.info("    Using " + threadCount + " threads over " + blockCount + " pattern blocks.");
+        } else {
+            logger.info("    Using a single thread.");
+        }
+
+        if (patternList.areUncertain() && !useAmbiguities) {
+            logger.info("    WARNING: Uncertain site patterns will be ignored.");
+        }
+    }
+
+    @Override
+    public String getReport() {
+        return "JavaDataLikelihoodDelegate: " + patternCount + " patterns in " + blockLogLikelihoods.length +
+                " blocks; " + totalEvaluationCount + " evaluations, " + totalPartialsUpdateCount +
+                " partials updates, " + totalMatrixUpdateCount + " matrix updates";
+    }
+
+    @Override
+    public TreeTraversal.TraversalType getOptimalTraversalType() {
+        return TreeTraversal.TraversalType.POST_ORDER;
+    }
+
+    @Override
+    public int getTraitCount() {
+        return 1;
+    }
+
+    @Override
+    public int getTraitDim() {
+        return patternCount;
+    }
+
+    @Override
+    public RateRescalingScheme getRateRescalingScheme() {
+        return RateRescalingScheme.NONE;
+    }
+
+    public final BranchModel getBranchModel() {
+        return branchModel;
+    }
+
+    public PatternList getPatternList() {
+        return this.patternList;
+    }
+
+    /**
+     * Sets the partials from a sequence in an alignment.
+     *
+     * @param patternList   patternList
+     * @param sequenceIndex sequenceIndex
+     * @param nodeIndex     nodeIndex
+     */
+    private void setPartials(PatternList patternList,
+                             int sequenceIndex,
+                             int nodeIndex) {
+        double[] tipPartials = new double[partialsSize];
+
+        int v = 0;
+        for (int i = 0; i < patternCount; i++) {
+
+            if (patternList instanceof UncertainSiteList) {
+                ((UncertainSiteList) patternList).fillPartials(sequenceIndex, i, tipPartials, v);
+                v += stateCount;
+            } else if (patternList.areUncertain()) {
+
+                double[] prob = patternList.getUncertainPatternState(sequenceIndex, i);
+                System.arraycopy(prob, 0, tipPartials, v, stateCount);
+                v += stateCount;
+
+            } else {
+                int state = patternList.getPatternState(sequenceIndex, i);
+                boolean[] stateSet = dataType.getStateSet(state);
+
+                for (int j = 0; j < stateCount; j++) {
+                    tipPartials[v] = stateSet[j] ? 1.0 : 0.0;
+                    v++;
+                }
+            }
+        }
+
+        // if there is more than one category then replicate the partials for each
+        int n = patternCount * stateCount;
+        int k = n;
+        for (int i = 1; i < categoryCount; i++) {
+            System.arraycopy(tipPartials, 0, tipPartials, k, n);
+            k += n;
+        }
+
+        partials[nodeIndex] = tipPartials;
+    }
+
+    /**
+     * Sets the states from a sequence in an alignment. Ambiguous states are treated as
+     * completely missing (as BEAGLE does).
+     *
+     * @param patternList   patternList
+     * @param sequenceIndex sequenceIndex
+     * @param nodeIndex     nodeIndex
+     */
+    private void setStates(PatternList patternList,
+                           int sequenceIndex,
+                           int nodeIndex) {
+        int[] states = new int[patternCount];
+
+        for (int i = 0; i < patternCount; i++) {
+            states[i] = patternList.getPatternState(sequenceIndex, i);
+        }
+
+        tipStates[nodeIndex] = states;
+    }
+
+    /**
+     * Calculate the log likelihood of the current state.
+     *
+     * @return the log likelihood.
+     */
+    @Override
+    public double calculateLikelihood(List<BranchOperation> branchOperations, List<NodeOperation> nodeOperations, int rootNodeNumber) throws LikelihoodException {
+
+        int branchUpdateCount = 0;
+        for (BranchOperation op : branchOperations) {
+            branchUpdateIndices[branchUpdateCount] = op.getBranchNumber();
+            branchLengths[branchUpdateCount] = op.getBranchLength();
+            branchUpdateCount ++;
+        }
+
+        categoryRates = this.siteRateModel.getCategoryRates();
+        if (categoryRates == null) {
+            // If this returns null then there was a numerical error calculating the category rates
+            // (probably a very small alpha) so reject the move.
+            return Double.NEGATIVE_INFINITY;
+        }
+        categoryWeights = this.siteRateModel.getCategoryProportions();
+        frequencies = evolutionaryProcessDelegate.getRootStateFrequencies();
+
+        if (branchUpdateCount > 0) {
+            updateTransitionMatrices(branchUpdateCount);
+        }
+
+        if (COUNT_CALCULATIONS) {
+            totalMatrixUpdateCount += branchUpdateCount;
+        }
+
+        // Flip all the buffers to be written to first...
+        for (NodeOperation op : nodeOperations) {
+            partialBufferHelper.flipOffset(op.getNodeNumber());
+        }
+
+        operationCount = nodeOperations.size();
+        int k = 0;
+        for (NodeOperation op : nodeOperations) {
+            operations[k] = partialBufferHelper.getOffsetIndex(op.getNodeNumber());
+            operations[k + 1] = partialBufferHelper.getOffsetIndex(op.getLeftChild()); // source node 1
+            operations[k + 2] = evolutionaryProcessDelegate.getMatrixIndex(op.getLeftChild()); // source matrix 1
+            operations[k + 3] = partialBufferHelper.getOffsetIndex(op.getRightChild()); // source node 2
+            operations[k + 4] = evolutionaryProcessDelegate.getMatrixIndex(op.getRightChild()); // source matrix 2
+
+            k += OPERATION_TUPLE_SIZE;
+        }
+
+        rootBufferIndex = partialBufferHelper.getOffsetIndex(rootNodeNumber);
+
+        if (pool != null) {
+            for (PatternBlockTask task : blockTasks) {
+                task.reinitialize();
+            }
+            rootTask.reinitialize();
+            pool.invoke(rootTask);
+        } else {
+            for (int b = 0; b < blockLogLikelihoods.length; b++) {
+                calculateBlock(b);
+            }
+        }
+
+        // sum in a fixed order so the result does not depend on the thread scheduling
+        double logL = 0.0;
+        for (double blockLogL : blockLogLikelihoods) {
+            logL += blockLogL;
+        }
+
+        if (COUNT_CALCULATIONS) {
+            totalEvaluationCount += 1;
+            totalPartialsUpdateCount += operationCount;
+        }
+
+        if (Double.isNaN(logL)) {
+            logL = Double.NEGATIVE_INFINITY;
+        }
+
+        return logL;
+    }
+
+    private void updateTransitionMatrices(int branchUpdateCount) {
+        evolutionaryProcessDelegate.flipTransitionMatrices(branchUpdateIndices, branchUpdateCount);
+
+        SubstitutionModel substitutionModel = evolutionaryProcessDelegate.getSubstitutionModel(0);
+        EigenDecomposition ed = substitutionModel.canReturnComplexDiagonalization() ?
+                null : substitutionModel.getEigenDecomposition();
+
+        for (int i = 0; i < branchUpdateCount; i++) {
+            double[] matrix = matrices[evolutionaryProcessDelegate.getMatrixIndex(branchUpdateIndices[i])];
+            for (int c = 0; c < categoryCount; c++) {
+                double distance = branchLengths[i] * categoryRates[c];
+                if (ed != null) {
+                    computeTransitionProbabilities(ed, distance, matrix, c * matrixSize);
+                } else {
+                    substitutionModel.getTransitionProbabilities(distance, matrixScratch);
+                    System.arraycopy(matrixScratch, 0, matrix, c * matrixSize, matrixSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes P(t) = U exp(Lambda t) U^-1 into matrix at the given offset.
+     */
+    private void computeTransitionProbabilities(EigenDecomposition ed, double distance, double[] matrix, int offset) {
+        final double[] eVec = ed.getEigenVectors();
+        final double[] iVec = ed.getInverseEigenVectors();
+        final double[] eVal = ed.getEigenValues();
+
+        for (int k = 0; k < stateCount; k++) {
+            expScratch[k] = Math.exp(distance * eVal[k]);
+        }
+
+        int u = offset;
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < stateCount; j++) {
+                double sum = 0.0;
+                for (int k = 0; k < stateCount; k++) {
+                    sum += eVec[i * stateCount + k] * expScratch[k] * iVec[k * stateCount + j];
+                }
+                matrix[u] = Math.abs(sum);
+                u++;
+            }
+        }
+    }
+
+    /**
+     * Runs all the node operations and the root integration for one block of patterns.
+     * Blocks write to disjoint regions of the buffers so may be run concurrently.
+     */
+    private void calculateBlock(int block) {
+        final int start = blockStarts[block];
+        final int end = blockStarts[block + 1];
+
+        int k = 0;
+        for (int op = 0; op < operationCount; op++) {
+            final int dest = operations[k];
+            final int child1 = operations[k + 1];
+            final int matrix1 = operations[k + 2];
+            final int child2 = operations[k + 3];
+            final int matrix2 = operations[k + 4];
+
+            final boolean states1 = tipStates != null && child1 < tipCount;
+            final boolean states2 = tipStates != null && child2 < tipCount;
+
+            if (states1 && states2) {
+                updateStatesStates(tipStates[child1], matrices[matrix1], tipStates[child2], matrices[matrix2],
+                        partials[dest], start, end);
+            } else if (states1) {
+                updateStatesPartials(tipStates[child1], matrices[matrix1], partials[child2], matrices[matrix2],
+                        partials[dest], start, end);
+            } else if (states2) {
+                updateStatesPartials(tipStates[child2], matrices[matrix2], partials[child1], matrices[matrix1],
+                        partials[dest], start, end);
+            } else if (stateCount == 4) {
+                updateNucleotidePartialsPartials(partials[child1], matrices[matrix1], partials[child2], matrices[matrix2],
+                        partials[dest], start, end);
+            } else {
+                updatePartialsPartials(partials[child1], matrices[matrix1], partials[child2], matrices[matrix2],
+                        partials[dest], start, end);
+            }
+
+            rescalePartials(partials[dest], scaleFactors[dest], scaleFactors[child1], scaleFactors[child2], start, end);
+
+            k += OPERATION_TUPLE_SIZE;
+        }
+
+        blockLogLikelihoods[block] = integrateRoot(partials[rootBufferIndex], scaleFactors[rootBufferIndex], start, end);
+    }
+
+    private void updateStatesStates(int[] states1, double[] matrices1, int[] states2, double[] matrices2,
+                                    double[] destination, int start, int end) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int m = c * matrixSize;
+            int v = (c * patternCount + start) * stateCount;
+            for (int p = start; p < end; p++) {
+                final int s1 = states1[p];
+                final int s2 = states2[p];
+                for (int i = 0; i < stateCount; i++) {
+                    final double sum1 = s1 < stateCount ? matrices1[m + i * stateCount + s1] : 1.0;
+                    final double sum2 = s2 < stateCount ? matrices2[m + i * stateCount + s2] : 1.0;
+                    destination[v] = sum1 * sum2;
+                    v++;
+                }
+            }
+        }
+    }
+
+    private void updateStatesPartials(int[] states1, double[] matrices1, double[] partials2, double[] matrices2,
+                                      double[] destination, int start, int end) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int m = c * matrixSize;
+            int u = (c * patternCount + start) * stateCount;
+            for (int p = start; p < end; p++) {
+                final int s1 = states1[p];
+                for (int i = 0; i < stateCount; i++) {
+                    final double sum1 = s1 < stateCount ? matrices1[m + i * stateCount + s1] : 1.0;
+                    double sum2 = 0.0;
+                    int w = m + i * stateCount;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum2 += matrices2[w + j] * partials2[u + j];
+                    }
+                    destination[u + i] = sum1 * sum2;
+                }
+                u += stateCount;
+            }
+        }
+    }
+
+    private void updatePartialsPartials(double[] partials1, double[] matrices1, double[] partials2, double[] matrices2,
+                                        double[] destination, int start, int end) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int m = c * matrixSize;
+            int u = (c * patternCount + start) * stateCount;
+            for (int p = start; p < end; p++) {
+                for (int i = 0; i < stateCount; i++) {
+                    double sum1 = 0.0;
+                    double sum2 = 0.0;
+                    int w = m + i * stateCount;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum1 += matrices1[w + j] * partials1[u + j];
+                        sum2 += matrices2[w + j] * partials2[u + j];
+                    }
+                    destination[u + i] = sum1 * sum2;
+                }
+                u += stateCount;
+            }
+        }
+    }
+
+    /**
+     * An unrolled version of updatePartialsPartials for 4 states.
+     */
+    private void updateNucleotidePartialsPartials(double[] partials1, double[] matrices1, double[] partials2, double[] matrices2,
+                                                  double[] destination, int start, int end) {
+        for (int c = 0; c < categoryCount; c++) {
+            final int m = c * 16;
+            final double m100 = matrices1[m], m101 = matrices1[m + 1], m102 = matrices1[m + 2], m103 = matrices1[m + 3];
+            final double m110 = matrices1[m + 4], m111 = matrices1[m + 5], m112 = matrices1[m + 6], m113 = matrices1[m + 7];
+            final double m120 = matrices1[m + 8], m121 = matrices1[m + 9], m122 = matrices1[m + 10], m123 = matrices1[m + 11];
+            final double m130 = matrices1[m + 12], m131 = matrices1[m + 13], m132 = matrices1[m + 14], m133 = matrices1[m + 15];
+
+            final double m200 = matrices2[m], m201 = matrices2[m + 1], m202 = matrices2[m + 2], m203 = matrices2[m + 3];
+            final double m210 = matrices2[m + 4], m211 = matrices2[m + 5], m212 = matrices2[m + 6], m213 = matrices2[m + 7];
+            final double m220 = matrices2[m + 8], m221 = matrices2[m + 9], m222 = matrices2[m + 10], m223 = matrices2[m + 11];
+            final double m230 = matrices2[m + 12], m231 = matrices2[m + 13], m232 = matrices2[m + 14], m233 = matrices2[m + 15];
+
+            int u = (c * patternCount + start) * 4;
+            for (int p = start; p < end; p++) {
+                final double p10 = partials1[u], p11 = partials1[u + 1], p12 = partials1[u + 2], p13 = partials1[u + 3];
+                final double p20 = partials2[u], p21 = partials2[u + 1], p22 = partials2[u + 2], p23 = partials2[u + 3];
+
+                destination[u] = (m100 * p10 + m101 * p11 + m102 * p12 + m103 * p13) *
+                        (m200 * p20 + m201 * p21 + m202 * p22 + m203 * p23);
+                destination[u + 1] = (m110 * p10 + m111 * p11 + m112 * p12 + m113 * p13) *
+                        (m210 * p20 + m211 * p21 + m212 * p22 + m213 * p23);
+                destination[u + 2] = (m120 * p10 + m121 * p11 + m122 * p12 + m123 * p13) *
+                        (m220 * p20 + m221 * p21 + m222 * p22 + m223 * p23);
+                destination[u + 3] = (m130 * p10 + m131 * p11 + m132 * p12 + m133 * p13) *
+                        (m230 * p20 + m231 * p21 + m232 * p22 + m233 * p23);
+                u += 4;
+            }
+        }
+    }
+
+    /**
+     * Rescales the partials at each pattern by an exact power of 2 when they get small and
+     * accumulates the (log) scale factors of the node and its descendants.
+     */
+    private void rescalePartials(double[] destination, double[] scale, double[] scale1, double[] scale2,
+                                 int start, int end) {
+        final int categoryStride = patternCount * stateCount;
+        for (int p = start; p < end; p++) {
+            double max = 0.0;
+            int u = p * stateCount;
+            for (int c = 0; c < categoryCount; c++) {
+                for (int i = 0; i < stateCount; i++) {
+                    if (destination[u + i] > max) {
+                        max = destination[u + i];
+                    }
+                }
+                u += categoryStride;
+            }
+
+            double logScale = (scale1 != null ? scale1[p] : 0.0) + (scale2 != null ? scale2[p] : 0.0);
+
+            if (max > 0.0) {
+                final int exponent = Math.getExponent(max);
+                if (exponent < SCALING_EXPONENT_THRESHOLD) {
+                    final double factor = Math.scalb(1.0, -exponent);
+                    u = p * stateCount;
+                    for (int c = 0; c < categoryCount; c++) {
+                        for (int i = 0; i < stateCount; i++) {
+                            destination[u + i] *= factor;
+                        }
+                        u += categoryStride;
+                    }
+                    logScale += exponent * LOG_2;
+                }
+            }
+
+            scale[p] = logScale;
+        }
+    }
+
+    private double integrateRoot(double[] rootPartials, double[] rootScaleFactors, int start, int end) {
+        final int categoryStride = patternCount * stateCount;
+        double logL = 0.0;
+        for (int p = start; p < end; p++) {
+            double sum = 0.0;
+            int u = p * stateCount;
+            for (int c = 0; c < categoryCount; c++) {
+                double sumOverStates = 0.0;
+                for (int i = 0; i < stateCount; i++) {
+                    sumOverStates += frequencies[i] * rootPartials[u + i];
+                }
+                sum += categoryWeights[c] * sumOverStates;
+                u += categoryStride;
+            }
+            logL += patternWeights[p] * (Math.log(sum) + rootScaleFactors[p]);
+        }
+        return logL;
+    }
+
+    @Override
+    public void makeDirty() {
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        // Tell TreeDataLikelihood to update all nodes
+        fireModelChanged();
+    }
+
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+
+    }
+
+    /**
+     * Stores the additional state other than model components
+     */
+    @Override
+    public void storeState() {
+        partialBufferHelper.storeState();
+        evolutionaryProcessDelegate.storeState();
+    }
+
+    /**
+     * Restore the additional stored state
+     */
+    @Override
+    public void restoreState() {
+        partialBufferHelper.restoreState();
+        evolutionaryProcessDelegate.restoreState();
+    }
+
+    @Override
+    public void setCallback(TreeDataLikelihood treeDataLikelihood) {
+        // Do nothing
+    }
+
+    @Override
+    public void setComputePostOrderStatisticsOnly(boolean computePostOrderStatistic) {
+        // Do nothing
+    }
+
+    @Override
+    public boolean providesPostOrderStatisticsOnly() { return false; }
+
+    @Override
+    public int vectorizeNodeOperations(List<ProcessOnTreeDelegate.NodeOperation> nodeOperations, int[] operations) {
+        throw new RuntimeException("Not yet implemented");
+    }
+
+    @Override
+    protected void acceptState() {
+    }
+
+    public final EvolutionaryProcessDelegate getEvolutionaryProcessDelegate(){
+        return this.evolutionaryProcessDelegate;
+    }
+
+    public final SiteRateModel getSiteRateModel(){
+        return this.siteRateModel;
+    }
+
+    // **************************************************************
+    // INSTANCE PROFILEABLE
+    // **************************************************************
+
+    @Override
+    public long getTotalCalculationCount() {
+        // Can only return one count at the moment so return the number of partials updated
+        return totalPartialsUpdateCount;
+    }
+
+    private class PatternBlockTask extends RecursiveAction {
+        PatternBlockTask(int block) {
+            this.block = block;
+        }
+
+        @Override
+        protected void compute() {
+            calculateBlock(block);
+        }
+
+        private final int block;
+    }
+
+    // **************************************************************
+    // INSTANCE VARIABLES
+    // **************************************************************
+
+    private static final int OPERATION_TUPLE_SIZE = 5;
+
+    private final int nodeCount;
+    private final int tipCount;
+    private final int internalNodeCount;
+
+    private final int[] branchUpdateIndices;
+    private final double[] branchLengths;
+
+    private final int[] operations;
+    private int operationCount;
+    private int rootBufferIndex;
+
+    private final BufferIndexHelper partialBufferHelper;
+
+    /**
+     * the partials and cumulative log scale factors for each buffer (tip buffers are null unless
+     * ambiguities are used)
+     */
+    private final double[][] partials;
+    private final double[][] scaleFactors;
+    private final int partialsSize;
+
+    /**
+     * the tip states for each tip (null if ambiguities are used)
+     */
+    private final int[][] tipStates;
+
+    /**
+     * the transition matrices for each matrix buffer, one per category
+     */
+    private final double[][] matrices;
+    private final int matrixSize;
+    private final double[] matrixScratch;
+    private final double[] expScratch;
+
+    private double[] categoryRates;
+    private double[] categoryWeights;
+    private double[] frequencies;
+
+    /**
+     * the pattern blocks and their log likelihoods
+     */
+    private final int[] blockStarts;
+    private final double[] blockLogLikelihoods;
+
+    private final ForkJoinPool pool;
+    private final PatternBlockTask[] blockTasks;
+    private final RecursiveAction rootTask;
+
+    /**
+     * the patternList
+     */
+    private final PatternList patternList;
+
+    /**
+     * the data type
+     */
+    private final DataType dataType;
+
+    /**
+     * the pattern weights
+     */
+    private final double[] patternWeights;
+
+    /**
+     * the number of patterns
+     */
+    private final int patternCount;
+
+    /**
+     * the number of states in the data
+     */
+    private final int stateCount;
+
+    /**
+     * the branch-site model for these sites
+     */
+    private final BranchModel branchModel;
+
+    /**
+     * A delegate to handle substitution models on branches
+     */
+    private final HomogenousSubstitutionModelDelegate evolutionaryProcessDelegate;
+
+    /**
+     * the site model for these sites
+     */
+    private final SiteRateModel siteRateModel;
+
+    /**
+     * the number of rate categories
+     */
+    private final int categoryCount;
+}
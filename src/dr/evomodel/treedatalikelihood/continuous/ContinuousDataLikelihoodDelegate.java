@@ -256,6 +256,14 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
             System.err.println("Base CDI is " + cdi.getClass().getCanonicalName());
             this.dimProcess = cdi.getDimProcess();
 
+            final int threadCount = PostOrderTraversalScheduler.getThreadCountProperty();
+            if (threadCount != 1) {
+                traversalScheduler = new PostOrderTraversalScheduler(cdi, threadCount);
+                logger.info("  Using " + traversalScheduler.getThreadCount() + " threads for the post-order traversal");
+            } else {
+                traversalScheduler = null;
+            }
+
             // TODO Make separate library
 //            cdi = CDIFactory.loadCDIInstance();
 //
@@ -819,7 +827,12 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
             cdi.setWishartStatistics(degreesOfFreedom, outerProducts);
         }
 
-        cdi.updatePostOrderPartials(operations, operationCount, getActivePrecisionIndex(0), computeRemainders, computeWishartStatistics);
+        if (traversalScheduler != null && !computeWishartStatistics) {
+            // outer-products are accumulated into shared buffers so only the plain traversal is run in parallel
+            traversalScheduler.updatePostOrderPartials(operations, operationCount, getActivePrecisionIndex(0), computeRemainders);
+        } else {
+            cdi.updatePostOrderPartials(operations, operationCount, getActivePrecisionIndex(0), computeRemainders, computeWishartStatistics);
+        }
 
         double[] logLikelihoods = new double[numTraits];
 
@@ -988,6 +1001,8 @@ public class ContinuousDataLikelihoodDelegate extends AbstractModel implements D
 
     private final ContinuousDiffusionIntegrator cdi;
 
+    private final PostOrderTraversalScheduler traversalScheduler;
+
     private boolean updateDiffusionModel;
 
     private final Deque<Integer> updateTipData = new ArrayDeque<Integer>();
@@ -0,0 +1,249 @@
+/*
+ * PostOrderTraversalScheduler.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.evomodel.treedatalikelihood.continuous;
+
+import dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+
+/**
+ * Runs the post-order partial updates of a ContinuousDiffusionIntegrator in parallel. The vectorized node operations
+ * are sorted into levels, where each operation only reads buffers written by earlier levels, and the operations of
+ * each level are split into blocks that run on a fork-join pool. Each block uses its own worker integrator, which
+ * shares all buffers with the original but has a separate work-space.
+ */
+public class PostOrderTraversalScheduler {
+
+    public static final String THREADS_PROPERTY = "continuous.threads";
+
+    // the smallest number of node operations that is worth sending to the pool
+    public static final String MIN_OPERATIONS_PROPERTY = "continuous.parallel.min.operations";
+    private static final int MIN_OPERATION_COUNT = 32;
+
+    // the number of blocks per thread - more than one allows for some load balancing
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    public static int getThreadCountProperty() {
+        return parseProperty(THREADS_PROPERTY, 1);
+    }
+
+    private static int parseProperty(String name, int defaultValue) {
+        String r = System.getProperty(name);
+        if (r != null) {
+            try {
+                return Integer.parseInt(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + name + "' environmental property");
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @param cdi         the integrator; it is used for block 0 and for operations that run serially
+     * @param threadCount the number of threads (values less than 1 use the number of available processors)
+     */
+    public PostOrderTraversalScheduler(ContinuousDiffusionIntegrator cdi, int threadCount) {
+        this(cdi, threadCount, parseProperty(MIN_OPERATIONS_PROPERTY, MIN_OPERATION_COUNT));
+    }
+
+    public PostOrderTraversalScheduler(ContinuousDiffusionIntegrator cdi, int threadCount, int minOperationCount) {
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        this.cdi = cdi;
+        this.threadCount = threadCount;
+        this.minOperationCount = minOperationCount;
+
+        bufferLevels = new int[cdi.getBufferCount()];
+
+        final int blockCount = threadCount * BLOCKS_PER_THREAD;
+        blockTasks = new BlockTask[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            blockTasks[b] = new BlockTask(b == 0 ? cdi : cdi.createWorker());
+        }
+
+        pool = new ForkJoinPool(threadCount);
+        rootTask = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                for (int b = activeBlockCount - 1; b > 0; b--) {
+                    blockTasks[b].fork();
+                }
+                blockTasks[0].compute();
+                for (int b = 1; b < activeBlockCount; b++) {
+                    blockTasks[b].join();
+                }
+            }
+        };
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Performs the same updates as ContinuousDiffusionIntegrator.updatePostOrderPartials without outer-products.
+     */
+    public void updatePostOrderPartials(final int[] operations, final int operationCount, final int precisionIndex,
+                                        final boolean computeRemainders) {
+
+        if (operationCount < minOperationCount) {
+            cdi.updatePostOrderPartials(operations, operationCount, precisionIndex, computeRemainders, false);
+            return;
+        }
+
+        final int levelCount = sortIntoLevels(operations, operationCount);
+
+        this.precisionIndex = precisionIndex;
+        this.computeRemainders = computeRemainders;
+
+        for (int level = 0; level < levelCount; level++) {
+            final int start = levelStarts[level];
+            final int count = levelStarts[level + 1] - start;
+
+            activeBlockCount = Math.min(count, blockTasks.length);
+            for (int b = 0; b < activeBlockCount; b++) {
+                blockTasks[b].setOperations(start + (int) (((long) count * b) / activeBlockCount),
+                        start + (int) (((long) count * (b + 1)) / activeBlockCount));
+            }
+
+            if (activeBlockCount > 1) {
+                for (int b = 0; b < activeBlockCount; b++) {
+                    blockTasks[b].reinitialize();
+                }
+                rootTask.reinitialize();
+                pool.invoke(rootTask);
+            } else {
+                blockTasks[0].compute();
+            }
+        }
+    }
+
+    /**
+     * Sorts the operations (stably) by the number of operations each one depends on in sequence.
+     *
+     * @return the number of levels
+     */
+    private int sortIntoLevels(final int[] operations, final int operationCount) {
+
+        if (operationLevels == null || operationLevels.length < operationCount) {
+            operationLevels = new int[operationCount];
+            levelStarts = new int[operationCount + 2];
+            nextPositions = new int[operationCount + 2];
+            sortedOperations = new int[operationCount * OPERATION_TUPLE_SIZE];
+        }
+
+        // Buffers not written in this traversal have level 0
+        int levelCount = 0;
+        int offset = 0;
+        for (int op = 0; op < operationCount; op++) {
+            final int level = Math.max(bufferLevels[operations[offset + 1]], bufferLevels[operations[offset + 3]]) + 1;
+            bufferLevels[operations[offset]] = level;
+            operationLevels[op] = level;
+            levelCount = Math.max(levelCount, level);
+            offset += OPERATION_TUPLE_SIZE;
+        }
+
+        for (int level = 0; level <= levelCount + 1; level++) {
+            levelStarts[level] = 0;
+        }
+        for (int op = 0; op < operationCount; op++) {
+            levelStarts[operationLevels[op]]++;
+        }
+        // levels are numbered from 1, so this makes levelStarts[level - 1] the first operation in each level
+        int start = 0;
+        for (int level = 1; level <= levelCount; level++) {
+            final int count = levelStarts[level];
+            levelStarts[level - 1] = start;
+            start += count;
+        }
+        levelStarts[levelCount] = start;
+
+        System.arraycopy(levelStarts, 0, nextPositions, 0, levelCount);
+        offset = 0;
+        for (int op = 0; op < operationCount; op++) {
+            final int position = nextPositions[operationLevels[op] - 1]++;
+            System.arraycopy(operations, offset, sortedOperations, position * OPERATION_TUPLE_SIZE,
+                    OPERATION_TUPLE_SIZE);
+            bufferLevels[operations[offset]] = 0;
+            offset += OPERATION_TUPLE_SIZE;
+        }
+
+        return levelCount;
+    }
+
+    private class BlockTask extends RecursiveAction {
+
+        BlockTask(ContinuousDiffusionIntegrator integrator) {
+            this.integrator = integrator;
+        }
+
+        void setOperations(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            final int count = last - first;
+            if (blockOperations == null || blockOperations.length < count * OPERATION_TUPLE_SIZE) {
+                blockOperations = new int[sortedOperations.length];
+            }
+            System.arraycopy(sortedOperations, first * OPERATION_TUPLE_SIZE, blockOperations, 0,
+                    count * OPERATION_TUPLE_SIZE);
+            integrator.updatePostOrderPartials(blockOperations, count, precisionIndex, computeRemainders, false);
+        }
+
+        private final ContinuousDiffusionIntegrator integrator;
+        private int first;
+        private int last;
+        private int[] blockOperations;
+    }
+
+    private final ContinuousDiffusionIntegrator cdi;
+    private final int threadCount;
+    private final int minOperationCount;
+
+    private final int[] bufferLevels;
+    private int[] operationLevels;
+    private int[] levelStarts;
+    private int[] nextPositions;
+    private int[] sortedOperations;
+
+    private final BlockTask[] blockTasks;
+    private final ForkJoinPool pool;
+    private final RecursiveAction rootTask;
+    private int activeBlockCount;
+
+    private int precisionIndex;
+    private boolean computeRemainders;
+}
@@ -134,11 +134,17 @@ public interface ContinuousDiffusionIntegrator extends Reportable {
 
     int getDimProcess();
 
+    /**
+     * Creates an integrator that shares all its buffers with this one but has its own work-space, so that
+     * post-order operations writing to different buffers can be run concurrently on separate threads.
+     */
+    ContinuousDiffusionIntegrator createWorker();
+
 //    void getPrecisionPreOrderDerivative(BranchSufficientStatistics statistics, DenseMatrix64F gradient);
 
 //    void getVariancePreOrderDerivative(BranchSufficientStatistics statistics, DenseMatrix64F gradient);
 
-    class Basic implements ContinuousDiffusionIntegrator {
+    class Basic implements ContinuousDiffusionIntegrator, Cloneable {
 
 //        private int instance = -1;
         private InstanceDetails details = new InstanceDetails();
@@ -163,6 +169,25 @@ public interface ContinuousDiffusionIntegrator extends Reportable {
         @Override
         public int getDimProcess() { return dimProcess; }
 
+        @Override
+        public ContinuousDiffusionIntegrator createWorker() {
+            final Basic worker;
+            try {
+                worker = (Basic) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+            worker.initializeWorker();
+            return worker;
+        }
+
+        /**
+         * Allocates fresh work-space in a worker; subclasses with work-space must override and call super.
+         */
+        void initializeWorker() {
+            // Buffers are shared and there is no work-space at this level
+        }
+
         @Override
         public String getReport() {
             return "";
@@ -95,6 +95,16 @@ public class MultivariateIntegrator extends ContinuousDiffusionIntegrator.Basic
     private void allocateStorage() {
         inverseDiffusions = new double[dimProcess * dimProcess * diffusionCount];
 
+        allocateWorkspace();
+    }
+
+    @Override
+    void initializeWorker() {
+        super.initializeWorker();
+        allocateWorkspace();
+    }
+
+    private void allocateWorkspace() {
         vector0 = new double[dimTrait];
         matrix0 = new DenseMatrix64F(dimTrait, dimTrait);
         matrix1 = new DenseMatrix64F(dimTrait, dimTrait);
@@ -97,13 +97,13 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
         assert (displacement != null);
         assert (displacement.length >= dimTrait);
 
-        DenseMatrix64F branchExpectationMatrix = new DenseMatrix64F(dimTrait, 1);
-        CommonOps.mult(wrap(actualization, 0, dimTrait, dimTrait),
-                wrap(parentValue, 0, dimTrait, 1),
-                branchExpectationMatrix);
-        CommonOps.addEquals(branchExpectationMatrix, wrap(displacement, 0, dimTrait, 1));
-
-        unwrap(branchExpectationMatrix, expectation, 0);
+        for (int i = 0; i < dimTrait; ++i) {
+            double sum = displacement[i];
+            for (int j = 0; j < dimTrait; ++j) {
+                sum += actualization[i * dimTrait + j] * parentValue[j];
+            }
+            expectation[i] = sum;
+        }
     }
 
     private static final boolean TIMING = false;
@@ -112,10 +112,33 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
 
         actualizations = new double[dimTrait * dimTrait * bufferCount];
 
+        allocateWorkspace();
+    }
+
+    @Override
+    void initializeWorker() {
+        super.initializeWorker();
+        allocateWorkspace();
+    }
+
+    private void allocateWorkspace() {
         matrixQdiPip = new DenseMatrix64F(dimTrait, dimTrait);
         matrixQdjPjp = new DenseMatrix64F(dimTrait, dimTrait);
 
         matrixNiacc = new DenseMatrix64F(dimTrait, 1);
+
+        // Work-space so that the traversals and branch updates do not allocate
+        matrixQdi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixQdj = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixNi = new DenseMatrix64F(dimTrait, 1);
+
+        vectorDiagonalActualizations = new double[dimTrait];
+        matrixActualization = new DenseMatrix64F(dimProcess, dimProcess);
+        matrixVariance = new DenseMatrix64F(dimProcess, dimProcess);
+        matrixRotation = new DenseMatrix64F(dimProcess, dimProcess);
+        matrixTemp = new DenseMatrix64F(dimProcess, dimProcess);
+        matrixOptVal = new DenseMatrix64F(dimProcess, 1);
+        matrixDisplacement = new DenseMatrix64F(dimProcess, 1);
     }
 
     ///////////////////////////////////////////////////////////////////////////
@@ -186,15 +209,22 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
 
     public static void transformMatrixBack(DenseMatrix64F matrix, DenseMatrix64F rotation) {
         int dim = matrix.getNumRows();
-        DenseMatrix64F tmp = new DenseMatrix64F(dim, dim);
+        transformMatrixBack(matrix, rotation, new DenseMatrix64F(dim, dim));
+    }
+
+    private static void transformMatrixBack(DenseMatrix64F matrix, DenseMatrix64F rotation, DenseMatrix64F tmp) {
         CommonOps.multTransB(matrix, rotation, tmp);
         CommonOps.mult(rotation, tmp, matrix);
     }
 
     private void transformDiagonalMatrixBack(double[] diagonalMatrix, double[] matrixDestination, int matrixOffset,
                                              double[] rotationDouble, int rotationOffset) {
-        DenseMatrix64F matrix = wrapDiagonal(diagonalMatrix, matrixOffset, dimProcess);
-        DenseMatrix64F rotation = wrap(rotationDouble, rotationOffset, dimProcess, dimProcess);
+        DenseMatrix64F matrix = matrixVariance;
+        matrix.zero();
+        for (int i = 0; i < dimProcess; ++i) {
+            matrix.unsafe_set(i, i, diagonalMatrix[i]);
+        }
+        DenseMatrix64F rotation = wrap(rotationDouble, rotationOffset, matrixRotation);
         transformMatrixBase(matrix, rotation);
         unwrap(matrix, matrixDestination, matrixOffset);
     }
@@ -208,14 +238,14 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
 
     private void transformMatrixBase(DenseMatrix64F matrix, DenseMatrix64F rotation) {
         if (isActualizationSymmetric) {
-            transformMatrixBack(matrix, rotation);
+            transformMatrixBack(matrix, rotation, matrixTemp);
         } else {
             transformMatrixBaseGeneral(matrix, rotation);
         }
     }
 
     private void transformMatrixBaseGeneral(DenseMatrix64F matrix, DenseMatrix64F rotation) {
-        DenseMatrix64F tmp = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F tmp = matrixTemp;
         CommonOps.mult(rotation, matrix, tmp);
         CommonOps.invert(rotation); // Warning: side effect on rotation matrix.
         CommonOps.mult(tmp, rotation, matrix);
@@ -227,7 +257,7 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
                                 final double edgeLength,
                                 final int scaledOffsetDiagonal,
                                 final int scaledOffset) {
-        double[] diagonalActualizations = new double[dimTrait];
+        double[] diagonalActualizations = vectorDiagonalActualizations;
         computeOUDiagonal1mActualization(diagonalStrengthOfSelectionMatrix, edgeLength, dimProcess,
                 diagonalActualizations, 0);
         oneMinus(diagonalActualizations);
@@ -239,9 +269,9 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
                                  final int destinationOffset,
                                  final int destinationOffsetDiagonal,
                                  final double edgeLength) {
-        DenseMatrix64F actualization = wrap(actualizations, destinationOffset, dimProcess, dimProcess);
-        DenseMatrix64F variance = wrap(stationaryVariances, sourceOffset, dimProcess, dimProcess);
-        DenseMatrix64F temp = new DenseMatrix64F(dimProcess, dimProcess);
+        DenseMatrix64F actualization = wrap(actualizations, destinationOffset, matrixActualization);
+        DenseMatrix64F variance = wrap(stationaryVariances, sourceOffset, matrixVariance);
+        DenseMatrix64F temp = matrixTemp;
 
         CommonOps.multTransB(variance, actualization, temp);
         CommonOps.multAdd(-1.0, actualization, temp, variance);
@@ -254,10 +284,11 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
                                          final int offset,
                                          final int actualizationOffset,
                                          final int pio) {
-        DenseMatrix64F actualization = wrap(actualizations, actualizationOffset, dimProcess, dimProcess);
-        DenseMatrix64F optVal = wrap(optimalRates, offset, dimProcess, 1);
-        DenseMatrix64F temp = CommonOps.identity(dimProcess);
-        DenseMatrix64F displacement = new DenseMatrix64F(dimProcess, 1);
+        DenseMatrix64F actualization = wrap(actualizations, actualizationOffset, matrixActualization);
+        DenseMatrix64F optVal = wrap(optimalRates, offset, matrixOptVal);
+        DenseMatrix64F temp = matrixTemp;
+        CommonOps.setIdentity(temp);
+        DenseMatrix64F displacement = matrixDisplacement;
 
         CommonOps.addEquals(temp, -1.0, actualization);
         CommonOps.mult(temp, optVal, displacement);
@@ -494,21 +525,21 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
 
     @Override
     void actualizePrecision(DenseMatrix64F Pjp, DenseMatrix64F QjPjp, int jbo, int jmo, int jdo) {
-        final DenseMatrix64F Qdj = wrap(actualizations, jmo, dimTrait, dimTrait);
+        final DenseMatrix64F Qdj = wrap(actualizations, jmo, matrixQdj);
         scalePrecision(Qdj, Pjp, QjPjp, Pjp);
     }
 
     @Override
     void actualizeVariance(DenseMatrix64F Vip, int ibo, int imo, int ido) {
-        final DenseMatrix64F Qdi = wrap(actualizations, imo, dimTrait, dimTrait);
+        final DenseMatrix64F Qdi = wrap(actualizations, imo, matrixQdi);
         final DenseMatrix64F QiVip = matrixQdiPip;
         scaleVariance(Qdi, Vip, QiVip, Vip);
     }
 
     @Override
     void scaleAndDriftMean(int ibo, int imo, int ido) {
-        final DenseMatrix64F Qdi = wrap(actualizations, imo, dimTrait, dimTrait);
-        final DenseMatrix64F ni = wrap(preOrderPartials, ibo, dimTrait, 1);
+        final DenseMatrix64F Qdi = wrap(actualizations, imo, matrixQdi);
+        final DenseMatrix64F ni = wrap(preOrderPartials, ibo, matrixNi);
         final DenseMatrix64F niacc = matrixNiacc;
         CommonOps.mult(Qdi, ni, niacc);
         unwrap(niacc, preOrderPartials, ibo);
@@ -523,8 +554,8 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
     void computePartialPrecision(int ido, int jdo, int imo, int jmo,
                                  DenseMatrix64F Pip, DenseMatrix64F Pjp, DenseMatrix64F Pk) {
 
-        final DenseMatrix64F Qdi = wrap(actualizations, imo, dimTrait, dimTrait);
-        final DenseMatrix64F Qdj = wrap(actualizations, jmo, dimTrait, dimTrait);
+        final DenseMatrix64F Qdi = wrap(actualizations, imo, matrixQdi);
+        final DenseMatrix64F Qdj = wrap(actualizations, jmo, matrixQdj);
 
         final DenseMatrix64F QdiPip = matrixQdiPip;
         final DenseMatrix64F QdiPipQdi = matrix0;
@@ -574,5 +605,17 @@ public class SafeMultivariateActualizedWithDriftIntegrator extends SafeMultivari
     private DenseMatrix64F matrixQdiPip;
     private DenseMatrix64F matrixQdjPjp;
     private DenseMatrix64F matrixNiacc;
+
+    private DenseMatrix64F matrixQdi;
+    private DenseMatrix64F matrixQdj;
+    private DenseMatrix64F matrixNi;
+
+    private double[] vectorDiagonalActualizations;
+    private DenseMatrix64F matrixActualization;
+    private DenseMatrix64F matrixVariance;
+    private DenseMatrix64F matrixRotation;
+    private DenseMatrix64F matrixTemp;
+    private DenseMatrix64F matrixOptVal;
+    private DenseMatrix64F matrixDisplacement;
     private final boolean isActualizationSymmetric;
 }
@@ -102,6 +102,16 @@ public class SafeMultivariateDiagonalActualizedWithDriftIntegrator extends SafeM
         diagonal1mActualizations = new double[dimTrait * bufferCount];
         stationaryVariances = new double[dimProcess * dimProcess * diffusionCount];
 
+        allocateWorkspace();
+    }
+
+    @Override
+    void initializeWorker() {
+        super.initializeWorker();
+        allocateWorkspace();
+    }
+
+    private void allocateWorkspace() {
         vectorDiagQdi = new double[dimTrait];
         vectorDiagQdj = new double[dimTrait];
     }
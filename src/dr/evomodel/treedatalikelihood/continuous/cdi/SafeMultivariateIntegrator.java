@@ -62,9 +62,37 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         precisions = new double[dimTrait * dimTrait * bufferCount];
         variances = new double[dimTrait * dimTrait * bufferCount];
 
+        allocateWorkspace();
+    }
+
+    @Override
+    void initializeWorker() {
+        super.initializeWorker();
+        allocateWorkspace();
+    }
+
+    private void allocateWorkspace() {
         vectorDelta = new double[dimTrait];
         vectorPMk = new double[dimTrait];
         matrixQjPjp = new DenseMatrix64F(dimTrait, dimTrait);
+
+        // Work-space so that the traversals do not allocate per node
+        matrixVdi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixVdj = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPdi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPdj = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixVi = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPkPreOrder = new DenseMatrix64F(dimTrait, dimTrait);
+
+        matrixPd = new DenseMatrix64F(dimProcess, dimProcess);
+        matrixPdTrait = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPTmp = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixVTotal = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPTotal = new DenseMatrix64F(dimTrait, dimTrait);
+
+        wrappedPMk = new WrappedVector.Raw(vectorPMk, 0, dimTrait);
+        wrappedDelta = new WrappedVector.Raw(vectorDelta, 0, dimTrait);
     }
 
     private static final boolean TIMING = false;
@@ -215,11 +243,11 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         final int jdo = dimTrait * jMatrix;
 
         // Read variance increments along descendant branches of k
-        final DenseMatrix64F Vdi = wrap(variances, imo, dimTrait, dimTrait);
-        final DenseMatrix64F Vdj = wrap(variances, jmo, dimTrait, dimTrait);
+        final DenseMatrix64F Vdi = wrap(variances, imo, matrixVdi);
+        final DenseMatrix64F Vdj = wrap(variances, jmo, matrixVdj);
 
-//        final DenseMatrix64F Pdi = wrap(precisions, imo, dimTrait, dimTrait); // TODO Only if needed
-        final DenseMatrix64F Pdj = wrap(precisions, jmo, dimTrait, dimTrait); // TODO Only if needed
+//        final DenseMatrix64F Pdi = wrap(precisions, imo, matrixPdi); // TODO Only if needed
+        final DenseMatrix64F Pdj = wrap(precisions, jmo, matrixPdj); // TODO Only if needed
 
 //        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
 
@@ -233,7 +261,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         for (int trait = 0; trait < numTraits; ++trait) {
 
             // A. Get current precision of k and j
-            final DenseMatrix64F Pk = wrap(preOrderPartials, kbo + dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Pk = wrap(preOrderPartials, kbo + dimTrait, matrixPkPreOrder);
 //            final DenseMatrix64F Pj = wrap(partials, jbo + dimTrait, dimTrait, dimTrait);
 
 //            final DenseMatrix64F Vk = wrap(preOrderPartials, kbo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
@@ -266,7 +294,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
             safeWeightedAverage(
                     new WrappedVector.Raw(preOrderPartials, kbo, dimTrait),
                     Pk,
-                    new WrappedVector.Raw(delta, 0, dimTrait),
+                    wrappedDelta,
                     QjPjp,
                     new WrappedVector.Raw(preOrderPartials, ibo, dimTrait),
                     Vip,
@@ -366,11 +394,11 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         final int jdo = dimTrait * jMatrix;
 
         // Read variance increments along descendant branches of k
-        final DenseMatrix64F Vdi = wrap(variances, imo, dimTrait, dimTrait);
-        final DenseMatrix64F Vdj = wrap(variances, jmo, dimTrait, dimTrait);
+        final DenseMatrix64F Vdi = wrap(variances, imo, matrixVdi);
+        final DenseMatrix64F Vdj = wrap(variances, jmo, matrixVdj);
 
-        final DenseMatrix64F Pdi = wrap(precisions, imo, dimTrait, dimTrait); // TODO Only if needed
-        final DenseMatrix64F Pdj = wrap(precisions, jmo, dimTrait, dimTrait); // TODO Only if needed
+        final DenseMatrix64F Pdi = wrap(precisions, imo, matrixPdi); // TODO Only if needed
+        final DenseMatrix64F Pdj = wrap(precisions, jmo, matrixPdj); // TODO Only if needed
 
         if (DEBUG) {
             System.err.println("variance diffusion: " + wrap(inverseDiffusions, precisionOffset, dimProcess, dimProcess));
@@ -517,7 +545,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         }
 
         // A. Get current precision of i and j
-        final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, dimTrait, dimTrait);
+        final DenseMatrix64F Pi = wrap(partials, ibo + dimTrait, matrixPi);
 
         if (TIMING) {
             endTime("peel1");
@@ -532,7 +560,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         if (useVariancei) {
 
             final DenseMatrix64F Vip = matrix0;
-            final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F Vi = wrap(partials, ibo + dimTrait + dimTrait * dimTrait, matrixVi);
             CommonOps.add(Vi, Vdi, Vip);
             if (allZeroOrInfinite(Vip)) {
                 throw new RuntimeException("Zero-length branch on data is not allowed.");
@@ -603,7 +631,7 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
 
 
         final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
-        final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
+        final WrappedVector wrapTmp = wrappedPMk;
 
         safeSolve(matrixPk, wrapTmp, kPartials, false);
 
@@ -631,37 +659,37 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
         int rootOffset = dimPartial * rootBufferIndex;
         int priorOffset = dimPartial * priorBufferIndex;
 
-        final DenseMatrix64F Pd = wrap(diffusions, precisionOffset, dimProcess, dimProcess);
+        final DenseMatrix64F Pd = wrap(diffusions, precisionOffset, matrixPd);
 //        final DenseMatrix64F Vd = wrap(inverseDiffusions, precisionOffset, dimTrait, dimTrait);
 
         // TODO For each trait in parallel
         for (int trait = 0; trait < numTraits; ++trait) {
 
-            final DenseMatrix64F PPrior = wrap(partials, priorOffset + dimTrait, dimTrait, dimTrait);
-            final DenseMatrix64F VPrior = wrap(partials, priorOffset + dimTrait + dimTrait * dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F PPrior = wrap(partials, priorOffset + dimTrait, matrixPdi);
+            final DenseMatrix64F VPrior = wrap(partials, priorOffset + dimTrait + dimTrait * dimTrait, matrixVdi);
 
 
             // TODO Block below is for the conjugate prior ONLY
             {
 
                 if (!isIntegratedProcess) {
-                    final DenseMatrix64F PTmp = new DenseMatrix64F(dimTrait, dimTrait);
+                    final DenseMatrix64F PTmp = matrixPTmp;
                     CommonOps.mult(Pd, PPrior, PTmp);
                     PPrior.set(PTmp); // TODO What does this do?
                 } else {
-                    DenseMatrix64F Pdbis = new DenseMatrix64F(dimTrait, dimTrait);
+                    DenseMatrix64F Pdbis = matrixPdTrait; // off-diagonal blocks are never written
                     blockUnwrap(Pd, Pdbis.data, 0, 0, 0, dimTrait);
                     blockUnwrap(Pd, Pdbis.data, dimProcess, dimProcess, 0, dimTrait);
 
-                    final DenseMatrix64F PTmp = new DenseMatrix64F(dimTrait, dimTrait);
+                    final DenseMatrix64F PTmp = matrixPTmp;
                     CommonOps.mult(Pdbis, PPrior, PTmp);
                     PPrior.set(PTmp);
                 }
             }
 
-            final DenseMatrix64F VTotal = new DenseMatrix64F(dimTrait, dimTrait);
+            final DenseMatrix64F VTotal = matrixVTotal; // never written, so remains zero
 
-            final DenseMatrix64F PTotal = new DenseMatrix64F(dimTrait, dimTrait);
+            final DenseMatrix64F PTotal = matrixPTotal;
             CommonOps.invert(VTotal, PTotal);  // TODO Does this do anything?
 
             InversionResult ctot = increaseVariances(rootOffset, rootBufferIndex, VPrior, PPrior, PTotal, true);
@@ -754,4 +782,21 @@ public class SafeMultivariateIntegrator extends MultivariateIntegrator {
     private DenseMatrix64F matrixQjPjp;
     private double[] vectorDelta;
     double[] vectorPMk;
+
+    private DenseMatrix64F matrixVdi;
+    private DenseMatrix64F matrixVdj;
+    private DenseMatrix64F matrixPdi;
+    private DenseMatrix64F matrixPdj;
+    private DenseMatrix64F matrixPi;
+    private DenseMatrix64F matrixVi;
+    private DenseMatrix64F matrixPkPreOrder;
+
+    private DenseMatrix64F matrixPd;
+    private DenseMatrix64F matrixPdTrait;
+    private DenseMatrix64F matrixPTmp;
+    private DenseMatrix64F matrixVTotal;
+    private DenseMatrix64F matrixPTotal;
+
+    WrappedVector wrappedPMk;
+    private WrappedVector wrappedDelta;
 }
@@ -89,6 +89,17 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
     private void allocateStorage() {
 
         displacements = new double[dimTrait * bufferCount];
+
+        allocateWorkspace();
+    }
+
+    @Override
+    void initializeWorker() {
+        super.initializeWorker();
+        allocateWorkspace();
+    }
+
+    private void allocateWorkspace() {
         vectorDispi = new double[dimTrait];
         vectorDispj = new double[dimTrait];
     }
@@ -181,7 +192,7 @@ public class SafeMultivariateWithDriftIntegrator extends SafeMultivariateIntegra
         computeWeightedSum(displacementi, displacementj, dimTrait, tmp);
 
         final WrappedVector kPartials = new WrappedVector.Raw(partials, kbo, dimTrait);
-        final WrappedVector wrapTmp = new WrappedVector.Raw(tmp, 0, dimTrait);
+        final WrappedVector wrapTmp = wrappedPMk;
 
         safeSolve(matrixPk, wrapTmp, kPartials, false);
 
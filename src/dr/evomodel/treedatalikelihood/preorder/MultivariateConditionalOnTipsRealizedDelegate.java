@@ -59,6 +59,24 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
                                                          ContinuousDataLikelihoodDelegate likelihoodDelegate) {
         super(name, tree, diffusionModel, dataModel, rootPrior, rateTransformation, likelihoodDelegate);
         missingInformation = new PartiallyMissingInformation(tree, dataModel);
+
+        // Work-space so that the pre-order simulation does not allocate per node
+        matrixP0 = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixP1 = hasDrift ? DenseMatrix64F.wrap(dimTrait, dimTrait, precisionBuffer) :
+                new DenseMatrix64F(dimTrait, dimTrait);
+        matrixP2 = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixV2 = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPriorPrec = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixPriorPartialPrec = new DenseMatrix64F(dimTrait, dimTrait);
+        matrixTraitSample = new DenseMatrix64F(dimTrait, 1);
+        matrixTipMean = new DenseMatrix64F(dimTrait, 1);
+        matrixP0x = new DenseMatrix64F(dimTrait, 1);
+        matrixP1x = new DenseMatrix64F(dimTrait, 1);
+
+        tmpParentSample = new double[dimTrait];
+        tmpExpectation = new double[dimTrait];
+        wrappedExpectation = new WrappedVector.Raw(tmpExpectation, 0, dimTrait);
+        wrappedMean = new WrappedVector.Raw(tmpMean, 0, dimTrait);
     }
 
     @Override
@@ -72,17 +90,17 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
         // scalar, dT + 2 * dT * dT, 1
 
         // Integrate out against prior
-        final DenseMatrix64F rootPrec = wrap(partialNodeBuffer, offsetPartial + dimTrait, dimTrait, dimTrait);
-        final DenseMatrix64F priorPrec = new DenseMatrix64F(dimTrait, dimTrait);
-        MissingOps.safeMult(Pd, wrap(partialPriorBuffer, offsetPartial + dimTrait, dimTrait, dimTrait), priorPrec);
+        final DenseMatrix64F rootPrec = wrap(partialNodeBuffer, offsetPartial + dimTrait, matrixP0);
+        final DenseMatrix64F priorPrec = matrixPriorPrec;
+        MissingOps.safeMult(Pd, wrap(partialPriorBuffer, offsetPartial + dimTrait, matrixPriorPartialPrec), priorPrec);
 
-        final DenseMatrix64F totalPrec = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F totalPrec = matrixP2;
         CommonOps.add(rootPrec, priorPrec, totalPrec);
 
-        final DenseMatrix64F totalVar = new DenseMatrix64F(dimTrait, dimTrait);
+        final DenseMatrix64F totalVar = matrixV2;
         safeInvert2(totalPrec, totalVar, false);
 
-        final double[] mean = new double[dimTrait];
+        final double[] mean = tmpMean;
 
         safeWeightedAverage(new WrappedVector.Raw(partialNodeBuffer, offsetPartial, dimTrait),
                 rootPrec,
@@ -161,7 +179,7 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
                                               final int offsetPartial,
                                               final double branchPrecision) {
 
-        final DenseMatrix64F P0 = wrap(partialNodeBuffer, offsetPartial + dimTrait, dimTrait, dimTrait);
+        final DenseMatrix64F P0 = wrap(partialNodeBuffer, offsetPartial + dimTrait, matrixP0);
         final int missingCount = countFiniteDiagonals(P0);
 
         if (missingCount == 0) { // Completely observed
@@ -228,19 +246,19 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
 
                     //TODO: code below likely has some duplication with other classes
                     final DenseMatrix64F P1 = getPrecisionBranch(branchPrecision);
-                    final DenseMatrix64F P = new DenseMatrix64F(dimTrait, dimTrait);
+                    final DenseMatrix64F P = matrixP2;
 
 
                     CommonOps.add(P0, P1, P);
 
-                    final DenseMatrix64F V = new DenseMatrix64F(dimTrait, dimTrait);
+                    final DenseMatrix64F V = matrixV2;
                     CommonOps.invert(P, V);
 
-                    DenseMatrix64F traitSample = wrap(sample, offsetParent, dimTrait, 1);
-                    DenseMatrix64F tipMean = wrap(partialNodeBuffer, offsetPartial, dimTrait, 1);
+                    DenseMatrix64F traitSample = wrap(sample, offsetParent, matrixTraitSample);
+                    DenseMatrix64F tipMean = wrap(partialNodeBuffer, offsetPartial, matrixTipMean);
 
-                    DenseMatrix64F P0x = new DenseMatrix64F(dimTrait, 1);
-                    DenseMatrix64F P1x = new DenseMatrix64F(dimTrait, 1);
+                    DenseMatrix64F P0x = matrixP0x;
+                    DenseMatrix64F P1x = matrixP1x;
 
                     CommonOps.mult(P0, tipMean, P0x);
                     CommonOps.mult(P1, traitSample, P1x);
@@ -326,14 +344,14 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
 
     ReadableVector getMeanBranch(int offsetParent) {
         // Get parent value
-        final double[] parentSample = new double[dimTrait];
+        final double[] parentSample = tmpParentSample;
         System.arraycopy(sample, offsetParent, parentSample, 0, dimTrait);
 
         // Get expectation
-        final double[] expectation = new double[dimTrait];
+        final double[] expectation = tmpExpectation;
         cdi.getBranchExpectation(actualizationBuffer, parentSample, displacementBuffer, expectation);
 
-        return new WrappedVector.Raw(expectation, 0, dimTrait);
+        return wrappedExpectation;
     }
 
 //    private ReadableVector getMeanWithDrift(final ReadableVector mean,
@@ -357,7 +375,7 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
             // Here we simulate X_j | X_pa(j), Y
 
             final WrappedVector M0 = new WrappedVector.Raw(partialNodeBuffer, offsetPartial, dimTrait);
-            final DenseMatrix64F P0 = wrap(partialNodeBuffer, offsetPartial + dimTrait, dimTrait, dimTrait);
+            final DenseMatrix64F P0 = wrap(partialNodeBuffer, offsetPartial + dimTrait, matrixP0);
 
 //            final ReadableVector parentSample = new WrappedVector.Raw(sample, offsetParent, dimTrait);
 
@@ -377,9 +395,9 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
 //                P1 = DenseMatrix64F.wrap(dimTrait, dimTrait, precisionBuffer);
 //            }
 
-            final WrappedVector M2 = new WrappedVector.Raw(tmpMean, 0, dimTrait);
-            final DenseMatrix64F P2 = new DenseMatrix64F(dimTrait, dimTrait);
-            final DenseMatrix64F V2 = new DenseMatrix64F(dimTrait, dimTrait);
+            final WrappedVector M2 = wrappedMean;
+            final DenseMatrix64F P2 = matrixP2;
+            final DenseMatrix64F V2 = matrixV2;
 
             CommonOps.add(P0, P1, P2);
             safeInvert2(P2, V2, false);
@@ -446,11 +464,11 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
 
     DenseMatrix64F getPrecisionBranch(double branchPrecision) {
         if (!hasDrift) {
-            DenseMatrix64F P1 = new DenseMatrix64F(dimTrait, dimTrait);
+            DenseMatrix64F P1 = matrixP1;
             CommonOps.scale(branchPrecision, Pd, P1);
             return P1;
         } else {
-            return DenseMatrix64F.wrap(dimTrait, dimTrait, precisionBuffer);
+            return matrixP1; // wraps precisionBuffer
         }
     }
 
@@ -466,4 +484,20 @@ public class MultivariateConditionalOnTipsRealizedDelegate extends ConditionalOn
             return V;
         }
     }
+
+    private final DenseMatrix64F matrixP0;
+    private final DenseMatrix64F matrixP1;
+    private final DenseMatrix64F matrixP2;
+    private final DenseMatrix64F matrixV2;
+    private final DenseMatrix64F matrixPriorPrec;
+    private final DenseMatrix64F matrixPriorPartialPrec;
+    private final DenseMatrix64F matrixTraitSample;
+    private final DenseMatrix64F matrixTipMean;
+    private final DenseMatrix64F matrixP0x;
+    private final DenseMatrix64F matrixP1x;
+
+    private final double[] tmpParentSample;
+    private final double[] tmpExpectation;
+    private final WrappedVector wrappedExpectation;
+    private final WrappedVector wrappedMean;
 }
@@ -47,6 +47,7 @@ import dr.xml.*;
 public class ThorneyTreeLikelihoodParser extends AbstractXMLObjectParser {
 
     public static final String THORNEY_DATA_LIKELIHOOD_DELEGATE = "thorneyTreeLikelihood";
+    private static final String THREADS = "threads";
 
     public String getParserName() {
         return THORNEY_DATA_LIKELIHOOD_DELEGATE;
@@ -59,7 +60,8 @@ public class ThorneyTreeLikelihoodParser extends AbstractXMLObjectParser {
         MutationBranchMap branchLengthProvider = (MutationBranchMap) xo.getChild(MutationBranchMap.class);
         BranchLengthLikelihoodDelegate branchLengthLikelihoodDelegate = (BranchLengthLikelihoodDelegate) xo.getChild(BranchLengthLikelihoodDelegate.class);
         BranchRateModel branchRateModel = (BranchRateModel) xo.getChild(BranchRateModel.class);
-        ThorneyDataLikelihoodDelegate  dataLikelihoodDelegate = new ThorneyDataLikelihoodDelegate( treeModel, branchLengthProvider, branchLengthLikelihoodDelegate);
+        int threads = xo.getAttribute(THREADS, 1);
+        ThorneyDataLikelihoodDelegate  dataLikelihoodDelegate = new ThorneyDataLikelihoodDelegate( treeModel, branchLengthProvider, branchLengthLikelihoodDelegate, threads);
         
         return new TreeDataLikelihood(dataLikelihoodDelegate, treeModel, branchRateModel);
     }
@@ -80,7 +82,8 @@ public class ThorneyTreeLikelihoodParser extends AbstractXMLObjectParser {
             new ElementRule(TreeModel.class),
             new ElementRule(MutationBranchMap.class),
             new ElementRule(BranchLengthLikelihoodDelegate.class),
-            new ElementRule(BranchRateModel.class)
+            new ElementRule(BranchRateModel.class),
+            AttributeRule.newIntegerRule(THREADS, true, "The number of threads used to evaluate branches when many have changed (default 1)")
     };
 
     public XMLSyntaxRule[] getSyntaxRules() {
@@ -31,6 +31,7 @@ import dr.util.FileHelpers;
 import dr.xml.*;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.Importer;
+import dr.evolution.tree.CompactTreeSet;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.TaxonList;
 import dr.evomodel.tree.EmpiricalTreeDistributionModel;
@@ -49,6 +50,8 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
     public static final String RATE_ATTRIBUTE_NAME = "rateAttribute";
     public static final String STARTING_TREE = "startingTree";
     public static final String ITERATE = "iterate";
+    public static final String COMPACT = "compact";
+    public static final String TREE_STORE = "treeStore";
 
     public String getParserName() {
         return EmpiricalTreeDistributionModel.EMPIRICAL_TREE_DISTRIBUTION_MODEL;
@@ -74,6 +77,17 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
 
         final File file = FileHelpers.getFile(fileName);
 
+        if (xo.getAttribute(COMPACT, false) || xo.hasAttribute(TREE_STORE)) {
+            if (iterate) {
+                throw new XMLParseException("The trees of " + getParserName() + ", '" + xo.getId() +
+                        "', are read one at a time when iterating so cannot also be stored compactly");
+            }
+            CompactTreeSet treeSet = getCompactTreeSet(xo, file, taxa);
+            Logger.getLogger("dr.evomodel").info("    Randomly jump between " + treeSet.size() +
+                    " trees from file, " + fileName + ", stored compactly");
+            return new EmpiricalTreeDistributionModel(treeSet, startingTree);
+        }
+
         List<Tree> trees = null;
         NexusImporter importer = null;
         try {
@@ -101,6 +115,44 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
         }
     }
 
+    /**
+     * Opens the tree store given by the treeStore attribute if it is newer than the tree file and
+     * matches the taxa, otherwise reads the trees into it (or into a temporary file if there is no
+     * treeStore attribute).
+     */
+    private CompactTreeSet getCompactTreeSet(XMLObject xo, File file, TaxonList taxa) throws XMLParseException {
+        try {
+            File storeFile;
+            if (xo.hasAttribute(TREE_STORE)) {
+                storeFile = FileHelpers.getFile(xo.getStringAttribute(TREE_STORE));
+                if (storeFile.exists() && storeFile.lastModified() >= file.lastModified()) {
+                    try {
+                        CompactTreeSet treeSet = CompactTreeSet.open(taxa, storeFile);
+                        Logger.getLogger("dr.evomodel").info("    Using the trees stored in " + storeFile.getName());
+                        return treeSet;
+                    } catch (Importer.ImportException e) {
+                        Logger.getLogger("dr.evomodel").info("    Replacing the tree store, " + storeFile.getName() +
+                                ": " + e.getMessage());
+                    }
+                }
+            } else {
+                storeFile = File.createTempFile("trees", ".store");
+                storeFile.deleteOnExit();
+            }
+
+            Reader reader = new BufferedReader(new FileReader(file));
+            try {
+                return CompactTreeSet.create(new NexusImporter(reader), taxa, storeFile);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new XMLParseException(e.getMessage());
+        } catch (Importer.ImportException e) {
+            throw new XMLParseException(e.getMessage());
+        }
+    }
+
     public static final String FILE_NAME = "fileName";
 //    public static final String BURNIN = "burnin";
 
@@ -108,6 +160,13 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
         return new XMLSyntaxRule[]{
                 AttributeRule.newIntegerRule(STARTING_TREE, true),
                 AttributeRule.newBooleanRule(ITERATE, true),
+                AttributeRule.newBooleanRule(COMPACT, true,
+                        "Whether to keep the trees in a memory mapped file rather than on the heap (default false). " +
+                                "Only the topology, node heights and any 'rate' node attribute are kept; other node " +
+                                "attributes are dropped. Cannot be used with iterate"),
+                new StringAttributeRule(TREE_STORE,
+                        "A file to keep the trees in (implies compact). It is reused by later runs while it is " +
+                                "newer than the tree file. Cannot be used with iterate", true),
                 new StringAttributeRule(FILE_NAME,
                         "The name of a NEXUS tree file"),
 //                AttributeRule.newIntegerRule(BURNIN, true,
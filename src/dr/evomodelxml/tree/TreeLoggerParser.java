@@ -30,6 +30,7 @@ package dr.evomodelxml.tree;
 import dr.evolution.colouring.TreeColouringProvider;
 import dr.evolution.tree.*;
 import dr.evomodel.tree.TreeLogger;
+import dr.inference.loggers.AsyncLogWriter;
 import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Loggable;
 import dr.inference.loggers.TabDelimitedFormatter;
@@ -61,6 +62,7 @@ public class TreeLoggerParser extends LoggerParser {
     public static final String SORT_TRANSLATION_TABLE = "sortTranslationTable";
     public static final String MAP_NAMES = "mapNamesToNumbers";
     public static final String DECIMAL_PLACES = "dp";
+    public static final String ASYNCHRONOUS = LoggerParser.ASYNCHRONOUS;
     //    public static final String NORMALISE_MEAN_RATE_TO = "normaliseMeanRateTo";
 
     public static final String FILTER_TRAITS = "traitFilter";
@@ -339,6 +341,8 @@ public class TreeLoggerParser extends LoggerParser {
         // sees the numbers anyway as any software loading the nexus files does the translation - JH
         mapNames = xo.getAttribute(MAP_NAMES, true);
 
+        asynchronous = xo.getAttribute(ASYNCHRONOUS, AsyncLogWriter.isAsynchronousByDefault());
+
         condition = logEvery == 0 ? (TreeLogger.LogUpon) xo.getChild(TreeLogger.LogUpon.class) : null;
     }
 
@@ -357,6 +361,8 @@ public class TreeLoggerParser extends LoggerParser {
             logger.setTitle(title);
         }
 
+        logger.setAsynchronous(asynchronous);
+
         return logger;
     }
 
@@ -372,6 +378,7 @@ public class TreeLoggerParser extends LoggerParser {
     protected TreeAttributeProvider[] treeAttributeProviders;
     protected TreeTraitProvider[] treeTraitProviders;
     protected int logEvery;
+    protected boolean asynchronous;
 
     //************************************************************************
     // AbstractXMLObjectParser implementation
@@ -398,6 +405,8 @@ public class TreeLoggerParser extends LoggerParser {
             AttributeRule.newStringRule(FILTER_TRAITS, true),
             AttributeRule.newBooleanRule(MAP_NAMES, true),
             AttributeRule.newIntegerRule(DECIMAL_PLACES, true),
+            AttributeRule.newBooleanRule(ASYNCHRONOUS, true,
+                    "Format and write the trees on a background thread"),
 
             new ElementRule(Tree.class, "The tree which is to be logged"),
 //            new ElementRule(BranchRates.class, true),
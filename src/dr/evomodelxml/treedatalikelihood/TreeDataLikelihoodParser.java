@@ -107,9 +107,15 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
             throw new XMLParseException("TreeModel " + treeModel.getId() + " contains fewer taxa (" + treeModel.getExternalNodeCount() + ") than the partition pattern list (" + patternTaxa.size() +").");
         }
 
+        boolean useJava = Boolean.parseBoolean(System.getProperty("java.only", "false"));
+        if (useJava && settings.isUsePreOrder()) {
+            logger.warning("  Java-only computation is not available with pre-order traversal - ignoring this option.");
+            useJava = false;
+        }
+
         boolean useBeagle3MultiPartition = false;
 
-        if (patternLists.size() > 1) {
+        if (patternLists.size() > 1 && !useJava) {
             // will currently recommend true if using GPU, CUDA or OpenCL.
             useBeagle3MultiPartition = MultiPartitionDataLikelihoodDelegate.IS_MULTI_PARTITION_RECOMMENDED();
 
@@ -123,11 +129,6 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
             }
         }
 
-        boolean useJava = Boolean.parseBoolean(System.getProperty("java.only", "false"));
-        if (useJava) {
-            logger.warning("  Java-only computation is not available - ignoring this option.");
-        }
-
         int beagleThreadCount = -1;
         if (System.getProperty(BEAGLE_THREAD_COUNT) != null) {
             // if beagle_thread_count is set then use that - this is a per-instance thread count
@@ -200,16 +201,30 @@ public class TreeDataLikelihoodParser extends AbstractXMLObjectParser {
 
             for (int j = 0; j < bic; j++) {
                 PatternList subPatterns = new Patterns(partitionPatterns, j, bic);
-                DataLikelihoodDelegate dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
-                        treeModel,
-                        subPatterns,
-                        branchModels.get(i),
-                        siteRateModels.get(i),
-                        useAmbiguities,
-                        preferGPU,
-                        scalingScheme,
-                        delayRescalingUntilUnderflow,
-                        settings);
+                DataLikelihoodDelegate dataLikelihoodDelegate;
+                if (useJava && branchModels.get(i).getSubstitutionModels().size() == 1) {
+                    dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(
+                            treeModel,
+                            subPatterns,
+                            branchModels.get(i),
+                            siteRateModels.get(i),
+                            useAmbiguities,
+                            beagleThreadCount);
+                } else {
+                    if (useJava) {
+                        logger.warning("  Java-only computation is not available for heterogeneous branch models - using BEAGLE.");
+                    }
+                    dataLikelihoodDelegate = new BeagleDataLikelihoodDelegate(
+                            treeModel,
+                            subPatterns,
+                            branchModels.get(i),
+                            siteRateModels.get(i),
+                            useAmbiguities,
+                            preferGPU,
+                            scalingScheme,
+                            delayRescalingUntilUnderflow,
+                            settings);
+                }
 
                 TreeDataLikelihood treeDataLikelihood = new TreeDataLikelihood(
                         dataLikelihoodDelegate,
@@ -59,6 +59,7 @@ public class SitePatternsParser extends AbstractXMLObjectParser {
     public static final String AMBIGUITY_THRESHOLD = "ambiguityThreshold";
 
     public static final String CONSTANT_PATTERNS = "constantPatterns";
+    public static final String THREADS = "threads";
 
 
     public String getParserName() {
@@ -108,6 +109,9 @@ public class SitePatternsParser extends AbstractXMLObjectParser {
 
         boolean strip = xo.getAttribute(STRIP, true);
 
+        int threadCount = xo.getAttribute(THREADS, 1);
+        if (threadCount < 1) throw new XMLParseException("illegal 'threads' attribute in patterns element");
+
         if (xo.hasAttribute(FROM)) {
             from = xo.getIntegerAttribute(FROM) - 1;
 
@@ -149,7 +153,8 @@ public class SitePatternsParser extends AbstractXMLObjectParser {
             throw new XMLParseException("illegal 'to' attribute in patterns element (selected attribute = " + to + " vs. actual site count = " + alignment.getSiteCount() + ")");
         }
 
-        SitePatterns patterns = new SitePatterns(alignment, taxa, from, to, every, strip, constantPatternCounts, compression, ambiguityThreshold);
+        SitePatterns patterns = new SitePatterns(alignment, taxa, from, to, every, strip, constantPatternCounts,
+                compression, ambiguityThreshold, threadCount);
 
         int f = from + 1;
         int t = to + 1; // fixed a *display* error by adding + 1 for consistency with f = from + 1
@@ -205,7 +210,8 @@ public class SitePatternsParser extends AbstractXMLObjectParser {
             AttributeRule.newBooleanRule(UNIQUE, true, "Return a weight list of unique patterns"),
             AttributeRule.newBooleanRule(AMBIGUOUS_UNIQUE, true, "Ignore ambiguity when determining unique patterns"),
             AttributeRule.newBooleanRule(AMBIGUOUS_CONSTANT, true, "Ignore ambiguity when determining unique constant patterns"),
-            AttributeRule.newDoubleRule(AMBIGUITY_THRESHOLD, true, "Threshold max proportion of ambiguous characters to allow compression")
+            AttributeRule.newDoubleRule(AMBIGUITY_THRESHOLD, true, "Threshold max proportion of ambiguous characters to allow compression"),
+            AttributeRule.newIntegerRule(THREADS, true, "The number of threads used to extract and hash the site patterns, default is 1")
     };
 
     public String getParserDescription() {
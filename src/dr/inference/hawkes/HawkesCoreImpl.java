@@ -0,0 +1,615 @@
+/*
+ * HawkesCoreImpl.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.hawkes;
+
+import dr.math.distributions.NormalDistribution;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+import static dr.inference.hawkes.NativeHPHSingleton.THREADS;
+
+/**
+ * HawkesCoreImpl - a pure Java implementation of the spatio-temporal Hawkes process likelihood for use
+ * when the native HPH library is not available. The rate at event i is
+ *
+ *   lambda_i = sum_{j != i} mu0 N_D(x_i - x_j; tauXprec) N(t_i - t_j; tauTprec)
+ *            + sum_{j : t_j < t_i} theta r_j N_D(x_i - x_j; sigmaXprec) omega exp(-omega (t_i - t_j))
+ *
+ * where N_D(x; p) is an isotropic normal density with standard deviation 1/p and r_j are the random rates
+ * (all 1 if there are none). The log likelihood is sum_i log lambda_i less the integral of the rate over space
+ * and [0, t_max].
+ *
+ * The events are split into blocks which are evaluated in parallel on a fork-join pool. If the property
+ * hph.truncation is set to a (small) relative tolerance then pairs of events for which every kernel is below
+ * that fraction of its maximum are skipped, using a spatial grid and the times of the events to find the
+ * pairs which may contribute.
+ */
+public class HawkesCoreImpl implements HawkesCore {
+
+    static final String TRUNCATION = "hph.truncation";
+
+    private static final int BLOCKS_PER_THREAD = 4;
+    private static final int MIN_BLOCK_SIZE = 32;
+
+    HawkesCoreImpl() {
+        this(parseProperty(THREADS, 1), parseProperty(TRUNCATION, 0.0));
+    }
+
+    /**
+     * @param threadCount the number of threads (values less than 1 use the number of available processors)
+     * @param truncation the fraction of their maximum below which kernel contributions are ignored (0 for none)
+     */
+    public HawkesCoreImpl(int threadCount, double truncation) {
+        this.threadCount = threadCount;
+        this.truncation = truncation;
+    }
+
+    private static int parseProperty(String name, int defaultValue) {
+        String r = System.getProperty(name);
+        if (r != null) {
+            try {
+                return Integer.parseInt(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + name + "' environmental property");
+            }
+        }
+        return defaultValue;
+    }
+
+    private static double parseProperty(String name, double defaultValue) {
+        String r = System.getProperty(name);
+        if (r != null) {
+            try {
+                return Double.parseDouble(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + name + "' environmental property");
+            }
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public void initialize(int embeddingDimension, int locationCount, long flags) {
+        this.embeddingDimension = embeddingDimension;
+        this.locationCount = locationCount;
+
+        locations = new double[locationCount * embeddingDimension];
+        storedLocations = new double[locations.length];
+        times = new double[locationCount];
+        rates = new double[locationCount];
+
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        int blockCount = threadCount == 1 ? 1 : Math.max(1, Math.min(threadCount * BLOCKS_PER_THREAD, locationCount / MIN_BLOCK_SIZE));
+
+        blockStarts = new int[blockCount + 1];
+        for (int b = 0; b <= blockCount; b++) {
+            blockStarts[b] = (int) (((long) locationCount * b) / blockCount);
+        }
+        blockTasks = new BlockTask[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            blockTasks[b] = new BlockTask(b);
+        }
+
+        if (blockCount > 1) {
+            pool = new ForkJoinPool(threadCount);
+            rootTask = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(blockTasks);
+                }
+            };
+        } else {
+            pool = null;
+            rootTask = null;
+        }
+
+        if (truncation > 0.0) {
+            timeOrder = new int[locationCount];
+            eventCells = new long[locationCount * embeddingDimension];
+            eventCellNumbers = new int[locationCount];
+            cellEvents = new int[locationCount];
+            cellStarts = new int[locationCount + 1];
+            cellEnds = new int[locationCount];
+        }
+
+        Logger.getLogger("dr.inference").info("Using the Java Hawkes likelihood core with " +
+                (pool != null ? threadCount + " threads over " + blockCount + " event blocks" : "a single thread") +
+                (truncation > 0.0 ? " and ignoring kernel contributions below " + truncation + " of their maximum" : ""));
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        sigmaXprec = parameters[0];
+        tauXprec = parameters[1];
+        tauTprec = parameters[2];
+        omega = parameters[3];
+        theta = parameters[4];
+        mu0 = parameters[5];
+        ratesKnown = false;
+    }
+
+    @Override
+    public void setTimesData(double[] timesData) {
+        if (timesSet && Arrays.equals(times, timesData)) {
+            // the likelihood sends the times with every evaluation
+            return;
+        }
+        timesSet = true;
+        System.arraycopy(timesData, 0, times, 0, locationCount);
+        maxTime = Double.NEGATIVE_INFINITY;
+        for (double time : times) {
+            maxTime = Math.max(maxTime, time);
+        }
+
+        if (timeOrder != null) {
+            Integer[] order = new Integer[locationCount];
+            for (int i = 0; i < locationCount; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer i, Integer j) {
+                    return Double.compare(times[i], times[j]);
+                }
+            });
+            for (int i = 0; i < locationCount; i++) {
+                timeOrder[i] = order[i];
+            }
+        }
+        ratesKnown = false;
+    }
+
+    @Override
+    public void setRandomRates(double[] randomRates) {
+        if (this.randomRates == null) {
+            this.randomRates = new double[locationCount];
+            storedRandomRates = new double[locationCount];
+        }
+        System.arraycopy(randomRates, 0, this.randomRates, 0, locationCount);
+        ratesKnown = false;
+    }
+
+    @Override
+    public void updateLocation(int locationIndex, double[] location) {
+        if (locationIndex == -1) {
+            System.arraycopy(location, 0, locations, 0, locations.length);
+        } else {
+            System.arraycopy(location, 0, locations, locationIndex * embeddingDimension, embeddingDimension);
+        }
+        ratesKnown = false;
+    }
+
+    @Override
+    public double calculateLogLikelihood() {
+        updateRates();
+
+        double logLikelihood = 0.0;
+        for (double blockLogLikelihood : blockLogLikelihoods) {
+            logLikelihood += blockLogLikelihood;
+        }
+
+        // the integral of the rate over space (the spatial kernels integrate to 1) and time
+        for (int j = 0; j < locationCount; j++) {
+            logLikelihood -= theta * getRandomRate(j) * (1.0 - Math.exp(-omega * (maxTime - times[j])));
+            logLikelihood -= mu0 * (NormalDistribution.standardCDF(tauTprec * (maxTime - times[j]), false) -
+                    NormalDistribution.standardCDF(-tauTprec * times[j], false));
+        }
+
+        return logLikelihood;
+    }
+
+    @Override
+    public void storeState() {
+        System.arraycopy(locations, 0, storedLocations, 0, locations.length);
+        if (randomRates != null) {
+            System.arraycopy(randomRates, 0, storedRandomRates, 0, locationCount);
+        }
+        storedSigmaXprec = sigmaXprec;
+        storedTauXprec = tauXprec;
+        storedTauTprec = tauTprec;
+        storedOmega = omega;
+        storedTheta = theta;
+        storedMu0 = mu0;
+    }
+
+    @Override
+    public void restoreState() {
+        // the likelihood may ask for a gradient without resending the restored state
+        double[] tmp = locations;
+        locations = storedLocations;
+        storedLocations = tmp;
+        if (randomRates != null) {
+            tmp = randomRates;
+            randomRates = storedRandomRates;
+            storedRandomRates = tmp;
+        }
+        sigmaXprec = storedSigmaXprec;
+        tauXprec = storedTauXprec;
+        tauTprec = storedTauTprec;
+        omega = storedOmega;
+        theta = storedTheta;
+        mu0 = storedMu0;
+        ratesKnown = false;
+    }
+
+    @Override
+    public void makeDirty() {
+        ratesKnown = false;
+    }
+
+    @Override
+    public void acceptState() {
+        // do nothing
+    }
+
+    @Override
+    public void getLocationGradient(double[] gradient) {
+        updateRates();
+        locationGradient = gradient;
+        runBlocks(Phase.LOCATION_GRADIENT);
+        locationGradient = null;
+    }
+
+    @Override
+    public void getRandomRatesGradient(double[] gradient) {
+        updateRates();
+        randomRatesGradient = gradient;
+        runBlocks(Phase.RANDOM_RATES_GRADIENT);
+        randomRatesGradient = null;
+    }
+
+    @Override
+    public int getInternalDimension() {
+        return embeddingDimension;
+    }
+
+    private double getRandomRate(int j) {
+        return randomRates != null ? randomRates[j] : 1.0;
+    }
+
+    /**
+     * Computes the rate at each event (and the sum of their logs for each block).
+     */
+    private void updateRates() {
+        if (ratesKnown) {
+            return;
+        }
+
+        final double normalization = Math.pow(2.0 * Math.PI, -0.5 * embeddingDimension);
+        backgroundScale = mu0 * Math.pow(tauXprec, embeddingDimension) * normalization * tauTprec / Math.sqrt(2.0 * Math.PI);
+        backgroundSpaceExponent = -0.5 * tauXprec * tauXprec;
+        backgroundTimeExponent = -0.5 * tauTprec * tauTprec;
+        excitationScale = theta * omega * Math.pow(sigmaXprec, embeddingDimension) * normalization;
+        excitationSpaceExponent = -0.5 * sigmaXprec * sigmaXprec;
+
+        if (truncation > 0.0) {
+            buildGrid();
+        }
+
+        if (blockLogLikelihoods == null) {
+            blockLogLikelihoods = new double[blockTasks.length];
+        }
+        runBlocks(Phase.RATES);
+
+        ratesKnown = true;
+    }
+
+    private void runBlocks(Phase phase) {
+        this.phase = phase;
+        if (pool != null) {
+            for (BlockTask task : blockTasks) {
+                task.reinitialize();
+            }
+            rootTask.reinitialize();
+            pool.invoke(rootTask);
+        } else {
+            blockTasks[0].compute();
+        }
+    }
+
+    private double getSquaredDistance(int i, int j) {
+        double distance = 0.0;
+        for (int d = 0; d < embeddingDimension; d++) {
+            double difference = locations[i * embeddingDimension + d] - locations[j * embeddingDimension + d];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    private double getBackground(double squaredDistance, double timeDifference) {
+        return backgroundScale * Math.exp(backgroundSpaceExponent * squaredDistance + backgroundTimeExponent * timeDifference * timeDifference);
+    }
+
+    /**
+     * The excitation of event i by event j (without the random rate of j).
+     */
+    private double getExcitation(double squaredDistance, double timeDifference) {
+        return timeDifference > 0.0 ? excitationScale * Math.exp(excitationSpaceExponent * squaredDistance - omega * timeDifference) : 0.0;
+    }
+
+    private void calculateRates(int block, int[] candidates, int[] shifts) {
+        double sumOfLogRates = 0.0;
+        for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++) {
+            int count = getCandidates(i, candidates, shifts);
+            double rate = 0.0;
+            for (int c = 0; c < count; c++) {
+                int j = candidates == null ? c : candidates[c];
+                if (j != i) {
+                    double squaredDistance = getSquaredDistance(i, j);
+                    double timeDifference = times[i] - times[j];
+                    rate += getBackground(squaredDistance, timeDifference) +
+                            getRandomRate(j) * getExcitation(squaredDistance, timeDifference);
+                }
+            }
+            rates[i] = rate;
+            sumOfLogRates += Math.log(rate);
+        }
+        blockLogLikelihoods[block] = sumOfLogRates;
+    }
+
+    private void calculateLocationGradient(int block, int[] candidates, int[] shifts) {
+        final double backgroundPrecision = tauXprec * tauXprec;
+        final double excitationPrecision = sigmaXprec * sigmaXprec;
+
+        for (int k = blockStarts[block]; k < blockStarts[block + 1]; k++) {
+            for (int d = 0; d < embeddingDimension; d++) {
+                locationGradient[k * embeddingDimension + d] = 0.0;
+            }
+            int count = getCandidates(k, candidates, shifts);
+            for (int c = 0; c < count; c++) {
+                int j = candidates == null ? c : candidates[c];
+                if (j != k) {
+                    double squaredDistance = getSquaredDistance(k, j);
+                    double timeDifference = times[k] - times[j];
+                    double background = backgroundPrecision * getBackground(squaredDistance, timeDifference);
+                    // the rate at k includes the excitation by j and the rate at j the excitation by k
+                    double weight = (background + excitationPrecision * getRandomRate(j) * getExcitation(squaredDistance, timeDifference)) / rates[k] +
+                            (background + excitationPrecision * getRandomRate(k) * getExcitation(squaredDistance, -timeDifference)) / rates[j];
+                    for (int d = 0; d < embeddingDimension; d++) {
+                        locationGradient[k * embeddingDimension + d] -= weight *
+                                (locations[k * embeddingDimension + d] - locations[j * embeddingDimension + d]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void calculateRandomRatesGradient(int block, int[] candidates, int[] shifts) {
+        for (int j = blockStarts[block]; j < blockStarts[block + 1]; j++) {
+            double gradient = -theta * (1.0 - Math.exp(-omega * (maxTime - times[j])));
+            int count = getCandidates(j, candidates, shifts);
+            for (int c = 0; c < count; c++) {
+                int i = candidates == null ? c : candidates[c];
+                if (i != j) {
+                    gradient += getExcitation(getSquaredDistance(i, j), times[i] - times[j]) / rates[i];
+                }
+            }
+            randomRatesGradient[j] = gradient;
+        }
+    }
+
+    // **************************************************************
+    // Truncation
+    // **************************************************************
+
+    /**
+     * Puts the events into a grid of cells with the width of the spatial cutoff, ordered by time within each
+     * cell, so that all the events within the cutoff of an event are in its own or a neighbouring cell.
+     */
+    private void buildGrid() {
+        double c = Math.sqrt(-2.0 * Math.log(truncation));
+        double cellWidth = c / Math.min(tauXprec, sigmaXprec);
+        timeCutoff = Math.max(c / tauTprec, -Math.log(truncation) / omega);
+
+        cellNumbers.clear();
+        for (int i = 0; i < locationCount; i++) {
+            for (int d = 0; d < embeddingDimension; d++) {
+                eventCells[i * embeddingDimension + d] = (long) Math.floor(locations[i * embeddingDimension + d] / cellWidth);
+            }
+            long key = getCellKey(eventCells, i * embeddingDimension, null);
+            Integer cell = cellNumbers.get(key);
+            if (cell == null) {
+                cell = cellNumbers.size();
+                cellNumbers.put(key, cell);
+            }
+            eventCellNumbers[i] = cell;
+        }
+        int cellCount = cellNumbers.size();
+
+        // counting sort into cells keeping the events in each cell in time order
+        Arrays.fill(cellStarts, 0, cellCount + 1, 0);
+        for (int i = 0; i < locationCount; i++) {
+            cellStarts[eventCellNumbers[i] + 1]++;
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+        System.arraycopy(cellStarts, 0, cellEnds, 0, cellCount);
+        for (int i : timeOrder) {
+            cellEvents[cellEnds[eventCellNumbers[i]]++] = i;
+        }
+    }
+
+    private long getCellKey(long[] cells, int offset, int[] shifts) {
+        long key = 0;
+        for (int d = 0; d < embeddingDimension; d++) {
+            long cell = cells[offset + d] + (shifts != null ? shifts[d] - 1 : 0);
+            key = key * 1000003L + cell;
+        }
+        return key;
+    }
+
+    /**
+     * Finds the events which may contribute to the rate at event i (or to which i may contribute).
+     * @return the number of candidates, which are in the buffer unless there is no truncation in which case
+     * they are all the events in order
+     */
+    private int getCandidates(int i, int[] candidates, int[] shifts) {
+        if (candidates == null) {
+            return locationCount;
+        }
+
+        final double from = times[i] - timeCutoff;
+        final double to = times[i] + timeCutoff;
+
+        int count = 0;
+        Arrays.fill(shifts, 0);
+        int neighbourCount = (int) Math.pow(3, embeddingDimension);
+        for (int n = 0; n < neighbourCount; n++) {
+            Integer cell = cellNumbers.get(getCellKey(eventCells, i * embeddingDimension, shifts));
+            if (cell != null) {
+                int end = cellStarts[cell + 1];
+                for (int e = findFirst(cellStarts[cell], end, from); e < end && times[cellEvents[e]] <= to; e++) {
+                    candidates[count++] = cellEvents[e];
+                }
+            }
+
+            // next neighbouring cell
+            for (int d = 0; d < embeddingDimension; d++) {
+                shifts[d]++;
+                if (shifts[d] < 3) {
+                    break;
+                }
+                shifts[d] = 0;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the first position in cellEvents between start and end with a time not before the given time
+     */
+    private int findFirst(int start, int end, double time) {
+        while (start < end) {
+            int middle = (start + end) >>> 1;
+            if (times[cellEvents[middle]] < time) {
+                start = middle + 1;
+            } else {
+                end = middle;
+            }
+        }
+        return start;
+    }
+
+    private enum Phase {
+        RATES,
+        LOCATION_GRADIENT,
+        RANDOM_RATES_GRADIENT
+    }
+
+    private class BlockTask extends RecursiveAction {
+        BlockTask(int block) {
+            this.block = block;
+        }
+
+        @Override
+        protected void compute() {
+            if (truncation > 0.0 && candidates == null) {
+                candidates = new int[locationCount];
+                shifts = new int[embeddingDimension];
+            }
+            switch (phase) {
+                case RATES:
+                    calculateRates(block, candidates, shifts);
+                    break;
+                case LOCATION_GRADIENT:
+                    calculateLocationGradient(block, candidates, shifts);
+                    break;
+                case RANDOM_RATES_GRADIENT:
+                    calculateRandomRatesGradient(block, candidates, shifts);
+                    break;
+            }
+        }
+
+        private final int block;
+        private int[] candidates;
+        private int[] shifts;
+    }
+
+    private int threadCount;
+    private final double truncation;
+
+    private int embeddingDimension;
+    private int locationCount;
+
+    private double[] locations;
+    private double[] storedLocations;
+    private double[] times;
+    private boolean timesSet = false;
+    private double maxTime;
+    private double[] randomRates;
+    private double[] storedRandomRates;
+
+    private double sigmaXprec;
+    private double storedSigmaXprec;
+    private double tauXprec;
+    private double storedTauXprec;
+    private double tauTprec;
+    private double storedTauTprec;
+    private double omega;
+    private double storedOmega;
+    private double theta;
+    private double storedTheta;
+    private double mu0;
+    private double storedMu0;
+
+    private double backgroundScale;
+    private double backgroundSpaceExponent;
+    private double backgroundTimeExponent;
+    private double excitationScale;
+    private double excitationSpaceExponent;
+
+    private double[] rates;
+    private boolean ratesKnown = false;
+    private double[] locationGradient;
+    private double[] randomRatesGradient;
+
+    private int[] blockStarts;
+    private double[] blockLogLikelihoods;
+    private BlockTask[] blockTasks;
+    private ForkJoinPool pool;
+    private RecursiveAction rootTask;
+    private Phase phase;
+
+    // the spatial grid used for truncation
+    private final Map<Long, Integer> cellNumbers = new HashMap<Long, Integer>();
+    private int[] timeOrder;
+    private long[] eventCells;
+    private int[] eventCellNumbers;
+    private int[] cellEvents;
+    private int[] cellStarts;
+    private int[] cellEnds;
+    private double timeCutoff;
+}
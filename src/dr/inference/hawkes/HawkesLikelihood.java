@@ -295,15 +295,17 @@ public class HawkesLikelihood extends AbstractModelLikelihood implements Reporta
         }
 
         HawkesCore core;
-        //if (computeMode >= HawkesCore.USE_NATIVE_HPH) {
-            System.err.println("Attempting to use a native HPH core with flag: " + computeMode + "; may the force be with you ....");
+        System.err.println("Attempting to use a native HPH core with flag: " + computeMode + "; may the force be with you ....");
+        try {
             core = new MassivelyParallelHPHImpl();
-            flags = computeMode;
-        //} else {
-            //System.err.println("Computer mode found: " + computeMode + " vs. " + r);
-            //core = new HawkesCoreImpl();
-
-        //}
+        } catch (UnsatisfiedLinkError error) {
+            if ((computeMode & HawkesCore.USE_NATIVE_HPH) != 0) {
+                throw new RuntimeException("The native HPH library is required but could not be loaded: " + error.getMessage());
+            }
+            System.err.println("Unable to load the native HPH library so using the Java core");
+            core = new HawkesCoreImpl();
+        }
+        flags = computeMode;
         return core;
     }
 
@@ -40,6 +40,10 @@ public class CompoundDerivative extends CompoundGradient implements HessianWrtPa
         super(derivativeList);
     }
 
+    public CompoundDerivative(List<GradientWrtParameterProvider> derivativeList, int threadCount) {
+        super(derivativeList, threadCount);
+    }
+
     @Override
     public double[] getDiagonalHessianLogDensity() {
 
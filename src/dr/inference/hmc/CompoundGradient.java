@@ -32,7 +32,6 @@ import dr.xml.Reportable;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Future;
 
 /**
  * @author Max Tolkoff
@@ -54,6 +53,11 @@ public class CompoundGradient implements GradientWrtParameterProvider, Derivativ
         this(derivativeList, 0);
     }
 
+    /**
+     * @param threadCount the number of threads used to evaluate the components (-1 for one per component, 0 or 1 for
+     *                    serial evaluation). Components that share a likelihood are always evaluated in turn on the
+     *                    same thread, so only components with separate likelihoods run concurrently.
+     */
     CompoundGradient(List<GradientWrtParameterProvider> derivativeList, int threadCount) {
 
         this.derivativeList = derivativeList;
@@ -107,8 +111,10 @@ public class CompoundGradient implements GradientWrtParameterProvider, Derivativ
 
         // Parallel threading
 
-        if (threadCount > 1 || threadCount < 0) {
-            parallelExecutor = new ParallelGradientExecutor(threadCount, derivativeList);
+        if (derivativeList.size() > 1 && (threadCount > 1 || threadCount < 0)) {
+            ParallelGradientExecutor executor = new ParallelGradientExecutor(threadCount, derivativeList);
+            // if every component shares the same likelihood there is nothing to run concurrently
+            parallelExecutor = executor.getGroupCount() > 1 ? executor : null;
         } else {
             parallelExecutor = null;
         }
@@ -172,8 +178,7 @@ public class CompoundGradient implements GradientWrtParameterProvider, Derivativ
         return parallelExecutor.getDerivativeLogDensityInParallel(derivativeType, (gradients, length) -> {
             double[] reduction = new double[length];
             int offset = 0;
-            for (Future<double[]> result : gradients) {
-                double[] tmp = result.get();
+            for (double[] tmp : gradients) {
                 System.arraycopy(tmp, 0, reduction, offset, tmp.length);
                 offset += tmp.length;
             }
@@ -33,7 +33,6 @@ import dr.xml.Reportable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.Future;
 
 /**
  * @author Max Tolkoff
@@ -216,8 +215,7 @@ public class JointGradient implements GradientWrtParameterProvider, HessianWrtPa
 
         return parallelExecutor.getDerivativeLogDensityInParallel(derivativeType, (gradients, length) -> {
             double[] reduction = new double[length];
-            for (Future<double[]> result : gradients) {
-                double[] tmp = result.get();
+            for (double[] tmp : gradients) {
                 for (int j = 0; j < length; ++j) {
                     reduction[j] += tmp[j];
                 }
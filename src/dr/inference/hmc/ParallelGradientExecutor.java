@@ -27,11 +27,16 @@
 
 package dr.inference.hmc;
 
-import java.util.ArrayList;
-import java.util.List;
+import dr.inference.model.Likelihood;
+
+import java.util.*;
 import java.util.concurrent.*;
 
 /**
+ * Evaluates the derivatives of a list of components on a thread pool. Components whose likelihoods overlap (for
+ * example, two gradients of the same tree data likelihood) update the same model state and caches, so they are
+ * put in one group and evaluated in turn by a single task. Only separate groups run concurrently.
+ *
  * @author Marc A. Suchard
  */
 
@@ -39,26 +44,84 @@ public class ParallelGradientExecutor {
 
     private final ExecutorService pool;
     private final List<DerivativeCaller> derivativeCaller;
+    private final double[][] derivatives;
 
     interface Reducer {
-        double[] reduce(List<Future<double[]>> gradients, int length) throws ExecutionException, InterruptedException;
+        /**
+         * @param derivatives the derivative of each component, in the order of the components
+         */
+        double[] reduce(List<double[]> derivatives, int length);
     }
 
     public ParallelGradientExecutor(int threads, List<GradientWrtParameterProvider> derivativeList) {
 
         assert derivativeList.size() > 1;
 
+        List<List<Integer>> groups = groupBySharedLikelihoods(derivativeList);
+        derivatives = new double[derivativeList.size()][];
+
+        // the pool persists for the lifetime of the gradient so its threads must not keep the JVM alive
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "gradient-" + threadNumber++);
+                thread.setDaemon(true);
+                return thread;
+            }
+
+            private int threadNumber = 0;
+        };
+
         if (threads <= 0) {
-            pool = Executors.newCachedThreadPool();
+            pool = Executors.newCachedThreadPool(threadFactory);
         } else {
-            int threadCount = Math.min(threads, derivativeList.size());
-            pool = Executors.newFixedThreadPool(threadCount);
+            int threadCount = Math.min(threads, groups.size());
+            pool = Executors.newFixedThreadPool(threadCount, threadFactory);
         }
 
-        derivativeCaller = new ArrayList<>(derivativeList.size());
+        derivativeCaller = new ArrayList<>(groups.size());
+        for (int i = 0; i < groups.size(); ++i) {
+            derivativeCaller.add(new DerivativeCaller(derivativeList, groups.get(i), i));
+        }
+    }
+
+    /**
+     * @return the number of groups of components that can be evaluated concurrently
+     */
+    public int getGroupCount() {
+        return derivativeCaller.size();
+    }
+
+    private static List<List<Integer>> groupBySharedLikelihoods(List<GradientWrtParameterProvider> derivativeList) {
+
+        List<List<Integer>> groups = new ArrayList<>();
+        List<Set<Likelihood>> groupLikelihoods = new ArrayList<>();
+
         for (int i = 0; i < derivativeList.size(); ++i) {
-            derivativeCaller.add(new DerivativeCaller(derivativeList.get(i), i));
+            List<Integer> group = new ArrayList<>();
+            group.add(i);
+
+            Set<Likelihood> likelihoods = new HashSet<>();
+            Likelihood likelihood = derivativeList.get(i).getLikelihood();
+            if (likelihood != null) {
+                likelihoods.add(likelihood);
+                likelihoods.addAll(likelihood.getLikelihoodSet());
+            }
+
+            // merge in every existing group that shares a likelihood with this component
+            for (int g = groups.size() - 1; g >= 0; --g) {
+                if (!Collections.disjoint(groupLikelihoods.get(g), likelihoods)) {
+                    group.addAll(groups.remove(g));
+                    likelihoods.addAll(groupLikelihoods.remove(g));
+                }
+            }
+
+            Collections.sort(group);
+            groups.add(group);
+            groupLikelihoods.add(likelihoods);
         }
+
+        return groups;
     }
 
     public double[] getDerivativeLogDensityInParallel(JointGradient.DerivativeType derivativeType,
@@ -68,39 +131,48 @@ public class ParallelGradientExecutor {
             caller.setDerivativeType(derivativeType);
         }
 
-        double[] derivative = null;
-
         try {
-            List<Future<double[]>> results = pool.invokeAll(derivativeCaller);
-            derivative = reducer.reduce(results, length);
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+            for (Future<Void> result : pool.invokeAll(derivativeCaller)) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Parallel derivative evaluation failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Parallel derivative evaluation was interrupted", e);
         }
 
-        return derivative;
+        return reducer.reduce(Arrays.asList(derivatives), length);
     }
 
-    private static class DerivativeCaller implements Callable<double[]> {
+    private class DerivativeCaller implements Callable<Void> {
 
-        public DerivativeCaller(GradientWrtParameterProvider gradient, int index) {
-            this.gradient = gradient;
+        public DerivativeCaller(List<GradientWrtParameterProvider> derivativeList, List<Integer> group, int index) {
+            this.derivativeList = derivativeList;
+            this.group = group;
             this.index = index;
         }
 
-        public double[] call() throws Exception {
-            if (DEBUG_PARALLEL_EVALUATION) {
-                System.err.println("Invoking thread #" + index + " for " + gradient.getLikelihood().getId() +
-                        " with type " + type + " in executor");
-            }
+        public Void call() throws Exception {
+            for (int i : group) {
+                GradientWrtParameterProvider gradient = derivativeList.get(i);
 
-            return type.getDerivativeLogDensity(gradient);
+                if (DEBUG_PARALLEL_EVALUATION) {
+                    System.err.println("Invoking thread #" + index + " for " + gradient.getLikelihood().getId() +
+                            " with type " + type + " in executor");
+                }
+
+                derivatives[i] = type.getDerivativeLogDensity(gradient);
+            }
+            return null;
         }
 
         public void setDerivativeType(JointGradient.DerivativeType type) {
             this.type = type;
         }
 
-        private final GradientWrtParameterProvider gradient;
+        private final List<GradientWrtParameterProvider> derivativeList;
+        private final List<Integer> group;
         private final int index;
 
         private JointGradient.DerivativeType type;
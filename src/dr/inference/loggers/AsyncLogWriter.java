@@ -0,0 +1,212 @@
+/*
+ * AsyncLogWriter.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package dr.inference.loggers;
+
+/**
+ * Moves the formatting and writing of log lines off the sampling thread. At each log step a logger
+ * copies the raw values it needs into a record taken from a fixed ring of reusable records and
+ * publishes it; a single background thread then formats each record and passes it on to the
+ * logger's formatters. The sampler only waits if the writer has fallen a whole ring behind.
+ *
+ * Records are written strictly in the order they were published. Any exception thrown by the
+ * writer is re-thrown on the sampling thread at the next log step (or when the writer is closed).
+ */
+public final class AsyncLogWriter<T> {
+
+    /**
+     * System property that switches asynchronous logging on for file loggers by default.
+     */
+    public static final String ASYNCHRONOUS_LOGGING = "log.asynchronous";
+
+    /**
+     * System property for the number of records in the ring.
+     */
+    public static final String BUFFER_SIZE = "log.asynchronous.buffer";
+
+    public static final int DEFAULT_BUFFER_SIZE = 64;
+
+    public interface RecordFactory<T> {
+        T createRecord();
+    }
+
+    public interface RecordWriter<T> {
+        void writeRecord(T record);
+    }
+
+    public static boolean isAsynchronousByDefault() {
+        return Boolean.getBoolean(ASYNCHRONOUS_LOGGING);
+    }
+
+    public AsyncLogWriter(String name, RecordFactory<T> factory, RecordWriter<T> writer) {
+        this(name, Integer.getInteger(BUFFER_SIZE, DEFAULT_BUFFER_SIZE), factory, writer);
+    }
+
+    public AsyncLogWriter(String name, int bufferSize, RecordFactory<T> factory, RecordWriter<T> writer) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("The asynchronous log buffer size must be at least 1");
+        }
+
+        ring = new Object[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            ring[i] = factory.createRecord();
+        }
+        this.writer = writer;
+
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the next free record for the caller to fill. Must be followed by a call to publish().
+     *
+     * @return a record that is not in use by the writer
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T acquire() {
+        checkFailure();
+
+        boolean interrupted = false;
+        while (published - written == ring.length && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+
+        return (T) ring[(int) (published % ring.length)];
+    }
+
+    /**
+     * Hands the record returned by the last call to acquire() over to the writer.
+     */
+    public synchronized void publish() {
+        published++;
+        notifyAll();
+    }
+
+    /**
+     * Waits until every published record has been written.
+     */
+    public synchronized void flush() {
+        boolean interrupted = false;
+        while (written < published && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Writes any outstanding records and stops the writer thread.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            checkFailure();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run() {
+        while (true) {
+            T record;
+            synchronized (this) {
+                while (written == published && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        // only closing stops the writer
+                    }
+                }
+                if (written == published) {
+                    return;
+                }
+                record = (T) ring[(int) (written % ring.length)];
+            }
+
+            try {
+                writer.writeRecord(record);
+            } catch (RuntimeException re) {
+                synchronized (this) {
+                    failure = re;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                written++;
+                notifyAll();
+            }
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Asynchronous log writer failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    private final Object[] ring;
+    private final RecordWriter<T> writer;
+    private final Thread thread;
+
+    private long published = 0;
+    private long written = 0;
+    private boolean closed = false;
+    private RuntimeException failure = null;
+}
@@ -119,6 +119,21 @@ public class MCLogger implements Logger {
         this.logEvery = logEvery;
     }
 
+    /**
+     * Switches on asynchronous logging: at each log step the column values are copied into a
+     * reusable buffer and formatted and written by a background thread. Must be set before
+     * startLogging() is called.
+     *
+     * @param asynchronous whether to log asynchronously
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
     public final void addFormatter(LogFormatter formatter) {
 
         formatters.add(formatter);
@@ -221,6 +236,21 @@ public class MCLogger implements Logger {
             }
 
             logLabels(labels);
+
+            if (asynchronous) {
+                // numerical columns with the standard formatting can be snapshotted as doubles and
+                // formatted later, everything else is formatted on the sampling thread
+                numberColumns = new NumberColumn[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    LogColumn column = getColumn(i);
+                    if (column instanceof NumberColumn && hasDefaultFormatting((NumberColumn) column)) {
+                        numberColumns[i] = (NumberColumn) column;
+                    }
+                }
+                asyncWriter = new AsyncLogWriter<ValuesRecord>(
+                        "log writer" + (title != null ? " (" + title + ")" : ""),
+                        ValuesRecord::new, this::writeValues);
+            }
         }
     }
 
@@ -241,13 +271,7 @@ public class MCLogger implements Logger {
 
             final int columnCount = getColumnCount();
 
-            String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
-
-            values[0] = Long.toString(state);
-
-            for (int i = 0; i < columnCount; i++) {
-                values[i + 1] = getColumnFormatted(i);
-            }
+            String performance = null;
 
             if (performanceReport) {
                 long time = System.currentTimeMillis();
@@ -269,14 +293,31 @@ public class MCLogger implements Logger {
 
                     String timePerMillion = getTimePerMillion(hoursPerMillionStates);
                     String units = getUnits(hoursPerMillionStates);
-                    values[columnCount + 1] = timePerMillion + units;
+                    performance = timePerMillion + units;
 
                 } else {
-                    values[columnCount + 1] = "-";
+                    performance = "-";
                 }
             }
 
-            logValues(values);
+            if (asyncWriter != null) {
+                asyncWriter.acquire().capture(state, performance);
+                asyncWriter.publish();
+            } else {
+                String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
+
+                values[0] = Long.toString(state);
+
+                for (int i = 0; i < columnCount; i++) {
+                    values[i + 1] = getColumnFormatted(i);
+                }
+
+                if (performanceReport) {
+                    values[columnCount + 1] = performance;
+                }
+
+                logValues(values);
+            }
         }
 
         if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
@@ -287,11 +328,87 @@ public class MCLogger implements Logger {
 
     public void stopLogging() {
 
+        if (asyncWriter != null) {
+            asyncWriter.close();
+            asyncWriter = null;
+        }
+
         for (LogFormatter formatter : formatters) {
             formatter.stopLogging();
         }
     }
 
+    /**
+     * Formats and writes a snapshot taken by log() - called on the writer thread.
+     */
+    private void writeValues(ValuesRecord record) {
+        final int columnCount = record.strings.length;
+
+        String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
+
+        values[0] = Long.toString(record.state);
+
+        for (int i = 0; i < columnCount; i++) {
+            values[i + 1] = numberColumns[i] != null ?
+                    numberColumns[i].getFormatted(record.numbers[i]) : record.strings[i];
+        }
+
+        if (performanceReport) {
+            values[columnCount + 1] = record.performance;
+        }
+
+        logValues(values);
+    }
+
+    /**
+     * Returns true if the column is formatted by NumberColumn itself so that its value can be
+     * formatted from a snapshot of getDoubleValue().
+     */
+    private static boolean hasDefaultFormatting(NumberColumn column) {
+        for (Class<?> c = column.getClass(); c != NumberColumn.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("getFormattedValue");
+                return false;
+            } catch (NoSuchMethodException nsme) {
+                // not overridden at this level
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A reusable snapshot of one line of the log.
+     */
+    private final class ValuesRecord {
+
+        void capture(long state, String performance) {
+            final int columnCount = getColumnCount();
+            if (strings == null || strings.length != columnCount) {
+                numbers = new double[columnCount];
+                strings = new String[columnCount];
+            }
+
+            this.state = state;
+            for (int i = 0; i < columnCount; i++) {
+                if (numberColumns[i] != null) {
+                    numbers[i] = numberColumns[i].getDoubleValue();
+                } else {
+                    strings[i] = getColumnFormatted(i);
+                }
+            }
+            this.performance = performance;
+        }
+
+        long state;
+        double[] numbers;
+        String[] strings;
+        String performance;
+    }
+
+    private boolean asynchronous = false;
+    private AsyncLogWriter<ValuesRecord> asyncWriter = null;
+    private NumberColumn[] numberColumns = null;
+
     private String title = null;
 
     private Set<String> keywords = new HashSet<String>();
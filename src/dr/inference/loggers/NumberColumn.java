@@ -142,6 +142,20 @@ public abstract class NumberColumn extends LogColumn.Abstract {
 	protected String getFormattedValue() {
 		return formatValue(getDoubleValue());
 	}
+
+	/**
+	 * Returns a value previously read with getDoubleValue() formatted (and padded) as
+	 * getFormatted() would have done. Used to format values away from the sampling thread.
+	 *
+	 * @return the formatted string.
+	 */
+	public String getFormatted(double value) {
+		StringBuilder buffer = new StringBuilder(formatValue(value));
+		while (buffer.length() < getMinimumWidth()) {
+			buffer.append(' ');
+		}
+		return buffer.toString();
+	}
 	
 	private int getNumFractionDigits(double value) {
 		value = Math.abs(value);
@@ -33,8 +33,7 @@ import dr.inference.operators.*;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -50,7 +49,6 @@ public final class MarkovChain implements Serializable {
     private static final long serialVersionUID = 181L;
 
     private final static boolean DEBUG = false;
-    private final static boolean PROFILE = true;
 
     public static final double EVALUATION_TEST_THRESHOLD = 1e-1;
 
@@ -74,6 +72,13 @@ public final class MarkovChain implements Serializable {
 
     private double evaluationTestThreshold = EVALUATION_TEST_THRESHOLD;
 
+    private final MarkovChainProfile profile;
+
+    // the individual likelihood components and buffers for their densities used by the full evaluation test
+    private final Likelihood[] componentLikelihoods;
+    private final double[] densitiesBefore;
+    private final double[] densitiesOperated;
+    private final double[] densitiesAfter;
 
     public MarkovChain(Likelihood likelihood,
                        OperatorSchedule schedule, Acceptor acceptor,
@@ -101,6 +106,15 @@ public final class MarkovChain implements Serializable {
             }
         }
 
+        List<Likelihood> components = new ArrayList<Likelihood>();
+        collectComponentLikelihoods(likelihood, components);
+        componentLikelihoods = components.toArray(new Likelihood[components.size()]);
+        densitiesBefore = new double[componentLikelihoods.length];
+        densitiesOperated = new double[componentLikelihoods.length];
+        densitiesAfter = new double[componentLikelihoods.length];
+
+        profile = new MarkovChainProfile(schedule, componentLikelihoods);
+
         currentScore = evaluate(likelihood);
     }
 
@@ -178,8 +192,6 @@ public final class MarkovChain implements Serializable {
             usingFullEvaluation = false;
         boolean fullEvaluationError = false;
 
-        Map<String, Double> diagnosticDensities = null;
-
         while (!pleaseStop && (currentState < (currentLength + length))) {
 
             // periodically log states
@@ -193,21 +205,23 @@ public final class MarkovChain implements Serializable {
             // Get the operator
             final int op = schedule.getNextOperatorIndex();
             final MCMCOperator mcmcOperator = schedule.getOperator(op);
+            final MarkovChainProfile.OperatorProfile operatorProfile = profile.getOperatorProfile(mcmcOperator);
 
             double oldScore = currentScore;
             if (usingFullEvaluation) {
-                diagnosticDensities = new HashMap<String, Double>();
-                fillDensities(likelihood, diagnosticDensities);
+                fillDensities(densitiesBefore);
             }
 
-            // assert Profiler.startProfile("Store");
+            long time = System.nanoTime();
 
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
                 currentModel.storeModelState();
             }
 
-            // assert Profiler.stopProfile("Store");
+            long now = System.nanoTime();
+            operatorProfile.addTime(MarkovChainProfile.Phase.STORE, now - time);
+            time = now;
 
             boolean operatorSucceeded = true;
             double hastingsRatio = 1.0;
@@ -216,8 +230,6 @@ public final class MarkovChain implements Serializable {
             logr[0] = -Double.MAX_VALUE;
 
             // The new model is proposed
-            // assert Profiler.startProfile("Operate");
-
             if (DEBUG) {
                 System.out.println("\n>> Iteration: " + currentState);
                 System.out.println("\n&& Operator: " + mcmcOperator.getOperatorName());
@@ -229,7 +241,9 @@ public final class MarkovChain implements Serializable {
                 hastingsRatio = mcmcOperator.operate();
             }
 
-            // assert Profiler.stopProfile("Operate");
+            now = System.nanoTime();
+            operatorProfile.addTime(MarkovChainProfile.Phase.OPERATE, now - time);
+
             if (hastingsRatio == Double.NEGATIVE_INFINITY) {
                 // Should the evaluation be short-cutted?
                 // Previously this was set to false if OperatorFailedException was thrown.
@@ -243,41 +257,36 @@ public final class MarkovChain implements Serializable {
             //    System.err.print("" + currentState + ": ");
             if (operatorSucceeded) {
 
-                // The new model is proposed
-                // assert Profiler.startProfile("Evaluate");
-
                 if (DEBUG) {
                     System.out.println("** Evaluate");
                 }
 
-                long elapsedTime = 0;
                 long calculationCount = 0;
-                if (PROFILE) {
-                    elapsedTime = System.currentTimeMillis();
-                    if (likelihood instanceof Profileable) {
-                        calculationCount = ((Profileable) likelihood).getTotalCalculationCount();
-                    }
+                if (likelihood instanceof Profileable) {
+                    calculationCount = ((Profileable) likelihood).getTotalCalculationCount();
                 }
+                profile.startEvaluation();
+
+                time = System.nanoTime();
 
                 // The new model is evaluated
                 score = evaluate(likelihood);
 
-                if (PROFILE) {
-                    long duration = System.currentTimeMillis() - elapsedTime;
-                    mcmcOperator.addEvaluationTime(duration);
-                    long newCalculationCount = (likelihood instanceof Profileable) ?
-                            ((Profileable) likelihood).getTotalCalculationCount() : 1;
-                    mcmcOperator.addCalculationCount(newCalculationCount - calculationCount);
+                long duration = System.nanoTime() - time;
+                operatorProfile.addTime(MarkovChainProfile.Phase.EVALUATE, duration);
+                profile.finishEvaluation(operatorProfile);
 
-                    if (DEBUG) {
-                        System.out.println("Time: " + duration);
-                    }
+                mcmcOperator.addEvaluationTime(operatorProfile.takeEvaluationMillis());
+                long newCalculationCount = (likelihood instanceof Profileable) ?
+                        ((Profileable) likelihood).getTotalCalculationCount() : 1;
+                mcmcOperator.addCalculationCount(newCalculationCount - calculationCount);
+
+                if (DEBUG) {
+                    System.out.println("Time: " + duration + "ns");
                 }
 
-                Map<String, Double> diagnosticOperatorDensities = null;
                 if (usingFullEvaluation) {
-                    diagnosticOperatorDensities = new HashMap<String, Double>();
-                    fillDensities(likelihood, diagnosticOperatorDensities);
+                    fillDensities(densitiesOperated);
                 }
 
                 if (score == Double.NEGATIVE_INFINITY && mcmcOperator instanceof GibbsOperator) {
@@ -344,8 +353,7 @@ public final class MarkovChain implements Serializable {
                     likelihood.makeDirty();
                     final double testScore = evaluate(likelihood);
 
-                    Map<String, Double> densitiesAfter = new HashMap<String, Double>();
-                    fillDensities(likelihood, densitiesAfter);
+                    fillDensities(densitiesAfter);
 
                     if (Math.abs(testScore - score) > evaluationTestThreshold) {
                         StringBuilder sb = new StringBuilder();
@@ -357,12 +365,7 @@ public final class MarkovChain implements Serializable {
                                 + "\n\n");
 
                         sb.append("Discrepancies:\n");
-                        for (String key : diagnosticOperatorDensities.keySet()) {
-                            if (Math.abs(diagnosticOperatorDensities.get(key) - densitiesAfter.get(key)) > evaluationTestThreshold) {
-                                sb.append(key + ": " + diagnosticOperatorDensities.get(key) +
-                                        " -> " + densitiesAfter.get(key) + "\n");
-                            }
-                        }
+                        appendDiscrepancies(sb, densitiesOperated, densitiesAfter);
                         sb.append("\n");
 
                         Logger.getLogger("error").severe(sb.toString());
@@ -375,8 +378,12 @@ public final class MarkovChain implements Serializable {
                     fireBestModel(currentState, currentModel);
                 }
 
+                time = System.nanoTime();
+
                 accept = mcmcOperator instanceof GibbsOperator || acceptor.accept(oldScore, score, hastingsRatio, logr);
 
+                operatorProfile.addTime(MarkovChainProfile.Phase.ACCEPT, System.nanoTime() - time);
+
                 deviation = score - oldScore;
             }
 
@@ -388,7 +395,11 @@ public final class MarkovChain implements Serializable {
                 }
 
                 mcmcOperator.accept(deviation);
+
+                time = System.nanoTime();
                 currentModel.acceptModelState();
+                operatorProfile.addTime(MarkovChainProfile.Phase.ACCEPT, System.nanoTime() - time);
+
                 currentScore = score;
 
             } else {
@@ -399,9 +410,9 @@ public final class MarkovChain implements Serializable {
 
                 mcmcOperator.reject();
 
-                // assert Profiler.startProfile("Restore");
-
+                time = System.nanoTime();
                 currentModel.restoreModelState();
+                operatorProfile.addTime(MarkovChainProfile.Phase.RESTORE, System.nanoTime() - time);
 
                 if (usingFullEvaluation) {
                     // This is a test that the state is correctly restored. The
@@ -411,8 +422,7 @@ public final class MarkovChain implements Serializable {
                     likelihood.makeDirty();
                     final double testScore = evaluate(likelihood);
 
-                    Map<String, Double> densitiesAfter = new HashMap<String, Double>();
-                    fillDensities(likelihood, densitiesAfter);
+                    fillDensities(densitiesAfter);
 
                     if (Math.abs(testScore - oldScore) > evaluationTestThreshold) {
                         StringBuilder sb = new StringBuilder();
@@ -424,12 +434,7 @@ public final class MarkovChain implements Serializable {
                                 + "\n\n");
 
                         sb.append("Discrepancies:\n");
-                        for (String key : diagnosticDensities.keySet()) {
-                            if (Math.abs(diagnosticDensities.get(key) - densitiesAfter.get(key)) > evaluationTestThreshold) {
-                                sb.append(key + ": " + diagnosticDensities.get(key) +
-                                        " -> " + densitiesAfter.get(key) + "\n");
-                            }
-                        }
+                        appendDiscrepancies(sb, densitiesBefore, densitiesAfter);
                         sb.append("\n");
 
                         Logger.getLogger("error").severe(sb.toString());
@@ -437,7 +442,8 @@ public final class MarkovChain implements Serializable {
                     }
                 }
             }
-            // assert Profiler.stopProfile("Restore");
+
+            operatorProfile.addProposal(accept);
 
 
             if (isAdapting(mcmcOperator)) {
@@ -494,6 +500,13 @@ public final class MarkovChain implements Serializable {
         return acceptor;
     }
 
+    /**
+     * @return the per-operator timings and likelihood recompute counts of this chain
+     */
+    public MarkovChainProfile getProfile() {
+        return profile;
+    }
+
     public double getInitialScore() {
         return initialScore;
     }
@@ -600,14 +613,15 @@ public final class MarkovChain implements Serializable {
 
     private void fireBestModel(long state, Model bestModel) {
 
-        for (MarkovChainListener listener : listeners) {
-            listener.bestState(state, this, bestModel);
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).bestState(state, this, bestModel);
         }
     }
 
     private void fireCurrentModel(long state, Model currentModel) {
-        for (MarkovChainListener listener : listeners) {
-            listener.currentState(state, this, currentModel);
+        // called every iteration so avoid creating an iterator
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).currentState(state, this, currentModel);
         }
     }
 
@@ -621,14 +635,28 @@ public final class MarkovChain implements Serializable {
     private void fireEndCurrentIteration(long state) {
     }
 
-    private void fillDensities(Likelihood like, Map<String, Double> densities) {
+    private static void collectComponentLikelihoods(Likelihood like, List<Likelihood> components) {
         if (like instanceof CompoundLikelihood) {
             for (Likelihood subLike : ((CompoundLikelihood) like).getLikelihoods()) {
-                fillDensities(subLike, densities);
+                collectComponentLikelihoods(subLike, components);
             }
         } else {
-            final double logLikelihood = like.getLogLikelihood();
-            densities.put(like.prettyName(), logLikelihood);
+            components.add(like);
+        }
+    }
+
+    private void fillDensities(double[] densities) {
+        for (int i = 0; i < componentLikelihoods.length; i++) {
+            densities[i] = componentLikelihoods[i].getLogLikelihood();
+        }
+    }
+
+    private void appendDiscrepancies(StringBuilder sb, double[] densities, double[] densitiesAfter) {
+        for (int i = 0; i < componentLikelihoods.length; i++) {
+            if (Math.abs(densities[i] - densitiesAfter[i]) > evaluationTestThreshold) {
+                sb.append(componentLikelihoods[i].prettyName() + ": " + densities[i] +
+                        " -> " + densitiesAfter[i] + "\n");
+            }
         }
     }
 
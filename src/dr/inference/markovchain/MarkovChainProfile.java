@@ -0,0 +1,315 @@
+/*
+ * MarkovChainProfile.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package dr.inference.markovchain;
+
+import dr.inference.model.Likelihood;
+import dr.inference.model.Profileable;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Per-operator profile of where the time goes in a MarkovChain. For each operator the chain records
+ * nanosecond timings of the store, operate, evaluate, accept and restore phases of each proposal and,
+ * for each likelihood component that is Profileable, how often it had to recompute and how many
+ * calculations it did. The counters are updated in place so profiling is always on and the chain's
+ * steady state does not allocate.
+ *
+ * The profile is written as a JSON report so that operator weights can be tuned by cost.
+ */
+public final class MarkovChainProfile {
+
+    public enum Phase {
+        STORE("store"),
+        OPERATE("operate"),
+        EVALUATE("evaluate"),
+        ACCEPT("accept"),
+        RESTORE("restore");
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        private final String label;
+    }
+
+    MarkovChainProfile(OperatorSchedule schedule, Likelihood[] likelihoods) {
+        this.schedule = schedule;
+
+        List<Likelihood> profileables = new ArrayList<Likelihood>();
+        for (Likelihood likelihood : likelihoods) {
+            if (likelihood instanceof Profileable) {
+                profileables.add(likelihood);
+            }
+        }
+        this.likelihoods = profileables.toArray(new Likelihood[profileables.size()]);
+        this.calculationCounts = new long[this.likelihoods.length];
+    }
+
+    /**
+     * Returns the counters for an operator. Operators are looked up by identity rather than by
+     * their index in the schedule as the schedule may switch operators off during the run.
+     */
+    OperatorProfile getOperatorProfile(MCMCOperator operator) {
+        OperatorProfile profile = operatorProfiles.get(operator);
+        if (profile == null) {
+            profile = new OperatorProfile(operator, likelihoods.length);
+            operatorProfiles.put(operator, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Records the calculation counts of the profiled likelihoods before an evaluation.
+     */
+    void startEvaluation() {
+        for (int i = 0; i < likelihoods.length; i++) {
+            calculationCounts[i] = ((Profileable) likelihoods[i]).getTotalCalculationCount();
+        }
+    }
+
+    /**
+     * Attributes the calculations done by each profiled likelihood since startEvaluation() to the operator.
+     */
+    void finishEvaluation(OperatorProfile profile) {
+        for (int i = 0; i < likelihoods.length; i++) {
+            long count = ((Profileable) likelihoods[i]).getTotalCalculationCount() - calculationCounts[i];
+            if (count > 0) {
+                profile.recomputeCounts[i] += 1;
+                profile.calculationCounts[i] += count;
+            }
+        }
+    }
+
+    public OperatorSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * @return the profiles of all the operators in the schedule, in schedule order
+     */
+    public List<OperatorProfile> getOperatorProfiles() {
+        List<OperatorProfile> profiles = new ArrayList<OperatorProfile>();
+        Set<MCMCOperator> seen = Collections.newSetFromMap(new IdentityHashMap<MCMCOperator, Boolean>());
+        for (int i = 0; i < schedule.getOperatorCount(); i++) {
+            MCMCOperator operator = schedule.getOperator(i);
+            if (seen.add(operator)) {
+                profiles.add(getOperatorProfile(operator));
+            }
+        }
+        // operators that have been switched off since they were used
+        for (OperatorProfile profile : operatorProfiles.values()) {
+            if (seen.add(profile.getOperator())) {
+                profiles.add(profile);
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Writes the profile as a JSON document to the given file.
+     *
+     * @param fileName the name of the file (replaced if it exists)
+     * @param state    the current state of the chain
+     * @throws IOException
+     */
+    public void writeReport(String fileName, long state) throws IOException {
+        FileWriter writer = new FileWriter(fileName);
+        writeReport(writer, state);
+        writer.close();
+    }
+
+    /**
+     * Writes the profile as a JSON document.
+     *
+     * @param writer the writer (not closed)
+     * @param state  the current state of the chain
+     */
+    public void writeReport(Writer writer, long state) {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(JsonGenerator.PRETTY_PRINTING, true);
+
+        JsonGeneratorFactory factory = Json.createGeneratorFactory(config);
+        JsonGenerator generator = factory.createGenerator(writer);
+
+        generator.writeStartObject();
+        generator.write("state", state);
+
+        generator.writeStartArray("operators");
+        for (OperatorProfile profile : getOperatorProfiles()) {
+            MCMCOperator operator = profile.getOperator();
+
+            generator.writeStartObject()
+                    .write("name", operator.getOperatorName())
+                    .write("weight", operator.getWeight())
+                    .write("proposals", profile.getCount())
+                    .write("accepted", profile.getAcceptCount())
+                    .write("totalNs", profile.getTotalTime())
+                    .write("meanNs", profile.getMeanTime());
+
+            generator.writeStartObject("phases");
+            for (Phase phase : Phase.values()) {
+                generator.writeStartObject(phase.getLabel())
+                        .write("totalNs", profile.getTotalTime(phase))
+                        .write("meanNs", profile.getMeanTime(phase))
+                        .writeEnd();
+            }
+            generator.writeEnd();
+
+            generator.writeStartArray("likelihoods");
+            for (int i = 0; i < likelihoods.length; i++) {
+                generator.writeStartObject()
+                        .write("name", likelihoods[i].prettyName())
+                        .write("recomputes", profile.getRecomputeCount(i))
+                        .write("calculations", profile.getCalculationCount(i))
+                        .writeEnd();
+            }
+            generator.writeEnd();
+
+            generator.writeEnd();
+        }
+        generator.writeEnd();
+
+        generator.writeStartArray("likelihoods");
+        for (int i = 0; i < likelihoods.length; i++) {
+            long recomputes = 0;
+            long calculations = 0;
+            for (OperatorProfile profile : operatorProfiles.values()) {
+                recomputes += profile.getRecomputeCount(i);
+                calculations += profile.getCalculationCount(i);
+            }
+            generator.writeStartObject()
+                    .write("name", likelihoods[i].prettyName())
+                    .write("recomputes", recomputes)
+                    .write("calculations", calculations)
+                    .writeEnd();
+        }
+        generator.writeEnd();
+
+        generator.writeEnd();
+        generator.flush();
+    }
+
+    /**
+     * The counters for a single operator.
+     */
+    public static final class OperatorProfile {
+
+        private OperatorProfile(MCMCOperator operator, int likelihoodCount) {
+            this.operator = operator;
+            this.recomputeCounts = new long[likelihoodCount];
+            this.calculationCounts = new long[likelihoodCount];
+        }
+
+        void addTime(Phase phase, long nanos) {
+            phaseTimes[phase.ordinal()] += nanos;
+        }
+
+        void addProposal(boolean accepted) {
+            count += 1;
+            if (accepted) {
+                acceptCount += 1;
+            }
+        }
+
+        /**
+         * Returns the whole milliseconds of evaluation time not yet passed on to the operator's
+         * own (millisecond) evaluation timer.
+         */
+        long takeEvaluationMillis() {
+            long millis = phaseTimes[Phase.EVALUATE.ordinal()] / 1000000L - reportedMillis;
+            reportedMillis += millis;
+            return millis;
+        }
+
+        public MCMCOperator getOperator() {
+            return operator;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getAcceptCount() {
+            return acceptCount;
+        }
+
+        public long getTotalTime(Phase phase) {
+            return phaseTimes[phase.ordinal()];
+        }
+
+        public long getTotalTime() {
+            long total = 0;
+            for (long time : phaseTimes) {
+                total += time;
+            }
+            return total;
+        }
+
+        public double getMeanTime(Phase phase) {
+            return count > 0 ? (double) getTotalTime(phase) / count : 0.0;
+        }
+
+        public double getMeanTime() {
+            return count > 0 ? (double) getTotalTime() / count : 0.0;
+        }
+
+        public long getRecomputeCount(int likelihood) {
+            return recomputeCounts[likelihood];
+        }
+
+        public long getCalculationCount(int likelihood) {
+            return calculationCounts[likelihood];
+        }
+
+        private final MCMCOperator operator;
+        private final long[] phaseTimes = new long[Phase.values().length];
+        private final long[] recomputeCounts;
+        private final long[] calculationCounts;
+        private long count = 0;
+        private long acceptCount = 0;
+        private long reportedMillis = 0;
+    }
+
+    private final OperatorSchedule schedule;
+    private final Likelihood[] likelihoods;
+    private final long[] calculationCounts;
+    private final Map<MCMCOperator, OperatorProfile> operatorProfiles = new IdentityHashMap<MCMCOperator, OperatorProfile>();
+}
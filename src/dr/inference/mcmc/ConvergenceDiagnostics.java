@@ -0,0 +1,452 @@
+/*
+ * ConvergenceDiagnostics.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.mcmc;
+
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.Loggable;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.model.Model;
+import dr.util.Identifiable;
+import dr.util.NumberFormatter;
+
+import java.util.List;
+
+/**
+ * A chain listener that keeps streaming convergence diagnostics for a set of log columns while
+ * the chain is running, without storing their traces. For each column it keeps the running mean
+ * and variance, a batch means estimate of the effective sample size and the split-R-hat of the
+ * two halves of the run. The number of batches is kept between BATCH_COUNT and twice that by
+ * merging neighbouring batches as the run gets longer, so memory use does not grow with the
+ * chain length. Optionally the chain is stopped once every column has reached the target ESS
+ * (and R-hat is below its threshold).
+ *
+ * When the chains of an MCMCMC analysis share their diagnostics (see shareStatistics) only the
+ * states of whichever chain is cold at the time are recorded, so the statistics follow the cold
+ * trajectory as the temperatures are swapped.
+ */
+public class ConvergenceDiagnostics implements MarkovChainListener, Loggable, Identifiable {
+
+    public static final int BATCH_COUNT = 32;
+
+    public ConvergenceDiagnostics(List<NumberColumn> columns, long logEvery, long burnin,
+                                  double targetESS, double maxRHat, boolean stopWhenConverged) {
+        this.columns = columns.toArray(new NumberColumn[columns.size()]);
+        this.logEvery = logEvery;
+        this.burnin = burnin;
+        this.targetESS = targetESS;
+        this.maxRHat = maxRHat;
+        this.stopWhenConverged = stopWhenConverged;
+
+        this.statistics = new Statistics(this.columns.length);
+    }
+
+    /**
+     * Makes this set of diagnostics record into the same statistics as another one (the
+     * diagnostics of the other chains of an MCMCMC analysis). From then on both only record
+     * states from a chain at temperature 1.
+     *
+     * @param other the diagnostics to share with
+     */
+    public void shareStatistics(ConvergenceDiagnostics other) {
+        statistics = other.statistics;
+        coldOnly = true;
+        other.coldOnly = true;
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    public boolean isConverged() {
+        return statistics.isConverged(targetESS, maxRHat);
+    }
+
+    // MarkovChainListener interface *******************************************
+
+    public void currentState(long state, MarkovChain markovChain, Model currentModel) {
+        if (state < burnin || state % logEvery != 0) {
+            return;
+        }
+
+        if (coldOnly && ((MCMCCriterion) markovChain.getAcceptor()).getTemperature() != 1.0) {
+            return;
+        }
+
+        double[] values = new double[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].getDoubleValue();
+        }
+        statistics.add(values);
+
+        if (stopWhenConverged && isConverged()) {
+            if (!stopRequested) {
+                stopRequested = true;
+                java.util.logging.Logger.getLogger("dr.inference").info("Convergence targets met at state " + state +
+                        " (minimum ESS = " + formatter.format(statistics.getMinimumESS()) +
+                        (maxRHat > 0.0 ? ", maximum R-hat = " + formatter.format(statistics.getMaximumRHat()) : "") +
+                        "): stopping the chain");
+            }
+            markovChain.pleaseStop();
+        }
+    }
+
+    public void bestState(long state, MarkovChain markovChain, Model bestModel) {
+    }
+
+    public void finished(long chainLength, MarkovChain markovChain) {
+        java.util.logging.Logger.getLogger("dr.inference").info(getReport());
+    }
+
+    /**
+     * @return a table of the mean, standard deviation, ESS and split-R-hat of each column
+     */
+    public String getReport() {
+        StringBuilder sb = new StringBuilder("Convergence diagnostics (" + statistics.getSampleCount() + " samples)\n");
+        sb.append(formatter.formatToFieldWidth("", 30));
+        sb.append(formatter.formatToFieldWidth("mean", 14));
+        sb.append(formatter.formatToFieldWidth("stdev", 14));
+        sb.append(formatter.formatToFieldWidth("ESS", 14));
+        sb.append(formatter.formatToFieldWidth("R-hat", 14));
+        sb.append("\n");
+        for (int i = 0; i < columns.length; i++) {
+            sb.append(formatter.formatToFieldWidth(columns[i].getLabel(), 30));
+            sb.append(formatter.formatToFieldWidth(formatter.format(statistics.getMean(i)), 14));
+            sb.append(formatter.formatToFieldWidth(formatter.format(Math.sqrt(statistics.getVariance(i))), 14));
+            sb.append(formatter.formatToFieldWidth(formatter.format(statistics.getESS(i)), 14));
+            sb.append(formatter.formatToFieldWidth(formatter.format(statistics.getRHat(i)), 14));
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    // Loggable interface *******************************************
+
+    public LogColumn[] getColumns() {
+        String prefix = (id != null ? id + "." : "");
+        return new LogColumn[] {
+                new NumberColumn(prefix + "minESS") {
+                    @Override
+                    public double getDoubleValue() {
+                        return statistics.getMinimumESS();
+                    }
+                },
+                new NumberColumn(prefix + "maxRHat") {
+                    @Override
+                    public double getDoubleValue() {
+                        return statistics.getMaximumRHat();
+                    }
+                }
+        };
+    }
+
+    // Identifiable interface *******************************************
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * The streaming statistics for a set of columns. Each column keeps its running mean and sum of
+     * squared deviations (Welford's method) and the means and sums of squared deviations of a
+     * series of equal length batches. Whenever there are 2 * BATCH_COUNT complete batches,
+     * neighbouring pairs are merged and the batch length doubled.
+     */
+    public static class Statistics {
+
+        public Statistics(int columnCount) {
+            this.columnCount = columnCount;
+
+            mean = new double[columnCount];
+            m2 = new double[columnCount];
+            batchMean = new double[columnCount][2 * BATCH_COUNT];
+            batchM2 = new double[columnCount][2 * BATCH_COUNT];
+            partialMean = new double[columnCount];
+            partialM2 = new double[columnCount];
+
+            ess = new double[columnCount];
+            rHat = new double[columnCount];
+        }
+
+        public synchronized void add(double[] values) {
+            sampleCount++;
+            partialCount++;
+            for (int i = 0; i < columnCount; i++) {
+                double x = values[i];
+
+                double delta = x - mean[i];
+                mean[i] += delta / sampleCount;
+                m2[i] += delta * (x - mean[i]);
+
+                delta = x - partialMean[i];
+                partialMean[i] += delta / partialCount;
+                partialM2[i] += delta * (x - partialMean[i]);
+            }
+
+            if (partialCount == batchSize) {
+                for (int i = 0; i < columnCount; i++) {
+                    batchMean[i][batchCount] = partialMean[i];
+                    batchM2[i][batchCount] = partialM2[i];
+                    partialMean[i] = 0.0;
+                    partialM2[i] = 0.0;
+                }
+                partialCount = 0;
+                batchCount++;
+
+                if (batchCount == 2 * BATCH_COUNT) {
+                    mergeBatches();
+                }
+            }
+
+            diagnosticsKnown = false;
+        }
+
+        /**
+         * Merges neighbouring pairs of batches (Chan et al.'s pairwise update) and doubles the batch length.
+         */
+        private void mergeBatches() {
+            for (int i = 0; i < columnCount; i++) {
+                for (int j = 0; j < BATCH_COUNT; j++) {
+                    double mean1 = batchMean[i][2 * j];
+                    double mean2 = batchMean[i][2 * j + 1];
+                    double delta = mean2 - mean1;
+                    batchMean[i][j] = 0.5 * (mean1 + mean2);
+                    batchM2[i][j] = batchM2[i][2 * j] + batchM2[i][2 * j + 1] + delta * delta * batchSize * 0.5;
+                }
+            }
+            batchCount = BATCH_COUNT;
+            batchSize *= 2;
+        }
+
+        private void calculateDiagnostics() {
+            if (diagnosticsKnown) {
+                return;
+            }
+
+            for (int i = 0; i < columnCount; i++) {
+                ess[i] = calculateESS(batchMean[i], batchM2[i]);
+                rHat[i] = calculateRHat(batchMean[i], batchM2[i]);
+            }
+            diagnosticsKnown = true;
+        }
+
+        /**
+         * The batch means ESS of the complete batches: n * s^2 / (a * var(batch means)).
+         */
+        private double calculateESS(double[] means, double[] m2s) {
+            if (batchCount < 2) {
+                return Double.NaN;
+            }
+
+            long n = batchCount * batchSize;
+            double mu = 0.0;
+            double within = 0.0;
+            for (int j = 0; j < batchCount; j++) {
+                mu += means[j];
+                within += m2s[j];
+            }
+            mu /= batchCount;
+
+            double between = 0.0;
+            for (int j = 0; j < batchCount; j++) {
+                double delta = means[j] - mu;
+                between += delta * delta;
+            }
+            between *= batchSize;
+
+            double variance = (within + between) / (n - 1);
+            if (variance <= 0.0) {
+                // a constant column
+                return Double.NaN;
+            }
+            if (between <= 0.0) {
+                return n;
+            }
+            return n * variance / (between / (batchCount - 1));
+        }
+
+        /**
+         * The split-R-hat of the first and last halves of the complete batches (dropping the
+         * middle batch if there is an odd number).
+         */
+        private double calculateRHat(double[] means, double[] m2s) {
+            int half = batchCount / 2;
+            if (half < 1) {
+                return Double.NaN;
+            }
+
+            long n = half * batchSize;
+            if (n < 2) {
+                return Double.NaN;
+            }
+            double[] halfMean = new double[2];
+            double[] halfVariance = new double[2];
+            for (int k = 0; k < 2; k++) {
+                int first = (k == 0 ? 0 : batchCount - half);
+                double mu = 0.0;
+                double ss = 0.0;
+                for (int j = first; j < first + half; j++) {
+                    mu += means[j];
+                    ss += m2s[j];
+                }
+                mu /= half;
+                for (int j = first; j < first + half; j++) {
+                    double delta = means[j] - mu;
+                    ss += delta * delta * batchSize;
+                }
+                halfMean[k] = mu;
+                halfVariance[k] = ss / (n - 1);
+            }
+
+            double w = 0.5 * (halfVariance[0] + halfVariance[1]);
+            if (w <= 0.0) {
+                return Double.NaN;
+            }
+            double delta = halfMean[0] - halfMean[1];
+            // B / n for two chains: sum of the squared deviations from the grand mean
+            double bOverN = 0.5 * delta * delta;
+            double varPlus = ((double) (n - 1) / n) * w + bOverN;
+            return Math.sqrt(varPlus / w);
+        }
+
+        /**
+         * @return true once there are at least BATCH_COUNT complete batches, at least one column
+         * is not constant and every non-constant column has reached the target ESS and (if maxRHat
+         * is positive) has an R-hat no greater than maxRHat
+         */
+        public synchronized boolean isConverged(double targetESS, double maxRHat) {
+            if (batchCount < BATCH_COUNT) {
+                return false;
+            }
+            calculateDiagnostics();
+
+            boolean anyVarying = false;
+            for (int i = 0; i < columnCount; i++) {
+                if (Double.isNaN(ess[i])) {
+                    continue;
+                }
+                anyVarying = true;
+                if (ess[i] < targetESS) {
+                    return false;
+                }
+                if (maxRHat > 0.0 && !(rHat[i] <= maxRHat)) {
+                    return false;
+                }
+            }
+            return anyVarying;
+        }
+
+        public synchronized long getSampleCount() {
+            return sampleCount;
+        }
+
+        public synchronized double getMean(int column) {
+            return sampleCount > 0 ? mean[column] : Double.NaN;
+        }
+
+        public synchronized double getVariance(int column) {
+            return sampleCount > 1 ? m2[column] / (sampleCount - 1) : Double.NaN;
+        }
+
+        public synchronized double getESS(int column) {
+            calculateDiagnostics();
+            return ess[column];
+        }
+
+        public synchronized double getRHat(int column) {
+            calculateDiagnostics();
+            return rHat[column];
+        }
+
+        /**
+         * @return the smallest ESS of the non-constant columns (NaN if there are none)
+         */
+        public synchronized double getMinimumESS() {
+            calculateDiagnostics();
+            double min = Double.NaN;
+            for (double value : ess) {
+                if (!Double.isNaN(value) && !(value >= min)) {
+                    min = value;
+                }
+            }
+            return min;
+        }
+
+        /**
+         * @return the largest R-hat of the non-constant columns (NaN if there are none)
+         */
+        public synchronized double getMaximumRHat() {
+            calculateDiagnostics();
+            double max = Double.NaN;
+            for (double value : rHat) {
+                if (!Double.isNaN(value) && !(value <= max)) {
+                    max = value;
+                }
+            }
+            return max;
+        }
+
+        private final int columnCount;
+
+        private long sampleCount = 0;
+        private final double[] mean;
+        private final double[] m2;
+
+        private final double[][] batchMean;
+        private final double[][] batchM2;
+        private int batchCount = 0;
+        private long batchSize = 1;
+
+        private final double[] partialMean;
+        private final double[] partialM2;
+        private long partialCount = 0;
+
+        private final double[] ess;
+        private final double[] rHat;
+        private boolean diagnosticsKnown = false;
+    }
+
+    private final NumberColumn[] columns;
+    private final long logEvery;
+    private final long burnin;
+    private final double targetESS;
+    private final double maxRHat;
+    private final boolean stopWhenConverged;
+
+    private Statistics statistics;
+    private boolean coldOnly = false;
+    private boolean stopRequested = false;
+    private String id = null;
+
+    private final NumberFormatter formatter = new NumberFormatter(6);
+}
@@ -45,6 +45,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * An MCMC analysis that estimates parameters of a probabilistic model.
@@ -121,6 +124,23 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
         return mc;
     }
 
+    /**
+     * Adds a listener to the chain (such as a set of convergence diagnostics). Must be called after init.
+     *
+     * @param listener the listener
+     */
+    public void addMarkovChainListener(MarkovChainListener listener) {
+        mc.addMarkovChainListener(listener);
+        chainListeners.add(listener);
+    }
+
+    /**
+     * @return the listeners added with addMarkovChainListener
+     */
+    public List<MarkovChainListener> getMarkovChainListeners() {
+        return Collections.unmodifiableList(chainListeners);
+    }
+
     public Logger[] getLoggers() {
         return loggers;
     }
@@ -191,7 +211,10 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 }
             }
 
-            mc.runChain(chainLength, false);
+            // a listener may have stopped the chain during adaptation
+            if (!mc.isStopped()) {
+                mc.runChain(chainLength, false);
+            }
 
             mc.terminateChain();
 
@@ -248,6 +271,11 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                     logger.log(state);
                 }
             }
+
+            if (operatorProfileFile != null && operatorProfileEvery > 0 &&
+                    state > 0 && state % operatorProfileEvery == 0) {
+                writeOperatorProfile(state);
+            }
         }
 
         /**
@@ -285,6 +313,10 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
                 }
             }
 
+            if (operatorProfileFile != null) {
+                writeOperatorProfile(chainLength);
+            }
+
             // How should premature finish be flagged?
         }
 
@@ -389,6 +421,28 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
         this.operatorAnalysisFile = operatorAnalysisFile;
     }
 
+    /**
+     * Sets a file to write the chain's per-operator profile (see MarkovChainProfile) to as JSON. The
+     * report is written at the end of the run and, if profileEvery is greater than zero, rewritten
+     * every profileEvery states.
+     *
+     * @param operatorProfileFile the file for the report
+     * @param profileEvery        how often to rewrite the report (0 for only at the end)
+     */
+    public void setOperatorProfileFile(File operatorProfileFile, long profileEvery) {
+        this.operatorProfileFile = operatorProfileFile;
+        this.operatorProfileEvery = profileEvery;
+    }
+
+    private void writeOperatorProfile(long state) {
+        try {
+            mc.getProfile().writeReport(operatorProfileFile.getAbsolutePath(), state);
+        } catch (IOException e) {
+            java.util.logging.Logger.getLogger("dr.inference").warning("Unable to write the operator profile to " +
+                    operatorProfileFile + ": " + e.getMessage());
+        }
+    }
+
     public String getId() {
         return id;
     }
@@ -402,8 +456,11 @@ public class MCMC implements Identifiable, Spawnable, Loggable {
     //private FileLogger operatorLogger = null;
     protected final boolean isAdapting = true;
     protected boolean stopping = false;
+    private final List<MarkovChainListener> chainListeners = new ArrayList<MarkovChainListener>();
     protected boolean showOperatorAnalysis = Boolean.parseBoolean(System.getProperty(OperatorSchedule.SHOW_OPERATORS));
     protected File operatorAnalysisFile = null;
+    protected File operatorProfileFile = null;
+    protected long operatorProfileEvery = 0;
     protected final dr.util.Timer timer = new dr.util.Timer();
     protected long currentState = 0;
     //private int stepsPerReport = 1000;
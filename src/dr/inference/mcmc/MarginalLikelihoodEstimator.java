@@ -27,13 +27,18 @@
 
 package dr.inference.mcmc;
 
+import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Logger;
 import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.TabDelimitedFormatter;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
 import dr.inference.model.Model;
 import dr.inference.model.PathLikelihood;
 import dr.inference.operators.*;
+import dr.inference.state.Factory;
+import dr.inference.state.ModelScope;
+import dr.inference.state.StateLoaderSaver;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
@@ -42,11 +47,23 @@ import dr.xml.*;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.BetaDistributionImpl;
 
+import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
+ * Estimates the marginal likelihood by running a chain at each of a series of powers of the
+ * likelihood (path steps) from the posterior to the prior.
+ *
+ * If copies of the estimator have been set (see setConcurrentCopies), the path steps are split into
+ * contiguous blocks, one per copy, and the blocks are run at the same time. Each block starts from
+ * the state this estimator is in when it starts (normally the end of the MCMC run) and each step
+ * within a block starts from the end of the one before it. The samples for each step are written to
+ * a log file of their own and these are appended, in order, to this estimator's logs once all the
+ * steps have finished so the logs are the same as if the steps had been run one after another.
+ *
  * @author Andrew Rambaut
  * @author Alex Alekseyenko
  * @author Marc Suchard
@@ -84,6 +101,25 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         mc = new MarkovChain(pathLikelihood, schedule, criterion, 0, 0, 0.0, true, false);
 
         this.loggers = loggers;
+        this.activeLoggers = loggers;
+    }
+
+    /**
+     * Sets copies of the next estimator to be run on which to run blocks of path steps at the same time.
+     * Each copy must have been parsed separately from the same XML, before it is run, and have a ModelScope
+     * registered for its chain. The scope given here must have been begun before parsing the XML that is
+     * run, so that it records this estimator's own models and parameters.
+     *
+     * @param copies the copies of the estimator
+     * @param scope  the scope for the estimator that is run
+     */
+    public static void setConcurrentCopies(MarginalLikelihoodEstimator[] copies, ModelScope scope) {
+        concurrentCopies = copies;
+        concurrentScope = scope;
+    }
+
+    public MarkovChain getMarkovChain() {
+        return mc;
     }
 
     private void setDefaultBurnin() {
@@ -96,6 +132,10 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
 
     public void integrate(Integrator scheme) {
         setDefaultBurnin();
+        if (workers.length > 1) {
+            integrateConcurrently(scheme);
+            return;
+        }
         mc.setCurrentLength(burnin);
         scheme.init();
         ((CombinedOperatorSchedule) schedule).reset();
@@ -139,6 +179,146 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         }
     }
 
+    private void integrateConcurrently(Integrator scheme) {
+        final List<Double> pathParameters = new ArrayList<Double>();
+        scheme.init();
+        for (double theta = scheme.nextPathParameter(); theta >= 0; theta = scheme.nextPathParameter()) {
+            pathParameters.add(theta);
+        }
+        final int stepCount = pathParameters.size();
+        final int totalSteps = scheme.pathSteps;
+
+        if (Factory.INSTANCE == null) {
+            throw new RuntimeException("Running path steps concurrently needs a state saver to start each copy of the chain");
+        }
+
+        final File[][] stepLogs = new File[stepCount][];
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers.length);
+        try {
+            // every copy starts from the current state of this one
+            File stateFile = File.createTempFile("mle", ".state");
+            stateFile.deleteOnExit();
+            StateLoaderSaver startState = Factory.INSTANCE.getStateLoaderSaver(stateFile, stateFile);
+            startState.saveState(mc, 0, mc.evaluate());
+            for (int i = 1; i < workers.length; i++) {
+                startState.loadState(workers[i].mc, new double[1]);
+                workers[i].burnin = burnin;
+            }
+            stateFile.delete();
+
+            List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < workers.length; i++) {
+                final MarginalLikelihoodEstimator worker = workers[i];
+                final int first = i * stepCount / workers.length;
+                final int last = (i + 1) * stepCount / workers.length;
+                calls.add(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        ((CombinedOperatorSchedule) worker.schedule).reset();
+                        for (int step = first; step < last; step++) {
+                            stepLogs[step] = worker.runStep(step, pathParameters.get(step), totalSteps);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(calls)) {
+                future.get();
+            }
+
+            for (File[] files : stepLogs) {
+                for (int i = 0; i < files.length; i++) {
+                    appendStepLog(files[i], loggers.get(i));
+                    files[i].delete();
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write path step logs: " + ioe.getMessage());
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the chain for a single path step, as the sequential integration does, logging the samples
+     * to a temporary file for each of the loggers.
+     *
+     * @return the log files
+     */
+    private File[] runStep(int step, double pathParameter, int totalSteps) throws IOException {
+        pathLikelihood.setPathParameter(pathParameter);
+        reportIteration(pathParameter, chainLength, burnin, totalSteps, step + 1);
+
+        for (int i = 0; i < schedule.getOperatorCount(); ++i) {
+            MCMCOperator operator = schedule.getOperator(i);
+            if (operator instanceof PathDependent) {
+                ((PathDependent)operator).setPathParameter(pathParameter);
+            }
+        }
+
+        File[] files = new File[loggers.size()];
+        List<MCLogger> stepLoggers = new ArrayList<MCLogger>();
+        for (int i = 0; i < files.length; i++) {
+            MCLogger logger = loggers.get(i);
+            files[i] = File.createTempFile("mle.step" + step + ".", ".log");
+            files[i].deleteOnExit();
+
+            MCLogger stepLogger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(new FileWriter(files[i]))),
+                    logger.getLogEvery(), false);
+            for (int j = 0; j < logger.getColumnCount(); j++) {
+                stepLogger.addColumn(logger.getColumn(j));
+            }
+            stepLogger.startLogging();
+            stepLoggers.add(stepLogger);
+        }
+
+        activeLoggers = stepLoggers;
+
+        // the state numbers are those the step would have if all the steps were run one after another
+        mc.setCurrentLength(0);
+        mc.runChain(burnin, false);
+        mc.setCurrentLength(burnin + step * chainLength);
+        mc.runChain(chainLength, false);
+
+        for (MCLogger logger : stepLoggers) {
+            logger.log(currentState);
+            logger.stopLogging();
+        }
+        activeLoggers = loggers;
+
+        if (SHOW_OPERATOR_ANALYSIS) {
+            OperatorAnalysisPrinter.showOperatorAnalysis(System.out, schedule, false);
+        }
+        ((CombinedOperatorSchedule) schedule).reset();
+
+        return files;
+    }
+
+    /**
+     * Copies the samples (but not the column labels) of a path step's log to a logger's output.
+     */
+    private static void appendStepLog(File file, MCLogger logger) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            // the first line holds the column labels
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                for (LogFormatter formatter : logger.getFormatters()) {
+                    formatter.logLine(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
     public abstract class Integrator {
         protected int step;
         protected int pathSteps;
@@ -335,6 +515,22 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         for (MCLogger logger : loggers) {
             logger.startLogging();
         }
+
+        if (concurrentCopies != null) {
+            concurrentScope.end();
+            concurrentScope.register(mc);
+
+            workers = new MarginalLikelihoodEstimator[concurrentCopies.length + 1];
+            workers[0] = this;
+            for (int i = 0; i < concurrentCopies.length; i++) {
+                workers[i + 1] = concurrentCopies[i];
+                concurrentCopies[i].mc.addMarkovChainListener(concurrentCopies[i].chainListener);
+            }
+            concurrentCopies = null;
+            concurrentScope = null;
+            java.util.logging.Logger.getLogger("dr.inference").info("Running path steps on " + workers.length + " threads");
+        }
+
         mc.addMarkovChainListener(chainListener);
 
         /*switch (scheme) {
@@ -397,7 +593,7 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
             currentState = state;
 
             if (currentState >= burnin) {
-                for (MCLogger logger : loggers) {
+                for (MCLogger logger : activeLoggers) {
                     logger.log(state);
                 }
             }
@@ -749,6 +945,14 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
 
     private final List<MCLogger> loggers;
 
+    // the loggers the chain is currently logging to (those for a single path step when running concurrently)
+    private List<MCLogger> activeLoggers;
+
+    private MarginalLikelihoodEstimator[] workers = { this };
+
+    private static MarginalLikelihoodEstimator[] concurrentCopies = null;
+    private static ModelScope concurrentScope = null;
+
     private final PathLikelihood pathLikelihood;
 
     public static final String MARGINAL_LIKELIHOOD_ESTIMATOR = "marginalLikelihoodEstimator";
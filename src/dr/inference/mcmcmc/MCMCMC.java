@@ -32,6 +32,7 @@ import dr.inference.loggers.Logger;
 import dr.inference.loggers.MCLogger;
 import dr.inference.markovchain.MarkovChain;
 import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.mcmc.ConvergenceDiagnostics;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmc.MCMCCriterion;
 import dr.inference.mcmc.MCMCOptions;
@@ -44,8 +45,18 @@ import dr.inference.operators.OperatorSchedule;
 import dr.math.MathUtils;
 import dr.util.NumberFormatter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * An MCMC analysis that estimates parameters of a probabilistic model.
@@ -100,11 +111,70 @@ public class MCMCMC implements Runnable {
             acceptor.setRank(i);
         }
 
+        // Each chain was parsed with its own diagnostics: make them all record into those of the
+        // first chain so they follow whichever chain is cold.
+        for (MarkovChainListener listener : mcmcs[0].getMarkovChainListeners()) {
+            if (listener instanceof ConvergenceDiagnostics) {
+                diagnostics.add((ConvergenceDiagnostics) listener);
+            }
+        }
+        for (int i = 1; i < mcmcs.length; i++) {
+            List<MarkovChainListener> listeners = mcmcs[i].getMarkovChainListeners();
+            List<MarkovChainListener> coldListeners = mcmcs[0].getMarkovChainListeners();
+            for (int j = 0; j < listeners.size(); j++) {
+                if (listeners.get(j) instanceof ConvergenceDiagnostics) {
+                    ((ConvergenceDiagnostics) listeners.get(j)).shareStatistics(
+                            (ConvergenceDiagnostics) coldListeners.get(j));
+                }
+            }
+        }
+
         if (USE_PARALLEL_TEMPERING_SCHEME) {
             scheme = mcmcmcOptions.getSwapScheme().factory(chains, schedules, mcmcmcOptions);
         } else {
             scheme = null;
         }
+
+        statistics = new ParallelTemperingStatistics(mcmcmcOptions);
+
+        // only run as many chains at once as there are threads for their likelihoods
+        int threadsPerChain = getThreadsUsedPerChain();
+        concurrentChainCount = Math.max(1, Math.min(chains.length, getThreadBudget() / threadsPerChain));
+        java.util.logging.Logger.getLogger("dr.inference.mcmcmc").info("Running up to " + concurrentChainCount + " of " +
+                chains.length + " chains at once (" + threadsPerChain + " BEAGLE thread" +
+                (threadsPerChain > 1 ? "s" : "") + " per chain)");
+    }
+
+    /**
+     * @return the total number of threads available: the value of the thread.count property
+     * (set by the -threads option) if given, otherwise the number of available processors.
+     */
+    public static int getThreadBudget() {
+        int threadCount = Integer.getInteger(THREAD_COUNT, -1);
+        if (threadCount <= 0) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        return threadCount;
+    }
+
+    /**
+     * @param chainCount the number of chains
+     * @return the number of threads each BEAGLE instance should use so that all the chains,
+     * each with beagle.instance.count instances, can run at once within the thread budget.
+     */
+    public static int getBeagleThreadsPerChain(int chainCount) {
+        int instanceCount = Math.max(1, Integer.getInteger(BEAGLE_INSTANCE_COUNT, 1));
+        return Math.max(1, getThreadBudget() / (chainCount * instanceCount));
+    }
+
+    /**
+     * @return the number of threads each chain's likelihoods will use, from the BEAGLE thread and
+     * instance counts.
+     */
+    private static int getThreadsUsedPerChain() {
+        int threadCount = Math.max(1, Integer.getInteger(BEAGLE_THREAD_COUNT, 1));
+        int instanceCount = Math.max(1, Integer.getInteger(BEAGLE_INSTANCE_COUNT, 1));
+        return threadCount * instanceCount;
     }
 
     private static final boolean DEBUG_IN_SERIES = false;
@@ -127,101 +197,195 @@ public class MCMCMC implements Runnable {
 //        }
 
         MCLogger[] coldChainLoggers = mcLoggers[coldChain];
-        List<LogFormatter>[] logFormatters = new List[coldChainLoggers.length];
+        logFormatters = new ArrayList<List<LogFormatter>>();
 
         for (int i = 0; i < coldChainLoggers.length; i++) {
             // Start the logging for the cold chain
             coldChainLoggers[i].startLogging();
 
             // Now get the formatters (destinations) for the cold chains coldChainLoggers
-            logFormatters[i] = coldChainLoggers[i].getFormatters();
+            logFormatters.add(coldChainLoggers[i].getFormatters());
         }
 
         // Set the other chains to have null log formatters...
         for (int j = 0; j < mcLoggers.length; j++) {
             if (j != coldChain) {
                 for (int i = 0; i < mcLoggers[j].length; i++) {
-                    mcLoggers[j][i].setFormatters(Collections.EMPTY_LIST);
+                    mcLoggers[j][i].setFormatters(Collections.<LogFormatter>emptyList());
                 }
             }
         }
 
         chains[coldChain].addMarkovChainListener(chainListener);
 
-        MCMCMCRunner[] threads = new MCMCMCRunner[chains.length];
+        runSegments();
+
+        finish();
+
+        timer.stop();
+    }
+
+    /**
+     * Runs the chains as a series of segments, swapChainsEvery states long, on a thread pool of at
+     * most concurrentChainCount threads. The chains taking part in each swap attempt are drawn when
+     * the first chain reaches that segment and only those chains wait for each other: the rest carry
+     * straight on with their next segment so the slowest chain does not hold up all the others.
+     * Once a chain has been stopped (by pleaseStop or by a listener such as a set of convergence
+     * diagnostics) no more segments are started and the chains still running are asked to stop.
+     */
+    private void runSegments() {
+        final long swapChainsEvery = mcmcmcOptions.getSwapChainsEvery();
+        final long segmentCount = (getChainLength() + swapChainsEvery - 1) / swapChainsEvery;
+
+        ExecutorService pool = Executors.newFixedThreadPool(DEBUG_IN_SERIES ? 1 : concurrentChainCount);
+        CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(pool);
+
+        // the number of segments each chain has completed and, for chains waiting to swap, the
+        // segment they are waiting at (otherwise -1).
+        long[] segmentsDone = new long[chains.length];
+        long[] waitingAt = new long[chains.length];
+        Arrays.fill(waitingAt, -1);
+        // the chains that attempt a swap after each segment and the number of chains that have
+        // reached that segment so far
+        Map<Long, int[]> swapGroups = new HashMap<Long, int[]>();
+        Map<Long, Integer> arrivals = new HashMap<Long, Integer>();
+
+        int running = 0;
         for (int i = 0; i < chains.length; i++) {
-            threads[i] = new MCMCMCRunner(chains[i], mcmcmcOptions.getSwapChainsEvery(), getChainLength(), false);
-            if (!DEBUG_IN_SERIES) {
-                threads[i].start();
-            }
+            submitSegment(completionService, i, swapChainsEvery);
+            running++;
         }
 
-        while (chains[coldChain].getCurrentLength() < getChainLength()) {
+        try {
+            while (running > 0) {
+                int chain = completionService.take().get();
+                running--;
 
-            if (DEBUG_IN_SERIES) {
-                for (int i = 0; i < chains.length; ++i) {
-                    threads[i].runSubChain();
+                if (chains[chain].isStopped() && !stopping) {
+                    pleaseStop();
                 }
-            } else {
-                // wait for all the threads to complete their alloted chain length
-                boolean allDone;
-                do {
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException e) {
-                        //
-                    }
-
-                    allDone = true;
-                    for (int i = 0; i < chains.length; i++) {
-                        if (!threads[i].isChainDone()) {
-                            allDone = false;
-                        }
-                    }
-                } while (!allDone);
-            }
 
-            if (chains[coldChain].getCurrentLength() < getChainLength()) {
-                int oldColdChain = coldChain;
+                segmentsDone[chain]++;
+                long segment = segmentsDone[chain];
+                if (segment >= segmentCount || stopping) {
+                    continue;
+                }
 
-                // attempt to swap two or more chains' temperatures
-                if (USE_PARALLEL_TEMPERING_SCHEME) {
-                    coldChain = scheme.swapChainTemperatures(coldChain);
+                int[] group = swapGroups.get(segment);
+                if (group == null) {
+                    group = getChainsToSwap();
+                    swapGroups.put(segment, group);
+                    arrivals.put(segment, 0);
+                }
+                int arrived = arrivals.get(segment) + 1;
+                if (arrived == chains.length) {
+                    swapGroups.remove(segment);
+                    arrivals.remove(segment);
                 } else {
-                    coldChain = swapChainTemperatures();
+                    arrivals.put(segment, arrived);
                 }
 
-                // if the cold chain was involved in a swap then we need to change the
-                // listener that does the logging and the destinations for the coldChainLoggers.
-                if (coldChain != oldColdChain) {
+                boolean inGroup = false;
+                for (int i : group) {
+                    inGroup |= (i == chain);
+                }
+                if (!inGroup) {
+                    submitSegment(completionService, chain, swapChainsEvery);
+                    running++;
+                    continue;
+                }
 
-                    chains[oldColdChain].removeMarkovChainListener(chainListener);
+                waitingAt[chain] = segment;
+                boolean ready = true;
+                for (int i : group) {
+                    ready &= (waitingAt[i] == segment);
+                }
 
-                    // Set the new cold chain's loggers with the formatters (destinations) of
-                    // the original cold chain
-                    for (int i = 0; i < mcLoggers[coldChain].length; i++) {
-                        mcLoggers[coldChain][i].setFormatters(logFormatters[i]);
-                    }
+                if (ready) {
+                    setColdChain(swapChainTemperatures(group));
 
-                    // Set the old cold chain to have null log formatters...
-                    for (int i = 0; i < mcLoggers[oldColdChain].length; i++) {
-                        mcLoggers[oldColdChain][i].setFormatters(Collections.EMPTY_LIST);
+                    for (int i : group) {
+                        waitingAt[i] = -1;
+                        submitSegment(completionService, i, swapChainsEvery);
+                        running++;
                     }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                    chains[coldChain].addMarkovChainListener(chainListener);
+    private void submitSegment(CompletionService<Integer> completionService, final int chain, final long length) {
+        completionService.submit(new Callable<Integer>() {
+            public Integer call() {
+                long startLength = chains[chain].getCurrentLength();
+                long startTime = System.nanoTime();
 
-                }
+                chains[chain].runChain(length, false);
 
-                for (int i = 0; i < chains.length; i++) {
-                    threads[i].continueChain();
-                }
+                statistics.recordSegment(chain, chains[chain].getCurrentLength() - startLength,
+                        System.nanoTime() - startTime);
+                return chain;
             }
+        });
+    }
 
+    /**
+     * @return the chains that will attempt to swap temperatures (all the chains if a parallel
+     * tempering scheme is being used, otherwise a random pair).
+     */
+    private int[] getChainsToSwap() {
+        if (USE_PARALLEL_TEMPERING_SCHEME) {
+            int[] group = new int[chains.length];
+            for (int i = 0; i < group.length; i++) {
+                group[i] = i;
+            }
+            return group;
         }
 
-        finish();
+        int index1 = MathUtils.nextInt(chains.length);
+        int index2 = MathUtils.nextInt(chains.length);
+        while (index1 == index2) {
+            index2 = MathUtils.nextInt(chains.length);
+        }
+        return new int[] { index1, index2 };
+    }
 
-        timer.stop();
+    /**
+     * If the cold chain was involved in a swap then we need to change the listener that does the
+     * logging and the destinations for the coldChainLoggers. This is only called when neither the
+     * old or new cold chain is running.
+     */
+    private void setColdChain(int newColdChain) {
+        if (newColdChain == coldChain) {
+            return;
+        }
+
+        int oldColdChain = coldChain;
+        coldChain = newColdChain;
+
+        chains[oldColdChain].removeMarkovChainListener(chainListener);
+
+        // Set the new cold chain's loggers with the formatters (destinations) of
+        // the original cold chain
+        for (int i = 0; i < mcLoggers[coldChain].length; i++) {
+            mcLoggers[coldChain][i].setFormatters(logFormatters.get(i));
+        }
+
+        // Set the old cold chain to have null log formatters...
+        for (int i = 0; i < mcLoggers[oldColdChain].length; i++) {
+            mcLoggers[oldColdChain][i].setFormatters(Collections.<LogFormatter>emptyList());
+        }
+
+        chains[coldChain].addMarkovChainListener(chainListener);
     }
 
     private void runChains(long length, boolean disableCoerce) {
@@ -246,7 +410,15 @@ public class MCMCMC implements Runnable {
         }
     }
 
-    private int swapChainTemperatures() {
+    /**
+     * Attempts to swap the temperatures of the given chains, none of which are running.
+     * @return the new cold chain
+     */
+    private int swapChainTemperatures(int[] group) {
+
+        if (USE_PARALLEL_TEMPERING_SCHEME) {
+            return scheme.swapChainTemperatures(coldChain);
+        }
 
         if(DEBUG){
             System.out.print("Current scores: ");
@@ -265,22 +437,23 @@ public class MCMCMC implements Runnable {
 
         int newColdChain = coldChain;
 
-        int index1 = MathUtils.nextInt(chains.length);
-        int index2 = MathUtils.nextInt(chains.length);
-        while (index1 == index2) {
-            index2 = MathUtils.nextInt(chains.length);
-        }
+        int index1 = group[0];
+        int index2 = group[1];
 
         double score1 = chains[index1].getCurrentScore();
         MCMCCriterion acceptor1 = ((MCMCCriterion) chains[index1].getAcceptor());
         double temperature1 = acceptor1.getTemperature();
+        int rank1 = acceptor1.getRank();
         double score2 = chains[index2].getCurrentScore();
         MCMCCriterion acceptor2 = ((MCMCCriterion) chains[index2].getAcceptor());
         double temperature2 = acceptor2.getTemperature();
+        int rank2 = acceptor2.getRank();
 
         double logRatio = ((score2 - score1) * temperature1) + ((score1 - score2) * temperature2);
         boolean swap = (Math.log(MathUtils.nextDouble()) < logRatio);
 
+        statistics.recordStatistics(index1, index2, rank1, rank2, temperature1, temperature2, logRatio, swap);
+
         if (swap) {
             if(DEBUG){
                 System.out.println("Swapping chain "+index1+" and chain "+index2);
@@ -289,6 +462,10 @@ public class MCMCMC implements Runnable {
             acceptor1.setTemperature(temperature2);
             acceptor2.setTemperature(temperature1);
 
+            // the ranks follow the temperatures so the statistics are kept by temperature
+            acceptor1.setRank(rank2);
+            acceptor2.setRank(rank1);
+
             OperatorSchedule schedule1 = schedules[index1];
             OperatorSchedule schedule2 = schedules[index2];
 
@@ -348,6 +525,15 @@ public class MCMCMC implements Runnable {
         System.out.println();
         System.out.println("Time taken: " + timer.toString());
 
+        System.out.println();
+        System.out.println(statistics.getReport());
+        if (scheme != null) {
+            System.out.println(scheme.getReport());
+        }
+        for (ConvergenceDiagnostics diagnostic : diagnostics) {
+            System.out.println(diagnostic.getReport());
+        }
+
         if (showOperatorAnalysis) {
             System.out.println();
             System.out.println("Operator analysis");
@@ -464,6 +650,7 @@ public class MCMCMC implements Runnable {
      * Requests that the MCMC chain stop prematurely.
      */
     public void pleaseStop() {
+        stopping = true;
         for (MarkovChain chain : chains) {
             chain.pleaseStop();
         }
@@ -486,6 +673,16 @@ public class MCMCMC implements Runnable {
     private final MCLogger[][] mcLoggers;
     private final OperatorSchedule[] schedules;
     private int coldChain;
+    private volatile boolean stopping = false;
+    private final List<ConvergenceDiagnostics> diagnostics = new ArrayList<ConvergenceDiagnostics>();
+    private List<List<LogFormatter>> logFormatters;
+
+    private final int concurrentChainCount;
+    private final ParallelTemperingStatistics statistics;
+
+    private static final String THREAD_COUNT = "thread.count";
+    private static final String BEAGLE_THREAD_COUNT = "beagle.thread.count";
+    private static final String BEAGLE_INSTANCE_COUNT = "beagle.instance.count";
 
     private final ParallelTempering scheme;
     private static final boolean USE_PARALLEL_TEMPERING_SCHEME = false;
@@ -39,6 +39,10 @@ public class ParallelTemperingStatistics {
     private final StatisticsList[][] allStatistics;
     private final double[] temperatures;
 
+    // per chain throughput, each element is only written by the thread running that chain's segment
+    private final long[] statesRun;
+    private final long[] timeRunning;
+
     public ParallelTemperingStatistics(MCMCMCOptions options) {
         double[] temp = options.getChainTemperatures();
         final int length = temp.length;
@@ -51,6 +55,20 @@ public class ParallelTemperingStatistics {
                 this.allStatistics[i][j] = new StatisticsList();
             }
         }
+
+        this.statesRun = new long[length];
+        this.timeRunning = new long[length];
+    }
+
+    /**
+     * Records a segment of a chain having been run.
+     * @param chain the index of the chain
+     * @param states the number of states run
+     * @param nanoseconds the time taken
+     */
+    void recordSegment(int chain, long states, long nanoseconds) {
+        statesRun[chain] += states;
+        timeRunning[chain] += nanoseconds;
     }
 
     void recordStatistics(int index1, int index2,
@@ -69,7 +87,39 @@ public class ParallelTemperingStatistics {
     }
 
     public String getReport() {
-        return "Parallel tempering report"; // TODO
+        StringBuilder sb = new StringBuilder("Parallel tempering report");
+
+        boolean hasThroughput = false;
+        for (long states : statesRun) {
+            hasThroughput |= states > 0;
+        }
+        if (hasThroughput) {
+            sb.append("\nChain throughput:");
+            for (int i = 0; i < statesRun.length; ++i) {
+                double seconds = timeRunning[i] / 1.0E9;
+                sb.append(String.format("\n  chain %d: %d states in %.1f seconds (%.1f states/second)",
+                        i, statesRun[i], seconds, seconds > 0.0 ? statesRun[i] / seconds : 0.0));
+            }
+        }
+
+        boolean hasSwaps = false;
+        for (int i = 0; i < allStatistics.length; ++i) {
+            for (int j = 0; j < allStatistics.length; ++j) {
+                if (allStatistics[i][j].size() > 0) {
+                    if (!hasSwaps) {
+                        sb.append("\nSwap acceptance (by temperature rank):");
+                        hasSwaps = true;
+                    }
+                    int accepted = 0;
+                    for (Statistics statistics : allStatistics[i][j]) {
+                        accepted += statistics.success ? 1 : 0;
+                    }
+                    sb.append(String.format("\n  %d <-> %d: %d of %d", i, j, accepted, allStatistics[i][j].size()));
+                }
+            }
+        }
+
+        return sb.toString();
     }
 
     static class Statistics {
@@ -49,6 +49,16 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
     public final int[] evaluationCounts;
 
     public CompoundLikelihood(int threads, Collection<Likelihood> likelihoods) {
+        this(threads, likelihoods, false);
+    }
+
+    /**
+     * @param threads the number of threads (-1 for automatic sizing, 0 for serial evaluation)
+     * @param likelihoods the component likelihoods
+     * @param workStealing if true the components are evaluated on a shared, cost-aware work-stealing pool
+     *                     rather than a fixed thread pool
+     */
+    public CompoundLikelihood(int threads, Collection<Likelihood> likelihoods, boolean workStealing) {
 
         int i = 0;
         for (Likelihood l : likelihoods) {
@@ -67,28 +77,38 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
             threadCount = 0;
         }
 
-        if (threadCount > 0) {
+        if (EVALUATION_TIMERS || workStealing) {
+            // the work stealing evaluator uses the timers to decide how to schedule the likelihoods
+            evaluationTimes = new long[this.likelihoods.size()];
+            evaluationCounts = new int[this.likelihoods.size()];
+        } else {
+            evaluationTimes = null;
+            evaluationCounts = null;
+        }
+
+        if (workStealing && threadCount != 0) {
+            pool = null;
+            evaluator = new WorkStealingLikelihoodEvaluator(lateLikelihoods, toArray(lateIndices),
+                    evaluationTimes, evaluationCounts,
+                    WorkStealingLikelihoodEvaluator.getSharedPool(threads));
+        } else if (threadCount > 0) {
+            evaluator = null;
             pool = Executors.newFixedThreadPool(threadCount);
         } else if (threadCount < 0) {
+            evaluator = null;
             // create a cached thread pool which should create one thread per likelihood...
             pool = Executors.newCachedThreadPool();
         } else {
             // don't use a threadpool (i.e., compute serially)
+            evaluator = null;
             pool = null;
         }
-
-        if (EVALUATION_TIMERS) {
-            evaluationTimes = new long[this.likelihoods.size()];
-            evaluationCounts = new int[this.likelihoods.size()];
-        } else {
-            evaluationTimes = null;
-            evaluationCounts = null;
-        }
     }
 
     public CompoundLikelihood(Collection<Likelihood> likelihoods) {
 
         pool = null;
+        evaluator = null;
         threadCount = 0;
 
         int i = 0;
@@ -133,17 +153,22 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
                     compoundModel.addModel(likelihood.getModel());
                 }
 
+                // the position in the full list is used to index the evaluation timers
+                final int timerIndex = likelihoods.size() - 1;
+
                 if (likelihood.evaluateEarly()) {
 
                     earlyLikelihoods.add(likelihood);
+                    earlyIndices.add(timerIndex);
 
                 } else {
 
                     // late likelihood list is used to evaluate them if the thread pool is not being used...
                     lateLikelihoods.add(likelihood);
+                    lateIndices.add(timerIndex);
 
                     if (addToPool) {
-                        likelihoodCallers.add(new LikelihoodCaller(likelihood, index));
+                        likelihoodCallers.add(new LikelihoodCaller(likelihood, timerIndex));
                     }
                 }
 
@@ -193,15 +218,17 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     public double getLogLikelihood() {
 
-        double logLikelihood = evaluateLikelihoods(earlyLikelihoods);
+        double logLikelihood = evaluateLikelihoods(earlyLikelihoods, earlyIndices);
 
         if( logLikelihood == Double.NEGATIVE_INFINITY ) {
             return Double.NEGATIVE_INFINITY;
         }
 
-        if (pool == null) {
+        if (evaluator != null) {
+            logLikelihood += evaluator.evaluate();
+        } else if (pool == null) {
             // Single threaded
-            logLikelihood += evaluateLikelihoods(lateLikelihoods);
+            logLikelihood += evaluateLikelihoods(lateLikelihoods, lateIndices);
         } else {
 
             try {
@@ -231,16 +258,17 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return logLikelihood;
     }
 
-    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods) {
+    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods, ArrayList<Integer> indices) {
         double logLikelihood = 0.0;
         int i = 0;
         for (Likelihood likelihood : likelihoods) {
             if (EVALUATION_TIMERS) {
                 // this code is only compiled if EVALUATION_TIMERS is true
+                final int index = indices.get(i);
                 long time = System.nanoTime();
                 double l = likelihood.getLogLikelihood();
-                evaluationTimes[i] += System.nanoTime() - time;
-                evaluationCounts[i] ++;
+                evaluationTimes[index] += System.nanoTime() - time;
+                evaluationCounts[index] ++;
 
                 if( l == Double.NEGATIVE_INFINITY )
                     return Double.NEGATIVE_INFINITY;
@@ -361,6 +389,18 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         return threadCount;
     }
 
+    public boolean isWorkStealing() {
+        return evaluator != null;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
     public long[] getEvaluationTimes() {
         return evaluationTimes;
     }
@@ -376,6 +416,48 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
         }
     }
     
+    /**
+     * A loggable reporting, for each component likelihood, the mean time per evaluation (in
+     * milliseconds) and the proportion of the total evaluation time it accounts for.
+     * @return the loggable
+     */
+    public dr.inference.loggers.Loggable getEvaluationTimesLoggable() {
+        return new dr.inference.loggers.Loggable() {
+            @Override
+            public dr.inference.loggers.LogColumn[] getColumns() {
+                dr.inference.loggers.LogColumn[] columns = new dr.inference.loggers.LogColumn[2 * likelihoods.size()];
+                for (int i = 0; i < likelihoods.size(); i++) {
+                    final int index = i;
+                    final Likelihood likelihood = likelihoods.get(i);
+                    final String name = likelihood.getId() != null ? likelihood.getId() : likelihood.prettyName();
+                    columns[2 * i] = new dr.inference.loggers.NumberColumn(name + ".time") {
+                        @Override
+                        public double getDoubleValue() {
+                            if (evaluationCounts == null || evaluationCounts[index] == 0) {
+                                return 0.0;
+                            }
+                            return evaluationTimes[index] / (1.0E6 * evaluationCounts[index]);
+                        }
+                    };
+                    columns[2 * i + 1] = new dr.inference.loggers.NumberColumn(name + ".share") {
+                        @Override
+                        public double getDoubleValue() {
+                            if (evaluationTimes == null) {
+                                return 0.0;
+                            }
+                            long total = 0;
+                            for (long time : evaluationTimes) {
+                                total += time;
+                            }
+                            return total > 0 ? (double) evaluationTimes[index] / total : 0.0;
+                        }
+                    };
+                }
+                return columns;
+            }
+        };
+    }
+
     // **************************************************************
     // Loggable IMPLEMENTATION
     // **************************************************************
@@ -537,12 +619,17 @@ public class CompoundLikelihood implements Likelihood, Profileable, Reportable,
 
     private final ExecutorService pool;
 
+    private final WorkStealingLikelihoodEvaluator evaluator;
+
     private final ArrayList<Likelihood> likelihoods = new ArrayList<Likelihood>();
     private final CompoundModel compoundModel = new CompoundModel("compoundModel");
 
     private final ArrayList<Likelihood> earlyLikelihoods = new ArrayList<Likelihood>();
     private final ArrayList<Likelihood> lateLikelihoods = new ArrayList<Likelihood>();
 
+    private final ArrayList<Integer> earlyIndices = new ArrayList<Integer>();
+    private final ArrayList<Integer> lateIndices = new ArrayList<Integer>();
+
     private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
 
     class LikelihoodCaller implements Callable<Double> {
@@ -0,0 +1,285 @@
+/*
+ * WorkStealingLikelihoodEvaluator.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.model;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates the components of a CompoundLikelihood on a shared work-stealing pool.
+ *
+ * A moving average of the cost of each component is kept. Only components whose model has
+ * fired a change since their last evaluation and which are expensive enough to be worth a
+ * thread are forked (most expensive first). Everything else (clean likelihoods, which just
+ * return a cached value, and cheap priors) is evaluated on the calling thread while the pool
+ * is working. All tasks and index arrays are allocated up front so an evaluation does not
+ * allocate.
+ *
+ * Which thread a component is evaluated on only affects scheduling - every component is
+ * always asked for its log likelihood - so a missed change event cannot give a wrong answer.
+ */
+final class WorkStealingLikelihoodEvaluator implements ModelListener {
+
+    // the weight of the latest evaluation time in the exponential moving average of the cost
+    private static final double COST_SMOOTHING = 0.1;
+
+    // components that cost less than this (on average) are evaluated on the calling thread
+    public static final String CHEAP_THRESHOLD_PROPERTY = "thread.cheap.threshold.nanos";
+    private static final long CHEAP_THRESHOLD_NANOS = 50000;
+
+    private static ForkJoinPool sharedPool = null;
+
+    /**
+     * @param threadCount the parallelism of the pool if it has not already been created (values
+     *                    less than 1 use the number of available processors)
+     * @return a pool shared by all compound likelihoods using this evaluation mode
+     */
+    static synchronized ForkJoinPool getSharedPool(int threadCount) {
+        final int parallelism = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(parallelism);
+        } else if (sharedPool.getParallelism() != parallelism) {
+            Logger.getLogger("dr.inference").warning("The shared work stealing pool already has " +
+                    sharedPool.getParallelism() + " threads so a request for " + parallelism +
+                    " threads will be ignored.");
+        }
+        return sharedPool;
+    }
+
+    /**
+     * @param likelihoods      the likelihoods to evaluate
+     * @param indices          the index of each likelihood in the timer arrays
+     * @param evaluationTimes  cumulative evaluation times (indexed by indices)
+     * @param evaluationCounts cumulative evaluation counts (indexed by indices)
+     * @param pool             the pool to run expensive likelihoods on
+     */
+    WorkStealingLikelihoodEvaluator(List<Likelihood> likelihoods, int[] indices,
+                                    long[] evaluationTimes, int[] evaluationCounts,
+                                    ForkJoinPool pool) {
+        this.pool = pool;
+        this.evaluationTimes = evaluationTimes;
+        this.evaluationCounts = evaluationCounts;
+
+        likelihoodCount = likelihoods.size();
+        this.likelihoods = likelihoods.toArray(new Likelihood[likelihoodCount]);
+        this.indices = indices;
+
+        averageCosts = new double[likelihoodCount];
+        logLikelihoods = new double[likelihoodCount];
+        dirty = new boolean[likelihoodCount];
+        alwaysDirty = new boolean[likelihoodCount];
+        forked = new boolean[likelihoodCount];
+        heavy = new int[likelihoodCount];
+        tasks = new LikelihoodTask[likelihoodCount];
+
+        long threshold = CHEAP_THRESHOLD_NANOS;
+        String t = System.getProperty(CHEAP_THRESHOLD_PROPERTY);
+        if (t != null) {
+            threshold = Long.parseLong(t);
+        }
+        cheapThreshold = threshold;
+
+        for (int i = 0; i < likelihoodCount; i++) {
+            tasks[i] = new LikelihoodTask(i);
+            dirty[i] = true;
+
+            Model model = this.likelihoods[i].getModel();
+            if (model != null) {
+                int[] modelLikelihoods = likelihoodsByModel.get(model);
+                if (modelLikelihoods == null) {
+                    modelLikelihoods = new int[]{i};
+                    model.addModelListener(this);
+                } else {
+                    int[] tmp = new int[modelLikelihoods.length + 1];
+                    System.arraycopy(modelLikelihoods, 0, tmp, 0, modelLikelihoods.length);
+                    tmp[modelLikelihoods.length] = i;
+                    modelLikelihoods = tmp;
+                }
+                likelihoodsByModel.put(model, modelLikelihoods);
+            } else {
+                // no way of knowing if it has changed
+                alwaysDirty[i] = true;
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the log likelihoods
+     */
+    double evaluate() {
+
+        heavyCount = 0;
+        for (int i = 0; i < likelihoodCount; i++) {
+            forked[i] = false;
+            if ((dirty[i] || alwaysDirty[i]) && averageCosts[i] >= cheapThreshold) {
+                // insertion sort in order of decreasing cost
+                int k = heavyCount;
+                while (k > 0 && averageCosts[heavy[k - 1]] < averageCosts[i]) {
+                    heavy[k] = heavy[k - 1];
+                    k--;
+                }
+                heavy[k] = i;
+                heavyCount++;
+            }
+        }
+
+        if (heavyCount > 1) {
+            for (int k = 0; k < heavyCount; k++) {
+                forked[heavy[k]] = true;
+                tasks[heavy[k]].reinitialize();
+            }
+            rootTask.reinitialize();
+            pool.execute(rootTask);
+        }
+
+        for (int i = 0; i < likelihoodCount; i++) {
+            if (!forked[i]) {
+                evaluateLikelihood(i);
+            }
+        }
+
+        if (heavyCount > 1) {
+            rootTask.join();
+        }
+
+        // sum in a fixed order so the result does not depend on the thread scheduling
+        double logLikelihood = 0.0;
+        for (int i = 0; i < likelihoodCount; i++) {
+            dirty[i] = false;
+            logLikelihood += logLikelihoods[i];
+        }
+
+        if (Double.isNaN(logLikelihood)) {
+            // mirror the serial short-cut which returns negative infinity as soon as one component does
+            for (int i = 0; i < likelihoodCount; i++) {
+                if (logLikelihoods[i] == Double.NEGATIVE_INFINITY) {
+                    return Double.NEGATIVE_INFINITY;
+                }
+            }
+        }
+
+        return logLikelihood;
+    }
+
+    private void evaluateLikelihood(int i) {
+        final long time = System.nanoTime();
+        logLikelihoods[i] = likelihoods[i].getLogLikelihood();
+        final long elapsed = System.nanoTime() - time;
+
+        if (dirty[i] || alwaysDirty[i]) {
+            // only actual recomputations inform the cost (clean likelihoods return a cached value)
+            if (averageCosts[i] == 0.0) {
+                averageCosts[i] = elapsed;
+            } else {
+                averageCosts[i] += COST_SMOOTHING * (elapsed - averageCosts[i]);
+            }
+        }
+
+        evaluationTimes[indices[i]] += elapsed;
+        evaluationCounts[indices[i]]++;
+    }
+
+    /**
+     * @return the moving average cost (in nanoseconds) of recomputing each likelihood
+     */
+    double[] getAverageCosts() {
+        return averageCosts;
+    }
+
+    // **************************************************************
+    // ModelListener IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    public void modelChangedEvent(Model model, Object object, int index) {
+        int[] modelLikelihoods = likelihoodsByModel.get(model);
+        if (modelLikelihoods != null) {
+            for (int i : modelLikelihoods) {
+                dirty[i] = true;
+            }
+        }
+    }
+
+    @Override
+    public void modelRestored(Model model) {
+        // restoring reinstates the cached likelihood so nothing needs recomputing
+    }
+
+    private class LikelihoodTask extends RecursiveAction {
+        LikelihoodTask(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            evaluateLikelihood(index);
+        }
+
+        private final int index;
+    }
+
+    private final RecursiveAction rootTask = new RecursiveAction() {
+        @Override
+        protected void compute() {
+            // fork in decreasing order of cost so idle workers steal the most expensive first
+            for (int k = 1; k < heavyCount; k++) {
+                tasks[heavy[k]].fork();
+            }
+            tasks[heavy[0]].compute();
+            for (int k = heavyCount - 1; k > 0; k--) {
+                tasks[heavy[k]].join();
+            }
+        }
+    };
+
+    private final ForkJoinPool pool;
+
+    private final int likelihoodCount;
+    private final Likelihood[] likelihoods;
+    private final int[] indices;
+    private final Map<Model, int[]> likelihoodsByModel = new IdentityHashMap<Model, int[]>();
+
+    private final long cheapThreshold;
+    private final double[] averageCosts;
+    private final double[] logLikelihoods;
+    private final boolean[] dirty;
+    private final boolean[] alwaysDirty;
+    private final boolean[] forked;
+
+    private final int[] heavy;
+    private int heavyCount;
+
+    private final LikelihoodTask[] tasks;
+
+    private final long[] evaluationTimes;
+    private final int[] evaluationCounts;
+}
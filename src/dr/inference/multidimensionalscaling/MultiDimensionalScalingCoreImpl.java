@@ -29,9 +29,18 @@ package dr.inference.multidimensionalscaling;
 
 import dr.math.distributions.NormalDistribution;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static dr.inference.multidimensionalscaling.NativeMDSSingleton.THREADS;
+
 /**
  * MultiDimensionalScalingCoreImpl
  *
+ * The full residual computation and the gradient are split into blocks of rows that can be evaluated in parallel
+ * (set with the 'mds.threads' property). When a single location moves only its row of residuals is recomputed and
+ * the previous row is kept for restoring.
+ *
  * @author Andrew Rambaut
  * @author Marc Suchard
  * <p>
@@ -44,6 +53,32 @@ import dr.math.distributions.NormalDistribution;
 
 public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingCore {
 
+    private static final int BLOCKS_PER_THREAD = 4;
+    private static final int MIN_BLOCK_SIZE = 32;
+
+    public MultiDimensionalScalingCoreImpl() {
+        this(parseThreadCount());
+    }
+
+    /**
+     * @param threadCount the number of threads (values less than 1 use the number of available processors)
+     */
+    public MultiDimensionalScalingCoreImpl(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    private static int parseThreadCount() {
+        String r = System.getProperty(THREADS);
+        if (r != null) {
+            try {
+                return Integer.parseInt(r.trim());
+            } catch (NumberFormatException exception) {
+                throw new RuntimeException("Unable to parse '" + THREADS + "' environmental property");
+            }
+        }
+        return 1;
+    }
+
     @Override
     public void initialize(int embeddingDimension, int locationCount, long flags) {
         this.embeddingDimension = embeddingDimension;
@@ -52,7 +87,8 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
         observations = new double[locationCount][locationCount];
         increments = new double[locationCount][locationCount];
-        storedIncrements = null;
+        storedIncrements = new double[locationCount];
+        incrementsStored = false;
         incrementsKnown = false;
         sumOfIncrementsKnown = false;
 
@@ -62,6 +98,34 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
         locations = new double[locationCount][embeddingDimension];
         storedLocations = new double[locationCount][embeddingDimension];
+
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+        int blockCount = threadCount == 1 ? 1 : Math.max(1, Math.min(threadCount * BLOCKS_PER_THREAD, locationCount / MIN_BLOCK_SIZE));
+
+        blockStarts = new int[blockCount + 1];
+        for (int b = 0; b <= blockCount; b++) {
+            blockStarts[b] = (int) (((long) locationCount * b) / blockCount);
+        }
+        blockSums = new double[blockCount];
+        blockTasks = new BlockTask[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            blockTasks[b] = new BlockTask(b);
+        }
+
+        if (blockCount > 1) {
+            pool = new ForkJoinPool(threadCount);
+            rootTask = new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(blockTasks);
+                }
+            };
+        } else {
+            pool = null;
+            rootTask = null;
+        }
     }
 
     @Override
@@ -123,7 +187,7 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
         if (updatedLocation != -1 || locationIndex == -1) {
             // more than one location updated - do a full re-computation
             incrementsKnown = false;
-            storedIncrements = null;
+            incrementsStored = false;
         }
 
         if (locationIndex != -1) {
@@ -177,7 +241,7 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
     public void storeState() {
         // Handle residuals
         storedSumOfIncrements = sumOfIncrements;
-        storedIncrements = null;
+        incrementsStored = false;
 
         // Handle locations
         for (int i = 0; i < locationCount; i++) {
@@ -195,7 +259,7 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
         sumOfIncrements = storedSumOfIncrements;
         sumOfIncrementsKnown = true;
 
-        if (storedIncrements != null) {
+        if (incrementsStored) {
             System.arraycopy(storedIncrements, 0, increments[updatedLocation], 0, locationCount);
             incrementsKnown = true;
         } else {
@@ -213,7 +277,7 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
     @Override
     public void acceptState() {
-        if (storedIncrements != null) {
+        if (incrementsStored) {
             for (int j = 0; j < locationCount; ++j) {
                 increments[j][updatedLocation] = increments[updatedLocation][j];
             }
@@ -222,7 +286,13 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
     @Override
     public void getGradient(double[] location) {
-        throw new RuntimeException("Not yet implemented.");
+        if (location.length != embeddingDimension * locationCount) {
+            throw new RuntimeException("Gradient is not the correct dimension");
+        }
+
+        gradient = location;
+        runBlocks(Phase.GRADIENT);
+        gradient = null;
     }
 
     @Override
@@ -238,12 +308,39 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
     private void computeSumOfSquaredResiduals() {
 
+        runBlocks(Phase.RESIDUALS);
+
+        sumOfIncrements = 0.0;
+        for (double blockSum : blockSums) {
+            sumOfIncrements += blockSum;
+        }
+
+        sumOfIncrements /= 2;
+
+        incrementsKnown = true;
+        sumOfIncrementsKnown = true;
+    }
+
+    private void runBlocks(Phase phase) {
+        this.phase = phase;
+        if (pool != null) {
+            for (BlockTask task : blockTasks) {
+                task.reinitialize();
+            }
+            rootTask.reinitialize();
+            pool.invoke(rootTask);
+        } else {
+            blockTasks[0].compute();
+        }
+    }
+
+    private void computeSumOfSquaredResiduals(int block) {
+
         final double oneOverSd = Math.sqrt(precision);
         final double scale = 0.5 * precision;
 
-        // OLD
-        sumOfIncrements = 0.0;
-        for (int i = 0; i < locationCount; i++) {
+        double sum = 0.0;
+        for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++) {
 
             for (int j = 0; j < locationCount; j++) {
                 double distance = calculateDistance(locations[i], locations[j]);
@@ -258,14 +355,40 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
                 }
                 increments[i][j] = increment;
 //                increments[j][i] = increment; // Do not write transposed values
-                sumOfIncrements += increment;
+                sum += increment;
             }
         }
 
-        sumOfIncrements /= 2;
+        blockSums[block] = sum;
+    }
 
-        incrementsKnown = true;
-        sumOfIncrementsKnown = true;
+    private void computeGradient(int block) {
+
+        final double oneOverSd = Math.sqrt(precision);
+
+        for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++) {
+            final int offset = i * embeddingDimension;
+            for (int k = 0; k < embeddingDimension; k++) {
+                gradient[offset + k] = 0.0;
+            }
+
+            for (int j = 0; j < locationCount; j++) {
+                double distance = calculateDistance(locations[i], locations[j]);
+                if (i == j || distance == 0.0) {
+                    continue;
+                }
+
+                double dLogLikelihood = -precision * (distance - observations[i][j]);
+                if (isLeftTruncated) {
+                    dLogLikelihood -= computeTruncationDerivative(distance, oneOverSd);
+                }
+                dLogLikelihood /= distance;
+
+                for (int k = 0; k < embeddingDimension; k++) {
+                    gradient[offset + k] += dLogLikelihood * (locations[i][k] - locations[j][k]);
+                }
+            }
+        }
     }
 
     private void updateSumOfSquaredResiduals() {
@@ -277,8 +400,8 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
 
         final int i = updatedLocation;
 
-        storedIncrements = new double[locationCount];
         System.arraycopy(increments[i], 0, storedIncrements, 0, locationCount);
+        incrementsStored = true;
 
         for (int j = 0; j < locationCount; j++) {
             double distance = calculateDistance(locations[i], locations[j]);
@@ -314,6 +437,38 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
         return NormalDistribution.standardCDF(mean * oneOverSd, true); // Should be standardCDF(mean / sd, true);
     }
 
+    private double computeTruncationDerivative(double mean, double oneOverSd) {
+        final double x = mean * oneOverSd;
+        return oneOverSd * Math.exp(NormalDistribution.logPdf(x, 0.0, 1.0) - NormalDistribution.standardCDF(x, true));
+    }
+
+    private enum Phase {
+        RESIDUALS,
+        GRADIENT
+    }
+
+    private class BlockTask extends RecursiveAction {
+        BlockTask(int block) {
+            this.block = block;
+        }
+
+        @Override
+        protected void compute() {
+            switch (phase) {
+                case RESIDUALS:
+                    computeSumOfSquaredResiduals(block);
+                    break;
+                case GRADIENT:
+                    computeGradient(block);
+                    break;
+            }
+        }
+
+        private final int block;
+    }
+
+    private int threadCount;
+
     private int embeddingDimension;
     private boolean isLeftTruncated = false;
     private int locationCount;
@@ -333,8 +488,17 @@ public class MultiDimensionalScalingCoreImpl implements MultiDimensionalScalingC
     private double[][] increments;
 
     private double[] storedIncrements;
+    private boolean incrementsStored = false;
 
     private double sumOfIncrements;
     private double storedSumOfIncrements;
 
+    private double[] gradient;
+
+    private int[] blockStarts;
+    private double[] blockSums;
+    private BlockTask[] blockTasks;
+    private ForkJoinPool pool;
+    private RecursiveAction rootTask;
+    private Phase phase;
 }
@@ -33,6 +33,7 @@ import dr.inference.loggers.Loggable;
 import dr.inference.loggers.NumberColumn;
 import dr.inference.operators.GibbsOperator;
 import dr.inference.operators.SimpleMCMCOperator;
+import dr.math.LogTricks;
 import dr.math.MathUtils;
 import dr.math.matrixAlgebra.WrappedVector;
 
@@ -52,8 +53,21 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
                            boolean adaptiveStepsize,
                            int adaptiveDelay,
                            double weight) {
+        this(hmcProvider, adaptiveStepsize, adaptiveDelay, false, weight);
+    }
+
+    /**
+     * @param multinomialSampling if true, states are drawn from each trajectory in proportion to their joint density
+     *                            (multinomial NUTS) rather than uniformly from those above a slice variable
+     */
+    public NoUTurnOperator(ReversibleHMCProvider hmcProvider,
+                           boolean adaptiveStepsize,
+                           int adaptiveDelay,
+                           boolean multinomialSampling,
+                           double weight) {
 
         this.hmcProvider = hmcProvider;
+        this.multinomialSampling = multinomialSampling;
         this.adaptiveStepsize = adaptiveStepsize;
         this.adaptiveDelay = adaptiveDelay;
         if (hmcProvider instanceof SplitHamiltonianMonteCarloOperator) {
@@ -102,7 +116,9 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
         final WrappedVector initialMomentum = hmcProvider.drawMomentum();
 
         final double initialJointDensity = hmcProvider.getJointProbability(initialMomentum);
-        double logSliceU = Math.log(getUniform()) + initialJointDensity;
+        // without a slice the divergence check is made against the initial density
+        double logSliceU = multinomialSampling ? initialJointDensity :
+                Math.log(getUniform()) + initialJointDensity;
 
         TreeState trajectoryTree = new TreeState(initialPosition, initialMomentum.getBuffer(),
                 hmcProvider.getGradientProvider().getGradientLogDensity(), 1, true);
@@ -143,7 +159,9 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
         if (nextTrajectoryTree.flagContinue) {
 
             final double uniform = getUniform();
-            final double acceptProb = (double) nextTrajectoryTree.numNodes / (double) trajectoryTree.numNodes;
+            final double acceptProb = multinomialSampling ?
+                    Math.exp(nextTrajectoryTree.logWeight - trajectoryTree.logWeight) :
+                    (double) nextTrajectoryTree.numNodes / (double) trajectoryTree.numNodes;
             if (uniform < acceptProb) {
                 endPosition = nextTrajectoryTree.getSample();
             }
@@ -191,11 +209,14 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
         final double acceptProb = Math.min(1.0, Math.exp(logJointProbAfter - initialJointDensity));
         final int numAcceptProbStates = 1;
 
+        // Multinomial weight relative to the initial state
+        final double logWeight = logJointProbAfter - initialJointDensity;
+
         hmcProvider.setParameter(inPosition);
 
         return new TreeState(position.getBuffer(), momentum.getBuffer(), gradient.getBuffer(), numNodes, flagContinue
                 , acceptProb,
-                numAcceptProbStates);
+                numAcceptProbStates, logWeight);
     }
 
     private TreeState buildRecursiveCase(double[] inPosition, double[] inMomentum, double[] gradient, int direction,
@@ -325,12 +346,12 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
         private TreeState(double[] position, double[] moment, double[] gradient,
                           int numNodes, boolean flagContinue) {
-            this(position, moment, gradient, numNodes, flagContinue, 0.0, 0);
+            this(position, moment, gradient, numNodes, flagContinue, 0.0, 0, 0.0);
         }
 
         private TreeState(double[] position, double[] moment, double[] gradient,
                           int numNodes, boolean flagContinue,
-                          double cumAcceptProb, int numAcceptProbStates) {
+                          double cumAcceptProb, int numAcceptProbStates, double logWeight) {
             this.position = new double[3][];
             this.momentum = new double[3][];
             this.gradient = new double[3][]; //todo: (for gradient) no need for 3 but 2? If changed to 2, getIndex should also be changed
@@ -344,6 +365,7 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
             // Recursion variables
             this.numNodes = numNodes;
             this.flagContinue = flagContinue;
+            this.logWeight = logWeight;
 
             // Dual-averaging variables
             this.cumAcceptProb = cumAcceptProb;
@@ -400,6 +422,7 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
             updateSample(nextTree);
 
             numNodes += nextTree.numNodes;
+            logWeight = LogTricks.logSum(logWeight, nextTree.logWeight);
             flagContinue = computeStopCriterion(nextTree.flagContinue, this);
 
             cumAcceptProb += nextTree.cumAcceptProb;
@@ -408,7 +431,11 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
         private void updateSample(TreeState nextTree) {
             double uniform = getUniform();
-            if (nextTree.numNodes > 0
+            if (multinomialSampling) {
+                if (uniform < Math.exp(nextTree.logWeight - LogTricks.logSum(logWeight, nextTree.logWeight))) {
+                    setSample(nextTree.getSample());
+                }
+            } else if (nextTree.numNodes > 0
                     && uniform < ((double) nextTree.numNodes / (double) (numNodes + nextTree.numNodes))) {
                 setSample(nextTree.getSample());
             }
@@ -420,6 +447,7 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
 
         private int numNodes;
         private boolean flagContinue;
+        private double logWeight;
 
         private double cumAcceptProb;
         private int numAcceptProbStates;
@@ -483,6 +511,7 @@ public class NoUTurnOperator extends SimpleMCMCOperator implements GibbsOperator
     private StepSize stepSizeInformation;
     private boolean adaptiveStepsize;
     private int adaptiveDelay;
+    private final boolean multinomialSampling;
     private int numBaseCalls;
     private int numBoundaryEvents;
     private int numGradientEvents;
@@ -0,0 +1,435 @@
+/*
+ * DistributedLikelihood.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import dr.evolution.tree.MutableTreeModel;
+import dr.evolution.tree.NodeRef;
+import dr.inference.model.AbstractModelLikelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A likelihood calculated by LikelihoodServers running in other processes, possibly on other machines.
+ * Each worker is sent the changes to the parameters and trees it depends on since it was last sent them
+ * and replies with its log likelihood. The requests to all the workers are sent before any replies are
+ * read so the workers calculate concurrently.
+ *
+ * Store, accept and restore are forwarded lazily with the next request so a worker which is not affected by
+ * a move doesn't need to be contacted at all.
+ */
+public class DistributedLikelihood extends AbstractModelLikelihood {
+
+    public static final String DISTRIBUTED_LIKELIHOOD = "distributedLikelihood";
+
+    // how long to keep trying to connect to a worker which is still starting up
+    private static final long CONNECTION_TIMEOUT = 60000;
+
+    public DistributedLikelihood(List<Worker> workers) {
+        super(DISTRIBUTED_LIKELIHOOD);
+
+        this.workers = workers;
+
+        for (Worker worker : workers) {
+            for (Parameter parameter : worker.parameters) {
+                addVariable(parameter);
+            }
+            for (MutableTreeModel tree : worker.trees) {
+                addModel(tree);
+            }
+        }
+    }
+
+    // **************************************************************
+    // Likelihood IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    public Model getModel() {
+        return this;
+    }
+
+    @Override
+    public double getLogLikelihood() {
+        if (!likelihoodKnown) {
+            logLikelihood = calculateLogLikelihood();
+            likelihoodKnown = true;
+        }
+        return logLikelihood;
+    }
+
+    @Override
+    public void makeDirty() {
+        for (Worker worker : workers) {
+            worker.flags |= LikelihoodServer.MAKE_DIRTY;
+        }
+        likelihoodKnown = false;
+    }
+
+    /**
+     * Asks the workers to stop. Workers also stop if this process exits.
+     */
+    public void terminate() {
+        for (Worker worker : workers) {
+            worker.terminate();
+        }
+    }
+
+    private double calculateLogLikelihood() {
+        try {
+            boolean[] sent = new boolean[workers.size()];
+
+            // send all the requests before waiting for any replies
+            for (int i = 0; i < workers.size(); i++) {
+                sent[i] = workers.get(i).sendChanges();
+            }
+
+            double total = 0.0;
+            for (int i = 0; i < workers.size(); i++) {
+                Worker worker = workers.get(i);
+                if (sent[i]) {
+                    worker.logLikelihood = worker.in.readDouble();
+                }
+                total += worker.logLikelihood;
+            }
+            return total;
+
+        } catch (IOException ioe) {
+            throw new RuntimeException("Lost the connection to a likelihood worker: " + ioe.getMessage());
+        }
+    }
+
+    // **************************************************************
+    // Model IMPLEMENTATION
+    // **************************************************************
+
+    @Override
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        likelihoodKnown = false;
+    }
+
+    @Override
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        likelihoodKnown = false;
+    }
+
+    @Override
+    protected void storeState() {
+        for (Worker worker : workers) {
+            worker.storeState();
+        }
+        storedLogLikelihood = logLikelihood;
+        storedLikelihoodKnown = likelihoodKnown;
+    }
+
+    @Override
+    protected void restoreState() {
+        for (Worker worker : workers) {
+            worker.restoreState();
+        }
+        logLikelihood = storedLogLikelihood;
+        likelihoodKnown = storedLikelihoodKnown;
+    }
+
+    @Override
+    protected void acceptState() {
+        for (Worker worker : workers) {
+            worker.acceptState();
+        }
+    }
+
+    /**
+     * A connection to a LikelihoodServer along with the parameters and trees it depends on and the values it
+     * was last sent.
+     */
+    public static class Worker {
+
+        public Worker(String host, int port, List<Parameter> parameters, List<MutableTreeModel> trees) {
+            this.host = host;
+            this.port = port;
+            this.parameters = parameters;
+            this.trees = trees;
+
+            sentValues = new double[parameters.size()][];
+            storedSentValues = new double[parameters.size()][];
+            for (int i = 0; i < parameters.size(); i++) {
+                // NaN never matches so everything is sent the first time
+                sentValues[i] = new double[parameters.get(i).getDimension()];
+                Arrays.fill(sentValues[i], Double.NaN);
+                storedSentValues[i] = sentValues[i].clone();
+            }
+
+            sentParents = new int[trees.size()][];
+            storedSentParents = new int[trees.size()][];
+            sentHeights = new double[trees.size()][];
+            storedSentHeights = new double[trees.size()][];
+            for (int i = 0; i < trees.size(); i++) {
+                int nodeCount = trees.get(i).getNodeCount();
+                sentParents[i] = new int[nodeCount];
+                Arrays.fill(sentParents[i], -2);
+                storedSentParents[i] = sentParents[i].clone();
+                sentHeights[i] = new double[nodeCount];
+                Arrays.fill(sentHeights[i], Double.NaN);
+                storedSentHeights[i] = sentHeights[i].clone();
+            }
+        }
+
+        private void connect() throws IOException {
+            long start = System.currentTimeMillis();
+            while (socket == null) {
+                try {
+                    socket = new Socket(host, port);
+                } catch (IOException ioe) {
+                    if (System.currentTimeMillis() - start > CONNECTION_TIMEOUT) {
+                        throw new IOException("unable to connect to " + host + ":" + port + " (" + ioe.getMessage() + ")");
+                    }
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException ie) {
+                        throw new IOException("interrupted connecting to " + host + ":" + port);
+                    }
+                }
+            }
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            out.writeInt(parameters.size());
+            for (Parameter parameter : parameters) {
+                out.writeInt(parameter.getDimension());
+            }
+            out.writeInt(trees.size());
+            for (MutableTreeModel tree : trees) {
+                out.writeInt(tree.getNodeCount());
+                out.writeInt(tree.getExternalNodeCount());
+                for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+                    out.writeUTF(tree.getNodeTaxon(tree.getNode(i)).getId());
+                }
+            }
+            out.flush();
+
+            String message = in.readUTF();
+            if (message.length() > 0) {
+                throw new IOException("worker " + host + ":" + port + " has a different state: " + message);
+            }
+
+            Logger.getLogger("dr.inference").info("Connected to likelihood server " + host + ":" + port);
+        }
+
+        /**
+         * Sends a calculation request if anything this worker depends on has changed.
+         * @return whether a request was sent
+         */
+        private boolean sendChanges() throws IOException {
+            int changedParameterCount = 0;
+            for (int i = 0; i < parameters.size(); i++) {
+                if (getChangedCount(parameters.get(i), sentValues[i]) > 0) {
+                    changedParameterCount++;
+                }
+            }
+            int changedTreeCount = 0;
+            for (int i = 0; i < trees.size(); i++) {
+                if (getChangedCount(trees.get(i), sentParents[i], sentHeights[i]) > 0) {
+                    changedTreeCount++;
+                }
+            }
+
+            if (changedParameterCount == 0 && changedTreeCount == 0 && (flags & LikelihoodServer.MAKE_DIRTY) == 0) {
+                // any flags can wait until there is something to calculate
+                return false;
+            }
+
+            if (socket == null) {
+                connect();
+            }
+
+            out.writeInt(ServiceRequest.calculateLikeliood.getId());
+            out.writeByte(flags);
+            flags = 0;
+
+            out.writeInt(changedParameterCount);
+            for (int i = 0; i < parameters.size(); i++) {
+                Parameter parameter = parameters.get(i);
+                int count = getChangedCount(parameter, sentValues[i]);
+                if (count > 0) {
+                    out.writeInt(i);
+                    out.writeInt(count);
+                    for (int j = 0; j < sentValues[i].length; j++) {
+                        double value = parameter.getParameterValue(j);
+                        if (value != sentValues[i][j]) {
+                            out.writeInt(j);
+                            out.writeDouble(value);
+                            sentValues[i][j] = value;
+                        }
+                    }
+                }
+            }
+
+            out.writeInt(changedTreeCount);
+            for (int i = 0; i < trees.size(); i++) {
+                MutableTreeModel tree = trees.get(i);
+                int count = getChangedCount(tree, sentParents[i], sentHeights[i]);
+                if (count > 0) {
+                    out.writeInt(i);
+                    out.writeInt(count);
+                    for (int j = 0; j < sentParents[i].length; j++) {
+                        int parent = getParentNumber(tree, j);
+                        double height = tree.getNodeHeight(tree.getNode(j));
+                        if (parent != sentParents[i][j] || height != sentHeights[i][j]) {
+                            out.writeInt(j);
+                            out.writeInt(parent);
+                            out.writeDouble(height);
+                            sentParents[i][j] = parent;
+                            sentHeights[i][j] = height;
+                        }
+                    }
+                }
+            }
+
+            out.flush();
+            sentSinceStore = true;
+
+            return true;
+        }
+
+        private void terminate() {
+            if (socket != null) {
+                try {
+                    out.writeInt(ServiceRequest.terminateProcess.getId());
+                    out.flush();
+                    socket.close();
+                } catch (IOException ioe) {
+                    // the worker has already gone
+                }
+                socket = null;
+            }
+        }
+
+        private static int getChangedCount(Parameter parameter, double[] sent) {
+            if (parameter.getDimension() != sent.length) {
+                throw new RuntimeException("The dimension of parameter " + parameter.getId() + " can't change in a distributed likelihood");
+            }
+            int count = 0;
+            for (int j = 0; j < sent.length; j++) {
+                if (parameter.getParameterValue(j) != sent[j]) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static int getChangedCount(MutableTreeModel tree, int[] sentParents, double[] sentHeights) {
+            int count = 0;
+            for (int j = 0; j < sentParents.length; j++) {
+                if (getParentNumber(tree, j) != sentParents[j] || tree.getNodeHeight(tree.getNode(j)) != sentHeights[j]) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private static int getParentNumber(MutableTreeModel tree, int node) {
+            NodeRef parent = tree.getParent(tree.getNode(node));
+            return parent == null ? -1 : parent.getNumber();
+        }
+
+        private void storeState() {
+            // the worker's state matches what it was last sent so that is what it will store
+            flags |= LikelihoodServer.STORE;
+            copy(sentValues, storedSentValues);
+            copy(sentParents, storedSentParents);
+            copy(sentHeights, storedSentHeights);
+            storedLogLikelihood = logLikelihood;
+            sentSinceStore = false;
+        }
+
+        private void restoreState() {
+            if (sentSinceStore) {
+                flags |= LikelihoodServer.RESTORE;
+                copy(storedSentValues, sentValues);
+                copy(storedSentParents, sentParents);
+                copy(storedSentHeights, sentHeights);
+                logLikelihood = storedLogLikelihood;
+                sentSinceStore = false;
+            }
+        }
+
+        private void acceptState() {
+            if (sentSinceStore) {
+                flags |= LikelihoodServer.ACCEPT;
+            }
+        }
+
+        private static void copy(double[][] source, double[][] destination) {
+            for (int i = 0; i < source.length; i++) {
+                System.arraycopy(source[i], 0, destination[i], 0, source[i].length);
+            }
+        }
+
+        private static void copy(int[][] source, int[][] destination) {
+            for (int i = 0; i < source.length; i++) {
+                System.arraycopy(source[i], 0, destination[i], 0, source[i].length);
+            }
+        }
+
+        private final String host;
+        private final int port;
+        private final List<Parameter> parameters;
+        private final List<MutableTreeModel> trees;
+
+        private Socket socket = null;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        private final double[][] sentValues;
+        private final double[][] storedSentValues;
+        private final int[][] sentParents;
+        private final int[][] storedSentParents;
+        private final double[][] sentHeights;
+        private final double[][] storedSentHeights;
+
+        private int flags = 0;
+        private boolean sentSinceStore = false;
+
+        private double logLikelihood;
+        private double storedLogLikelihood;
+    }
+
+    private final List<Worker> workers;
+
+    private double logLikelihood;
+    private double storedLogLikelihood;
+    private boolean likelihoodKnown = false;
+    private boolean storedLikelihoodKnown = false;
+}
@@ -0,0 +1,282 @@
+/*
+ * LikelihoodServer.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.parallel;
+
+import dr.evolution.tree.MutableTreeModel;
+import dr.evolution.tree.NodeRef;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Hosts a set of likelihoods (typically data partitions) in a worker process for a DistributedLikelihood
+ * in the master process. The master sends the changes to the parameters and trees the likelihoods depend
+ * on over a socket and the worker replies with the sum of the log likelihoods.
+ *
+ * The parameters and trees must be given in the same order as in the master's worker element.
+ */
+public class LikelihoodServer implements Runnable {
+
+    // flags sent with each calculation request, applied in this order before the changes
+    static final int RESTORE = 1;
+    static final int ACCEPT = 2;
+    static final int STORE = 4;
+    static final int MAKE_DIRTY = 8;
+
+    public LikelihoodServer(int port, List<Parameter> parameters, List<MutableTreeModel> trees, List<Likelihood> likelihoods) {
+        this.parameters = parameters;
+        this.trees = trees;
+        this.likelihood = new CompoundLikelihood(likelihoods);
+
+        try {
+            serverSocket = new ServerSocket(port);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to listen on port " + port + ": " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * @return the port being listened on (useful if port 0 was requested)
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void run() {
+        Logger.getLogger("dr.inference").info("Likelihood server waiting for a connection on port " + getPort());
+
+        try {
+            Socket socket = serverSocket.accept();
+            socket.setTcpNoDelay(true);
+            serverSocket.close();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            checkState(in, out);
+
+            boolean terminate = false;
+            while (!terminate) {
+                int request;
+                try {
+                    request = in.readInt();
+                } catch (EOFException eof) {
+                    // the master has gone away
+                    break;
+                }
+                switch (ServiceRequest.getByID(request)) {
+                    case calculateLikeliood:
+                        out.writeDouble(calculateLikelihood(in));
+                        out.flush();
+                        break;
+                    case terminateProcess:
+                        terminate = true;
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown request from the master: " + request);
+                }
+            }
+            socket.close();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Likelihood server connection failed: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Checks that the master is describing the same parameters and trees and maps the master's
+     * external node numbers to ours using the taxa.
+     */
+    private void checkState(DataInputStream in, DataOutputStream out) throws IOException {
+        String message = null;
+
+        int parameterCount = in.readInt();
+        if (parameterCount != parameters.size()) {
+            message = "the master has " + parameterCount + " parameters but the worker has " + parameters.size();
+        }
+        for (int i = 0; i < parameterCount; i++) {
+            int dimension = in.readInt();
+            if (message == null && dimension != parameters.get(i).getDimension()) {
+                message = "parameter " + parameters.get(i).getId() + " has a dimension of " + dimension +
+                        " in the master but " + parameters.get(i).getDimension() + " in the worker";
+            }
+        }
+
+        int treeCount = in.readInt();
+        if (message == null && treeCount != trees.size()) {
+            message = "the master has " + treeCount + " trees but the worker has " + trees.size();
+        }
+        nodeMaps = new int[treeCount][];
+        for (int i = 0; i < treeCount; i++) {
+            int nodeCount = in.readInt();
+            int externalNodeCount = in.readInt();
+            String[] taxa = new String[externalNodeCount];
+            for (int j = 0; j < externalNodeCount; j++) {
+                taxa[j] = in.readUTF();
+            }
+            if (message == null) {
+                MutableTreeModel tree = trees.get(i);
+                if (nodeCount != tree.getNodeCount()) {
+                    message = "tree " + tree.getId() + " has a different number of nodes in the master and worker";
+                } else {
+                    Map<String, Integer> taxonNodes = new HashMap<String, Integer>();
+                    for (int j = 0; j < tree.getExternalNodeCount(); j++) {
+                        NodeRef node = tree.getExternalNode(j);
+                        taxonNodes.put(tree.getNodeTaxon(node).getId(), node.getNumber());
+                    }
+                    // internal nodes are interchangeable so keep their numbers
+                    nodeMaps[i] = new int[nodeCount];
+                    for (int j = 0; j < nodeCount; j++) {
+                        if (j < externalNodeCount) {
+                            Integer node = taxonNodes.get(taxa[j]);
+                            if (node == null) {
+                                message = "taxon " + taxa[j] + " is not in tree " + tree.getId() + " in the worker";
+                                break;
+                            }
+                            nodeMaps[i][j] = node;
+                        } else {
+                            nodeMaps[i][j] = j;
+                        }
+                    }
+                }
+            }
+        }
+
+        out.writeUTF(message == null ? "" : message);
+        out.flush();
+        if (message != null) {
+            throw new RuntimeException("The state sent by the master doesn't match: " + message);
+        }
+    }
+
+    private double calculateLikelihood(DataInputStream in) throws IOException {
+        Model model = likelihood.getModel();
+
+        // the state parameters may not belong to any of the models (e.g., if only used by priors) so are
+        // stored and restored here as well
+        int flags = in.readByte();
+        if ((flags & RESTORE) != 0) {
+            model.restoreModelState();
+            for (Parameter parameter : parameters) {
+                parameter.restoreParameterValues();
+            }
+        }
+        if ((flags & ACCEPT) != 0) {
+            model.acceptModelState();
+            for (Parameter parameter : parameters) {
+                parameter.acceptParameterValues();
+            }
+        }
+        if ((flags & STORE) != 0) {
+            model.storeModelState();
+            for (Parameter parameter : parameters) {
+                parameter.storeParameterValues();
+            }
+        }
+        if ((flags & MAKE_DIRTY) != 0) {
+            likelihood.makeDirty();
+        }
+
+        int parameterCount = in.readInt();
+        for (int i = 0; i < parameterCount; i++) {
+            Parameter parameter = parameters.get(in.readInt());
+            int count = in.readInt();
+            for (int j = 0; j < count; j++) {
+                int index = in.readInt();
+                parameter.setParameterValueQuietly(index, in.readDouble());
+            }
+            parameter.fireParameterChangedEvent();
+        }
+
+        int treeCount = in.readInt();
+        for (int i = 0; i < treeCount; i++) {
+            int treeIndex = in.readInt();
+            int count = in.readInt();
+            int[] nodes = new int[count];
+            int[] parents = new int[count];
+            double[] heights = new double[count];
+            for (int j = 0; j < count; j++) {
+                nodes[j] = in.readInt();
+                parents[j] = in.readInt();
+                heights[j] = in.readDouble();
+            }
+            updateTree(trees.get(treeIndex), nodeMaps[treeIndex], nodes, parents, heights);
+        }
+
+        return likelihood.getLogLikelihood();
+    }
+
+    /**
+     * Moves the given nodes to their new parents and sets their heights. A parent of -1 makes
+     * the node the root.
+     */
+    private static void updateTree(MutableTreeModel tree, int[] nodeMap, int[] nodes, int[] parents, double[] heights) {
+        tree.beginTreeEdit();
+
+        // detach all the moved nodes first so the new parents have room for them
+        for (int j = 0; j < nodes.length; j++) {
+            NodeRef node = tree.getNode(nodeMap[nodes[j]]);
+            NodeRef parent = tree.getParent(node);
+            int newParent = parents[j] == -1 ? -1 : nodeMap[parents[j]];
+            if (parent != null && parent.getNumber() != newParent) {
+                tree.removeChild(parent, node);
+            }
+        }
+        for (int j = 0; j < nodes.length; j++) {
+            NodeRef node = tree.getNode(nodeMap[nodes[j]]);
+            if (parents[j] == -1) {
+                if (tree.getRoot() != node) {
+                    tree.setRoot(node);
+                }
+            } else if (tree.getParent(node) == null) {
+                tree.addChild(tree.getNode(nodeMap[parents[j]]), node);
+            }
+            if (tree.getNodeHeight(node) != heights[j]) {
+                tree.setNodeHeight(node, heights[j]);
+            }
+        }
+
+        tree.endTreeEdit();
+    }
+
+    private final ServerSocket serverSocket;
+
+    private final List<Parameter> parameters;
+    private final List<MutableTreeModel> trees;
+    private final CompoundLikelihood likelihood;
+
+    private int[][] nodeMaps;
+}
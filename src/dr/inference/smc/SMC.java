@@ -41,6 +41,7 @@ import dr.inference.state.Factory;
 import dr.inference.state.StateLoader;
 import dr.inference.state.StateLoaderSaver;
 import dr.inference.state.StateSaver;
+import dr.math.MathUtils;
 import dr.util.Identifiable;
 import dr.util.NumberFormatter;
 import dr.xml.Spawnable;
@@ -51,11 +52,22 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * A class that runs short MCMC chains for each of a set of particles as
  * part of a sequential Monte Carlo (SMC) sampler.
  *
+ * If resampling is switched on, each particle is first weighted by the ratio of its posterior
+ * under this model to the posterior it was saved with and, if the ESS of these weights is below
+ * the threshold, the particles are systematically resampled before their chains are run.
+ *
+ * Particles can be run several at once on separately parsed copies of the model (see setWorkers).
+ * Each particle's state is loaded, moved and saved in turn so only as many particles as there are
+ * copies are ever in memory. When resampling copies a particle into another's place, the states of
+ * the parents are first saved to temporary snapshots so that no particle is moved from a state that
+ * has already been overwritten by another particle's move.
+ *
  * @author Andrew Rambaut
  */
 public class SMC implements Identifiable, Spawnable, Loggable {
@@ -113,6 +125,17 @@ public class SMC implements Identifiable, Spawnable, Loggable {
         return schedule;
     }
 
+    /**
+     * Sets the SMC objects that run the particles. These are this one and copies of it, each parsed
+     * separately so that they have their own models (and each with a ModelScope registered for its
+     * chain so particles are loaded into and saved from the right models). Only this one logs.
+     *
+     * @param workers the SMC objects to run particles on, one particle each at a time
+     */
+    public void setWorkers(SMC[] workers) {
+        this.workers = workers;
+    }
+
     public void run() {
         chain();
     }
@@ -134,17 +157,50 @@ public class SMC implements Identifiable, Spawnable, Loggable {
 
         mc.addMarkovChainListener(chainListener);
 
-        for (StateLoaderSaver particleState : particleStates) {
-            // Don't need the savedLnL - it won't be there
-            particleState.loadState(mc, new double[1]);
+        final int particleCount = particleStates.size();
 
-            // reset the current chain length to 0
-            mc.setCurrentLength(0);
+        int[] parents = new int[particleCount];
+        for (int i = 0; i < particleCount; i++) {
+            parents[i] = i;
+        }
 
-            mc.runChain(options.getChainLength(), true);
+        if (options.getResampleThreshold() > 0.0) {
+            final double[] logWeights = new double[particleCount];
+            runParticles(new ParticleTask() {
+                public void run(SMC worker, int particle) {
+                    logWeights[particle] = worker.weightParticle(particleStates.get(particle));
+                }
+            });
+
+            double ess = getESS(logWeights);
+            boolean resample = ess < options.getResampleThreshold() * particleCount;
+            java.util.logging.Logger.getLogger("dr.inference").info("ESS of the particle weights = " +
+                    formatter.format(ess) + " of " + particleCount + (resample ? ": resampling" : ""));
+            if (resample) {
+                parents = resample(logWeights);
+            }
+        }
 
-            // Save state to file...
-            particleState.saveState(mc, mc.getCurrentLength(), mc.getCurrentScore());
+        final StateLoaderSaver[] snapshots = createSnapshots(parents);
+        try {
+            runParticles(new ParticleTask() {
+                public void run(SMC worker, int particle) {
+                    if (snapshots[particle] != null) {
+                        worker.copyParticle(particleStates.get(particle), snapshots[particle]);
+                    }
+                }
+            });
+
+            final int[] sources = parents;
+            runParticles(new ParticleTask() {
+                public void run(SMC worker, int particle) {
+                    int parent = sources[particle];
+                    StateLoaderSaver source = (snapshots[parent] != null ? snapshots[parent] : particleStates.get(parent));
+                    worker.moveParticle(source, particleStates.get(particle));
+                }
+            });
+        } finally {
+            deleteSnapshots();
         }
 
         mc.terminateChain();
@@ -154,6 +210,183 @@ public class SMC implements Identifiable, Spawnable, Loggable {
         timer.stop();
     }
 
+    /**
+     * @return the log of the ratio of the particle's posterior under this model to the posterior it was saved with
+     */
+    private double weightParticle(StateLoaderSaver particleState) {
+        double[] savedLnL = { Double.NaN };
+        particleState.loadState(mc, savedLnL);
+        if (Double.isNaN(savedLnL[0])) {
+            throw new RuntimeException("A particle has no saved posterior to weight it by");
+        }
+        return mc.evaluate() - savedLnL[0];
+    }
+
+    /**
+     * A particle's slot is overwritten by its own move so any particle that is the parent of another
+     * particle needs a snapshot of its state before the moves start.
+     *
+     * @return a snapshot for each particle that is a parent of a different particle, otherwise null
+     */
+    private StateLoaderSaver[] createSnapshots(int[] parents) {
+        StateLoaderSaver[] snapshots = new StateLoaderSaver[parents.length];
+        for (int i = 0; i < parents.length; i++) {
+            int parent = parents[i];
+            if (parent != i && snapshots[parent] == null) {
+                if (Factory.INSTANCE == null) {
+                    throw new RuntimeException("No state factory is available to snapshot the resampled particles");
+                }
+                try {
+                    File file = File.createTempFile("particle" + parent + "_", ".snapshot");
+                    file.deleteOnExit();
+                    snapshotFiles.add(file);
+                    snapshots[parent] = Factory.INSTANCE.getStateLoaderSaver(file, file);
+                } catch (IOException ioe) {
+                    throw new RuntimeException("Unable to create a particle snapshot: " + ioe.getMessage());
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    private void deleteSnapshots() {
+        for (File file : snapshotFiles) {
+            file.delete();
+        }
+        snapshotFiles.clear();
+    }
+
+    /**
+     * Loads the state of one particle and saves it, unchanged, as another.
+     */
+    private void copyParticle(StateLoaderSaver source, StateLoaderSaver target) {
+        double[] savedLnL = { Double.NaN };
+        long state = source.loadState(mc, savedLnL);
+        target.saveState(mc, state, savedLnL[0]);
+    }
+
+    /**
+     * Loads the state of one particle, runs a chain from it and saves the result as another
+     * (the same particle unless it has been resampled).
+     */
+    private void moveParticle(StateLoaderSaver source, StateLoaderSaver target) {
+        source.loadState(mc, new double[1]);
+
+        // reset the current chain length to 0
+        mc.setCurrentLength(0);
+
+        mc.runChain(options.getChainLength(), true);
+
+        // Save state to file...
+        target.saveState(mc, mc.getCurrentLength(), mc.getCurrentScore());
+    }
+
+    private interface ParticleTask {
+        void run(SMC worker, int particle);
+    }
+
+    /**
+     * Runs the task for each particle, on as many particles at once as there are workers.
+     */
+    private void runParticles(final ParticleTask task) {
+        int particleCount = particleStates.size();
+
+        if (workers.length == 1) {
+            for (int i = 0; i < particleCount; i++) {
+                task.run(workers[0], i);
+            }
+            return;
+        }
+
+        final BlockingQueue<SMC> idleWorkers = new ArrayBlockingQueue<SMC>(workers.length);
+        for (SMC worker : workers) {
+            idleWorkers.add(worker);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers.length);
+        try {
+            List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+            for (int i = 0; i < particleCount; i++) {
+                final int particle = i;
+                calls.add(new Callable<Void>() {
+                    public Void call() throws InterruptedException {
+                        SMC worker = idleWorkers.take();
+                        try {
+                            task.run(worker, particle);
+                        } finally {
+                            idleWorkers.put(worker);
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Void> future : pool.invokeAll(calls)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the effective sample size of a set of log weights
+     */
+    public static double getESS(double[] logWeights) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double logWeight : logWeights) {
+            max = Math.max(max, logWeight);
+        }
+        double sum = 0.0;
+        double sumSquares = 0.0;
+        for (double logWeight : logWeights) {
+            double weight = Math.exp(logWeight - max);
+            sum += weight;
+            sumSquares += weight * weight;
+        }
+        return sum * sum / sumSquares;
+    }
+
+    /**
+     * Systematic resampling.
+     *
+     * @param logWeights the log weights of the particles
+     * @return the particle each new particle is a copy of
+     */
+    public static int[] resample(double[] logWeights) {
+        int count = logWeights.length;
+
+        double max = Double.NEGATIVE_INFINITY;
+        for (double logWeight : logWeights) {
+            max = Math.max(max, logWeight);
+        }
+        double[] cumulative = new double[count];
+        double sum = 0.0;
+        for (int i = 0; i < count; i++) {
+            sum += Math.exp(logWeights[i] - max);
+            cumulative[i] = sum;
+        }
+
+        int[] parents = new int[count];
+        double step = sum / count;
+        double u = MathUtils.nextDouble() * step;
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            while (j < count - 1 && cumulative[j] <= u) {
+                j++;
+            }
+            parents[i] = j;
+            u += step;
+        }
+        return parents;
+    }
+
     @Override
     public LogColumn[] getColumns() {
         return new LogColumn[] { new LogColumn() {
@@ -289,6 +522,9 @@ public class SMC implements Identifiable, Spawnable, Loggable {
     private SMCOptions options;
 
     private final List<StateLoaderSaver> particleStates = new ArrayList<StateLoaderSaver>();
+    private SMC[] workers = { this };
+    private final List<File> snapshotFiles = new ArrayList<File>();
+
     private Logger[] loggers;
     private OperatorSchedule schedule;
 
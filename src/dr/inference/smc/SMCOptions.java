@@ -35,13 +35,25 @@ package dr.inference.smc;
 public class SMCOptions {
 
     private final long chainLength;
+    private final double resampleThreshold;
 
     /**
      * constructor
      * @param chainLength
      */
     public SMCOptions(long chainLength) {
+        this(chainLength, 0.0);
+    }
+
+    /**
+     * constructor
+     * @param chainLength
+     * @param resampleThreshold the fraction of the particle count the ESS of the particle weights
+     *                          must fall below for the particles to be resampled (0 for never)
+     */
+    public SMCOptions(long chainLength, double resampleThreshold) {
         this.chainLength = chainLength;
+        this.resampleThreshold = resampleThreshold;
     }
 
     /**
@@ -50,4 +62,11 @@ public class SMCOptions {
     public final long getChainLength() {
         return chainLength;
     }
+
+    /**
+     * @return the fraction of the particle count below which the ESS of the weights triggers resampling
+     */
+    public final double getResampleThreshold() {
+        return resampleThreshold;
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * ModelScope.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inference.state;
+
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+
+import java.util.*;
+
+/**
+ * The models and parameters that belong to one copy of an analysis. State loaders and savers
+ * normally work on every connected model and parameter (Model.CONNECTED_MODEL_SET and
+ * Parameter.CONNECTED_PARAMETER_SET) but when the XML has been parsed more than once, so that
+ * several copies of the model can be run at once, each chain must only load and save its own.
+ *
+ * A scope is recorded by calling begin() before parsing a copy and end() after it, and is then
+ * registered for that copy's chain. Chains without a scope use the connected sets.
+ */
+public final class ModelScope {
+
+    private ModelScope() {
+        modelStart = Model.CONNECTED_MODEL_SET.size();
+        parameterStart = Parameter.CONNECTED_PARAMETER_SET.size();
+    }
+
+    /**
+     * @return a scope that will hold the models and parameters connected from now until end() is called
+     */
+    public static ModelScope begin() {
+        return new ModelScope();
+    }
+
+    public void end() {
+        models.addAll(getAddedSince(Model.CONNECTED_MODEL_SET, modelStart));
+        parameters.addAll(getAddedSince(Parameter.CONNECTED_PARAMETER_SET, parameterStart));
+    }
+
+    private static <T> List<T> getAddedSince(Set<T> set, int start) {
+        List<T> added = new ArrayList<T>();
+        int i = 0;
+        for (T item : set) {
+            if (i >= start) {
+                added.add(item);
+            }
+            i++;
+        }
+        return added;
+    }
+
+    /**
+     * Makes the given chain load and save only the models and parameters of this scope.
+     */
+    public void register(MarkovChain markovChain) {
+        SCOPES.put(markovChain, this);
+    }
+
+    /**
+     * @return the models the state of the chain is made of
+     */
+    public static Collection<Model> getModels(MarkovChain markovChain) {
+        ModelScope scope = SCOPES.get(markovChain);
+        return scope != null ? scope.models : Model.CONNECTED_MODEL_SET;
+    }
+
+    /**
+     * @return the parameters the state of the chain is made of
+     */
+    public static Collection<Parameter> getParameters(MarkovChain markovChain) {
+        ModelScope scope = SCOPES.get(markovChain);
+        return scope != null ? scope.parameters : Parameter.CONNECTED_PARAMETER_SET;
+    }
+
+    private static final Map<MarkovChain, ModelScope> SCOPES =
+            Collections.synchronizedMap(new WeakHashMap<MarkovChain, ModelScope>());
+
+    private final int modelStart;
+    private final int parameterStart;
+    private final Set<Model> models = new LinkedHashSet<Model>();
+    private final Set<Parameter> parameters = new LinkedHashSet<Parameter>();
+}
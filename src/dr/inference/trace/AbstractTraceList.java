@@ -27,7 +27,13 @@
 
 package dr.inference.trace;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Alexei Drummond
@@ -54,7 +60,7 @@ public abstract class AbstractTraceList extends FilteredTraceList {
         int start = (int) (getBurnIn() / getStepSize());
 
         Trace trace = getTrace(index);
-        List<Double> values = trace.getValues(start, trace.getValueCount(), super.filtered);
+        double[] values = trace.getValueArray(start, trace.getValueCount(), super.filtered);
 
         if (trace.getTraceType() == TraceType.CATEGORICAL) {
             trace.setTraceStatistics(new TraceCorrelation(values, trace.getCategoryLabelMap(), trace.getCategoryOrder(), getStepSize(), trace.isConstant()));
@@ -65,6 +71,47 @@ public abstract class AbstractTraceList extends FilteredTraceList {
 //        System.out.println("index = " + index + " :  " + trace.getName() + "     " + trace.getTraceType());
     }
 
+    /**
+     * Analyses all the traces using up to threadCount threads. The traces are
+     * independent so this gives the same result as calling analyseTrace on each.
+     * @param threadCount the number of threads
+     */
+    public void analyseTraces(int threadCount) {
+        final int traceCount = getTraceCount();
+
+        if (threadCount <= 1 || traceCount < 2) {
+            for (int i = 0; i < traceCount; i++) {
+                analyseTrace(i);
+            }
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(traceCount);
+        for (int i = 0; i < traceCount; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                analyseTrace(index);
+                return null;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threadCount, traceCount));
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
 //    abstract Trace getTrace(int index);
 
 //    private TraceCorrelation[] traceStatistics = null;
@@ -46,9 +46,12 @@ public class Trace {
     }
 
     private static final int MAX_UNIQUE_VALUES = 100; // the maximum allowed number of unique values
+    private static final int INITIAL_CAPACITY = 1024;
 
     private TraceType traceType = TraceType.REAL;
-    private List<Double> values = new ArrayList<Double>();
+    // values are kept in a primitive array (which grows as needed) rather than a list of boxed Doubles
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int valueCount = 0;
     private String name;
 
     private boolean isConstant = true;
@@ -73,10 +76,10 @@ public class Trace {
     /**
      * @param value the valued to be added
      */
-    public void add(Double value) {
+    public void add(double value) {
         if (uniqueValues.size() < MAX_UNIQUE_VALUES) {
             // unique values are treated as integers
-            uniqueValues.add(value.intValue());
+            uniqueValues.add((int) value);
         }
 
         // check if the trace is still constant
@@ -86,7 +89,18 @@ public class Trace {
             constantValue = value;
         }
 
-        values.add(value);
+        if (valueCount == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[valueCount] = value;
+        valueCount++;
+    }
+
+    /**
+     * @param value the valued to be added
+     */
+    public void add(Double value) {
+        add(value.doubleValue());
     }
 
     /**
@@ -102,21 +116,7 @@ public class Trace {
      * @param value the valued to be added
      */
     public void add(Integer value) {
-        if (uniqueValues.size() < MAX_UNIQUE_VALUES) {
-            // unique values are treated as integers
-            uniqueValues.add(value);
-        }
-
-        double d = value.doubleValue();
-
-        // check if the trace is still constant
-        if (isConstant && d != constantValue) {
-            isConstant = false;
-        } else if (Double.isNaN(constantValue)) {
-            constantValue = d;
-        }
-
-        values.add(d);
+        add(value.doubleValue());
     }
 
     /**
@@ -203,7 +203,7 @@ public class Trace {
 
 
     public int getValueCount() {
-        return values.size();
+        return valueCount;
     }
 
     public int getUniqueValueCount() {
@@ -211,11 +211,14 @@ public class Trace {
     }
 
     public double getValue(int index) {
-        return values.get(index);
+        if (index >= valueCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + valueCount);
+        }
+        return values[index];
     }
 
     public int getCategory(int index) {
-        return values.get(index).intValue();
+        return (int) getValue(index);
     }
 
     public String getCategoryLabel(int index) {
@@ -232,9 +235,10 @@ public class Trace {
 
         if (getTraceType().isNumber()) {
 
-            Double min = Double.MAX_VALUE;
-            Double max = Double.MIN_VALUE;
-            for (Double value : values) {
+            double min = Double.MAX_VALUE;
+            double max = Double.MIN_VALUE;
+            for (int i = 0; i < valueCount; i++) {
+                double value = values[i];
                 if ( value < min) {
                     min = value;
                 } else if (value > max) {
@@ -257,24 +261,73 @@ public class Trace {
     }
 
     public List<Double> getValues(int fromIndex, int toIndex, boolean[] filtered) {
-        if (toIndex > getValueCount() || fromIndex > toIndex) {
-            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
-                    + "; List size = " + getValueCount() + "; in Trace " + name);
+        if (filtered == null || filtered.length < 1) {
+            checkRange(fromIndex, toIndex);
+            return new ValueList(values, fromIndex, toIndex);
+        } else {
+            double[] selected = getValueArray(fromIndex, toIndex, filtered);
+            return new ValueList(selected, 0, selected.length);
         }
+    }
+
+    /**
+     * @param fromIndex low endpoint (inclusive).
+     * @param toIndex   high endpoint (exclusive).
+     * @param filtered  values to leave out (or null)
+     * @return a copy of the values (which are selected values if filter applied) as a primitive array
+     */
+    public double[] getValueArray(int fromIndex, int toIndex, boolean[] filtered) {
+        checkRange(fromIndex, toIndex);
 
         if (filtered == null || filtered.length < 1) {
-            return values.subList(fromIndex, toIndex);
+            return Arrays.copyOfRange(values, fromIndex, toIndex);
         } else {
-            List<Double> valuesList = new ArrayList<Double>();
+            double[] selected = new double[toIndex - fromIndex];
+            int count = 0;
             for (int i = fromIndex; i < toIndex; i++) {
                 if (!filtered[i])
-                    valuesList.add(values.get(i));
+                    selected[count++] = values[i];
             }
-            if (valuesList.size() < 1)
+            if (count < 1)
                 throw new RuntimeException("There is no value left after all filters are applied !");
 
-            return valuesList;
+            return Arrays.copyOf(selected, count);
+        }
+    }
+
+    private void checkRange(int fromIndex, int toIndex) {
+        if (toIndex > getValueCount() || fromIndex > toIndex) {
+            throw new RuntimeException("Invalid index : fromIndex = " + fromIndex + "; toIndex = " + toIndex
+                    + "; List size = " + getValueCount() + "; in Trace " + name);
+        }
+    }
+
+    /**
+     * A read-only list view of a range of a primitive array of values.
+     */
+    private static class ValueList extends AbstractList<Double> implements RandomAccess {
+        ValueList(double[] values, int fromIndex, int toIndex) {
+            this.values = values;
+            this.fromIndex = fromIndex;
+            this.size = toIndex - fromIndex;
         }
+
+        @Override
+        public Double get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return values[fromIndex + index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private final double[] values;
+        private final int fromIndex;
+        private final int size;
     }
 
     public String getName() {
@@ -45,15 +45,26 @@ public class TraceAnalysis {
      * @throws TraceException      if trace file in wrong format or corrupted
      */
     public static LogFileTraces analyzeLogFile(String fileName, long burnin) throws java.io.IOException, TraceException {
+        return analyzeLogFile(fileName, burnin, 1);
+    }
+
+    /**
+     * @param fileName    the name of the log file to analyze
+     * @param burnin      the state to discard up to
+     * @param threadCount the number of threads to analyse the statistics with
+     * @return an array og analyses of the statistics in a log file.
+     * @throws java.io.IOException if general error reading file
+     * @throws TraceException      if trace file in wrong format or corrupted
+     */
+    public static LogFileTraces analyzeLogFile(String fileName, long burnin, int threadCount) throws java.io.IOException, TraceException {
 
         File file = new File(fileName);
         LogFileTraces traces = new LogFileTraces(fileName, file);
         traces.loadTraces();
         traces.setBurnIn(burnin);
 
-        for (int i = 0; i < traces.getTraceCount(); i++) {
-            traces.analyseTrace(i);
-        }
+        traces.analyseTraces(threadCount);
+
         return traces;
     }
 
@@ -67,6 +78,11 @@ public class TraceAnalysis {
 
     public static TraceList report(String fileName, int inBurnin, String likelihoodName, boolean withStdError)
             throws java.io.IOException, TraceException {
+        return report(fileName, inBurnin, likelihoodName, withStdError, 1);
+    }
+
+    public static TraceList report(String fileName, int inBurnin, String likelihoodName, boolean withStdError, int threadCount)
+            throws java.io.IOException, TraceException {
 
 //        int fieldWidth = 14;
 //        int firstField = 25;
@@ -108,9 +124,10 @@ public class TraceAnalysis {
         }
         System.out.println();
 
+        traces.analyseTraces(threadCount);
+
         int warning = 0;
         for (int i = 0; i < traces.getTraceCount(); i++) {
-            traces.analyseTrace(i);
             TraceCorrelation distribution = traces.getCorrelationStatistics(i);
 
             double ess = distribution.getESS();
@@ -242,8 +259,15 @@ public class TraceAnalysis {
                                         final int burnin, boolean drawHeader,
                                         boolean hpds, boolean individualESSs, boolean stdErr,
                                         String likelihoodName) throws java.io.IOException, TraceException {
+        return shortReport(filename, burnin, drawHeader, hpds, individualESSs, stdErr, likelihoodName, 1);
+    }
+
+    public static TraceList shortReport(String filename,
+                                        final int burnin, boolean drawHeader,
+                                        boolean hpds, boolean individualESSs, boolean stdErr,
+                                        String likelihoodName, int threadCount) throws java.io.IOException, TraceException {
 
-        TraceList traces = analyzeLogFile(filename, burnin);
+        TraceList traces = analyzeLogFile(filename, burnin, threadCount);
 
         long maxState = traces.getMaxState();
 
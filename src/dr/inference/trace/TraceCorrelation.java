@@ -27,6 +27,8 @@
 
 package dr.inference.trace;
 
+import dr.math.FastFourierTransform;
+
 import java.util.List;
 import java.util.Map;
 
@@ -46,6 +48,10 @@ public class TraceCorrelation extends TraceDistribution {
     }
 
     public TraceCorrelation(List<Double> values, TraceType traceType, long stepSize, boolean isConstant) {
+        this(Trace.toArray(values), traceType, stepSize, isConstant);
+    }
+
+    public TraceCorrelation(double[] values, TraceType traceType, long stepSize, boolean isConstant) {
         super(values, traceType, isConstant);
         this.stepSize = stepSize;
 
@@ -55,6 +61,10 @@ public class TraceCorrelation extends TraceDistribution {
     }
 
     public TraceCorrelation(List<Double> values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
+        this(Trace.toArray(values), categoryLabelMap, categoryOrder, stepSize, isConstant);
+    }
+
+    public TraceCorrelation(double[] values, Map<Integer, String> categoryLabelMap, List<Integer> categoryOrder, long stepSize, boolean isConstant) {
         super(values, categoryLabelMap, categoryOrder, isConstant);
 
         this.stepSize = stepSize;
@@ -88,17 +98,17 @@ public class TraceCorrelation extends TraceDistribution {
 
     private static final int MAX_LAG = 2000;
 
-    private void analyseCorrelation(List<Double> values, long stepSize) {
+    // the relative cost of a pair of FFTs per element per doubling compared to a
+    // lag done directly, used to decide when to switch to the FFT
+    private static final double FFT_COST = 2.0;
+
+    private void analyseCorrelation(double[] values, long stepSize) {
 //        this.values = values; // move to TraceDistribution(T[] values)
 
         if (stepSize > 0) {
             if (getTraceType().isNumber()) {
                 if (!isConstant()) {
-                    double[] doubleValues = new double[values.size()];
-                    for (int i = 0; i < values.size(); i++) {
-                        doubleValues[i] = values.get(i);
-                    }
-                    analyseCorrelationNumeric(doubleValues, stepSize);
+                    analyseCorrelationNumeric(values, stepSize);
                 } else {
                     stdErrorOfMean = 0.0;
                     ACT = Double.NaN;
@@ -137,12 +147,26 @@ public class TraceCorrelation extends TraceDistribution {
         //double assVarCor = 1.0;
         //double del1, del2;
 
+        // The sums for the first lags are done directly as most traces stop after
+        // a few. If the trace is still correlated when doing the rest directly would
+        // cost more than an FFT then all the remaining lags are taken from an FFT.
+        final int fftSize = Integer.highestOneBit(Math.max(samples + maxLag, 2) - 1) << 1;
+        final int directLagLimit = (int) (FFT_COST * fftSize * (Integer.numberOfTrailingZeros(fftSize) + 1) / samples);
+        double[] lagSums = null;
+
         for (int lag = 0; lag < maxLag; lag++) {
-            for (int j = 0; j < samples - lag; j++) {
-                final double del1 = values[j] - mean;
-                final double del2 = values[j + lag] - mean;
-                gammaStat[lag] += (del1 * del2);
-                //varGammaStat[lag] += (del1*del1*del2*del2);
+            if (lag < directLagLimit) {
+                for (int j = 0; j < samples - lag; j++) {
+                    final double del1 = values[j] - mean;
+                    final double del2 = values[j + lag] - mean;
+                    gammaStat[lag] += (del1 * del2);
+                    //varGammaStat[lag] += (del1*del1*del2*del2);
+                }
+            } else {
+                if (lagSums == null) {
+                    lagSums = autoCovarianceSums(values, mean, fftSize);
+                }
+                gammaStat[lag] = lagSums[lag];
             }
 
             gammaStat[lag] /= ((double) (samples - lag));
@@ -190,4 +214,41 @@ public class TraceCorrelation extends TraceDistribution {
 //        minEqualToMax = true;
     }
 
+    /**
+     * Computes the sums of products of deviations from the mean for every lag with an FFT
+     * (the Wiener-Khinchin theorem). The values are padded with zeros to fftSize which must
+     * be a power of two at least as large as the number of values plus the largest lag
+     * needed so that the circular correlation doesn't wrap around.
+     *
+     * @param values  the values
+     * @param mean    the mean of the values
+     * @param fftSize the padded length
+     * @return the sums indexed by lag
+     */
+    static double[] autoCovarianceSums(double[] values, double mean, int fftSize) {
+        // interleaved (real, imaginary) pairs
+        final double[] data = new double[2 * fftSize];
+        for (int i = 0; i < values.length; i++) {
+            data[2 * i] = values[i] - mean;
+        }
+
+        FastFourierTransform.fft(data, fftSize, false);
+
+        // the power spectrum
+        for (int i = 0; i < fftSize; i++) {
+            final double re = data[2 * i];
+            final double im = data[2 * i + 1];
+            data[2 * i] = re * re + im * im;
+            data[2 * i + 1] = 0.0;
+        }
+
+        FastFourierTransform.fft(data, fftSize, true);
+
+        final double[] sums = new double[fftSize];
+        for (int i = 0; i < fftSize; i++) {
+            sums[i] = data[2 * i] / fftSize;
+        }
+        return sums;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,118 @@
+/*
+ * ConvergenceDiagnosticsParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml;
+
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.Loggable;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.mcmc.ConvergenceDiagnostics;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the diagnostics an MCMC keeps on selected log columns while it is running. Place the
+ * element inside the mcmc element, before any logger that reports its minimum ESS and maximum R-hat.
+ */
+public class ConvergenceDiagnosticsParser extends AbstractXMLObjectParser {
+
+    public static final String CONVERGENCE_DIAGNOSTICS = "convergenceDiagnostics";
+    public static final String LOG_EVERY = "logEvery";
+    public static final String BURNIN = "burnin";
+    public static final String TARGET_ESS = "targetESS";
+    public static final String MAX_R_HAT = "maxRHat";
+    public static final String STOP = "stopWhenConverged";
+
+    public String getParserName() {
+        return CONVERGENCE_DIAGNOSTICS;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        long logEvery = xo.getAttribute(LOG_EVERY, 1000L);
+        if (logEvery <= 0) {
+            throw new XMLParseException(LOG_EVERY + " must be positive");
+        }
+        long burnin = xo.getAttribute(BURNIN, 0L);
+        double targetESS = xo.getAttribute(TARGET_ESS, 200.0);
+        double maxRHat = xo.getAttribute(MAX_R_HAT, 0.0);
+        boolean stop = xo.getAttribute(STOP, false);
+
+        List<NumberColumn> columns = new ArrayList<NumberColumn>();
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Loggable loggable = (Loggable) xo.getChild(i);
+            for (LogColumn column : loggable.getColumns()) {
+                if (column instanceof NumberColumn) {
+                    columns.add((NumberColumn) column);
+                }
+            }
+        }
+        if (columns.size() == 0) {
+            throw new XMLParseException("No numerical columns to monitor in " + CONVERGENCE_DIAGNOSTICS);
+        }
+
+        java.util.logging.Logger.getLogger("dr.inference").info("Monitoring convergence of " + columns.size() +
+                " columns every " + logEvery + " states after " + burnin + " (target ESS = " + targetESS +
+                (maxRHat > 0.0 ? ", maximum R-hat = " + maxRHat : "") + ")" +
+                (stop ? ": the chain will stop once these are met" : ""));
+
+        return new ConvergenceDiagnostics(columns, logEvery, burnin, targetESS, maxRHat, stop);
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "Keeps streaming estimates of the mean, variance, ESS and split-R-hat of log columns while " +
+                "the MCMC is running and can stop the chain once target values are reached.";
+    }
+
+    public Class getReturnType() {
+        return ConvergenceDiagnostics.class;
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newLongIntegerRule(LOG_EVERY, true,
+                    "How often (in states) to sample the columns (default 1000)"),
+            AttributeRule.newLongIntegerRule(BURNIN, true,
+                    "The number of states to ignore at the start of the chain (default 0)"),
+            AttributeRule.newDoubleRule(TARGET_ESS, true,
+                    "The ESS every column must reach to be considered converged (default 200)"),
+            AttributeRule.newDoubleRule(MAX_R_HAT, true,
+                    "The largest split-R-hat allowed to be considered converged (default none)"),
+            AttributeRule.newBooleanRule(STOP, true,
+                    "Whether to stop the chain once converged (default false)"),
+            new ElementRule(Loggable.class, 1, Integer.MAX_VALUE),
+    };
+}
@@ -29,6 +29,7 @@ package dr.inferencexml;
 
 import dr.inference.loggers.Logger;
 import dr.inference.markovchain.MarkovChain;
+import dr.inference.markovchain.MarkovChainListener;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmc.MCMCOptions;
 import dr.inference.model.CompoundLikelihood;
@@ -161,6 +162,14 @@ public class MCMCParser extends AbstractXMLObjectParser {
             mcmc.setOperatorAnalysisFile(XMLParser.getLogFile(xo, OPERATOR_ANALYSIS));
         }
 
+        if (xo.hasAttribute(OPERATOR_PROFILE)) {
+            long profileEvery = xo.getAttribute(OPERATOR_PROFILE_EVERY, 0L);
+            if (profileEvery < 0) {
+                throw new XMLParseException(OPERATOR_PROFILE_EVERY + " must be non-negative");
+            }
+            mcmc.setOperatorProfileFile(XMLParser.getLogFile(xo, OPERATOR_PROFILE), profileEvery);
+        }
+
 
         Logger[] loggerArray = new Logger[loggers.size()];
         loggers.toArray(loggerArray);
@@ -174,6 +183,12 @@ public class MCMCParser extends AbstractXMLObjectParser {
 
         mcmc.init(options, likelihood, opsched, loggerArray);
 
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getChild(i);
+            if (child instanceof MarkovChainListener) {
+                mcmc.addMarkovChainListener((MarkovChainListener) child);
+            }
+        }
 
         MarkovChain mc = mcmc.getMarkovChain();
         double initialScore = mc.getCurrentScore();
@@ -235,7 +250,12 @@ public class MCMCParser extends AbstractXMLObjectParser {
 
         long chainLength = xo.getLongIntegerAttribute(CHAIN_LENGTH);
 
-        SMCOptions options = new SMCOptions(chainLength);
+        double resampleThreshold = 0.0;
+        if (System.getProperty("smc.resample_threshold") != null) {
+            resampleThreshold = Double.parseDouble(System.getProperty("smc.resample_threshold"));
+        }
+
+        SMCOptions options = new SMCOptions(chainLength, resampleThreshold);
 
         OperatorSchedule opsched = (OperatorSchedule) xo.getChild(OperatorSchedule.class);
         Likelihood likelihood = (Likelihood) xo.getChild(Likelihood.class);
@@ -256,7 +276,8 @@ public class MCMCParser extends AbstractXMLObjectParser {
 
         java.util.logging.Logger.getLogger("dr.inference").info("\nCreating the SMC chain set:" +
                 "\n  particles = " + particleStates.size() +
-                "\n  chain length = " + options.getChainLength()
+                "\n  chain length = " + options.getChainLength() +
+                (resampleThreshold > 0.0 ? "\n  resample when ESS < " + resampleThreshold + " x particles" : "")
         );
 
         smc.init(options, likelihood, opsched, loggerArray);
@@ -294,9 +315,14 @@ public class MCMCParser extends AbstractXMLObjectParser {
             AttributeRule.newBooleanRule(SPAWN, true),
             AttributeRule.newStringRule(NAME, true),
             AttributeRule.newStringRule(OPERATOR_ANALYSIS, true),
+            AttributeRule.newStringRule(OPERATOR_PROFILE, true,
+                    "A file to write a JSON report of per-operator timings and likelihood recomputations to"),
+            AttributeRule.newLongIntegerRule(OPERATOR_PROFILE_EVERY, true,
+                    "How often (in states) to rewrite the operator profile report (default only at the end)"),
             new ElementRule(OperatorSchedule.class),
             new ElementRule(Likelihood.class),
             new ElementRule(Logger.class, 1, Integer.MAX_VALUE),
+            new ElementRule(MarkovChainListener.class, 0, Integer.MAX_VALUE),
     };
 
     public static final String ADAPTATION = "adaptation";
@@ -315,6 +341,8 @@ public class MCMCParser extends AbstractXMLObjectParser {
     public static final String TEMPERATURE = "temperature";
     public static final String SPAWN = "spawn";
     public static final String OPERATOR_ANALYSIS = "operatorAnalysis";
+    public static final String OPERATOR_PROFILE = "operatorProfile";
+    public static final String OPERATOR_PROFILE_EVERY = "operatorProfileEvery";
 
     public static final long DEFAULT_FULL_EVALUATION_COUNT = 1000;
 
@@ -44,6 +44,7 @@ public class CompoundGradientParser extends AbstractXMLObjectParser {
 
     public final static String SUM_DERIVATIVE = "appendedPotentialDerivative";
     public static final String COMPOUND_GRADIENT = "compoundGradient";
+    private static final String THREADS = "threads";
 
     @Override
     public String getParserName() {
@@ -94,7 +95,9 @@ public class CompoundGradientParser extends AbstractXMLObjectParser {
             gradList.add(grad);
         }
 
-        return new CompoundDerivative(gradList);
+        int threads = xo.getAttribute(THREADS, 0);
+
+        return new CompoundDerivative(gradList, threads);
     }
 
     @Override
@@ -104,6 +107,11 @@ public class CompoundGradientParser extends AbstractXMLObjectParser {
 
     private final XMLSyntaxRule[] rules = {
             new ElementRule(GradientWrtParameterProvider.class, 1, Integer.MAX_VALUE),
+            AttributeRule.newIntegerRule(THREADS, true,
+                    "the number of threads used to evaluate the gradients (-1 for one per gradient, default 0 for " +
+                            "serial evaluation). Gradients that share a likelihood (e.g., the same tree data " +
+                            "likelihood) are evaluated in turn on one thread, so only gradients of separate " +
+                            "likelihoods run concurrently."),
     };
 
     @Override
@@ -58,6 +58,7 @@ public class LoggerParser extends AbstractXMLObjectParser {
     public static final String PRETTY = "pretty";
     public static final String LOG_EVERY = "logEvery";
     public static final String ALLOW_OVERWRITE_LOG = "overwrite";
+    public static final String ASYNCHRONOUS = "asynchronous";
 
     public static final String COLUMNS = "columns";
     public static final String COLUMN = "column";
@@ -117,6 +118,11 @@ public class LoggerParser extends AbstractXMLObjectParser {
 
         logger.setTitle(title);
 
+        // only file logs are written asynchronously - the screen log stays in step with the chain
+        if (xo.hasAttribute(FILE_NAME)) {
+            logger.setAsynchronous(xo.getAttribute(ASYNCHRONOUS, AsyncLogWriter.isAsynchronousByDefault()));
+        }
+
         for (int i = 0; i < xo.getChildCount(); i++) {
 
             final Object child = xo.getChild(i);
@@ -162,6 +168,8 @@ public class LoggerParser extends AbstractXMLObjectParser {
             new StringAttributeRule(FILE_NAME,
                     "The name of the file to send log output to. " +
                             "If no file name is specified then log is sent to standard output", true),
+            AttributeRule.newBooleanRule(ASYNCHRONOUS, true,
+                    "Format and write a file log on a background thread"),
             new StringAttributeRule(TITLE,
                     "The title of the log", true),
             new StringAttributeRule(HEADER,
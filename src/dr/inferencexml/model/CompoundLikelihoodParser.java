@@ -40,6 +40,7 @@ import java.util.logging.Logger;
 public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
     public static final String COMPOUND_LIKELIHOOD = "compoundLikelihood";
     public static final String THREADS = "threads";
+    public static final String WORK_STEALING = "workStealing";
     @Deprecated public static final String POSTERIOR = "posterior"; // replaced with JOINT
     public static final String JOINT = "joint";
     public static final String PRIOR = "prior";
@@ -72,6 +73,15 @@ public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
         }
 //        }
 
+        // evaluate components on a shared, cost-aware work stealing pool rather than a fixed thread pool
+        // the system property only sets the default - an explicit XML attribute takes precedence
+        boolean workStealing = false;
+        if (xo.hasAttribute(WORK_STEALING)) {
+            workStealing = xo.getBooleanAttribute(WORK_STEALING);
+        } else if (System.getProperty("thread.work.stealing") != null) {
+            workStealing = Boolean.parseBoolean(System.getProperty("thread.work.stealing"));
+        }
+
         List<Likelihood> likelihoods = new ArrayList<Likelihood>();
         for (int i = 0; i < xo.getChildCount(); i++) {
             final Object child = xo.getChild(i);
@@ -97,17 +107,21 @@ public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
         CompoundLikelihood compoundLikelihood;
 
         if (xo.getName().equalsIgnoreCase(LIKELIHOOD)) {
-            compoundLikelihood = new CompoundLikelihood(threads, likelihoods);
-            switch (threads) {
-                case -1:
-                    Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using an auto sizing thread pool.");
-                    break;
-                case 0:
-                    Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using a single thread.");
-                    break;
-                default:
-                    Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using a pool of " + threads + " threads.");
-                    break;
+            compoundLikelihood = new CompoundLikelihood(threads, likelihoods, workStealing);
+            if (compoundLikelihood.isWorkStealing()) {
+                Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using a shared work stealing thread pool.");
+            } else {
+                switch (threads) {
+                    case -1:
+                        Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using an auto sizing thread pool.");
+                        break;
+                    case 0:
+                        Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using a single thread.");
+                        break;
+                    default:
+                        Logger.getLogger("dr.evomodel").info("\nLikelihood computation is using a pool of " + threads + " threads.");
+                        break;
+                }
             }
         } else {
             compoundLikelihood = new CompoundLikelihood(likelihoods);
@@ -134,6 +148,7 @@ public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
 
     private final XMLSyntaxRule[] rules = {
             AttributeRule.newIntegerRule(THREADS, true),
+            AttributeRule.newBooleanRule(WORK_STEALING, true),
             new ElementRule(Likelihood.class, -1, Integer.MAX_VALUE)
     };
 
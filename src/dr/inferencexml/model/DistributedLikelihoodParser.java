@@ -0,0 +1,111 @@
+/*
+ * DistributedLikelihoodParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.model;
+
+import dr.evolution.tree.MutableTreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.parallel.DistributedLikelihood;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DistributedLikelihoodParser extends AbstractXMLObjectParser {
+
+    public static final String WORKER = "worker";
+    public static final String HOST = "host";
+    public static final String PORT = "port";
+
+    public String getParserName() {
+        return DistributedLikelihood.DISTRIBUTED_LIKELIHOOD;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        List<DistributedLikelihood.Worker> workers = new ArrayList<DistributedLikelihood.Worker>();
+
+        for (XMLObject cxo : xo.getAllChildren(WORKER)) {
+            String host = cxo.getAttribute(HOST, "localhost");
+            int port = cxo.getIntegerAttribute(PORT);
+
+            List<Parameter> parameters = new ArrayList<Parameter>();
+            List<MutableTreeModel> trees = new ArrayList<MutableTreeModel>();
+            parseState(cxo, parameters, trees);
+
+            workers.add(new DistributedLikelihood.Worker(host, port, parameters, trees));
+        }
+
+        return new DistributedLikelihood(workers);
+    }
+
+    /**
+     * Collects the parameters and trees in the order they are given, which must be the same in the master and
+     * the worker.
+     */
+    static void parseState(XMLObject xo, List<Parameter> parameters, List<MutableTreeModel> trees) {
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            Object child = xo.getChild(i);
+            if (child instanceof Parameter) {
+                parameters.add((Parameter) child);
+            } else if (child instanceof MutableTreeModel) {
+                trees.add((MutableTreeModel) child);
+            }
+        }
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "A likelihood calculated by likelihood servers in other processes which are sent the changes to the " +
+                "given parameters and trees.";
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    static final XMLSyntaxRule[] stateRules = {
+            new ElementRule(Parameter.class, 0, Integer.MAX_VALUE),
+            new ElementRule(MutableTreeModel.class, 0, Integer.MAX_VALUE)
+    };
+
+    private final XMLSyntaxRule[] rules = {
+            new ElementRule(WORKER, new XMLSyntaxRule[]{
+                    AttributeRule.newStringRule(HOST, true),
+                    AttributeRule.newIntegerRule(PORT),
+                    stateRules[0],
+                    stateRules[1]
+            }, 1, Integer.MAX_VALUE)
+    };
+
+    public Class getReturnType() {
+        return DistributedLikelihood.class;
+    }
+}
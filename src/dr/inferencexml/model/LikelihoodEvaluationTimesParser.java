@@ -0,0 +1,75 @@
+/*
+ * LikelihoodEvaluationTimesParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.model;
+
+import dr.inference.loggers.Loggable;
+import dr.inference.model.CompoundLikelihood;
+import dr.xml.*;
+
+/**
+ * Provides a loggable of the per-component evaluation times of a compound likelihood.
+ */
+public class LikelihoodEvaluationTimesParser extends AbstractXMLObjectParser {
+    public static final String LIKELIHOOD_EVALUATION_TIMES = "likelihoodEvaluationTimes";
+
+    public String getParserName() {
+        return LIKELIHOOD_EVALUATION_TIMES;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        CompoundLikelihood compoundLikelihood = (CompoundLikelihood) xo.getChild(CompoundLikelihood.class);
+
+        if (compoundLikelihood.getEvaluationTimes() == null) {
+            throw new XMLParseException("Evaluation timers are not available for the likelihood, " + compoundLikelihood.getId());
+        }
+
+        return compoundLikelihood.getEvaluationTimesLoggable();
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "Logs the mean evaluation time (in milliseconds) and share of the total evaluation time of each " +
+                "component of a compound likelihood.";
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            new ElementRule(CompoundLikelihood.class)
+    };
+
+    public Class getReturnType() {
+        return Loggable.class;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * LikelihoodServerParser.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package dr.inferencexml.model;
+
+import dr.evolution.tree.MutableTreeModel;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.parallel.LikelihoodServer;
+import dr.xml.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LikelihoodServerParser extends AbstractXMLObjectParser {
+
+    public static final String LIKELIHOOD_SERVER = "likelihoodServer";
+    public static final String STATE = "state";
+    public static final String PORT = "port";
+
+    public String getParserName() {
+        return LIKELIHOOD_SERVER;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        int port = xo.getIntegerAttribute(PORT);
+
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        List<MutableTreeModel> trees = new ArrayList<MutableTreeModel>();
+        DistributedLikelihoodParser.parseState(xo.getChild(STATE), parameters, trees);
+
+        List<Likelihood> likelihoods = xo.getAllChildren(Likelihood.class);
+
+        return new LikelihoodServer(port, parameters, trees, likelihoods);
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public String getParserDescription() {
+        return "Calculates the given likelihoods for a distributedLikelihood in another process. The state " +
+                "parameters and trees must be in the same order as in the master's worker element.";
+    }
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newIntegerRule(PORT),
+            new ElementRule(STATE, DistributedLikelihoodParser.stateRules),
+            new ElementRule(Likelihood.class, 1, Integer.MAX_VALUE)
+    };
+
+    public Class getReturnType() {
+        return LikelihoodServer.class;
+    }
+}
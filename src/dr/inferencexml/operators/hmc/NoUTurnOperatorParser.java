@@ -44,6 +44,7 @@ public class NoUTurnOperatorParser extends AbstractXMLObjectParser {
     private final static String NUTS = "NoUTurnOperator";
     private final static String ADAPTIVE_STEPSIZE_FLG = "adaptiveStepsize";
     private final static String ADAPTIVE_STEPSIZE_DELAY = "adaptiveDelay";
+    private final static String MULTINOMIAL_SAMPLING = "multinomialSampling";
 
     @Override
     public String getParserName() {
@@ -57,7 +58,9 @@ public class NoUTurnOperatorParser extends AbstractXMLObjectParser {
         ReversibleHMCProvider reversibleHMCprovider = (ReversibleHMCProvider) xo.getChild(ReversibleHMCProvider.class);
         boolean adaptiveStepsize = xo.getAttribute(ADAPTIVE_STEPSIZE_FLG, true);
         int adaptiveDelay = xo.getAttribute(ADAPTIVE_STEPSIZE_DELAY, -1);
-        return new NoUTurnOperator(reversibleHMCprovider, adaptiveStepsize, adaptiveDelay, weight);
+        boolean multinomialSampling = xo.getAttribute(MULTINOMIAL_SAMPLING, false);
+        return new NoUTurnOperator(reversibleHMCprovider, adaptiveStepsize, adaptiveDelay, multinomialSampling,
+                weight);
     }
 
     @Override
@@ -66,7 +69,8 @@ public class NoUTurnOperatorParser extends AbstractXMLObjectParser {
     }
 
     final static XMLSyntaxRule[] rules = {
-            AttributeRule.newDoubleRule(MCMCOperator.WEIGHT)
+            AttributeRule.newDoubleRule(MCMCOperator.WEIGHT),
+            AttributeRule.newBooleanRule(MULTINOMIAL_SAMPLING, true),
     };
 
     private final XMLSyntaxRule[] additionalRules = {
@@ -67,6 +67,12 @@ public class MissingOps {
         return DenseMatrix64F.wrap(numRows, numCols, buffer);
     }
 
+    public static DenseMatrix64F wrap(final double[] source, final int offset,
+                                      final DenseMatrix64F destination) {
+        System.arraycopy(source, offset, destination.getData(), 0, destination.getNumElements());
+        return destination;
+    }
+
     public static DenseMatrix64F wrap(MatrixParameterInterface A) {
         return wrap(A.getParameterValues(), 0, A.getRowDimension(), A.getColumnDimension());
     }
@@ -151,6 +151,59 @@ public class XMLParser {
         }
     }
 
+    /**
+     * An alternative parser that parses the top level elements, up to the first one
+     * with the given name, that declare an id (and so may be referred to) and returns
+     * the object of that element. Nothing is run and elements without an id, such as
+     * analyses of log files that may not have been written yet, are skipped. The models
+     * and parameters created are therefore the same as those created by a full parse of
+     * the file up to that element. Log files named in the elements are not opened (their
+     * output is discarded) so that they are left to the full parse of the file.
+     *
+     * @param reader      the reader
+     * @param elementName the name of the element
+     * @return the object, or null if there is no such element
+     */
+    public Object parseElement(Reader reader, String elementName)
+            throws java.io.IOException,
+            org.xml.sax.SAXException,
+            dr.xml.XMLParseException,
+            javax.xml.parsers.ParserConfigurationException {
+
+        InputSource in = new InputSource(reader);
+        javax.xml.parsers.DocumentBuilderFactory documentBuilderFactory = javax.xml.parsers.DocumentBuilderFactory.newInstance();
+
+        javax.xml.parsers.DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        Document document = documentBuilder.parse(in);
+
+        Element e = document.getDocumentElement();
+        if (!e.getTagName().equals("beast")) {
+            throw new dr.xml.XMLParseException("Unknown root document element, " + e.getTagName());
+        }
+
+        concurrent = false;
+        discardFileOutput = true;
+        try {
+            XMLObject xo = new XMLObject(e, null);
+            NodeList nodes = e.getChildNodes();
+            for (int i = 0; i < nodes.getLength(); i++) {
+                if (nodes.item(i) instanceof Element) {
+                    Element element = (Element) nodes.item(i);
+                    boolean isTarget = element.getTagName().equals(elementName);
+                    if (isTarget || element.hasAttribute(ID)) {
+                        Object xoc = convert(element, null, xo, false, true);
+                        if (isTarget) {
+                            return xoc instanceof XMLObject ? ((XMLObject) xoc).getNativeObject() : null;
+                        }
+                    }
+                }
+            }
+            return null;
+        } finally {
+            discardFileOutput = false;
+        }
+    }
+
     public Map<String, XMLObject> parse(Reader reader, boolean run)
             throws java.io.IOException,
             org.xml.sax.SAXException,
@@ -472,6 +525,13 @@ public class XMLParser {
         if (xo.hasAttribute(attributeName)) {
             File logFile = getLogFile(xo, attributeName);
 
+            if (discardFileOutput) {
+                return new PrintWriter(new OutputStream() {
+                    public void write(int b) {
+                    }
+                });
+            }
+
             try {
                 return new PrintWriter(new FileOutputStream(logFile));
             } catch (FileNotFoundException fnfe) {
@@ -485,6 +545,11 @@ public class XMLParser {
 
     public static File getLogFile(XMLObject xo, String attributeName) throws XMLParseException {
         final File logFile = getFileHandle(xo, attributeName);
+        if (discardFileOutput) {
+            // nothing will be written to the file by this parse
+            return logFile;
+        }
+
         boolean allowOverwrite = false;
 
         if (xo.hasAttribute(LoggerParser.ALLOW_OVERWRITE_LOG)) {
@@ -613,6 +678,9 @@ public class XMLParser {
     private final Map<String, XMLObject> objectStore = new LinkedHashMap<String, XMLObject>();
     private final Map<Pair<String, String>, List<Citation>> citationStore = new LinkedHashMap<Pair<String, String>, List<Citation>>();
     private boolean concurrent = false;
+
+    // set while parseElement is parsing, so that log files are not opened
+    private static boolean discardFileOutput = false;
     private XMLObject root = null;
 
     private boolean verbose = false;
@@ -0,0 +1,328 @@
+/*
+ * BinaryCheckpointTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.checkpoint;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.TreeUtils;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.tree.TreeParameterModel;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.mcmc.MCMCCriterion;
+import dr.inference.model.*;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.ScaleOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.inference.state.ModelScope;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Round trips the binary checkpoint format (with several delta segments) and checks that the
+ * format is recognised by its magic number while text checkpoints still load.
+ */
+public class BinaryCheckpointTest extends TestCase {
+
+    private TreeModel treeModel;
+    private TreeParameterModel traitModel;
+    private Parameter kappa;
+    private Parameter unnamed;
+    private MCMCOperator operator;
+    private MarkovChain markovChain;
+
+    private File file;
+
+    public BinaryCheckpointTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        // models from the other tests are still connected so only save this test's models
+        ModelScope scope = ModelScope.begin();
+
+        NewickImporter importer = new NewickImporter("((A:1.0,B:1.0):1.0,(C:0.5,D:0.5):1.5);");
+        treeModel = new DefaultTreeModel("treeModel", importer.importTree(null));
+
+        traitModel = new TreeParameterModel(treeModel, new Parameter.Default("rates", 6, 1.0), false);
+
+        kappa = new Parameter.Default("kappa", 2.0, 0.0, Double.POSITIVE_INFINITY);
+        // unnamed parameters (e.g., the columns of a matrix) must also be saved
+        unnamed = new Parameter.Default(new double[]{0.25, 0.75});
+        // a large parameter that doesn't change, so the deltas (which always hold the random number
+        // generator state) stay smaller than the full segment
+        final Parameter fixed = new Parameter.Default("fixed", 1000, 0.5);
+
+        Model model = new AbstractModel("checkpointTestModel") {
+            {
+                addVariable(kappa);
+                addVariable(unnamed);
+                addVariable(fixed);
+                addModel(treeModel);
+                addModel(traitModel);
+            }
+
+            protected void handleModelChangedEvent(Model model, Object object, int index) { }
+
+            protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) { }
+
+            protected void storeState() { }
+
+            protected void restoreState() { }
+
+            protected void acceptState() { }
+        };
+        scope.end();
+
+        operator = new ScaleOperator(kappa, 0.75);
+        SimpleOperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(operator);
+
+        markovChain = new MarkovChain(new DummyLikelihood(model), schedule, new MCMCCriterion(),
+                0, 0, 0.0, false, false);
+        scope.register(markovChain);
+
+        file = File.createTempFile("checkpointTest", ".state");
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+        System.clearProperty(BeastCheckpointer.BINARY_CHECKPOINT);
+        super.tearDown();
+    }
+
+    public void testRoundTripWithDeltas() throws Exception {
+        Checkpointer checkpointer = Checkpointer.create(true);
+
+        Snapshot expected = saveSequence(checkpointer, null);
+
+        scramble();
+
+        double[] lnL = new double[1];
+        assertEquals(4000, Checkpointer.create(true).load(file, markovChain, lnL));
+        assertEquals(-4.0, lnL[0]);
+        expected.check();
+    }
+
+    public void testTornDeltaIsIgnored() throws Exception {
+        Checkpointer checkpointer = Checkpointer.create(true);
+
+        Snapshot[] snapshots = new Snapshot[1];
+        saveSequence(checkpointer, snapshots);
+
+        // tear the last delta segment as an interrupted append would
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        scramble();
+
+        double[] lnL = new double[1];
+        assertEquals(3000, Checkpointer.create(true).load(file, markovChain, lnL));
+        assertEquals(-3.0, lnL[0]);
+        snapshots[0].check();
+    }
+
+    public void testFormatDetection() throws Exception {
+        Checkpointer.create(true).save(file, 1000, -1.0, markovChain);
+        assertEquals("BEASTCKP", readMagic(file));
+
+        File textFile = File.createTempFile("checkpointTest", ".txt");
+        try {
+            setValues(1.2, 0.7, 2.5, 3.0, 0.4);
+            Snapshot expected = new Snapshot();
+
+            Checkpointer.create(false).save(textFile, 2000, -2.0, markovChain);
+            assertFalse("BEASTCKP".equals(readMagic(textFile)));
+
+            scramble();
+
+            // the loader picks the format from the file itself
+            double[] lnL = new double[1];
+            assertEquals(2000, Checkpointer.create(true).load(textFile, markovChain, lnL));
+            assertEquals(-2.0, lnL[0]);
+            expected.check();
+        } finally {
+            textFile.delete();
+        }
+    }
+
+    /**
+     * Saves a full segment and then three deltas, each changing different parts of the state.
+     *
+     * @param beforeLast if not null, receives the snapshot of the state before the last save
+     * @return the snapshot of the last saved state
+     */
+    private Snapshot saveSequence(Checkpointer checkpointer, Snapshot[] beforeLast) {
+        operator.setAcceptCount(10);
+        operator.setRejectCount(20);
+        checkpointer.save(file, 1000, -1.0, markovChain);
+        final long fullLength = file.length();
+
+        kappa.setParameterValue(0, 3.0);
+        operator.setAcceptCount(11);
+        checkpointer.save(file, 2000, -2.0, markovChain);
+        final long length2 = file.length();
+        assertTrue("delta segments are appended", length2 > fullLength && length2 - fullLength < fullLength);
+
+        setValues(1.2, 0.7, 2.5, 3.0, 0.25);
+        checkpointer.save(file, 3000, -3.0, markovChain);
+        final long length3 = file.length();
+        assertTrue("delta segments are appended", length3 > length2 && length3 - length2 < fullLength);
+        if (beforeLast != null) {
+            beforeLast[0] = new Snapshot();
+        }
+
+        unnamed.setParameterValue(1, 0.5);
+        traitModel.setNodeValue(treeModel, treeModel.getExternalNode(0), 0.3);
+        swapTips();
+        operator.setRejectCount(21);
+        checkpointer.save(file, 4000, -4.0, markovChain);
+        assertTrue("delta segments are appended", file.length() > length3);
+
+        return new Snapshot();
+    }
+
+    private void setValues(double heightAB, double heightCD, double rootHeight, double kappaValue, double unnamedValue) {
+        NodeRef root = treeModel.getRoot();
+        treeModel.setNodeHeight(root, rootHeight);
+        for (int i = 0; i < treeModel.getChildCount(root); i++) {
+            NodeRef child = treeModel.getChild(root, i);
+            boolean isAB = TreeUtils.getDescendantLeaves(treeModel, child).contains(treeModel.getExternalNode(0));
+            treeModel.setNodeHeight(child, isAB ? heightAB : heightCD);
+        }
+        kappa.setParameterValue(0, kappaValue);
+        unnamed.setParameterValue(0, unnamedValue);
+    }
+
+    private void scramble() {
+        setValues(1.5, 0.1, 5.0, 10.0, 0.9);
+        unnamed.setParameterValue(1, 0.1);
+        for (int i = 0; i < treeModel.getNodeCount(); i++) {
+            NodeRef node = treeModel.getNode(i);
+            if (!treeModel.isRoot(node)) {
+                traitModel.setNodeValue(treeModel, node, 7.0);
+            }
+        }
+        swapTips();
+        operator.setAcceptCount(0);
+        operator.setRejectCount(0);
+    }
+
+    // exchanges the first and last tips, which are in different cherries
+    private void swapTips() {
+        NodeRef tip1 = treeModel.getExternalNode(0);
+        NodeRef tip2 = treeModel.getExternalNode(treeModel.getExternalNodeCount() - 1);
+        NodeRef parent1 = treeModel.getParent(tip1);
+        NodeRef parent2 = treeModel.getParent(tip2);
+        treeModel.beginTreeEdit();
+        treeModel.removeChild(parent1, tip1);
+        treeModel.removeChild(parent2, tip2);
+        treeModel.addChild(parent1, tip2);
+        treeModel.addChild(parent2, tip1);
+        treeModel.endTreeEdit();
+    }
+
+    private static String readMagic(File file) throws Exception {
+        byte[] magic = new byte[8];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(magic);
+        }
+        return new String(magic, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The values held by the model when it was created.
+     */
+    private class Snapshot {
+        Snapshot() {
+            newick = TreeUtils.newick(treeModel);
+            kappaValues = kappa.getParameterValues();
+            unnamedValues = unnamed.getParameterValues();
+            traits = new double[treeModel.getNodeCount()];
+            for (int i = 0; i < treeModel.getNodeCount(); i++) {
+                NodeRef node = treeModel.getNode(i);
+                if (!treeModel.isRoot(node)) {
+                    traits[i] = traitModel.getNodeValue(treeModel, node);
+                }
+            }
+            acceptCount = operator.getAcceptCount();
+            rejectCount = operator.getRejectCount();
+        }
+
+        void check() {
+            assertEquals(newick, TreeUtils.newick(treeModel));
+            assertTrue(Arrays.equals(kappaValues, kappa.getParameterValues()));
+            assertTrue(Arrays.equals(unnamedValues, unnamed.getParameterValues()));
+            assertTrue(Arrays.equals(traits, new Snapshot().traits));
+            assertEquals(acceptCount, operator.getAcceptCount());
+            assertEquals(rejectCount, operator.getRejectCount());
+        }
+
+        private final String newick;
+        private final double[] kappaValues;
+        private final double[] unnamedValues;
+        private final double[] traits;
+        private final long acceptCount;
+        private final long rejectCount;
+    }
+
+    /**
+     * Exposes the checkpointer's file reading and writing with the format chosen by the
+     * binary.checkpoint property.
+     */
+    private static class Checkpointer extends BeastCheckpointer {
+        static Checkpointer create(boolean binary) {
+            System.setProperty(BeastCheckpointer.BINARY_CHECKPOINT, Boolean.toString(binary));
+            return new Checkpointer();
+        }
+
+        boolean save(File file, long state, double lnL, MarkovChain markovChain) {
+            return writeStateToFile(file, state, lnL, markovChain);
+        }
+
+        long load(File file, MarkovChain markovChain, double[] lnL) {
+            return readStateFromFile(file, markovChain, lnL);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(BinaryCheckpointTest.class);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * TreeAnnotatorTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.app.tools.newtreeannotator;
+
+import dr.app.tools.newtreeannotator.TreeAnnotator;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Annotates a small tree file with one and several threads and checks the MCC tree and the
+ * clade posteriors against a serial count of the clades in the same trees.
+ */
+public class TreeAnnotatorTest extends TestCase {
+
+    private static final String[] TOPOLOGIES = {
+            "(((1,2),3),(4,5))",
+            "(((1,2),4),(3,5))",
+            "((1,(2,3)),(4,5))"
+    };
+
+    // the topology of each tree in one repeat of the file
+    private static final int[] TREE_TOPOLOGIES = {1, 2, 0, 1, 0, 2, 0, 0, 1, 0, 2, 0, 1, 0};
+    private static final int REPEATS = 5;
+    private static final int BURNIN_TREES = 2;
+
+    private File inputFile;
+    private final List<File> outputFiles = new ArrayList<File>();
+
+    public TreeAnnotatorTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        inputFile = File.createTempFile("treeAnnotatorTest", ".trees");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("#NEXUS\n\n");
+        sb.append("Begin taxa;\n\tDimensions ntax=5;\n\tTaxlabels\n\t\tA\n\t\tB\n\t\tC\n\t\tD\n\t\tE\n\t\t;\nEnd;\n\n");
+        sb.append("Begin trees;\n\tTranslate\n\t\t1 A,\n\t\t2 B,\n\t\t3 C,\n\t\t4 D,\n\t\t5 E\n\t\t;\n");
+        int treeNumber = 0;
+        for (int r = 0; r < REPEATS; r++) {
+            for (int topology : TREE_TOPOLOGIES) {
+                sb.append("tree STATE_").append(treeNumber * 1000).append(" = [&R] ")
+                        .append(createTree(TOPOLOGIES[topology], treeNumber)).append(";\n");
+                treeNumber++;
+            }
+        }
+        sb.append("End;\n");
+
+        Files.write(inputFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void tearDown() throws Exception {
+        inputFile.delete();
+        for (File file : outputFiles) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testThreadsGiveTheSameTree() throws Exception {
+        File serial = annotate(1, TreeAnnotator.HeightsSummary.MEAN_HEIGHTS);
+        File threaded = annotate(3, TreeAnnotator.HeightsSummary.MEAN_HEIGHTS);
+
+        assertEquals(new String(Files.readAllBytes(serial.toPath()), StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(threaded.toPath()), StandardCharsets.UTF_8));
+    }
+
+    public void testCladePosteriors() throws Exception {
+        // the clades are counted serially as the original annotator did
+        Map<BitSet, Integer> cladeCounts = new HashMap<BitSet, Integer>();
+        List<Tree> trees = readTrees(inputFile);
+        List<Tree> usedTrees = trees.subList(BURNIN_TREES, trees.size());
+        for (Tree tree : usedTrees) {
+            for (BitSet clade : getClades(tree)) {
+                Integer count = cladeCounts.get(clade);
+                cladeCounts.put(clade, count == null ? 1 : count + 1);
+            }
+        }
+
+        for (int threads : new int[]{1, 3}) {
+            Tree annotated = readTrees(annotate(threads, TreeAnnotator.HeightsSummary.MEAN_HEIGHTS)).get(0);
+
+            for (int i = 0; i < annotated.getInternalNodeCount(); i++) {
+                NodeRef node = annotated.getInternalNode(i);
+                BitSet clade = getClade(annotated, node);
+                double posterior = ((Number) annotated.getNodeAttribute(node, "posterior")).doubleValue();
+                assertEquals("posterior with " + threads + " threads",
+                        (double) cladeCounts.get(clade) / usedTrees.size(), posterior, 1E-10);
+            }
+        }
+    }
+
+    public void testMaximumCladeCredibilityTree() throws Exception {
+        List<Tree> trees = readTrees(inputFile);
+
+        Map<BitSet, Integer> cladeCounts = new HashMap<BitSet, Integer>();
+        for (int i = BURNIN_TREES; i < trees.size(); i++) {
+            for (BitSet clade : getClades(trees.get(i))) {
+                Integer count = cladeCounts.get(clade);
+                cladeCounts.put(clade, count == null ? 1 : count + 1);
+            }
+        }
+
+        // the first tree with the highest score wins
+        Tree bestTree = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = BURNIN_TREES; i < trees.size(); i++) {
+            double score = 0.0;
+            for (BitSet clade : getClades(trees.get(i))) {
+                score += Math.log(cladeCounts.get(clade));
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestTree = trees.get(i);
+            }
+        }
+
+        for (int threads : new int[]{1, 3}) {
+            Tree mccTree = readTrees(annotate(threads, TreeAnnotator.HeightsSummary.KEEP_HEIGHTS)).get(0);
+
+            assertEquals(getClades(bestTree), getClades(mccTree));
+            assertEquals("root height with " + threads + " threads",
+                    bestTree.getNodeHeight(bestTree.getRoot()), mccTree.getNodeHeight(mccTree.getRoot()), 1E-10);
+        }
+    }
+
+    private File annotate(int threadCount, TreeAnnotator.HeightsSummary heights) throws IOException {
+        File outputFile = File.createTempFile("treeAnnotatorTest", ".tree");
+        outputFiles.add(outputFile);
+
+        new TreeAnnotator(BURNIN_TREES, -1, heights, 0.0, new double[]{80}, false,
+                TreeAnnotator.Target.MAX_CLADE_CREDIBILITY, null,
+                inputFile.getAbsolutePath(), outputFile.getAbsolutePath(), threadCount);
+
+        return outputFile;
+    }
+
+    private static List<Tree> readTrees(File file) throws Exception {
+        List<Tree> trees = new ArrayList<Tree>();
+        try (Reader reader = new BufferedReader(new FileReader(file))) {
+            NexusImporter importer = new NexusImporter(reader);
+            while (importer.hasTree()) {
+                trees.add(importer.importNextTree());
+            }
+        }
+        return trees;
+    }
+
+    private static Set<BitSet> getClades(Tree tree) {
+        Set<BitSet> clades = new HashSet<BitSet>();
+        for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+            clades.add(getClade(tree, tree.getInternalNode(i)));
+        }
+        return clades;
+    }
+
+    private static BitSet getClade(Tree tree, NodeRef node) {
+        BitSet clade = new BitSet();
+        if (tree.isExternal(node)) {
+            // taxa are named A to E
+            clade.set(tree.getNodeTaxon(node).getId().charAt(0) - 'A');
+        } else {
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                clade.or(getClade(tree, tree.getChild(node, i)));
+            }
+        }
+        return clade;
+    }
+
+    /**
+     * Writes a topology such as ((1,2),3) as an annotated newick tree with heights and rates that
+     * differ between trees (including a unique root height).
+     */
+    private static String createTree(String topology, int treeNumber) {
+        StringBuilder sb = new StringBuilder();
+        appendNode(topology, new int[]{0}, 4.0 + 0.1 * treeNumber, treeNumber, true, sb);
+        return sb.toString();
+    }
+
+    private static int appendNode(String topology, int[] position, double rootHeight, int treeNumber,
+                                  boolean isRoot, StringBuilder sb) {
+        final double rate = 1.0 + 0.1 * (treeNumber % 7);
+        if (topology.charAt(position[0]) == '(') {
+            position[0]++;
+            StringBuilder left = new StringBuilder();
+            int leftTips = appendNode(topology, position, rootHeight, treeNumber, false, left);
+            position[0]++; // ','
+            StringBuilder right = new StringBuilder();
+            int rightTips = appendNode(topology, position, rootHeight, treeNumber, false, right);
+            position[0]++; // ')'
+
+            int tips = leftTips + rightTips;
+            double height = isRoot ? rootHeight : getHeight(tips, treeNumber);
+            sb.append("(").append(setLength(left, height, leftTips, treeNumber))
+                    .append(",").append(setLength(right, height, rightTips, treeNumber))
+                    .append(")[&rate=").append(rate).append("]");
+            return tips;
+        } else {
+            sb.append(topology.charAt(position[0])).append("[&rate=").append(rate).append("]");
+            position[0]++;
+            return 1;
+        }
+    }
+
+    private static String setLength(StringBuilder node, double parentHeight, int tips, int treeNumber) {
+        return node.append(":").append(parentHeight - getHeight(tips, treeNumber)).toString();
+    }
+
+    private static double getHeight(int tips, int treeNumber) {
+        return (tips - 1) * (0.5 + 0.01 * treeNumber);
+    }
+
+    public static Test suite() {
+        return new TestSuite(TreeAnnotatorTest.class);
+    }
+}
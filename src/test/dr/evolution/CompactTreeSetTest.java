@@ -0,0 +1,193 @@
+/*
+ * CompactTreeSetTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evolution;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.CompactTreeSet;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.TreeUtils;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evomodel.tree.EmpiricalTreeDistributionModel;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CompactTreeSetTest extends TestCase {
+
+    private static final int TAXON_COUNT = 8;
+    private static final int TREE_COUNT = 20;
+
+    public CompactTreeSetTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        // the taxon list is in a different order from the translate block
+        taxa = new Taxa();
+        for (int i = TAXON_COUNT - 1; i >= 0; i--) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+        }
+
+        StringBuilder nexus = new StringBuilder("#NEXUS\nbegin trees;\n\ttranslate\n");
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            nexus.append("\t\t").append(i + 1).append(" taxon").append(i).append(i < TAXON_COUNT - 1 ? ",\n" : "\n;\n");
+        }
+        for (int i = 0; i < TREE_COUNT; i++) {
+            List<String> clades = new ArrayList<String>();
+            for (int j = 0; j < TAXON_COUNT; j++) {
+                clades.add(Integer.toString(j + 1));
+            }
+            while (clades.size() > 1) {
+                String clade1 = clades.remove(MathUtils.nextInt(clades.size()));
+                String clade2 = clades.remove(MathUtils.nextInt(clades.size()));
+                clades.add("(" + annotate(clade1) + "," + annotate(clade2) + ")");
+            }
+            nexus.append("tree STATE_").append(i * 1000).append(" = [&R] ").append(clades.get(0)).append(";\n");
+        }
+        nexus.append("end;\n");
+        this.nexus = nexus.toString();
+
+        file = File.createTempFile("trees", ".store");
+        file.deleteOnExit();
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    private static String annotate(String clade) {
+        return clade + "[&rate=" + MathUtils.nextDouble() + "]:" + MathUtils.nextDouble();
+    }
+
+    public void testTrees() throws IOException, Importer.ImportException {
+        List<Tree> trees = new NexusImporter(new StringReader(nexus)).importTrees(taxa, true);
+        CompactTreeSet treeSet = CompactTreeSet.create(new NexusImporter(new StringReader(nexus)), taxa, file);
+
+        assertEquals(TREE_COUNT, treeSet.size());
+        checkTrees(trees, treeSet);
+
+        // reopen the file
+        checkTrees(trees, CompactTreeSet.open(taxa, file));
+
+        // the copies are the same trees
+        for (int i = 0; i < TREE_COUNT; i++) {
+            assertEquals(trees.get(i).getId(), treeSet.get(i).getId());
+            assertEquals(TreeUtils.uniqueNewick(trees.get(i), trees.get(i).getRoot()),
+                    TreeUtils.uniqueNewick(treeSet.get(i), treeSet.get(i).getRoot()));
+        }
+
+        // the taxa must be in the same order as when the file was written
+        Taxa reordered = new Taxa();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            reordered.addTaxon(taxa.getTaxon((i + 1) % TAXON_COUNT));
+        }
+        try {
+            CompactTreeSet.open(reordered, file);
+            fail("Should not open with reordered taxa");
+        } catch (Importer.ImportException ie) {
+            // expected
+        }
+    }
+
+    public void testModel() throws IOException, Importer.ImportException {
+        List<Tree> trees = new NexusImporter(new StringReader(nexus)).importTrees(taxa, true);
+        CompactTreeSet treeSet = CompactTreeSet.create(new NexusImporter(new StringReader(nexus)), taxa, file);
+
+        EmpiricalTreeDistributionModel model = new EmpiricalTreeDistributionModel(treeSet, 3);
+        assertEquals(TREE_COUNT, model.getTreeCount());
+        assertEquals("STATE_5000", model.getTreeId(5));
+        assertEquals(TreeUtils.uniqueNewick(trees.get(3), trees.get(3).getRoot()),
+                TreeUtils.uniqueNewick(model, model.getRoot()));
+
+        model.storeModelState();
+        model.setTree(7);
+        assertEquals(TreeUtils.uniqueNewick(trees.get(7), trees.get(7).getRoot()),
+                TreeUtils.uniqueNewick(model, model.getRoot()));
+        model.restoreModelState();
+        assertEquals(TreeUtils.uniqueNewick(trees.get(3), trees.get(3).getRoot()),
+                TreeUtils.uniqueNewick(model, model.getRoot()));
+    }
+
+    private void checkTrees(List<Tree> trees, CompactTreeSet treeSet) {
+        CompactTreeSet.TreeView view = treeSet.createView();
+
+        for (int i = 0; i < TREE_COUNT; i++) {
+            Tree tree = trees.get(i);
+            view.setTree(i);
+
+            assertEquals(tree.getId(), view.getId());
+            assertEquals(tree.getNodeCount(), view.getNodeCount());
+            assertEquals(TreeUtils.uniqueNewick(tree, tree.getRoot()), TreeUtils.uniqueNewick(view, view.getRoot()));
+
+            for (int j = 0; j < TAXON_COUNT; j++) {
+                NodeRef node = tree.getExternalNode(j);
+                NodeRef viewNode = view.getExternalNode(j);
+                assertEquals(tree.getNodeTaxon(node), view.getNodeTaxon(viewNode));
+                assertEquals(tree.getNodeHeight(node), view.getNodeHeight(viewNode));
+                assertEquals(tree.getBranchLength(node), view.getBranchLength(viewNode), 1E-12);
+                assertEquals(tree.getNodeRate(node), view.getNodeRate(viewNode));
+            }
+
+            assertEquals(tree.getNodeHeight(tree.getRoot()), view.getNodeHeight(view.getRoot()));
+            assertEquals(Arrays.toString(getSortedHeights(tree)), Arrays.toString(getSortedHeights(view)));
+        }
+    }
+
+    private static double[] getSortedHeights(Tree tree) {
+        double[] heights = new double[tree.getNodeCount()];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = tree.getNodeHeight(tree.getNode(i));
+        }
+        Arrays.sort(heights);
+        return heights;
+    }
+
+    public static Test suite() {
+        return new TestSuite(CompactTreeSetTest.class);
+    }
+
+    private Taxa taxa;
+    private String nexus;
+    private File file;
+}
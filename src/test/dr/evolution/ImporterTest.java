@@ -0,0 +1,103 @@
+/*
+ * ImporterTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evolution;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.Tree;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+public class ImporterTest extends TestCase {
+
+    public ImporterTest(String name) {
+        super(name);
+    }
+
+    public void testParseDouble() {
+        String[] values = {
+                "0", "-0", "1.", ".5", "-.5", "+3", "0.1", "00012.3400", "123456789012345",
+                "1234567890123456", "0.012345678901234567", "0.0000000000000000000001", "1e-5", "NaN", "-Infinity"
+        };
+        for (String value : values) {
+            assertEquals(value, Double.doubleToRawLongBits(Double.parseDouble(value)),
+                    Double.doubleToRawLongBits(Importer.parseDouble(value)));
+        }
+
+        for (String value : new String[] { "", ".", "-", "1.2.3", "A" }) {
+            try {
+                Importer.parseDouble(value);
+                fail("Should not parse '" + value + "'");
+            } catch (NumberFormatException nfe) {
+                // expected
+            }
+        }
+    }
+
+    public void testTokensAcrossBlocks() throws IOException, Importer.ImportException {
+        StringBuilder name = new StringBuilder();
+        while (name.length() < 100000) {
+            name.append("taxon_");
+        }
+        String treeString = "((" + name + "A:0.1,'" + name + " B':0.2):0.3,C:0.4);";
+
+        // a reader that only gives out a few characters at a time
+        Reader reader = new StringReader(treeString) {
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 7));
+            }
+        };
+
+        Tree tree = new NewickImporter(reader).importTree(null);
+        assertEquals(3, tree.getExternalNodeCount());
+        assertEquals(name + "A", tree.getTaxonId(0));
+        assertEquals(name + " B", tree.getTaxonId(1));
+        assertEquals("C", tree.getTaxonId(2));
+        assertEquals(0.2, tree.getBranchLength(tree.getExternalNode(1)));
+        assertEquals(0.4, tree.getBranchLength(tree.getExternalNode(2)));
+    }
+
+    public void testLineNumbers() throws IOException {
+        Importer importer = new NewickImporter(new LineNumberReader(new StringReader("a\r\nb\nc\rd\n\ne\n")));
+        String[] lines = { "a", "b", "c", "d", "", "e" };
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], importer.readLine());
+            assertEquals(i + 1, importer.getLineNumber());
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(ImporterTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * LikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evolution;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.PackedSequence;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+
+public class PackedSequenceTest extends TestCase {
+
+    private static final String[] NUCLEOTIDE_SEQUENCES = {
+            "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT",
+            "ACGTACGTNNNNNNNNNNNNACGTACGT----ACGTACGT",
+            "acgtRYacgtMWSKacgtBDHVacgt??????acgtACGT",
+            "----------------------------------------"
+    };
+
+    public PackedSequenceTest(String name) {
+        super(name);
+    }
+
+    public void testPackedNucleotides() {
+        for (String string : NUCLEOTIDE_SEQUENCES) {
+            assertTrue("Should be packable", PackedSequence.canPack(Nucleotides.INSTANCE, string));
+            assertSameSequence(createSequence(string, Nucleotides.INSTANCE),
+                    new PackedSequence(new Taxon("taxon"), Nucleotides.INSTANCE, string));
+        }
+    }
+
+    public void testPackedAminoAcids() {
+        String string = "ACDEFGHIKLMNPQRSTVWYBZX*?-acdefghiklmnpqrstvwy";
+        assertTrue("Should be packable", PackedSequence.canPack(AminoAcids.INSTANCE, string));
+        assertSameSequence(createSequence(string, AminoAcids.INSTANCE),
+                new PackedSequence(new Taxon("taxon"), AminoAcids.INSTANCE, string));
+    }
+
+    public void testUnpackable() {
+        // U reads back as T and J is not a nucleotide
+        assertFalse("Should not be packable", PackedSequence.canPack(Nucleotides.INSTANCE, "ACGU"));
+        assertFalse("Should not be packable", PackedSequence.canPack(Nucleotides.INSTANCE, "ACGJ"));
+    }
+
+    public void testSetState() {
+        Sequence sequence = createSequence(NUCLEOTIDE_SEQUENCES[1], Nucleotides.INSTANCE);
+        PackedSequence packed = new PackedSequence(new Taxon("taxon"), Nucleotides.INSTANCE, NUCLEOTIDE_SEQUENCES[1]);
+
+        // within the packed states, into and out of the runs of ambiguities
+        int[][] changes = {{0, 2}, {1, Nucleotides.GAP_STATE}, {10, 3}, {8, Nucleotides.UNKNOWN_STATE}, {28, 0}};
+        for (int[] change : changes) {
+            sequence.setState(change[0], change[1]);
+            packed.setState(change[0], change[1]);
+            assertSameSequence(sequence, packed);
+        }
+
+        sequence.appendSequenceString("NNAC");
+        packed.appendSequenceString("NNAC");
+        assertSameSequence(sequence, packed);
+
+        sequence.insertSequenceString(3, "-G");
+        packed.insertSequenceString(3, "-G");
+        assertSameSequence(sequence, packed);
+    }
+
+    public void testPackedSitePatterns() {
+        SimpleAlignment alignment = new SimpleAlignment();
+        SimpleAlignment packedAlignment = new SimpleAlignment();
+        for (int i = 0; i < NUCLEOTIDE_SEQUENCES.length; i++) {
+            Taxon taxon = new Taxon("taxon" + i);
+            alignment.addSequence(new Sequence(taxon, NUCLEOTIDE_SEQUENCES[i]));
+            packedAlignment.addSequence(new PackedSequence(taxon, Nucleotides.INSTANCE, NUCLEOTIDE_SEQUENCES[i]));
+        }
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, false, SitePatterns.CompressionType.UNIQUE_ONLY);
+        SitePatterns packedPatterns = new SitePatterns(packedAlignment, null, 0, -1, 1, false, SitePatterns.CompressionType.UNIQUE_ONLY);
+
+        assertEquals("Wrong number of patterns", patterns.getPatternCount(), packedPatterns.getPatternCount());
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            assertTrue("Patterns differ", Arrays.equals(patterns.getPattern(i), packedPatterns.getPattern(i)));
+            assertEquals("Pattern weights differ", patterns.getPatternWeight(i), packedPatterns.getPatternWeight(i));
+        }
+    }
+
+    private static Sequence createSequence(String string, DataType dataType) {
+        Sequence sequence = new Sequence(new Taxon("taxon"), string);
+        sequence.setDataType(dataType);
+        return sequence;
+    }
+
+    private static void assertSameSequence(Sequence expected, Sequence packed) {
+        assertEquals("Lengths differ", expected.getLength(), packed.getLength());
+        assertEquals("Sequence strings differ", expected.getSequenceString(), packed.getSequenceString());
+        for (int i = 0; i < expected.getLength(); i++) {
+            assertEquals("States differ at " + i, expected.getState(i), packed.getState(i));
+        }
+
+        int[] expectedStates = new int[expected.getLength() / 2];
+        int[] packedStates = new int[expected.getLength() / 2];
+        expected.getStates(1, 2, expectedStates.length, expectedStates);
+        packed.getStates(1, 2, packedStates.length, packedStates);
+        assertTrue("Bulk states differ", Arrays.equals(expectedStates, packedStates));
+    }
+
+    public static Test suite() {
+        return new TestSuite(PackedSequenceTest.class);
+    }
+}
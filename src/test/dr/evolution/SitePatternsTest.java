@@ -51,6 +51,7 @@ import junit.framework.TestSuite;
 import test.dr.inference.trace.TraceCorrelationAssert;
 
 import java.text.NumberFormat;
+import java.util.Arrays;
 import java.util.Locale;
 
 
@@ -92,6 +93,28 @@ public class SitePatternsTest extends TraceCorrelationAssert {
         assertEquals("Wrong number of compressed patterns", patterns.getPatternCount(), 68);
     }
 
+    public void testAmbUniqueSitePatterns() {
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true, SitePatterns.CompressionType.AMBIGUOUS_UNIQUE);
+        System.out.println("Unique + ambiguous patterns = " + patterns.getPatternCount());
+
+        assertEquals("Wrong number of compressed patterns", patterns.getPatternCount(), 64);
+    }
+
+    public void testThreadedSitePatterns() {
+        SitePatterns patterns = new SitePatterns(alignment);
+        SitePatterns threadedPatterns = new SitePatterns(alignment, null, 0, -1, 1, true, null,
+                SitePatterns.DEFAULT_COMPRESSION_TYPE, SitePatterns.DEFAULT_AMBIGUITY_THRESHOLD, 4);
+
+        assertEquals("Wrong number of compressed patterns", patterns.getPatternCount(), threadedPatterns.getPatternCount());
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            assertTrue("Patterns differ", Arrays.equals(patterns.getPattern(i), threadedPatterns.getPattern(i)));
+            assertEquals("Pattern weights differ", patterns.getPatternWeight(i), threadedPatterns.getPatternWeight(i));
+        }
+        for (int i = 0; i < alignment.getSiteCount(); i++) {
+            assertEquals("Site pattern indices differ", patterns.getPatternIndex(i), threadedPatterns.getPatternIndex(i));
+        }
+    }
+
     public void testCodonSitePatterns() {
         SitePatterns patterns = new SitePatterns(alignment, null, 2, -1, 3);
         System.out.println("2nd position unique site patterns = " + patterns.getPatternCount());
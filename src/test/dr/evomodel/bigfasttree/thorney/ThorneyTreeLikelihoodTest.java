@@ -139,6 +139,25 @@ public class ThorneyTreeLikelihoodTest extends TestCase {
        assertEquals(ll, treeDataLikelihood.getLogLikelihood(),1E-13);
 
     }
+    public void testRestoreAfterHeightChange(){
+        treeDataLikelihood.storeModelState();
+        constrainedTreeModel.storeModelState();
+
+        NodeRef insertedNode = constrainedTreeModel.getParent(constrainedTreeModel.getNode(0));
+        constrainedTreeModel.setNodeHeight(insertedNode,0.9);
+        treeDataLikelihood.getLogLikelihood();
+
+        treeDataLikelihood.restoreModelState();
+        constrainedTreeModel.restoreModelState();
+
+        // a second move only recalculates the root branches and reuses the restored terms below them
+        NodeRef rootNode = constrainedTreeModel.getRoot();
+        constrainedTreeModel.setNodeHeight(rootNode, constrainedTreeModel.getNodeHeight(rootNode) + 0.5);
+        double LL = treeDataLikelihood.getLogLikelihood();
+        treeDataLikelihood.makeDirty();
+        assertEquals(treeDataLikelihood.getLogLikelihood(), LL, 1E-13);
+    }
+
     public void testAfterOperator(){
 
         ExchangeOperator narrow = new ExchangeOperator(0, null, 10);
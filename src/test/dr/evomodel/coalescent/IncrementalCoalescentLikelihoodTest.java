@@ -0,0 +1,197 @@
+/*
+ * IncrementalCoalescentLikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.coalescent;
+
+import dr.evolution.coalescent.IntervalList;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.Units;
+import dr.evomodel.bigfasttree.BigFastTreeIntervals;
+import dr.evomodel.bigfasttree.IntervalChangedEvent;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.GMRFSkygridLikelihood;
+import dr.evomodel.coalescent.TreeIntervals;
+import dr.evomodel.coalescent.demographicmodel.ConstantPopulationModel;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Model;
+import dr.inference.model.ModelListener;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Moves single node heights and checks that the coalescent likelihoods on BigFastTreeIntervals are only told about
+ * the intervals that changed (so they update incrementally) and that they agree with the same likelihoods
+ * calculated from scratch on TreeIntervals.
+ */
+public class IncrementalCoalescentLikelihoodTest extends TestCase {
+
+    private static final int MOVE_COUNT = 500;
+    private static final double TOLERANCE = 1E-10;
+
+    public IncrementalCoalescentLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        NewickImporter importer = new NewickImporter(
+                "(((0:0.5,(1:1.0,2:1.0)n6:1.0)n7:1.0,3:1.5)n8:1.0,(4:2.0,5:1.51)n9:1.5)n10;");
+        tree = new DefaultTreeModel(importer.importTree(null));
+
+        intervals = new BigFastTreeIntervals(tree);
+        referenceIntervals = new TreeIntervals(tree);
+
+        events = new ArrayList<Object>();
+        intervals.addModelListener(new ModelListener() {
+            public void modelChangedEvent(Model model, Object object, int index) {
+                events.add(object);
+            }
+
+            public void modelRestored(Model model) {
+            }
+        });
+    }
+
+    public void testCoalescentLikelihood() {
+        CoalescentLikelihood likelihood = new CoalescentLikelihood(intervals,
+                new ConstantPopulationModel(new Parameter.Default(2.0), Units.Type.YEARS));
+        CoalescentLikelihood reference = new CoalescentLikelihood(referenceIntervals,
+                new ConstantPopulationModel(new Parameter.Default(2.0), Units.Type.YEARS));
+
+        moveNodeHeights(new Comparison() {
+            public void compare(String state) {
+                assertEquals(state, reference.getLogLikelihood(), likelihood.getLogLikelihood(), TOLERANCE);
+            }
+        }, likelihood, reference, null);
+    }
+
+    public void testSkygridLikelihood() {
+        GMRFSkygridLikelihood likelihood = createSkygrid(intervals);
+        GMRFSkygridLikelihood reference = createSkygrid(referenceIntervals);
+
+        moveNodeHeights(new Comparison() {
+            public void compare(String state) {
+                assertEquals(state, reference.getLogLikelihood(), likelihood.getLogLikelihood(), TOLERANCE);
+
+                double[] expected = reference.getSufficientStatistics();
+                double[] actual = likelihood.getSufficientStatistics();
+                double[] expectedEvents = reference.getNumCoalEvents();
+                double[] actualEvents = likelihood.getNumCoalEvents();
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(state + ", sufficient statistic " + i, expected[i], actual[i], TOLERANCE);
+                    assertEquals(state + ", coalescent events " + i, expectedEvents[i], actualEvents[i], TOLERANCE);
+                }
+            }
+        }, likelihood, reference, likelihood);
+    }
+
+    private GMRFSkygridLikelihood createSkygrid(IntervalList intervalList) {
+        int gridPointCount = 7;
+        double[] logPopSizes = new double[gridPointCount + 1];
+        for (int i = 0; i < logPopSizes.length; i++) {
+            logPopSizes[i] = 0.5 - 0.1 * i;
+        }
+        return new GMRFSkygridLikelihood(Collections.singletonList(intervalList),
+                new Parameter.Default(logPopSizes), null, new Parameter.Default(1.0), new Parameter.Default(1.0),
+                null, null, false, 4.0, gridPointCount, null, new Parameter.Default(1.0));
+    }
+
+    /**
+     * Proposes new heights for single internal nodes, accepting or rejecting them at random, and compares the
+     * likelihoods after each move and each rejection. If a skygrid is given its coalescent intervals are
+     * sometimes set up directly after a move, as the node height transforms do.
+     */
+    private void moveNodeHeights(Comparison comparison, Model likelihood, Model reference,
+                                 GMRFSkygridLikelihood skygrid) {
+        comparison.compare("initial state");
+
+        for (int move = 0; move < MOVE_COUNT; move++) {
+            likelihood.storeModelState();
+            reference.storeModelState();
+
+            NodeRef node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+
+            events.clear();
+            tree.setNodeHeight(node, proposeHeight(node));
+
+            assertFalse("move " + move + " sent no interval events", events.isEmpty());
+            for (Object event : events) {
+                assertTrue("move " + move + " sent " + event + " rather than the affected intervals",
+                        event instanceof IntervalChangedEvent.AffectedIntervals);
+            }
+
+            if (skygrid != null && move % 10 == 0) {
+                skygrid.setupCoalescentIntervals();
+            }
+
+            comparison.compare("move " + move);
+
+            if (MathUtils.nextBoolean()) {
+                likelihood.acceptModelState();
+                reference.acceptModelState();
+            } else {
+                likelihood.restoreModelState();
+                reference.restoreModelState();
+                comparison.compare("rejected move " + move);
+            }
+        }
+    }
+
+    private double proposeHeight(NodeRef node) {
+        double lower = 0.0;
+        for (int i = 0; i < tree.getChildCount(node); i++) {
+            lower = Math.max(lower, tree.getNodeHeight(tree.getChild(node, i)));
+        }
+        double upper = tree.isRoot(node) ? lower + 3.0 : tree.getNodeHeight(tree.getParent(node));
+        return lower + MathUtils.nextDouble() * (upper - lower);
+    }
+
+    private interface Comparison {
+        void compare(String state);
+    }
+
+    public static Test suite() {
+        return new TestSuite(IncrementalCoalescentLikelihoodTest.class);
+    }
+
+    private TreeModel tree;
+    private BigFastTreeIntervals intervals;
+    private TreeIntervals referenceIntervals;
+    private List<Object> events;
+}
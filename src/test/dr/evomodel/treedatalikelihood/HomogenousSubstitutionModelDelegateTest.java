@@ -0,0 +1,185 @@
+/*
+ * LikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.treedatalikelihood;
+
+import beagle.Beagle;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.HomogenousSubstitutionModelDelegate;
+import dr.evomodel.treedatalikelihood.PreOrderSettings;
+import dr.evomodelxml.substmodel.HKYParser;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Checks that sharing transition matrices between branches always gives each branch the matrix for its
+ * current edge length through a series of updates, stores and restores.
+ */
+
+public class HomogenousSubstitutionModelDelegateTest extends TraceCorrelationAssert {
+
+    private TreeModel treeModel;
+
+    public HomogenousSubstitutionModelDelegateTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+
+        treeModel = createPrimateTreeModel();
+    }
+
+    public void testMatrixCache() {
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(alignment.getStateFrequencies()));
+        HKY hky = new HKY(new Parameter.Default(HKYParser.KAPPA, 8.0), f);
+
+        HomogenousSubstitutionModelDelegate delegate = new HomogenousSubstitutionModelDelegate(treeModel,
+                new HomogeneousBranchModel(hky), 0, PreOrderSettings.getDefault(), true);
+
+        final Map<Integer, String> matrices = new HashMap<Integer, String>();
+        final String[] model = new String[] { "model0" };
+        final int[] computeCount = new int[1];
+
+        // a BEAGLE instance that records which model and edge length each matrix buffer was computed for
+        Beagle beagle = (Beagle) Proxy.newProxyInstance(Beagle.class.getClassLoader(), new Class[]{Beagle.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("updateTransitionMatrices")) {
+                            int[] indices = (int[]) args[1];
+                            double[] lengths = (double[]) args[4];
+                            int count = (Integer) args[5];
+                            for (int i = 0; i < count; i++) {
+                                matrices.put(indices[i], model[0] + ":" + lengths[i]);
+                            }
+                            computeCount[0] += count;
+                        }
+                        return null;
+                    }
+                });
+
+        int branchCount = treeModel.getNodeCount() - 1;
+        int[] branches = new int[branchCount];
+        for (int i = 0; i < branchCount; i++) {
+            branches[i] = i;
+        }
+
+        // only a few distinct lengths so branches share matrices
+        double[] lengths = new double[branchCount];
+        for (int i = 0; i < branchCount; i++) {
+            lengths[i] = MathUtils.nextInt(4) * 0.1;
+        }
+
+        delegate.updateSubstitutionModels(beagle, true);
+        delegate.setCategoryRates(new double[] { 1.0 });
+        delegate.updateTransitionMatrices(beagle, branches, lengths, branchCount, true);
+        delegate.storeState();
+
+        assertTrue("shared matrices", computeCount[0] <= 4);
+        checkMatrices(delegate, matrices, model[0], lengths);
+
+        double[] storedLengths = lengths.clone();
+        String storedModel = model[0];
+        double rate = 1.0;
+        double storedRate = rate;
+
+        for (int step = 0; step < 2000; step++) {
+            double u = MathUtils.nextDouble();
+            if (u < 0.1) {
+                // a change of substitution model updates every branch
+                model[0] = "model" + (step + 1);
+                delegate.updateSubstitutionModels(beagle, true);
+                for (int i = 0; i < branchCount; i++) {
+                    lengths[i] = MathUtils.nextInt(4) * 0.1;
+                }
+                delegate.updateTransitionMatrices(beagle, branches, lengths, branchCount, true);
+            } else if (u < 0.15) {
+                // a change of category rates
+                model[0] = "rates" + (step + 1);
+                rate = 1.0 + step;
+                delegate.setCategoryRates(new double[] { rate });
+                delegate.updateTransitionMatrices(beagle, branches, lengths, branchCount, true);
+            } else {
+                int count = 1 + MathUtils.nextInt(3);
+                int[] updated = new int[count];
+                double[] updatedLengths = new double[count];
+                for (int i = 0; i < count; i++) {
+                    updated[i] = MathUtils.nextInt(branchCount);
+                    updatedLengths[i] = MathUtils.nextInt(8) * 0.1;
+                    lengths[updated[i]] = updatedLengths[i];
+                }
+                delegate.updateTransitionMatrices(beagle, updated, updatedLengths, count, true);
+            }
+
+            checkMatrices(delegate, matrices, model[0], lengths);
+
+            if (MathUtils.nextBoolean()) {
+                delegate.storeState();
+                storedLengths = lengths.clone();
+                storedModel = model[0];
+                storedRate = rate;
+            } else {
+                // as the likelihood delegate does, the category rates are set again after a restore
+                delegate.restoreState();
+                rate = storedRate;
+                delegate.setCategoryRates(new double[] { rate });
+                lengths = storedLengths.clone();
+                model[0] = storedModel;
+            }
+
+            checkMatrices(delegate, matrices, model[0], lengths);
+        }
+    }
+
+    private void checkMatrices(HomogenousSubstitutionModelDelegate delegate, Map<Integer, String> matrices,
+                               String model, double[] lengths) {
+        for (int i = 0; i < lengths.length; i++) {
+            assertEquals("branch " + i, model + ":" + lengths[i], matrices.get(delegate.getMatrixIndex(i)));
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(HomogenousSubstitutionModelDelegateTest.class);
+    }
+}
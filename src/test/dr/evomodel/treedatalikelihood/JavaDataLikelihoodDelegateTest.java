@@ -0,0 +1,224 @@
+/*
+ * LikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.treedatalikelihood;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.nucleotide.GTR;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.DataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.JavaDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.LikelihoodTreeTraversal;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treedatalikelihood.TreeTraversal;
+import dr.evomodelxml.substmodel.GTRParser;
+import dr.evomodelxml.substmodel.HKYParser;
+import dr.inference.model.Parameter;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks the pure Java likelihood delegate against the values in TreeDataLikelihoodTest.
+ */
+
+public class JavaDataLikelihoodDelegateTest extends TraceCorrelationAssert {
+
+    private TreeModel treeModel;
+    private JavaDataLikelihoodDelegate dataLikelihoodDelegate;
+    private NumberFormat format = NumberFormat.getNumberInstance(Locale.ENGLISH);
+
+    public JavaDataLikelihoodDelegateTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        format.setMaximumFractionDigits(5);
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+
+        treeModel = createPrimateTreeModel();
+    }
+
+    private TreeDataLikelihood getTreeDataLikelihood(SubstitutionModel substitutionModel,
+                                                     GammaSiteRateModel siteRateModel,
+                                                     boolean useAmbiguities,
+                                                     int threadCount) {
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        dataLikelihoodDelegate = new JavaDataLikelihoodDelegate(
+                treeModel,
+                patterns,
+                new HomogeneousBranchModel(substitutionModel),
+                siteRateModel,
+                useAmbiguities,
+                threadCount
+        );
+
+        return new TreeDataLikelihood(
+                dataLikelihoodDelegate,
+                treeModel,
+                new DefaultBranchRateModel());
+    }
+
+    private HKY getHKY(double kappa) {
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(alignment.getStateFrequencies()));
+        return new HKY(new Parameter.Default(HKYParser.KAPPA, kappa), f);
+    }
+
+    public void testLikelihoodHKY85() {
+        System.out.println("\nTest Java Likelihood using HKY85:");
+
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma");
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(getHKY(8.0), siteRateModel, false, 1);
+
+        assertEquals("treeLikelihoodHKY85", format.format(-1839.84514), format.format(treeDataLikelihood.getLogLikelihood()));
+    }
+
+    public void testLikelihoodHKY85GI() {
+        System.out.println("\nTest Java Likelihood using HKY85GI:");
+
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma",
+                null, 1.0,
+                new Parameter.Default(0.5),
+                4,
+                new Parameter.Default(0.75));
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(getHKY(8.0), siteRateModel, false, 1);
+
+        assertEquals("treeLikelihoodHKY85GI", format.format(-1815.02176), format.format(treeDataLikelihood.getLogLikelihood()));
+    }
+
+    public void testLikelihoodGTRGI() {
+        System.out.println("\nTest Java Likelihood using GTRGI:");
+
+        FrequencyModel f = new FrequencyModel(Nucleotides.INSTANCE, new Parameter.Default(alignment.getStateFrequencies()));
+        GTR gtr = new GTR(
+                new Parameter.Default(GTRParser.A_TO_C, 1.0),
+                new Parameter.Default(GTRParser.A_TO_G, 1.0),
+                new Parameter.Default(GTRParser.A_TO_T, 1.0),
+                new Parameter.Default(GTRParser.C_TO_G, 1.0),
+                new Parameter.Default(GTRParser.C_TO_T, 1.0),
+                new Parameter.Default(GTRParser.G_TO_T, 1.0), f);
+
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma",
+                null, 1.0,
+                new Parameter.Default(0.5), 4,
+                new Parameter.Default(0.5));
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(gtr, siteRateModel, true, 1);
+
+        assertEquals("treeLikelihoodGTRGI", format.format(-1951.62188), format.format(treeDataLikelihood.getLogLikelihood()));
+    }
+
+    public void testStoreRestore() throws DataLikelihoodDelegate.LikelihoodException {
+        System.out.println("\nTest Java Likelihood store and restore:");
+
+        checkStoreRestore(1);
+    }
+
+    public void testMultiThreadedStoreRestore() throws DataLikelihoodDelegate.LikelihoodException {
+        System.out.println("\nTest Java Likelihood using multiple pattern blocks:");
+
+        System.setProperty("java.pattern.block.size", "8");
+        try {
+            checkStoreRestore(4);
+        } finally {
+            System.clearProperty("java.pattern.block.size");
+        }
+    }
+
+    /**
+     * Changes the length of one branch and evaluates, then restores and checks that the restored partials
+     * and transition matrices, rather than a full recompute, give back the original likelihood.
+     */
+    private void checkStoreRestore(int threadCount) throws DataLikelihoodDelegate.LikelihoodException {
+        HKY hky = getHKY(8.0);
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gamma",
+                null, 1.0,
+                new Parameter.Default(0.5),
+                4, null);
+        TreeDataLikelihood treeDataLikelihood = getTreeDataLikelihood(hky, siteRateModel, false, threadCount);
+
+        final double original = treeDataLikelihood.getLogLikelihood();
+        assertEquals("treeLikelihoodHKY85G", format.format(-1816.82611), format.format(original));
+
+        // move an internal node half way to its parent: this changes its branch and those of its children
+        NodeRef node = treeModel.getInternalNode(0);
+        if (treeModel.isRoot(node)) {
+            node = treeModel.getInternalNode(1);
+        }
+        double height = treeModel.getNodeHeight(node);
+        double parentHeight = treeModel.getNodeHeight(treeModel.getParent(node));
+
+        treeDataLikelihood.storeModelState();
+        treeModel.setNodeHeight(node, (height + parentHeight) / 2.0);
+        double changed = treeDataLikelihood.getLogLikelihood();
+        assertFalse("likelihood should change", format.format(original).equals(format.format(changed)));
+
+        // restores the tree model as well as the likelihood buffers
+        treeDataLikelihood.restoreModelState();
+        assertEquals("restored", original, treeDataLikelihood.getLogLikelihood(), 0.0);
+
+        final int rootNodeNumber = treeModel.getRoot().getNumber();
+        final long partialsUpdateCount = dataLikelihoodDelegate.getTotalCalculationCount();
+
+        // the restored root partials alone
+        List<DataLikelihoodDelegate.BranchOperation> noBranchOperations = Collections.emptyList();
+        List<DataLikelihoodDelegate.NodeOperation> noNodeOperations = Collections.emptyList();
+        double restored = dataLikelihoodDelegate.calculateLikelihood(noBranchOperations, noNodeOperations,
+                rootNodeNumber);
+        assertEquals("restored partials", original, restored, 1E-10);
+        assertEquals("no partials updated", partialsUpdateCount, dataLikelihoodDelegate.getTotalCalculationCount());
+
+        // all the partials recomputed from the restored transition matrices, none of which are updated
+        LikelihoodTreeTraversal traversal = new LikelihoodTreeTraversal(treeModel, new DefaultBranchRateModel(),
+                TreeTraversal.TraversalType.POST_ORDER);
+        traversal.updateAllNodes();
+        traversal.dispatchTreeTraversalCollectBranchAndNodeOperations();
+        restored = dataLikelihoodDelegate.calculateLikelihood(noBranchOperations, traversal.getNodeOperations(),
+                rootNodeNumber);
+        assertEquals("restored matrices", original, restored, 1E-10);
+    }
+
+    public static Test suite() {
+        return new TestSuite(JavaDataLikelihoodDelegateTest.class);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * PostOrderTraversalSchedulerTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.evomodel.treedatalikelihood.continuous;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.treedatalikelihood.continuous.PostOrderTraversalScheduler;
+import dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.PrecisionType;
+import dr.evomodel.treedatalikelihood.continuous.cdi.SafeMultivariateActualizedWithDriftIntegrator;
+import dr.evomodel.treedatalikelihood.continuous.cdi.SafeMultivariateIntegrator;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+import static dr.evomodel.treedatalikelihood.continuous.cdi.ContinuousDiffusionIntegrator.OPERATION_TUPLE_SIZE;
+
+/**
+ * Checks that the parallel post-order traversal gives the same partials and remainders as the serial
+ * traversal of the integrator, for a full pass and for a partial pass from one tip to the root.
+ */
+public class PostOrderTraversalSchedulerTest extends TestCase {
+
+    private static final int TAXON_COUNT = 40;
+    private static final int DIM_TRAIT = 3;
+    private static final int THREAD_COUNT = 4;
+    private static final long SEED = 666;
+
+    private static final PrecisionType PRECISION_TYPE = PrecisionType.FULL;
+
+    public PostOrderTraversalSchedulerTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(SEED);
+
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            taxa.addTaxon(new Taxon("taxon" + (i + 1)));
+        }
+        ConstantPopulation demographic = new ConstantPopulation(Units.Type.YEARS);
+        demographic.setN0(1.0);
+        tree = new CoalescentSimulator().simulateTree(taxa, demographic);
+
+        nodeCount = tree.getNodeCount();
+        priorBufferIndex = nodeCount;
+
+        operations = new int[tree.getInternalNodeCount() * OPERATION_TUPLE_SIZE];
+        operationCount = 0;
+        addOperations(tree.getRoot());
+    }
+
+    public void testBrownianDiffusion() {
+        checkScheduler(false);
+    }
+
+    public void testOrnsteinUhlenbeck() {
+        checkScheduler(true);
+    }
+
+    private void checkScheduler(boolean ou) {
+        ContinuousDiffusionIntegrator serial = createIntegrator(ou);
+        ContinuousDiffusionIntegrator parallel = createIntegrator(ou);
+
+        PostOrderTraversalScheduler scheduler = new PostOrderTraversalScheduler(parallel, THREAD_COUNT, 1);
+
+        serial.updatePostOrderPartials(operations, operationCount, 0, true, false);
+        scheduler.updatePostOrderPartials(operations, operationCount, 0, true);
+        assertSameNodes(serial, parallel);
+
+        // change one tip and update the path from it to the root
+        double[] partial = createTipPartial(new Random(SEED + 1), false);
+        NodeRef node = tree.getExternalNode(0);
+        serial.setPostOrderPartial(node.getNumber(), partial);
+        parallel.setPostOrderPartial(node.getNumber(), partial);
+
+        int[] pathOperations = new int[operations.length];
+        int pathOperationCount = 0;
+        while (!tree.isRoot(node)) {
+            node = tree.getParent(node);
+            NodeRef child0 = tree.getChild(node, 0);
+            NodeRef child1 = tree.getChild(node, 1);
+            setOperation(pathOperations, pathOperationCount, node, child0, child1);
+            pathOperationCount++;
+        }
+
+        serial.updatePostOrderPartials(pathOperations, pathOperationCount, 0, true, false);
+        scheduler.updatePostOrderPartials(pathOperations, pathOperationCount, 0, true);
+        assertSameNodes(serial, parallel);
+    }
+
+    /**
+     * Compares the partials of the internal nodes and, through the log likelihood of each node against the
+     * prior, their remainders.
+     */
+    private void assertSameNodes(ContinuousDiffusionIntegrator expected, ContinuousDiffusionIntegrator actual) {
+        final int dimPartial = PRECISION_TYPE.getPartialsDimension(DIM_TRAIT);
+        double[] expectedPartial = new double[dimPartial];
+        double[] actualPartial = new double[dimPartial];
+        double[] expectedLogLikelihood = new double[1];
+        double[] actualLogLikelihood = new double[1];
+
+        for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+            final int nodeIndex = tree.getInternalNode(i).getNumber();
+
+            expected.getPostOrderPartial(nodeIndex, expectedPartial);
+            actual.getPostOrderPartial(nodeIndex, actualPartial);
+            for (int j = 0; j < dimPartial; j++) {
+                assertEquals("node " + nodeIndex + " partial " + j, expectedPartial[j], actualPartial[j], 0.0);
+            }
+
+            expected.calculateRootLogLikelihood(nodeIndex, priorBufferIndex, 0, expectedLogLikelihood,
+                    false, false);
+            actual.calculateRootLogLikelihood(nodeIndex, priorBufferIndex, 0, actualLogLikelihood,
+                    false, false);
+            assertFalse(Double.isNaN(expectedLogLikelihood[0]));
+            assertEquals("node " + nodeIndex + " log likelihood",
+                    expectedLogLikelihood[0], actualLogLikelihood[0], 0.0);
+        }
+    }
+
+    private ContinuousDiffusionIntegrator createIntegrator(boolean ou) {
+        final int bufferCount = nodeCount + 1;
+
+        ContinuousDiffusionIntegrator cdi;
+        if (ou) {
+            cdi = new SafeMultivariateActualizedWithDriftIntegrator(PRECISION_TYPE, 1, DIM_TRAIT, DIM_TRAIT,
+                    bufferCount, 1, true);
+        } else {
+            cdi = new SafeMultivariateIntegrator(PRECISION_TYPE, 1, DIM_TRAIT, DIM_TRAIT, bufferCount, 1);
+        }
+
+        double[] precision = new double[]{
+                1.4, 0.4, 0.1,
+                0.4, 1.0, 0.3,
+                0.1, 0.3, 2.1
+        };
+        cdi.setDiffusionPrecision(0, precision, Math.log(2.492));
+
+        int[] branchIndices = new int[nodeCount - 1];
+        double[] branchLengths = new double[nodeCount - 1];
+        int branchCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            NodeRef node = tree.getNode(i);
+            if (!tree.isRoot(node)) {
+                branchIndices[branchCount] = node.getNumber();
+                branchLengths[branchCount] = tree.getBranchLength(node);
+                branchCount++;
+            }
+        }
+
+        Random random = new Random(SEED);
+        double[] optimalRates = new double[branchCount * DIM_TRAIT];
+        for (int i = 0; i < optimalRates.length; i++) {
+            optimalRates[i] = random.nextGaussian();
+        }
+
+        if (ou) {
+            // a selection strength matrix with eigenvectors rotated in the plane of the first two traits
+            final double angle = 0.3;
+            double[] eigenValues = new double[]{1.5, 0.6, 0.9};
+            double[] rotation = new double[]{
+                    Math.cos(angle), -Math.sin(angle), 0.0,
+                    Math.sin(angle), Math.cos(angle), 0.0,
+                    0.0, 0.0, 1.0
+            };
+            cdi.setDiffusionStationaryVariance(0, eigenValues, rotation);
+            cdi.updateOrnsteinUhlenbeckDiffusionMatrices(0, branchIndices, branchLengths, optimalRates,
+                    eigenValues, rotation, branchCount);
+        } else {
+            cdi.updateBrownianDiffusionMatrices(0, branchIndices, branchLengths, optimalRates, branchCount);
+        }
+
+        // every fourth tip has its last trait missing
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            cdi.setPostOrderPartial(tree.getExternalNode(i).getNumber(), createTipPartial(random, i % 4 == 3));
+        }
+
+        double[] prior = new double[PRECISION_TYPE.getPartialsDimension(DIM_TRAIT)];
+        for (int j = 0; j < DIM_TRAIT; j++) {
+            PRECISION_TYPE.fillPrecisionInPartials(prior, 0, j, 0.1, DIM_TRAIT);
+        }
+        PRECISION_TYPE.fillEffDimInPartials(prior, 0, DIM_TRAIT, DIM_TRAIT);
+        cdi.setPostOrderPartial(priorBufferIndex, prior);
+
+        return cdi;
+    }
+
+    private double[] createTipPartial(Random random, boolean lastTraitMissing) {
+        double[] partial = new double[PRECISION_TYPE.getPartialsDimension(DIM_TRAIT)];
+        int effectiveDimension = 0;
+        for (int j = 0; j < DIM_TRAIT; j++) {
+            final boolean missing = lastTraitMissing && j == DIM_TRAIT - 1;
+            partial[j] = missing ? 0.0 : random.nextGaussian();
+            if (!missing) {
+                effectiveDimension++;
+            }
+            PRECISION_TYPE.fillPrecisionInPartials(partial, 0, j,
+                    PrecisionType.getObservedPrecisionValue(missing), DIM_TRAIT);
+        }
+        PRECISION_TYPE.fillEffDimInPartials(partial, 0, effectiveDimension, DIM_TRAIT);
+        PRECISION_TYPE.fillNoDeterminantInPartials(partial, 0, DIM_TRAIT);
+        return partial;
+    }
+
+    private void addOperations(NodeRef node) {
+        if (!tree.isExternal(node)) {
+            NodeRef child0 = tree.getChild(node, 0);
+            NodeRef child1 = tree.getChild(node, 1);
+            addOperations(child0);
+            addOperations(child1);
+            setOperation(operations, operationCount, node, child0, child1);
+            operationCount++;
+        }
+    }
+
+    private static void setOperation(int[] operations, int index, NodeRef node, NodeRef child0, NodeRef child1) {
+        final int offset = index * OPERATION_TUPLE_SIZE;
+        operations[offset] = node.getNumber();
+        operations[offset + 1] = child0.getNumber();
+        operations[offset + 2] = child0.getNumber();
+        operations[offset + 3] = child1.getNumber();
+        operations[offset + 4] = child1.getNumber();
+    }
+
+    public static Test suite() {
+        return new TestSuite(PostOrderTraversalSchedulerTest.class);
+    }
+
+    private Tree tree;
+    private int nodeCount;
+    private int priorBufferIndex;
+    private int[] operations;
+    private int operationCount;
+}
@@ -0,0 +1,183 @@
+/*
+ * HawkesCoreImplTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.hawkes;
+
+import dr.inference.hawkes.HawkesCore;
+import dr.inference.hawkes.HawkesCoreImpl;
+import dr.math.MathUtils;
+import dr.math.distributions.NormalDistribution;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks the Java Hawkes core against a direct evaluation of the likelihood, that it gives the same results
+ * with threads and (nearly) with truncation, and its gradients against finite differences.
+ */
+public class HawkesCoreImplTest extends TestCase {
+
+    private static final int DIMENSION = 2;
+    private static final int COUNT = 300;
+
+    // sigmaXprec, tauXprec, tauTprec, omega, theta, mu0
+    private static final double[] PARAMETERS = { 2.0, 0.5, 0.2, 1.5, 0.4, 0.3 };
+
+    private double[] locations;
+    private double[] times;
+    private double[] randomRates;
+
+    public HawkesCoreImplTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        locations = new double[COUNT * DIMENSION];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = MathUtils.nextDouble() * 20.0;
+        }
+        times = new double[COUNT];
+        for (int i = 1; i < COUNT; i++) {
+            times[i] = times[i - 1] + MathUtils.nextExponential(2.0);
+        }
+        randomRates = new double[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            randomRates[i] = 0.5 + MathUtils.nextDouble();
+        }
+    }
+
+    private HawkesCore createCore(int threads, double truncation) {
+        HawkesCore core = new HawkesCoreImpl(threads, truncation);
+        core.initialize(DIMENSION, COUNT, 0);
+        core.setParameters(PARAMETERS);
+        core.setTimesData(times);
+        core.setRandomRates(randomRates);
+        core.updateLocation(-1, locations);
+        return core;
+    }
+
+    public void testLogLikelihood() {
+        double expected = 0.0;
+        double sigmaXprec = PARAMETERS[0], tauXprec = PARAMETERS[1], tauTprec = PARAMETERS[2];
+        double omega = PARAMETERS[3], theta = PARAMETERS[4], mu0 = PARAMETERS[5];
+        double maxTime = times[COUNT - 1];
+
+        for (int i = 0; i < COUNT; i++) {
+            double rate = 0.0;
+            for (int j = 0; j < COUNT; j++) {
+                if (i != j) {
+                    double backgroundSpace = 1.0;
+                    double excitationSpace = 1.0;
+                    for (int d = 0; d < DIMENSION; d++) {
+                        double difference = locations[i * DIMENSION + d] - locations[j * DIMENSION + d];
+                        backgroundSpace *= NormalDistribution.pdf(difference, 0.0, 1.0 / tauXprec);
+                        excitationSpace *= NormalDistribution.pdf(difference, 0.0, 1.0 / sigmaXprec);
+                    }
+                    rate += mu0 * backgroundSpace * NormalDistribution.pdf(times[i] - times[j], 0.0, 1.0 / tauTprec);
+                    if (times[i] > times[j]) {
+                        rate += theta * randomRates[j] * excitationSpace * omega * Math.exp(-omega * (times[i] - times[j]));
+                    }
+                }
+            }
+            expected += Math.log(rate);
+            expected -= theta * randomRates[i] * (1.0 - Math.exp(-omega * (maxTime - times[i])));
+            expected -= mu0 * (NormalDistribution.cdf(maxTime, times[i], 1.0 / tauTprec) -
+                    NormalDistribution.cdf(0.0, times[i], 1.0 / tauTprec));
+        }
+
+        HawkesCore core = createCore(1, 0.0);
+        assertEquals(expected, core.calculateLogLikelihood(), 1E-8);
+
+        assertEquals("threaded", expected, createCore(4, 0.0).calculateLogLikelihood(), 1E-8);
+
+        assertEquals("truncated", expected, createCore(4, 1E-12).calculateLogLikelihood(), 1E-6);
+    }
+
+    public void testStoreRestore() {
+        HawkesCore core = createCore(4, 1E-12);
+        double logLikelihood = core.calculateLogLikelihood();
+
+        core.storeState();
+        core.updateLocation(5, new double[] { 10.0, 10.0 });
+        core.setParameters(new double[] { 1.0, 1.0, 1.0, 1.0, 1.0, 1.0 });
+        assertTrue(core.calculateLogLikelihood() != logLikelihood);
+
+        core.restoreState();
+        assertEquals(logLikelihood, core.calculateLogLikelihood(), 1E-10);
+    }
+
+    public void testLocationGradient() {
+        for (double truncation : new double[] { 0.0, 1E-12 }) {
+            HawkesCore core = createCore(4, truncation);
+            core.calculateLogLikelihood();
+            double[] gradient = new double[locations.length];
+            core.getLocationGradient(gradient);
+
+            double h = 1E-6;
+            for (int k = 0; k < locations.length; k += 37) {
+                double[] shifted = locations.clone();
+                shifted[k] += h;
+                core.updateLocation(-1, shifted);
+                double upper = core.calculateLogLikelihood();
+                shifted[k] -= 2 * h;
+                core.updateLocation(-1, shifted);
+                double lower = core.calculateLogLikelihood();
+                core.updateLocation(-1, locations);
+
+                assertEquals("location " + k, (upper - lower) / (2 * h), gradient[k], 1E-4);
+            }
+        }
+    }
+
+    public void testRandomRatesGradient() {
+        HawkesCore core = createCore(4, 0.0);
+        double[] gradient = new double[COUNT];
+        core.getRandomRatesGradient(gradient);
+
+        double h = 1E-6;
+        for (int j = 0; j < COUNT; j += 23) {
+            double[] shifted = randomRates.clone();
+            shifted[j] += h;
+            core.setRandomRates(shifted);
+            double upper = core.calculateLogLikelihood();
+            shifted[j] -= 2 * h;
+            core.setRandomRates(shifted);
+            double lower = core.calculateLogLikelihood();
+            core.setRandomRates(randomRates);
+
+            assertEquals("rate " + j, (upper - lower) / (2 * h), gradient[j], 1E-4);
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(HawkesCoreImplTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * CompoundGradientTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.hmc;
+
+import dr.inference.distribution.MultivariateDistributionLikelihood;
+import dr.inference.hmc.CompoundDerivative;
+import dr.inference.hmc.GradientWrtParameterProvider;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.math.distributions.MultivariateNormalDistribution;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that a compound gradient evaluated on several threads gives the same vector as the serial evaluation, and
+ * that components sharing a likelihood are never evaluated at the same time.
+ */
+public class CompoundGradientTest extends TestCase {
+
+    private static final int THREAD_COUNT = 4;
+
+    public CompoundGradientTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        inUse = new ConcurrentHashMap<>();
+        concurrentEvaluations = new AtomicInteger(0);
+    }
+
+    public void testThreadedMatchesSerial() {
+        List<GradientWrtParameterProvider> components = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Parameter parameter = createParameter("x" + i, i + 2);
+            MultivariateNormalDistribution distribution = createDistribution(parameter.getDimension(), i + 1);
+            MultivariateDistributionLikelihood likelihood = createLikelihood("x" + i, distribution, parameter);
+            components.add(new GradientWrtParameterProvider.ParameterWrapper(distribution, parameter, likelihood));
+        }
+
+        assertGradientsEqual(new CompoundDerivative(components, 0), new CompoundDerivative(components, THREAD_COUNT));
+    }
+
+    public void testSharedLikelihoodsAreEvaluatedInTurn() {
+        List<GradientWrtParameterProvider> components = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            // two gradients, with respect to different parameters, of each likelihood
+            Parameter first = createParameter("x" + i, 3);
+            Parameter second = createParameter("y" + i, 3);
+            MultivariateNormalDistribution distribution = createDistribution(3, i + 1);
+            MultivariateDistributionLikelihood likelihood = createLikelihood("x" + i, distribution, first);
+
+            components.add(new SharedStateGradient(distribution, first, likelihood));
+            components.add(new SharedStateGradient(distribution, second, likelihood));
+        }
+
+        CompoundDerivative serial = new CompoundDerivative(components, 0);
+        CompoundDerivative threaded = new CompoundDerivative(components, THREAD_COUNT);
+        for (int i = 0; i < 20; i++) {
+            assertGradientsEqual(serial, threaded);
+        }
+
+        assertEquals("gradients of the same likelihood were evaluated concurrently",
+                0, concurrentEvaluations.get());
+    }
+
+    private void assertGradientsEqual(CompoundDerivative expected, CompoundDerivative actual) {
+        double[] expectedGradient = expected.getGradientLogDensity();
+        double[] actualGradient = actual.getGradientLogDensity();
+
+        assertEquals(expected.getDimension(), expectedGradient.length);
+        assertEquals(expectedGradient.length, actualGradient.length);
+        for (int i = 0; i < expectedGradient.length; i++) {
+            assertEquals("gradient " + i, expectedGradient[i], actualGradient[i], 0.0);
+        }
+    }
+
+    private static Parameter createParameter(String name, int dimension) {
+        Parameter parameter = new Parameter.Default(name, dimension);
+        for (int i = 0; i < dimension; i++) {
+            parameter.setParameterValue(i, 0.5 * (i + 1) - 1.0);
+        }
+        return parameter;
+    }
+
+    private static MultivariateNormalDistribution createDistribution(int dimension, double scale) {
+        double[] mean = new double[dimension];
+        double[][] precision = new double[dimension][dimension];
+        for (int i = 0; i < dimension; i++) {
+            mean[i] = 0.1 * i;
+            for (int j = 0; j < dimension; j++) {
+                precision[i][j] = scale * (i == j ? 1.0 : 0.2);
+            }
+        }
+        return new MultivariateNormalDistribution(mean, precision);
+    }
+
+    private static MultivariateDistributionLikelihood createLikelihood(String name,
+                                                                       MultivariateNormalDistribution distribution,
+                                                                       Parameter parameter) {
+        MultivariateDistributionLikelihood likelihood = new MultivariateDistributionLikelihood(name, distribution);
+        likelihood.addData(parameter);
+        return likelihood;
+    }
+
+    /**
+     * A gradient that stands in for one computed from a likelihood's shared state: it records any overlap with
+     * another evaluation using the same likelihood.
+     */
+    private class SharedStateGradient extends GradientWrtParameterProvider.ParameterWrapper {
+
+        SharedStateGradient(MultivariateNormalDistribution distribution, Parameter parameter, Likelihood likelihood) {
+            super(distribution, parameter, likelihood);
+        }
+
+        @Override
+        public double[] getGradientLogDensity() {
+            if (inUse.putIfAbsent(getLikelihood(), Boolean.TRUE) != null) {
+                concurrentEvaluations.incrementAndGet();
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            double[] gradient = super.getGradientLogDensity();
+            inUse.remove(getLikelihood());
+            return gradient;
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(CompoundGradientTest.class);
+    }
+
+    private ConcurrentHashMap<Likelihood, Boolean> inUse;
+    private AtomicInteger concurrentEvaluations;
+}
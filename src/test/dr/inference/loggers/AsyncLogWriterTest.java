@@ -0,0 +1,221 @@
+/*
+ * AsyncLogWriterTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.loggers;
+
+import dr.inference.loggers.AsyncLogWriter;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the ordering, back-pressure, draining and failure handling of the asynchronous log writer.
+ */
+public class AsyncLogWriterTest extends TestCase {
+
+    private static final int RING_SIZE = 4;
+
+    public AsyncLogWriterTest(String name) {
+        super(name);
+    }
+
+    public void testOrdering() {
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        AsyncLogWriter<Record> writer = createWriter(new AsyncLogWriter.RecordWriter<Record>() {
+            @Override
+            public void writeRecord(Record record) {
+                written.add(record.value);
+            }
+        });
+
+        // many more records than the ring holds so records are reused
+        publish(writer, 0, 1000);
+        writer.close();
+
+        assertEquals(1000, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(i, (int) written.get(i));
+        }
+    }
+
+    public void testBackPressure() throws Exception {
+        final Semaphore permits = new Semaphore(0);
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        final AsyncLogWriter<Record> writer = createWriter(new AsyncLogWriter.RecordWriter<Record>() {
+            @Override
+            public void writeRecord(Record record) {
+                permits.acquireUninterruptibly();
+                written.add(record.value);
+            }
+        });
+
+        // fill the ring while the writer is held up
+        publish(writer, 0, RING_SIZE);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread sampler = new Thread() {
+            @Override
+            public void run() {
+                publish(writer, RING_SIZE, RING_SIZE + 1);
+                acquired.countDown();
+            }
+        };
+        sampler.start();
+
+        assertFalse("the sampler must wait for a free record", acquired.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, written.size());
+
+        // writing one record frees its slot
+        permits.release();
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        sampler.join();
+
+        permits.release(RING_SIZE);
+        writer.close();
+
+        assertEquals(RING_SIZE + 1, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(i, (int) written.get(i));
+        }
+    }
+
+    public void testFlushDrains() {
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        AsyncLogWriter<Record> writer = createWriter(new SlowWriter(written));
+
+        publish(writer, 0, 20);
+        writer.flush();
+        assertEquals(20, written.size());
+
+        publish(writer, 20, 30);
+        writer.flush();
+        assertEquals(30, written.size());
+
+        writer.close();
+    }
+
+    public void testCloseDrains() {
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        AsyncLogWriter<Record> writer = createWriter(new SlowWriter(written));
+
+        publish(writer, 0, 20);
+        writer.close();
+
+        assertEquals(20, written.size());
+        assertEquals(19, (int) written.get(19));
+    }
+
+    public void testFailureIsRethrown() {
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        AsyncLogWriter<Record> writer = createWriter(new AsyncLogWriter.RecordWriter<Record>() {
+            @Override
+            public void writeRecord(Record record) {
+                if (record.value == 3) {
+                    throw new IllegalStateException("disk full");
+                }
+                written.add(record.value);
+            }
+        });
+
+        // the failing record is the last one so the failure can't surface while publishing
+        publish(writer, 0, 4);
+
+        try {
+            writer.flush();
+            fail("flush should re-throw the writer's failure");
+        } catch (RuntimeException re) {
+            assertTrue(re.getCause() instanceof IllegalStateException);
+            assertEquals("disk full", re.getCause().getMessage());
+        }
+
+        try {
+            writer.acquire();
+            fail("the next log step should re-throw the writer's failure");
+        } catch (RuntimeException re) {
+            assertTrue(re.getCause() instanceof IllegalStateException);
+        }
+
+        try {
+            writer.close();
+            fail("close should re-throw the writer's failure");
+        } catch (RuntimeException re) {
+            assertTrue(re.getCause() instanceof IllegalStateException);
+        }
+
+        assertEquals(3, written.size());
+    }
+
+    private static AsyncLogWriter<Record> createWriter(AsyncLogWriter.RecordWriter<Record> recordWriter) {
+        return new AsyncLogWriter<Record>("testLogWriter", RING_SIZE, new AsyncLogWriter.RecordFactory<Record>() {
+            @Override
+            public Record createRecord() {
+                return new Record();
+            }
+        }, recordWriter);
+    }
+
+    private static void publish(AsyncLogWriter<Record> writer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            Record record = writer.acquire();
+            record.value = i;
+            writer.publish();
+        }
+    }
+
+    private static final class Record {
+        int value;
+    }
+
+    private static final class SlowWriter implements AsyncLogWriter.RecordWriter<Record> {
+        SlowWriter(List<Integer> written) {
+            this.written = written;
+        }
+
+        @Override
+        public void writeRecord(Record record) {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ie) {
+                // ignore
+            }
+            written.add(record.value);
+        }
+
+        private final List<Integer> written;
+    }
+
+    public static Test suite() {
+        return new TestSuite(AsyncLogWriterTest.class);
+    }
+}
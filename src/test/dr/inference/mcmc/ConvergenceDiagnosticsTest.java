@@ -0,0 +1,169 @@
+/*
+ * ConvergenceDiagnosticsTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.mcmc;
+
+import dr.inference.mcmc.ConvergenceDiagnostics;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import test.dr.math.MathTestCase;
+
+public class ConvergenceDiagnosticsTest extends MathTestCase {
+
+    public ConvergenceDiagnosticsTest(String name) {
+        super(name);
+    }
+
+    public void testStatistics() {
+        MathUtils.setSeed(666);
+
+        for (int n : new int[] { 10, 100, 1000, 12345 }) {
+            double[] x = ar1(n, 0.5, 10.0);
+            double[] y = ar1(n, 0.9, -3.0);
+
+            ConvergenceDiagnostics.Statistics statistics = new ConvergenceDiagnostics.Statistics(2);
+            for (int i = 0; i < n; i++) {
+                statistics.add(new double[] { x[i], y[i] });
+            }
+
+            String message = "n = " + n;
+            assertEquals(message, n, statistics.getSampleCount());
+            assertEquals(message, mean(x, n), statistics.getMean(0), 1E-10);
+            assertEquals(message, variance(x, n), statistics.getVariance(0), 1E-10);
+            assertEquals(message, mean(y, n), statistics.getMean(1), 1E-10);
+            assertEquals(message, variance(y, n), statistics.getVariance(1), 1E-10);
+
+            // the batch length doubles each time there are twice BATCH_COUNT complete batches
+            long batchSize = 1;
+            int batchCount = 0;
+            for (int i = 1; i <= n; i++) {
+                if (i % batchSize == 0) {
+                    batchCount++;
+                    if (batchCount == 2 * ConvergenceDiagnostics.BATCH_COUNT) {
+                        batchCount = ConvergenceDiagnostics.BATCH_COUNT;
+                        batchSize *= 2;
+                    }
+                }
+            }
+            double expected = batchMeansESS(y, (int) batchSize, batchCount);
+            assertEquals(message, expected, statistics.getESS(1), 1E-8 * expected);
+        }
+    }
+
+    public void testESS() {
+        MathUtils.setSeed(666);
+
+        // with 32 to 64 batches a single estimate is only good to about 20%, so average replicates
+        int n = 100000;
+        int replicates = 10;
+        for (double phi : new double[] { 0.0, 0.5, 0.9 }) {
+            double meanESS = 0.0;
+            for (int r = 0; r < replicates; r++) {
+                double[] x = ar1(n, phi, 0.0);
+                ConvergenceDiagnostics.Statistics statistics = new ConvergenceDiagnostics.Statistics(1);
+                for (double value : x) {
+                    statistics.add(new double[] { value });
+                }
+                meanESS += statistics.getESS(0) / replicates;
+                assertTrue("phi = " + phi, statistics.getRHat(0) < 1.05);
+            }
+
+            double expected = n * (1.0 - phi) / (1.0 + phi);
+            assertEquals("phi = " + phi, expected, meanESS, 0.15 * expected);
+        }
+    }
+
+    public void testConvergence() {
+        MathUtils.setSeed(666);
+
+        ConvergenceDiagnostics.Statistics statistics = new ConvergenceDiagnostics.Statistics(2);
+        for (int i = 0; i < 10000; i++) {
+            // the second column is constant so is ignored
+            statistics.add(new double[] { MathUtils.nextGaussian(), 1.0 });
+        }
+        assertTrue(Double.isNaN(statistics.getESS(1)));
+        assertEquals(statistics.getESS(0), statistics.getMinimumESS());
+        assertTrue(statistics.isConverged(1000.0, 1.01));
+        assertFalse(statistics.isConverged(100000.0, 1.01));
+
+        // a drift between the two halves of the run inflates R-hat
+        for (int i = 0; i < 10000; i++) {
+            statistics.add(new double[] { 2.0 + MathUtils.nextGaussian(), 1.0 });
+        }
+        assertTrue(statistics.getMaximumRHat() > 1.1);
+        assertFalse(statistics.isConverged(50.0, 1.01));
+        assertTrue(statistics.isConverged(50.0, 0.0));
+    }
+
+    private static double[] ar1(int n, double phi, double mean) {
+        double[] values = new double[n];
+        double x = 0.0;
+        for (int i = 0; i < n; i++) {
+            x = phi * x + MathUtils.nextGaussian();
+            values[i] = mean + x;
+        }
+        return values;
+    }
+
+    private static double mean(double[] values, int n) {
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += values[i];
+        }
+        return sum / n;
+    }
+
+    private static double variance(double[] values, int n) {
+        double mean = mean(values, n);
+        double ss = 0.0;
+        for (int i = 0; i < n; i++) {
+            ss += (values[i] - mean) * (values[i] - mean);
+        }
+        return ss / (n - 1);
+    }
+
+    private static double batchMeansESS(double[] values, int batchSize, int batchCount) {
+        int n = batchSize * batchCount;
+        double mean = mean(values, n);
+        double between = 0.0;
+        for (int j = 0; j < batchCount; j++) {
+            double batchMean = 0.0;
+            for (int i = j * batchSize; i < (j + 1) * batchSize; i++) {
+                batchMean += values[i];
+            }
+            batchMean /= batchSize;
+            between += (batchMean - mean) * (batchMean - mean);
+        }
+        double batchVariance = batchSize * between / (batchCount - 1);
+        return n * variance(values, n) / batchVariance;
+    }
+
+    public static Test suite() {
+        return new TestSuite(ConvergenceDiagnosticsTest.class);
+    }
+}
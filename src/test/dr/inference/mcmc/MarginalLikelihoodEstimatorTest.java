@@ -0,0 +1,235 @@
+/*
+ * MarginalLikelihoodEstimatorTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.mcmc;
+
+import dr.app.checkpoint.BeastCheckpointer;
+import dr.inference.mcmc.MarginalLikelihoodEstimator;
+import dr.inference.model.ParameterParser;
+import dr.inference.model.PathLikelihood;
+import dr.inference.state.ModelScope;
+import dr.inferencexml.MCMCParser;
+import dr.inferencexml.distribution.DistributionLikelihoodParser;
+import dr.inferencexml.distribution.NormalDistributionModelParser;
+import dr.inferencexml.loggers.LoggerParser;
+import dr.inferencexml.model.CompoundLikelihoodParser;
+import dr.inferencexml.operators.RandomWalkOperatorParser;
+import dr.inferencexml.operators.SimpleOperatorScheduleParser;
+import dr.math.MathUtils;
+import dr.xml.XMLParser;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a small path sampling marginal likelihood estimator sequentially and with its path steps split between
+ * three copies of the estimator (as -mle_threads 3 does) and checks that the two logs are laid out the same.
+ */
+public class MarginalLikelihoodEstimatorTest extends TestCase {
+
+    private static final int PATH_STEPS = 10;
+    private static final int CHAIN_LENGTH = 2000;
+    private static final int LOG_EVERY = 100;
+
+    public MarginalLikelihoodEstimatorTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        // a state saver is needed to start the copies from the state of the estimator
+        BeastCheckpointer.getInstance(null, -1, -1, false);
+
+        directories = new ArrayList<File>();
+    }
+
+    public void tearDown() throws Exception {
+        for (File directory : directories) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testConcurrentPathSteps() throws Exception {
+        List<String[]> sequential = readLog(runEstimator(1));
+        List<String[]> concurrent = readLog(runEstimator(3));
+
+        assertEquals("header", String.join("\t", sequential.get(0)), String.join("\t", concurrent.get(0)));
+        assertEquals("row count", sequential.size(), concurrent.size());
+        assertEquals("rows", (PATH_STEPS + 1) * CHAIN_LENGTH / LOG_EVERY, sequential.size() - 1);
+
+        for (int i = 1; i < sequential.size(); i++) {
+            assertEquals("state of row " + i, sequential.get(i)[0], concurrent.get(i)[0]);
+            assertEquals("columns of row " + i, sequential.get(i).length, concurrent.get(i).length);
+        }
+    }
+
+    /**
+     * Runs the XML in a directory of its own, with the path steps split between the given number of copies of
+     * the estimator, and returns the estimator's log file.
+     */
+    private File runEstimator(int copyCount) throws Exception {
+        File directory = File.createTempFile("mle", "");
+        directory.delete();
+        assertTrue(directory.mkdir());
+        directories.add(directory);
+
+        File xmlFile = new File(directory, "mle.xml");
+        Writer writer = new FileWriter(xmlFile);
+        writer.write(getXML(directory));
+        writer.close();
+
+        File mcmcLog = new File(directory, "mcmc.log");
+        File mleLog = new File(directory, "mle.log");
+
+        if (copyCount > 1) {
+            MarginalLikelihoodEstimator[] copies = new MarginalLikelihoodEstimator[copyCount - 1];
+            for (int i = 0; i < copies.length; i++) {
+                Reader reader = new FileReader(xmlFile);
+                ModelScope scope = ModelScope.begin();
+                copies[i] = (MarginalLikelihoodEstimator) createParser().parseElement(reader,
+                        MarginalLikelihoodEstimator.MARGINAL_LIKELIHOOD_ESTIMATOR);
+                scope.end();
+                scope.register(copies[i].getMarkovChain());
+                reader.close();
+            }
+
+            // the copies must leave the log files for the estimator that is run
+            assertFalse("a copy opened the MCMC log", mcmcLog.exists());
+            assertFalse("a copy opened the estimator log", mleLog.exists());
+
+            MarginalLikelihoodEstimator.setConcurrentCopies(copies, ModelScope.begin());
+        }
+
+        Reader reader = new FileReader(xmlFile);
+        createParser().parse(reader, true);
+        reader.close();
+
+        return mleLog;
+    }
+
+    private XMLParser createParser() {
+        XMLParser parser = new XMLParser(false, false, true, null);
+        parser.addXMLObjectParser(new ParameterParser());
+        parser.addXMLObjectParser(new NormalDistributionModelParser());
+        parser.addXMLObjectParser(new DistributionLikelihoodParser());
+        parser.addXMLObjectParser(new CompoundLikelihoodParser());
+        parser.addXMLObjectParser(new RandomWalkOperatorParser());
+        parser.addXMLObjectParser(new SimpleOperatorScheduleParser());
+        parser.addXMLObjectParser(new LoggerParser());
+        parser.addXMLObjectParser(new MCMCParser());
+        parser.addXMLObjectParser(PathLikelihood.PARSER);
+        parser.addXMLObjectParser(MarginalLikelihoodEstimator.PARSER);
+        return parser;
+    }
+
+    private List<String[]> readLog(File file) throws IOException {
+        List<String[]> rows = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("#") && line.trim().length() > 0) {
+                    rows.add(line.split("\t"));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    private String getXML(File directory) {
+        return "<beast>\n" +
+                "    <distributionLikelihood id=\"samplingDensity\">\n" +
+                "        <distribution>\n" +
+                "            <normalDistributionModel>\n" +
+                "                <mean><parameter id=\"mu\" value=\"0\"/></mean>\n" +
+                "                <precision><parameter value=\"1\"/></precision>\n" +
+                "            </normalDistributionModel>\n" +
+                "        </distribution>\n" +
+                "        <data><parameter value=\"2\"/></data>\n" +
+                "    </distributionLikelihood>\n" +
+                "    <distributionLikelihood id=\"meanPrior\">\n" +
+                "        <distribution>\n" +
+                "            <normalDistributionModel>\n" +
+                "                <mean><parameter value=\"0\"/></mean>\n" +
+                "                <precision><parameter value=\"1\"/></precision>\n" +
+                "            </normalDistributionModel>\n" +
+                "        </distribution>\n" +
+                "        <data><parameter idref=\"mu\"/></data>\n" +
+                "    </distributionLikelihood>\n" +
+                "    <operators id=\"operators\">\n" +
+                "        <randomWalkOperator windowSize=\"0.75\" weight=\"1\"><parameter idref=\"mu\"/></randomWalkOperator>\n" +
+                "    </operators>\n" +
+                "    <mcmc id=\"mcmc\" chainLength=\"" + CHAIN_LENGTH + "\" autoOptimize=\"true\">\n" +
+                "        <posterior id=\"posterior\">\n" +
+                "            <likelihood id=\"likelihood\">\n" +
+                "                <distributionLikelihood idref=\"samplingDensity\"/>\n" +
+                "            </likelihood>\n" +
+                "            <prior id=\"prior\">\n" +
+                "                <distributionLikelihood idref=\"meanPrior\"/>\n" +
+                "            </prior>\n" +
+                "        </posterior>\n" +
+                "        <operators idref=\"operators\"/>\n" +
+                "        <log logEvery=\"" + LOG_EVERY + "\" fileName=\"" + new File(directory, "mcmc.log").getAbsolutePath() + "\">\n" +
+                "            <posterior idref=\"posterior\"/>\n" +
+                "            <parameter idref=\"mu\"/>\n" +
+                "        </log>\n" +
+                "    </mcmc>\n" +
+                "    <marginalLikelihoodEstimator chainLength=\"" + CHAIN_LENGTH + "\" pathSteps=\"" + PATH_STEPS + "\" pathScheme=\"oneSidedBeta\">\n" +
+                "        <samplers><mcmc idref=\"mcmc\"/></samplers>\n" +
+                "        <pathLikelihood id=\"pathLikelihood\">\n" +
+                "            <source><posterior idref=\"posterior\"/></source>\n" +
+                "            <destination><prior idref=\"prior\"/></destination>\n" +
+                "        </pathLikelihood>\n" +
+                "        <log logEvery=\"" + LOG_EVERY + "\" fileName=\"" + new File(directory, "mle.log").getAbsolutePath() + "\">\n" +
+                "            <pathLikelihood idref=\"pathLikelihood\"/>\n" +
+                "        </log>\n" +
+                "    </marginalLikelihoodEstimator>\n" +
+                "</beast>\n";
+    }
+
+    public static Test suite() {
+        return new TestSuite(MarginalLikelihoodEstimatorTest.class);
+    }
+
+    private List<File> directories;
+}
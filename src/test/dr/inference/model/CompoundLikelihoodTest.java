@@ -0,0 +1,120 @@
+/*
+ * CompoundLikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.model;
+
+import dr.inference.model.*;
+import test.dr.math.MathTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the work stealing evaluation of a CompoundLikelihood gives the same
+ * result as serial evaluation as the component models change.
+ */
+public class CompoundLikelihoodTest extends MathTestCase {
+
+    private static class ParameterModel extends AbstractModel {
+        ParameterModel(Parameter parameter) {
+            super("parameterModel");
+            this.parameter = parameter;
+            addVariable(parameter);
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) { }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+            fireModelChanged();
+        }
+
+        protected void storeState() { }
+
+        protected void restoreState() { }
+
+        protected void acceptState() { }
+
+        final Parameter parameter;
+    }
+
+    private static class CostlyLikelihood extends Likelihood.Abstract {
+        CostlyLikelihood(ParameterModel model, int cost) {
+            super(model);
+            this.parameterModel = model;
+            this.cost = cost;
+        }
+
+        protected double calculateLogLikelihood() {
+            double x = parameterModel.parameter.getParameterValue(0);
+            double logL = 0.0;
+            for (int i = 0; i < cost; i++) {
+                logL -= 0.5 * x * x / cost;
+            }
+            return logL;
+        }
+
+        private final ParameterModel parameterModel;
+        private final int cost;
+    }
+
+    public void testWorkStealingMatchesSerial() {
+        System.setProperty("thread.cheap.threshold.nanos", "0");
+        try {
+            List<Parameter> parameters = new ArrayList<Parameter>();
+            List<Likelihood> serialLikelihoods = new ArrayList<Likelihood>();
+            List<Likelihood> parallelLikelihoods = new ArrayList<Likelihood>();
+
+            int[] costs = {10, 100000, 1000, 500000, 1};
+            for (int i = 0; i < costs.length; i++) {
+                Parameter parameter = new Parameter.Default(i + 1.0);
+                parameters.add(parameter);
+                ParameterModel model = new ParameterModel(parameter);
+                serialLikelihoods.add(new CostlyLikelihood(model, costs[i]));
+                parallelLikelihoods.add(new CostlyLikelihood(model, costs[i]));
+            }
+
+            CompoundLikelihood serial = new CompoundLikelihood(0, serialLikelihoods);
+            CompoundLikelihood parallel = new CompoundLikelihood(4, parallelLikelihoods, true);
+
+            assertTrue(parallel.isWorkStealing());
+
+            for (int step = 0; step < 50; step++) {
+                Parameter parameter = parameters.get(step % parameters.size());
+                parameter.setParameterValue(0, parameter.getParameterValue(0) * 0.9 + 0.1 * step);
+
+                assertEquals(serial.getLogLikelihood(), parallel.getLogLikelihood(), 1E-10);
+            }
+
+            int[] counts = parallel.getEvaluationCounts();
+            for (int count : counts) {
+                assertEquals(50, count);
+            }
+        } finally {
+            System.clearProperty("thread.cheap.threshold.nanos");
+        }
+    }
+}
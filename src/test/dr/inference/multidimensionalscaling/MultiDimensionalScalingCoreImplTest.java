@@ -0,0 +1,167 @@
+/*
+ * MultiDimensionalScalingCoreImplTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.multidimensionalscaling;
+
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCore;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCoreImpl;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks that the Java MDS core gives the same results with threads, that incremental updates and restores
+ * match a full re-computation, and its gradient against finite differences.
+ */
+public class MultiDimensionalScalingCoreImplTest extends TestCase {
+
+    private static final int DIMENSION = 2;
+    private static final int COUNT = 200;
+    private static final double PRECISION = 1.5;
+
+    private double[] locations;
+    private double[] observations;
+
+    public MultiDimensionalScalingCoreImplTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        locations = new double[COUNT * DIMENSION];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = MathUtils.nextDouble() * 10.0;
+        }
+        observations = new double[COUNT * COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            for (int j = i + 1; j < COUNT; j++) {
+                double value = MathUtils.nextDouble() * 10.0;
+                observations[i * COUNT + j] = value;
+                observations[j * COUNT + i] = value;
+            }
+        }
+    }
+
+    private MultiDimensionalScalingCore createCore(int threads, boolean truncated) {
+        MultiDimensionalScalingCore core = new MultiDimensionalScalingCoreImpl(threads);
+        core.initialize(DIMENSION, COUNT, truncated ? MultiDimensionalScalingCore.LEFT_TRUNCATION : 0);
+        core.setParameters(new double[] { PRECISION });
+        core.setPairwiseData(observations);
+        core.updateLocation(-1, locations);
+        core.makeDirty();
+        return core;
+    }
+
+    public void testThreads() {
+        for (boolean truncated : new boolean[] { false, true }) {
+            MultiDimensionalScalingCore serial = createCore(1, truncated);
+            MultiDimensionalScalingCore parallel = createCore(4, truncated);
+
+            assertEquals(serial.calculateLogLikelihood(), parallel.calculateLogLikelihood(), 1E-8);
+
+            double[] serialGradient = new double[locations.length];
+            double[] parallelGradient = new double[locations.length];
+            serial.getGradient(serialGradient);
+            parallel.getGradient(parallelGradient);
+            for (int i = 0; i < locations.length; i++) {
+                assertEquals(serialGradient[i], parallelGradient[i], 1E-10);
+            }
+        }
+    }
+
+    public void testIncrementalUpdates() {
+        MultiDimensionalScalingCore core = createCore(4, true);
+        double[] current = locations.clone();
+
+        double logLikelihood = core.calculateLogLikelihood();
+
+        for (int step = 0; step < 50; step++) {
+            int index = MathUtils.nextInt(COUNT);
+            double[] location = new double[DIMENSION];
+            for (int k = 0; k < DIMENSION; k++) {
+                location[k] = current[index * DIMENSION + k] + MathUtils.nextGaussian();
+            }
+
+            core.storeState();
+            core.updateLocation(index, location);
+            double proposed = core.calculateLogLikelihood();
+
+            double[] moved = current.clone();
+            System.arraycopy(location, 0, moved, index * DIMENSION, DIMENSION);
+            assertEquals(fullLogLikelihood(moved, true), proposed, 1E-8);
+
+            if (step % 2 == 0) {
+                core.acceptState();
+                current = moved;
+                logLikelihood = proposed;
+            } else {
+                core.restoreState();
+                assertEquals(logLikelihood, core.calculateLogLikelihood(), 1E-8);
+            }
+        }
+
+        core.makeDirty();
+        assertEquals(logLikelihood, core.calculateLogLikelihood(), 1E-8);
+    }
+
+    public void testGradient() {
+        for (boolean truncated : new boolean[] { false, true }) {
+            MultiDimensionalScalingCore core = createCore(4, truncated);
+
+            double[] gradient = new double[locations.length];
+            core.getGradient(gradient);
+
+            final double h = 1E-6;
+            for (int i = 0; i < locations.length; i += 37) {
+                double[] plus = locations.clone();
+                plus[i] += h;
+                double[] minus = locations.clone();
+                minus[i] -= h;
+                double numeric = (fullLogLikelihood(plus, truncated) - fullLogLikelihood(minus, truncated)) / (2 * h);
+                assertEquals(numeric, gradient[i], 1E-4 * Math.max(1.0, Math.abs(numeric)));
+            }
+        }
+    }
+
+    private double fullLogLikelihood(double[] locations, boolean truncated) {
+        MultiDimensionalScalingCore core = new MultiDimensionalScalingCoreImpl(1);
+        core.initialize(DIMENSION, COUNT, truncated ? MultiDimensionalScalingCore.LEFT_TRUNCATION : 0);
+        core.setParameters(new double[] { PRECISION });
+        core.setPairwiseData(observations);
+        core.updateLocation(-1, locations);
+        core.makeDirty();
+        return core.calculateLogLikelihood();
+    }
+
+    public static Test suite() {
+        return new TestSuite(MultiDimensionalScalingCoreImplTest.class);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * NoUTurnOperatorTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.operators;
+
+import dr.inference.distribution.MultivariateDistributionLikelihood;
+import dr.inference.hmc.GradientWrtParameterProvider;
+import dr.inference.hmc.ReversibleHMCProvider;
+import dr.inference.model.Parameter;
+import dr.inference.operators.hmc.NoUTurnOperator;
+import dr.math.MathUtils;
+import dr.math.distributions.MultivariateNormalDistribution;
+import dr.math.matrixAlgebra.ReadableVector;
+import dr.math.matrixAlgebra.WrappedVector;
+import dr.util.Transform;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Samples a correlated bivariate normal with the No-U-Turn operator, using both the slice and the multinomial
+ * trajectory sampling, and checks the sample means and (co)variances against the target.
+ */
+public class NoUTurnOperatorTest extends TestCase {
+
+    private static final double[] MEAN = {1.0, -2.0};
+    private static final double[][] VARIANCE = {
+            {1.0, 0.8},
+            {0.8, 2.0}
+    };
+
+    // large enough for the integration error to make the choice of state within each trajectory matter
+    private static final double STEP_SIZE = 1.0;
+    private static final int BURN_IN = 1000;
+    private static final int SAMPLE_COUNT = 20000;
+    private static final double TOLERANCE = 0.1;
+
+    public NoUTurnOperatorTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+    }
+
+    public void testSliceSampling() {
+        checkMoments(false);
+    }
+
+    public void testMultinomialSampling() {
+        checkMoments(true);
+    }
+
+    private void checkMoments(boolean multinomialSampling) {
+        Parameter parameter = new Parameter.Default("x", new double[]{0.0, 0.0});
+        NoUTurnOperator operator = new NoUTurnOperator(new NormalHMCProvider(parameter), false, 0,
+                multinomialSampling, 1.0);
+
+        for (int i = 0; i < BURN_IN; i++) {
+            operator.doOperation();
+        }
+
+        double[] sum = new double[2];
+        double[][] sumOfProducts = new double[2][2];
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            operator.doOperation();
+
+            double[] x = parameter.getParameterValues();
+            for (int j = 0; j < 2; j++) {
+                sum[j] += x[j];
+                for (int k = 0; k < 2; k++) {
+                    sumOfProducts[j][k] += x[j] * x[k];
+                }
+            }
+        }
+
+        for (int j = 0; j < 2; j++) {
+            final double mean = sum[j] / SAMPLE_COUNT;
+            assertEquals("mean " + j, MEAN[j], mean, TOLERANCE);
+
+            for (int k = 0; k < 2; k++) {
+                final double covariance = sumOfProducts[j][k] / SAMPLE_COUNT - mean * sum[k] / SAMPLE_COUNT;
+                assertEquals("covariance " + j + "," + k, VARIANCE[j][k], covariance, TOLERANCE);
+            }
+        }
+    }
+
+    /**
+     * Hamiltonian dynamics for a normal target with an identity mass matrix.
+     */
+    private static class NormalHMCProvider implements ReversibleHMCProvider {
+
+        NormalHMCProvider(Parameter parameter) {
+            this.parameter = parameter;
+
+            final double determinant = VARIANCE[0][0] * VARIANCE[1][1] - VARIANCE[0][1] * VARIANCE[1][0];
+            double[][] precision = new double[][]{
+                    {VARIANCE[1][1] / determinant, -VARIANCE[0][1] / determinant},
+                    {-VARIANCE[1][0] / determinant, VARIANCE[0][0] / determinant}
+            };
+            distribution = new MultivariateNormalDistribution(MEAN, precision);
+
+            MultivariateDistributionLikelihood likelihood = new MultivariateDistributionLikelihood("target",
+                    distribution);
+            likelihood.addData(parameter);
+            gradientProvider = new GradientWrtParameterProvider.ParameterWrapper(distribution, parameter, likelihood);
+        }
+
+        @Override
+        public void reversiblePositionMomentumUpdate(WrappedVector position, WrappedVector momentum,
+                                                     WrappedVector gradient, int direction, double time) {
+            final double step = time * direction;
+            for (int i = 0; i < position.getDim(); i++) {
+                momentum.set(i, momentum.get(i) + 0.5 * step * gradient.get(i));
+                position.set(i, position.get(i) + step * momentum.get(i));
+            }
+
+            setParameter(position.getBuffer());
+            double[] newGradient = gradientProvider.getGradientLogDensity();
+
+            for (int i = 0; i < position.getDim(); i++) {
+                gradient.set(i, newGradient[i]);
+                momentum.set(i, momentum.get(i) + 0.5 * step * newGradient[i]);
+            }
+        }
+
+        @Override
+        public void providerUpdatePreconditioning() {
+        }
+
+        @Override
+        public double[] getInitialPosition() {
+            return parameter.getParameterValues();
+        }
+
+        @Override
+        public double getParameterLogJacobian() {
+            return 0.0;
+        }
+
+        @Override
+        public int getNumGradientEvent() {
+            return 0;
+        }
+
+        @Override
+        public int getNumBoundaryEvent() {
+            return 0;
+        }
+
+        @Override
+        public double[] getMask() {
+            return null;
+        }
+
+        @Override
+        public Transform getTransform() {
+            return null;
+        }
+
+        @Override
+        public GradientWrtParameterProvider getGradientProvider() {
+            return gradientProvider;
+        }
+
+        @Override
+        public void setParameter(double[] position) {
+            for (int i = 0; i < position.length; i++) {
+                parameter.setParameterValue(i, position[i]);
+            }
+        }
+
+        @Override
+        public WrappedVector drawMomentum() {
+            double[] momentum = new double[parameter.getDimension()];
+            for (int i = 0; i < momentum.length; i++) {
+                momentum[i] = MathUtils.nextGaussian();
+            }
+            return new WrappedVector.Raw(momentum);
+        }
+
+        @Override
+        public double getJointProbability(WrappedVector momentum) {
+            return getLogLikelihood() - getKineticEnergy(momentum);
+        }
+
+        @Override
+        public double getLogLikelihood() {
+            return distribution.logPdf(parameter.getParameterValues());
+        }
+
+        @Override
+        public double getKineticEnergy(ReadableVector momentum) {
+            double energy = 0.0;
+            for (int i = 0; i < momentum.getDim(); i++) {
+                energy += momentum.get(i) * momentum.get(i);
+            }
+            return energy / 2.0;
+        }
+
+        @Override
+        public double getStepSize() {
+            return STEP_SIZE;
+        }
+
+        private final Parameter parameter;
+        private final MultivariateNormalDistribution distribution;
+        private final GradientWrtParameterProvider gradientProvider;
+    }
+
+    public static Test suite() {
+        return new TestSuite(NoUTurnOperatorTest.class);
+    }
+}
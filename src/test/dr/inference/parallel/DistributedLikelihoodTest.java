@@ -0,0 +1,179 @@
+/*
+ * DistributedLikelihoodTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.parallel;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.MutableTreeModel;
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.tree.DefaultTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.*;
+import dr.inference.operators.UniformOperator;
+import dr.inference.parallel.DistributedLikelihood;
+import dr.inference.parallel.LikelihoodServer;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a likelihood server on localhost and checks a distributed likelihood always matches the same
+ * likelihood calculated locally through tree moves, parameter changes, stores and restores.
+ */
+public class DistributedLikelihoodTest extends TestCase {
+
+    public DistributedLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void testDistributedLikelihood() throws Exception {
+        MathUtils.setSeed(666);
+
+        DefaultTreeModel tree = new DefaultTreeModel("tree",
+                new NewickImporter("((A:1,B:1):1,(C:0.5,(D:0.2,E:0.2):0.3):1.5);").importTree(null));
+        Parameter rates = new Parameter.Default("rates", new double[] { 1.0, 2.0 });
+
+        // the worker's copy starts with a different tree and taxon order
+        TreeModel workerTree = new DefaultTreeModel("tree",
+                new NewickImporter("((E:1,D:1):1,((C:0.2,B:0.2):0.3,A:0.5):1.5);").importTree(null));
+        Parameter workerRates = new Parameter.Default("rates", new double[] { 0.0, 0.0 });
+
+        LikelihoodServer server = new LikelihoodServer(0,
+                Collections.<Parameter>singletonList(workerRates),
+                Collections.<MutableTreeModel>singletonList(workerTree),
+                Collections.<Likelihood>singletonList(new TestLikelihood(workerTree, workerRates)));
+        Thread serverThread = new Thread(server);
+        serverThread.start();
+
+        List<DistributedLikelihood.Worker> workers = new ArrayList<DistributedLikelihood.Worker>();
+        workers.add(new DistributedLikelihood.Worker("localhost", server.getPort(),
+                Collections.<Parameter>singletonList(rates),
+                Collections.<MutableTreeModel>singletonList(tree)));
+        DistributedLikelihood distributed = new DistributedLikelihood(workers);
+        TestLikelihood local = new TestLikelihood(tree, rates);
+
+        CompoundLikelihood posterior = new CompoundLikelihood(Arrays.<Likelihood>asList(distributed, local));
+        Model model = posterior.getModel();
+
+        ExchangeOperator exchange = new ExchangeOperator(ExchangeOperator.NARROW, tree, 1.0);
+        UniformOperator heights = new UniformOperator(tree.createNodeHeightsParameter(false, true, false), 1.0);
+
+        assertEquals(local.getLogLikelihood(), distributed.getLogLikelihood(), 1E-10);
+
+        for (int i = 0; i < 500; i++) {
+            model.storeModelState();
+
+            double u = MathUtils.nextDouble();
+            if (u < 0.3) {
+                exchange.doOperation();
+            } else if (u < 0.6) {
+                heights.doOperation();
+            } else if (u < 0.9) {
+                rates.setParameterValue(MathUtils.nextInt(2), MathUtils.nextDouble());
+            } else {
+                posterior.makeDirty();
+            }
+
+            assertEquals("step " + i, local.getLogLikelihood(), distributed.getLogLikelihood(), 1E-10);
+
+            if (MathUtils.nextBoolean()) {
+                model.acceptModelState();
+            } else {
+                model.restoreModelState();
+                assertEquals("restored step " + i, local.getLogLikelihood(), distributed.getLogLikelihood(), 1E-10);
+            }
+        }
+
+        distributed.terminate();
+        serverThread.join(10000);
+        assertFalse("server stopped", serverThread.isAlive());
+    }
+
+    /**
+     * Depends on the topology, the node heights and the taxa at the tips.
+     */
+    private static class TestLikelihood extends AbstractModelLikelihood {
+        TestLikelihood(TreeModel tree, Parameter rates) {
+            super("testLikelihood");
+            this.tree = tree;
+            this.rates = rates;
+            addModel(tree);
+            addVariable(rates);
+        }
+
+        public Model getModel() {
+            return this;
+        }
+
+        public double getLogLikelihood() {
+            double logL = 0.0;
+            for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+                NodeRef node = tree.getExternalNode(i);
+                String taxon = tree.getNodeTaxon(node).getId();
+                double sisterHeight = tree.getNodeHeight(tree.getParent(node));
+                logL += (taxon.charAt(0) - 'A' + 1) * rates.getParameterValue(0) * sisterHeight;
+            }
+            for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+                double height = tree.getNodeHeight(tree.getInternalNode(i));
+                logL -= rates.getParameterValue(1) * height * height;
+            }
+            return logL;
+        }
+
+        public void makeDirty() {
+        }
+
+        protected void handleModelChangedEvent(Model model, Object object, int index) {
+        }
+
+        protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        }
+
+        protected void storeState() {
+        }
+
+        protected void restoreState() {
+        }
+
+        protected void acceptState() {
+        }
+
+        private final TreeModel tree;
+        private final Parameter rates;
+    }
+
+    public static Test suite() {
+        return new TestSuite(DistributedLikelihoodTest.class);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * SMCTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.smc;
+
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.model.*;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.inference.smc.SMC;
+import dr.inference.smc.SMCOptions;
+import dr.inference.state.Factory;
+import dr.inference.state.StateLoader;
+import dr.inference.state.StateLoaderSaver;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import test.dr.math.MathTestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SMCTest extends MathTestCase {
+
+    private static final int PARTICLE_COUNT = 4;
+
+    public SMCTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        Factory.INSTANCE = new MemoryFactory();
+    }
+
+    public void tearDown() throws Exception {
+        Factory.INSTANCE = null;
+
+        super.tearDown();
+    }
+
+    public void testESS() {
+        assertEquals(4.0, SMC.getESS(new double[] { 0.0, 0.0, 0.0, 0.0 }), 1E-12);
+        assertEquals(4.0, SMC.getESS(new double[] { -1000.0, -1000.0, -1000.0, -1000.0 }), 1E-12);
+        assertEquals(1.0, SMC.getESS(new double[] { 0.0, -1000.0, -1000.0, -1000.0 }), 1E-12);
+
+        // weights 1, 2, 1: (1 + 2 + 1)^2 / (1 + 4 + 1)
+        assertEquals(16.0 / 6.0, SMC.getESS(new double[] { 0.0, Math.log(2.0), 0.0 }), 1E-12);
+    }
+
+    public void testResample() {
+        MathUtils.setSeed(666);
+
+        // equal weights keep every particle once
+        int[] parents = SMC.resample(new double[] { 5.0, 5.0, 5.0, 5.0, 5.0 });
+        for (int i = 0; i < parents.length; i++) {
+            assertEquals(i, parents[i]);
+        }
+
+        // a single particle with all the weight takes over
+        parents = SMC.resample(new double[] { -1000.0, 0.0, -1000.0 });
+        for (int parent : parents) {
+            assertEquals(1, parent);
+        }
+
+        // systematic resampling copies each particle within one of its expected number of times
+        double[] weights = { 0.1, 0.4, 0.2, 0.3 };
+        double[] logWeights = new double[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            logWeights[i] = Math.log(weights[i]);
+        }
+        int count = 100;
+        double[] repeated = new double[count];
+        for (int i = 0; i < count; i++) {
+            repeated[i] = logWeights[i % weights.length];
+        }
+        for (int rep = 0; rep < 100; rep++) {
+            int[] copies = new int[count];
+            int previous = 0;
+            for (int parent : SMC.resample(repeated)) {
+                assertTrue(parent >= previous);
+                previous = parent;
+                copies[parent]++;
+            }
+            for (int i = 0; i < count; i++) {
+                double expected = count * weights[i % weights.length] / (count / weights.length);
+                assertTrue(Math.abs(copies[i] - expected) < 1.0);
+            }
+        }
+    }
+
+    public void testChainResampledSerial() {
+        checkChainResampled(1);
+    }
+
+    public void testChainResampledParallel() {
+        checkChainResampled(PARTICLE_COUNT);
+    }
+
+    /**
+     * Particle i starts at x = 10 * i and each move adds one to x. The first two particles have all the
+     * weight so resampling gives the parents {0, 0, 1, 1}: particle 1 is moved from particle 0 and is
+     * itself the parent of particles 2 and 3, so they must start from its state before it was moved.
+     */
+    private void checkChainResampled(int workerCount) {
+        List<StateLoaderSaver> particles = new ArrayList<StateLoaderSaver>();
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            particles.add(new MemoryParticle(10.0 * i, i < 2 ? 0.0 : 1000.0));
+        }
+
+        SMC[] workers = new SMC[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            Parameter x = new Parameter.Default("x", 0.0);
+            SimpleOperatorSchedule schedule = new SimpleOperatorSchedule();
+            schedule.addOperator(new IncrementOperator(x));
+
+            workers[i] = new SMC("smc", particles);
+            workers[i].init(new SMCOptions(1, 0.9), new ParameterLikelihood(x), schedule, null);
+        }
+        workers[0].setWorkers(workers);
+
+        MathUtils.setSeed(666);
+        workers[0].chain();
+
+        int[] parents = { 0, 0, 1, 1 };
+        for (int i = 0; i < PARTICLE_COUNT; i++) {
+            assertEquals("particle " + i, 10.0 * parents[i] + 1.0, ((MemoryParticle) particles.get(i)).x, 0.0);
+        }
+    }
+
+    /**
+     * Holds one particle's value of x, and the posterior it was saved with, in memory.
+     */
+    private static class MemoryParticle implements StateLoaderSaver {
+        MemoryParticle(double x, double lnL) {
+            this.x = x;
+            this.lnL = lnL;
+        }
+
+        public long loadState(MarkovChain markovChain, double[] savedLnL) {
+            ((ParameterLikelihood) markovChain.getLikelihood()).x.setParameterValue(0, x);
+            savedLnL[0] = lnL;
+            return 0;
+        }
+
+        public void checkLoadState(double savedLnL, double lnL) {
+        }
+
+        public boolean saveState(MarkovChain markovChain, long state, double lnL) {
+            this.x = ((ParameterLikelihood) markovChain.getLikelihood()).x.getParameterValue(0);
+            this.lnL = lnL;
+            return true;
+        }
+
+        private double x;
+        private double lnL;
+    }
+
+    private static class MemoryFactory extends Factory {
+        public StateLoader getInitialStateLoader() {
+            return null;
+        }
+
+        public MarkovChainListener[] getStateSaverChainListeners() {
+            return new MarkovChainListener[0];
+        }
+
+        public StateLoaderSaver getStateLoaderSaver(File loadFile, File saveFile) {
+            return new MemoryParticle(Double.NaN, Double.NaN);
+        }
+    }
+
+    /**
+     * A flat likelihood over a model holding x.
+     */
+    private static class ParameterLikelihood extends DummyLikelihood {
+        ParameterLikelihood(final Parameter x) {
+            super(new AbstractModel("model") {
+                {
+                    addVariable(x);
+                }
+
+                protected void handleModelChangedEvent(Model model, Object object, int index) {
+                }
+
+                protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+                    fireModelChanged();
+                }
+
+                protected void storeState() {
+                }
+
+                protected void restoreState() {
+                }
+
+                protected void acceptState() {
+                }
+            });
+            this.x = x;
+        }
+
+        private final Parameter x;
+    }
+
+    /**
+     * Adds one to x, so each move is deterministic and always accepted.
+     */
+    private static class IncrementOperator extends SimpleMCMCOperator {
+        IncrementOperator(Parameter x) {
+            this.x = x;
+            setWeight(1.0);
+        }
+
+        public String getOperatorName() {
+            return "increment";
+        }
+
+        public double doOperation() {
+            x.setParameterValue(0, x.getParameterValue(0) + 1.0);
+            return 0.0;
+        }
+
+        private final Parameter x;
+    }
+
+    public static Test suite() {
+        return new TestSuite(SMCTest.class);
+    }
+}
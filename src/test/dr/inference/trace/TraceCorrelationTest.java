@@ -0,0 +1,129 @@
+/*
+ * TraceCorrelationTest.java
+ *
+ * Copyright © 2002-2024 the BEAST Development Team
+ * http://beast.community/about
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ *
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceType;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import test.dr.math.MathTestCase;
+
+import java.util.List;
+
+public class TraceCorrelationTest extends MathTestCase {
+
+    public TraceCorrelationTest(String name) {
+        super(name);
+    }
+
+    public void testCorrelation() {
+        MathUtils.setSeed(666);
+
+        // from uncorrelated to strongly correlated so both the direct and FFT lags are used
+        for (double phi : new double[] { 0.0, 0.5, 0.9, 0.99, 0.999 }) {
+            for (int n : new int[] { 50, 1000, 20000 }) {
+                double[] values = new double[n];
+                double x = 0.0;
+                for (int i = 0; i < n; i++) {
+                    x = phi * x + MathUtils.nextGaussian();
+                    values[i] = x;
+                }
+
+                TraceCorrelation correlation = new TraceCorrelation(values, TraceType.REAL, 1000, false);
+                double[] expected = directCorrelation(values, correlation.getMean(), 1000);
+
+                String message = "phi = " + phi + ", n = " + n;
+                assertEquals(message, expected[0], correlation.getStdErrorOfMean(), 1E-10 * expected[0]);
+                assertEquals(message, expected[1], correlation.getACT(), 1E-10 * expected[1]);
+                assertEquals(message, expected[2], correlation.getESS(), 1E-10 * expected[2]);
+            }
+        }
+    }
+
+    public void testTraceValues() {
+        Trace trace = new Trace("test");
+        for (int i = 0; i < 5000; i++) {
+            trace.add((double) i);
+        }
+        assertEquals(5000, trace.getValueCount());
+        assertEquals(4999.0, trace.getValue(4999));
+
+        List<Double> values = trace.getValues(100, 200);
+        assertEquals(100, values.size());
+        assertEquals(100.0, values.get(0));
+        assertEquals(199.0, values.get(99));
+
+        boolean[] filtered = new boolean[5000];
+        for (int i = 0; i < filtered.length; i += 2) {
+            filtered[i] = true;
+        }
+        double[] selected = trace.getValueArray(100, 200, filtered);
+        assertEquals(50, selected.length);
+        assertEquals(101.0, selected[0]);
+        assertEquals(199.0, selected[49]);
+        assertEquals(trace.getValues(100, 200, filtered).get(49), selected[49]);
+    }
+
+    /**
+     * The autocorrelation done directly one lag at a time.
+     * @return the standard error of the mean, ACT and ESS
+     */
+    private static double[] directCorrelation(double[] values, double mean, long stepSize) {
+        final int samples = values.length;
+        int maxLag = Math.min(samples - 1, 2000);
+
+        double[] gammaStat = new double[maxLag];
+        double varStat = 0.0;
+
+        for (int lag = 0; lag < maxLag; lag++) {
+            for (int j = 0; j < samples - lag; j++) {
+                gammaStat[lag] += (values[j] - mean) * (values[j + lag] - mean);
+            }
+            gammaStat[lag] /= ((double) (samples - lag));
+
+            if (lag == 0) {
+                varStat = gammaStat[0];
+            } else if (lag % 2 == 0) {
+                if (gammaStat[lag - 1] + gammaStat[lag] > 0) {
+                    varStat += 2.0 * (gammaStat[lag - 1] + gammaStat[lag]);
+                } else {
+                    maxLag = lag;
+                }
+            }
+        }
+
+        double act = stepSize * varStat / gammaStat[0];
+        return new double[] { Math.sqrt(varStat / samples), act, (stepSize * samples) / act };
+    }
+
+    public static Test suite() {
+        return new TestSuite(TraceCorrelationTest.class);
+    }
+}